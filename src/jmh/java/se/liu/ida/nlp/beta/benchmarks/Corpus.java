@@ -0,0 +1,95 @@
+/*
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package se.liu.ida.nlp.beta.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import se.liu.ida.nlp.beta.Model;
+import se.liu.ida.nlp.beta.ModelExtractor;
+import se.liu.ida.nlp.beta.Parser;
+import se.liu.ida.nlp.beta.Trainer;
+import se.liu.ida.nlp.beta.conll.CoNLLReader;
+import se.liu.ida.nlp.beta.conll.CoNLLTree;
+
+/**
+ * The benchmark inputs: a model and the test sentences of one length bucket.
+ *
+ * <p>The model is trained (one iteration over the training data) the first
+ * time it is needed and stored in {@link #MODEL_FILE}, from where it is
+ * loaded in later runs. The data are read from the directory given by the
+ * system property {@code beta.data}, by default {@code data}.
+ *
+ * @author Marco Kuhlmann <marco.kuhlmann@lingfil.uu.se>
+ */
+@State(Scope.Benchmark)
+public class Corpus {
+
+	public static final String DATA_DIR = System.getProperty("beta.data", "data");
+	public static final String TRAIN_FILE = DATA_DIR + "/talbanken-dep-train.conll";
+	public static final String TEST_FILE = DATA_DIR + "/talbanken-dep-test.conll";
+	public static final String MODEL_FILE = System.getProperty("beta.model", "build/jmh/MODEL");
+
+	/**
+	 * The length bucket, given as the minimal and maximal number of tokens.
+	 */
+	@Param({"1-10", "11-20", "21-40", "41-"})
+	public String length;
+	public Model model;
+	public List<CoNLLTree> trees;
+
+	@Setup
+	public void setup() throws IOException {
+		model = getModel();
+		String[] bounds = length.split("-", -1);
+		int min = Integer.parseInt(bounds[0]);
+		int max = bounds[1].isEmpty() ? Integer.MAX_VALUE : Integer.parseInt(bounds[1]);
+		trees = new ArrayList<>();
+		for (CoNLLTree tree : readTrees(TEST_FILE)) {
+			int nTokens = tree.getNNodes() - 1;
+			if (nTokens >= min && nTokens <= max) {
+				trees.add(tree);
+			}
+		}
+	}
+
+	public static List<CoNLLTree> readTrees(String fileName) throws IOException {
+		List<CoNLLTree> trees = new ArrayList<>();
+		CoNLLReader reader = new CoNLLReader(fileName);
+		try {
+			CoNLLTree tree;
+			while ((tree = reader.read()) != null) {
+				trees.add(tree);
+			}
+		} finally {
+			reader.close();
+		}
+		return trees;
+	}
+
+	public static synchronized Model getModel() throws IOException {
+		File modelFile = new File(MODEL_FILE);
+		if (!modelFile.exists()) {
+			List<CoNLLTree> trainTrees = readTrees(TRAIN_FILE);
+			ModelExtractor extractor = new ModelExtractor();
+			for (CoNLLTree tree : trainTrees) {
+				extractor.next(tree);
+			}
+			Model model = extractor.getModel();
+			Trainer trainer = new Trainer(model, new Parser(model));
+			for (CoNLLTree tree : trainTrees) {
+				trainer.update(tree);
+			}
+			trainer.averageWeightVector();
+			modelFile.getAbsoluteFile().getParentFile().mkdirs();
+			model.save(MODEL_FILE);
+		}
+		return Model.load(MODEL_FILE);
+	}
+}
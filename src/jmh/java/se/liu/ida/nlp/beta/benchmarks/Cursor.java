@@ -0,0 +1,26 @@
+/*
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package se.liu.ida.nlp.beta.benchmarks;
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import se.liu.ida.nlp.beta.conll.CoNLLTree;
+
+/**
+ * A per-thread position in a corpus. Every benchmark invocation processes the
+ * next sentence of the length bucket, cycling through all of them.
+ *
+ * @author Marco Kuhlmann <marco.kuhlmann@lingfil.uu.se>
+ */
+@State(Scope.Thread)
+public class Cursor {
+
+	private int position;
+
+	public CoNLLTree next(Corpus corpus) {
+		CoNLLTree tree = corpus.trees.get(position);
+		position = (position + 1) % corpus.trees.size();
+		return tree;
+	}
+}
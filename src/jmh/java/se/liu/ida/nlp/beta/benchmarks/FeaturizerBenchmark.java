@@ -0,0 +1,68 @@
+/*
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package se.liu.ida.nlp.beta.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import se.liu.ida.nlp.beta.EdgeFeaturizer;
+import se.liu.ida.nlp.beta.EdgeScorer;
+import se.liu.ida.nlp.beta.FeatureHandler;
+import se.liu.ida.nlp.beta.conll.CoNLLTree;
+
+/**
+ * Benchmarks for featurization and arc scoring. Every invocation featurizes
+ * or scores all arcs of one sentence.
+ *
+ * @author Marco Kuhlmann <marco.kuhlmann@lingfil.uu.se>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FeaturizerBenchmark {
+
+	@Benchmark
+	public void featurizeCore(Corpus corpus, Cursor cursor, Blackhole blackhole) {
+		CoNLLTree tree = cursor.next(corpus);
+		EdgeFeaturizer featurizer = new EdgeFeaturizer(corpus.model, tree);
+		FeatureHandler handler = blackhole::consume;
+		int nNodes = tree.getNNodes();
+		for (int fst = 0; fst < nNodes; fst++) {
+			for (int snd = fst + 1; snd < nNodes; snd++) {
+				featurizer.featurizeCore(fst, snd, true, handler);
+				featurizer.featurizeCore(fst, snd, false, handler);
+			}
+		}
+	}
+
+	@Benchmark
+	public void featurizeLabeled(Corpus corpus, Cursor cursor, Blackhole blackhole) {
+		CoNLLTree tree = cursor.next(corpus);
+		EdgeFeaturizer featurizer = new EdgeFeaturizer(corpus.model, tree);
+		FeatureHandler handler = blackhole::consume;
+		int nNodes = tree.getNNodes();
+		int nLabels = corpus.model.getNDeprels();
+		for (int node = 0; node < nNodes; node++) {
+			for (int label = 0; label < nLabels; label++) {
+				featurizer.featurizeLabeled(node, label, true, true, handler);
+				featurizer.featurizeLabeled(node, label, true, false, handler);
+				featurizer.featurizeLabeled(node, label, false, true, handler);
+				featurizer.featurizeLabeled(node, label, false, false, handler);
+			}
+		}
+	}
+
+	@Benchmark
+	public EdgeScorer score(Corpus corpus, Cursor cursor) {
+		return new EdgeScorer(corpus.model, cursor.next(corpus));
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package se.liu.ida.nlp.beta.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import se.liu.ida.nlp.beta.Model;
+import se.liu.ida.nlp.beta.conll.CoNLLReader;
+import se.liu.ida.nlp.beta.conll.CoNLLTree;
+import se.liu.ida.nlp.beta.conll.CoNLLWriter;
+
+/**
+ * Benchmarks for reading and writing trees, and for loading the model. The
+ * reading and writing benchmarks process the complete test data from and to
+ * memory.
+ *
+ * @author Marco Kuhlmann <marco.kuhlmann@lingfil.uu.se>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IOBenchmark {
+
+	/**
+	 * The test data, as text and as trees.
+	 */
+	@State(Scope.Benchmark)
+	public static class Data {
+
+		public String text;
+		public List<CoNLLTree> trees;
+
+		@Setup
+		public void setup() throws IOException {
+			trees = Corpus.readTrees(Corpus.TEST_FILE);
+			StringWriter sw = new StringWriter();
+			CoNLLWriter writer = new CoNLLWriter(sw);
+			for (CoNLLTree tree : trees) {
+				writer.write(tree);
+			}
+			writer.flush();
+			text = sw.toString();
+			Corpus.getModel();
+		}
+	}
+
+	@Benchmark
+	public void read(Data data, Blackhole blackhole) throws IOException {
+		CoNLLReader reader = new CoNLLReader(new StringReader(data.text));
+		CoNLLTree tree;
+		while ((tree = reader.read()) != null) {
+			blackhole.consume(tree);
+		}
+	}
+
+	@Benchmark
+	public void write(Data data) throws IOException {
+		CoNLLWriter writer = new CoNLLWriter(new NullOutputStream());
+		for (CoNLLTree tree : data.trees) {
+			writer.write(tree);
+		}
+		writer.close();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 2)
+	@Measurement(iterations = 5)
+	public Model load() throws IOException {
+		return Model.load(Corpus.MODEL_FILE);
+	}
+
+	/**
+	 * An output stream that discards everything.
+	 */
+	private static class NullOutputStream extends OutputStream {
+
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	}
+}
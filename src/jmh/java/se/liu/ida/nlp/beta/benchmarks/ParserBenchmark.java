@@ -0,0 +1,73 @@
+/*
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package se.liu.ida.nlp.beta.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import se.liu.ida.nlp.beta.Model;
+import se.liu.ida.nlp.beta.Parser;
+import se.liu.ida.nlp.beta.Trainer;
+import se.liu.ida.nlp.beta.conll.CoNLLTree;
+
+/**
+ * Benchmarks for decoding and training. Every invocation parses or trains on
+ * one sentence.
+ *
+ * @author Marco Kuhlmann <marco.kuhlmann@lingfil.uu.se>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+	/**
+	 * A parser for the benchmark model.
+	 */
+	@State(Scope.Thread)
+	public static class ParserState {
+
+		public Parser parser;
+
+		@Setup
+		public void setup(Corpus corpus) {
+			parser = new Parser(corpus.model);
+		}
+	}
+
+	/**
+	 * A trainer with a weight vector of its own.
+	 */
+	@State(Scope.Thread)
+	public static class TrainerState {
+
+		public Trainer trainer;
+
+		@Setup
+		public void setup(Corpus corpus) {
+			Model model = new Model(corpus.model);
+			trainer = new Trainer(model, new Parser(model));
+		}
+	}
+
+	@Benchmark
+	public CoNLLTree getBestParse(Corpus corpus, Cursor cursor, ParserState state) {
+		return state.parser.getBestParse(new CoNLLTree(cursor.next(corpus)));
+	}
+
+	@Benchmark
+	public void update(Corpus corpus, Cursor cursor, TrainerState state) {
+		state.trainer.update(cursor.next(corpus));
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package se.liu.ida.nlp.beta;
+
+import java.io.Serializable;
+
+/**
+ * A dictionary of the maximal lengths of arcs.
+ *
+ * <p>For each combination of the tag of the head, the tag of the dependent,
+ * and the direction of the arc, the dictionary records the length of the
+ * longest such arc seen in the training data. An arc is allowed if it is not
+ * longer than that; arcs with a combination that was never seen are not
+ * allowed at all. Arcs from the root node and arcs that involve an unknown tag
+ * are always allowed, which guarantees that every sentence has at least one
+ * tree made up of allowed arcs.
+ *
+ * @author Marco Kuhlmann <marco.kuhlmann@lingfil.uu.se>
+ */
+public class ArcFilter implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+	/**
+	 * The maximal number of tags, as imposed by {@link EdgeFeaturizer}.
+	 */
+	private static final int MAX_TAGS = 256;
+	/**
+	 * The maximal lengths, indexed by head tag, dependent tag, and direction.
+	 */
+	private final int[] maxLengths;
+
+	/**
+	 * Creates a new dictionary in which no arcs are allowed except the arcs
+	 * from the root node.
+	 */
+	public ArcFilter() {
+		this.maxLengths = new int[MAX_TAGS * MAX_TAGS * 2];
+	}
+
+	private static int getIndex(int headTag, int depTag, int head, int dep) {
+		return (headTag * MAX_TAGS + depTag) * 2 + (head < dep ? 1 : 0);
+	}
+
+	/**
+	 * Records the specified arc.
+	 *
+	 * @param headTag the tag code of the head
+	 * @param depTag the tag code of the dependent
+	 * @param head the position of the head
+	 * @param dep the position of the dependent
+	 */
+	public void add(int headTag, int depTag, int head, int dep) {
+		int index = getIndex(headTag, depTag, head, dep);
+		maxLengths[index] = Math.max(maxLengths[index], Math.abs(head - dep));
+	}
+
+	/**
+	 * Tests whether the specified arc is allowed.
+	 *
+	 * @param headTag the tag code of the head, or -1 if the tag is unknown
+	 * @param depTag the tag code of the dependent, or -1 if the tag is unknown
+	 * @param head the position of the head
+	 * @param dep the position of the dependent
+	 * @return {@code true} if the specified arc is allowed
+	 */
+	public boolean isAllowed(int headTag, int depTag, int head, int dep) {
+		if (head == 0 || headTag < 0 || depTag < 0) {
+			return true;
+		}
+		return Math.abs(head - dep) <= maxLengths[getIndex(headTag, depTag, head, dep)];
+	}
+
+	/**
+	 * Returns the length of the longest arc seen with the specified tags and
+	 * direction.
+	 *
+	 * @param headTag the tag code of the head
+	 * @param depTag the tag code of the dependent
+	 * @param isRight whether the head is to the left of the dependent
+	 * @return the length of the longest such arc, or 0 if none was seen
+	 */
+	public int getMaxLength(int headTag, int depTag, boolean isRight) {
+		return maxLengths[(headTag * MAX_TAGS + depTag) * 2 + (isRight ? 1 : 0)];
+	}
+
+	/**
+	 * Returns the number of entries of this dictionary, for all tags and
+	 * directions.
+	 *
+	 * @return the number of entries of this dictionary
+	 */
+	int getNEntries() {
+		return maxLengths.length;
+	}
+}
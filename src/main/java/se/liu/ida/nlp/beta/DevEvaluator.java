@@ -0,0 +1,239 @@
+/*
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package se.liu.ida.nlp.beta;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import se.liu.ida.nlp.beta.conll.CoNLLTree;
+import se.liu.ida.nlp.beta.eval.Evaluation;
+import se.liu.ida.nlp.beta.eval.Evaluator;
+
+/**
+ * Evaluate snapshots of a model on development data in the background.
+ *
+ * <p>During training, a snapshot of the model with the averaged weights is
+ * submitted after every iteration. The snapshot is parsed and evaluated on a
+ * separate pool of threads while the next iteration continues. At most one
+ * snapshot is evaluated at a time: if the previous snapshot has not been
+ * evaluated when the next one is submitted, training waits for it, so that
+ * snapshots, each with a full copy of the weights, cannot pile up. The results
+ * are collected in the order of the iterations, and the evaluator keeps track
+ * of the snapshot with the highest labeled attachment score.
+ *
+ * @author Marco Kuhlmann <marco.kuhlmann@lingfil.uu.se>
+ */
+public class DevEvaluator implements AutoCloseable {
+
+	/**
+	 * The maximal number of snapshots that are submitted but not yet
+	 * evaluated.
+	 */
+	private static final int MAX_PENDING = 1;
+
+	/**
+	 * The development data, with the gold-standard heads and labels.
+	 */
+	private final List<CoNLLTree> gold;
+	/**
+	 * The development data, without heads and labels.
+	 */
+	private final List<CoNLLTree> input;
+	/**
+	 * The number of threads used for parsing.
+	 */
+	private final int nThreads;
+	/**
+	 * The thread that runs the evaluations, one after another.
+	 */
+	private final ExecutorService executor;
+	/**
+	 * The evaluations that have been submitted but not yet collected.
+	 */
+	private final Deque<Future<Result>> pending;
+	/**
+	 * The results that were collected while waiting to submit a snapshot,
+	 * but not yet returned.
+	 */
+	private final List<Result> collected;
+	/**
+	 * The best result collected so far, or {@code null}.
+	 */
+	private Result best;
+	/**
+	 * The last result collected so far, or {@code null}.
+	 */
+	private Result last;
+
+	/**
+	 * Creates a new evaluator for the specified development data.
+	 *
+	 * @param gold the development data
+	 * @param nThreads the number of threads used for parsing
+	 */
+	public DevEvaluator(List<CoNLLTree> gold, int nThreads) {
+		this.gold = gold;
+		this.input = new ArrayList<>(gold.size());
+		for (CoNLLTree tree : gold) {
+			input.add(tree.withoutDependencies(Model.UNKNOWN_LABEL));
+		}
+		this.nThreads = nThreads;
+		this.executor = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "beta-dev");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.pending = new ArrayDeque<>();
+		this.collected = new ArrayList<>();
+	}
+
+	/**
+	 * Submits a snapshot of the model for evaluation. The snapshot must not be
+	 * modified afterwards. If the previous snapshot is still being evaluated,
+	 * this waits for it to finish; its result is returned by the next call
+	 * to {@link #poll()} or {@link #awaitAll()}.
+	 *
+	 * @param iteration the number of the iteration after which the snapshot
+	 * was taken
+	 * @param snapshot the snapshot
+	 */
+	public void submit(int iteration, Model snapshot) {
+		while (pending.size() >= MAX_PENDING) {
+			collected.add(collect(pending.remove()));
+		}
+		pending.add(executor.submit(() -> {
+			long started = System.nanoTime();
+			List<CoNLLTree> parsed;
+			try (ParserService service = new ParserService(snapshot, nThreads)) {
+				parsed = service.parseAll(input);
+			}
+			Evaluation evaluation = new Evaluator().evaluate(gold, parsed);
+			return new Result(iteration, snapshot, evaluation, System.nanoTime() - started);
+		}));
+	}
+
+	/**
+	 * Collects the results of the evaluations that have finished, in the order
+	 * in which they were submitted, without waiting for the others.
+	 *
+	 * @return the collected results
+	 */
+	public List<Result> poll() {
+		List<Result> results = new ArrayList<>(collected);
+		collected.clear();
+		while (!pending.isEmpty() && pending.peek().isDone()) {
+			results.add(collect(pending.remove()));
+		}
+		return results;
+	}
+
+	/**
+	 * Waits for all evaluations to finish and collects their results, in the
+	 * order in which they were submitted.
+	 *
+	 * @return the collected results
+	 */
+	public List<Result> awaitAll() {
+		List<Result> results = new ArrayList<>(collected);
+		collected.clear();
+		while (!pending.isEmpty()) {
+			results.add(collect(pending.remove()));
+		}
+		return results;
+	}
+
+	private Result collect(Future<Result> future) {
+		Result result;
+		try {
+			result = future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IllegalStateException(cause);
+		}
+		last = result;
+		if (best == null || result.getEvaluation().getLAS() > best.getEvaluation().getLAS()) {
+			best = result;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the collected result with the highest labeled attachment score.
+	 * Of several such results, the earliest one is returned.
+	 *
+	 * @return the best result, or {@code null} if no result has been
+	 * collected yet
+	 */
+	public Result getBest() {
+		return best;
+	}
+
+	/**
+	 * Returns the number of collected results since the best result.
+	 *
+	 * @return the number of collected results since the best result
+	 */
+	public int getNIterationsWithoutImprovement() {
+		return best == null ? 0 : last.getIteration() - best.getIteration();
+	}
+
+	/**
+	 * Stops the evaluations that have not yet finished.
+	 */
+	@Override
+	public void close() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * The evaluation of a snapshot.
+	 */
+	public static class Result {
+
+		private final int iteration;
+		private final Model model;
+		private final Evaluation evaluation;
+		private final long nanos;
+
+		private Result(int iteration, Model model, Evaluation evaluation, long nanos) {
+			this.iteration = iteration;
+			this.model = model;
+			this.evaluation = evaluation;
+			this.nanos = nanos;
+		}
+
+		public int getIteration() {
+			return iteration;
+		}
+
+		public Model getModel() {
+			return model;
+		}
+
+		public Evaluation getEvaluation() {
+			return evaluation;
+		}
+
+		/**
+		 * Returns the time taken to parse and evaluate the snapshot, in
+		 * nanoseconds.
+		 *
+		 * @return the time taken to parse and evaluate the snapshot
+		 */
+		public long getTime() {
+			return nanos;
+		}
+	}
+}
@@ -6,6 +6,15 @@ package se.liu.ida.nlp.beta;
 import se.liu.ida.nlp.beta.conll.CoNLLTree;
 
 /**
+ * Generate the features of the arcs and labels of a sentence, as defined by
+ * the {@link FeatureTemplates} of a model.
+ *
+ * <p>When the featurizer is created, it computes the parts of the feature
+ * keys that come from each node of the sentence. The key of a feature of an
+ * arc is then put together from the parts for the nodes of the arc, and the
+ * key of a feature of a label from the part for the node and the label.
+ * The keys of wide arc templates are put together in the same way from two
+ * parts for the low and the high 64 bits, and then hashed.
  *
  * @author Marco Kuhlmann <marco.kuhlmann@lingfil.uu.se>
  */
@@ -22,6 +31,43 @@ public class EdgeFeaturizer {
 	private final int[] t;
 	private final int[] pred_t;
 	private final int[] succ_t;
+	private final FeatureTemplates.Group arcTemplates;
+	private final FeatureTemplates.Group wideArcTemplates;
+	private final FeatureTemplates.Group labelTemplates;
+	/**
+	 * The parts of the keys of the arc templates that come from the first
+	 * node, the second node, the source, and the target of an arc, indexed by
+	 * node and template. The parts for the first node include the template
+	 * id. The first and the second node have separate parts for arcs between
+	 * adjacent nodes, where the nodes between them are replaced by a special
+	 * tag.
+	 */
+	private final long[] fstParts;
+	private final long[] fstPartsAdjacent;
+	private final long[] sndParts;
+	private final long[] sndPartsAdjacent;
+	private final long[] srcParts;
+	private final long[] tgtParts;
+	/**
+	 * The parts of the keys of the wide arc templates, in the same way as
+	 * for the other arc templates, but with the low and the high 64 bits of
+	 * each part next to each other.
+	 */
+	private final long[] wideFstParts;
+	private final long[] wideFstPartsAdjacent;
+	private final long[] wideSndParts;
+	private final long[] wideSndPartsAdjacent;
+	private final long[] wideSrcParts;
+	private final long[] wideTgtParts;
+	/**
+	 * The keys of the label templates without the label and the suffix,
+	 * indexed by node and template.
+	 */
+	private final long[] nodeKeys;
+	/**
+	 * The features for a {@link FeatureHandler}.
+	 */
+	private long[] scratch;
 
 	private static int getNBits(long x) {
 		return (int) Math.ceil(Math.log(x) / Math.log(2));
@@ -61,6 +107,193 @@ public class EdgeFeaturizer {
 		for (int i = nNodes - 2; i >= 0; i--) {
 			succ_t[i] = t[i + 1];
 		}
+
+		FeatureTemplates templates = model.getFeatureTemplates();
+		this.arcTemplates = templates.getArcTemplates();
+		this.wideArcTemplates = templates.getWideArcTemplates();
+		this.labelTemplates = templates.getLabelTemplates();
+
+		int nArcTemplates = arcTemplates.ids.length;
+		this.fstParts = new long[nNodes * nArcTemplates];
+		this.fstPartsAdjacent = new long[nNodes * nArcTemplates];
+		this.sndParts = new long[nNodes * nArcTemplates];
+		this.sndPartsAdjacent = new long[nNodes * nArcTemplates];
+		this.srcParts = new long[nNodes * nArcTemplates];
+		this.tgtParts = new long[nNodes * nArcTemplates];
+		addArcParts(arcTemplates, fstParts, fstPartsAdjacent, sndParts, sndPartsAdjacent, srcParts, tgtParts);
+
+		int nWideArcTemplates = wideArcTemplates.ids.length;
+		this.wideFstParts = new long[2 * nNodes * nWideArcTemplates];
+		this.wideFstPartsAdjacent = new long[2 * nNodes * nWideArcTemplates];
+		this.wideSndParts = new long[2 * nNodes * nWideArcTemplates];
+		this.wideSndPartsAdjacent = new long[2 * nNodes * nWideArcTemplates];
+		this.wideSrcParts = new long[2 * nNodes * nWideArcTemplates];
+		this.wideTgtParts = new long[2 * nNodes * nWideArcTemplates];
+		addArcParts(wideArcTemplates, wideFstParts, wideFstPartsAdjacent, wideSndParts, wideSndPartsAdjacent, wideSrcParts, wideTgtParts);
+
+		int nLabelTemplates = labelTemplates.ids.length;
+		this.nodeKeys = new long[nNodes * nLabelTemplates];
+		for (int j = 0; j < nLabelTemplates; j++) {
+			addConstant(labelTemplates, nodeKeys, labelTemplates.ids[j], 0, FeatureTemplates.TEMPLATE_BITS, j);
+			for (int i = labelTemplates.starts[j]; i < labelTemplates.starts[j + 1]; i++) {
+				switch (labelTemplates.attributes[i]) {
+					case NODE_W:
+						addPart(labelTemplates, nodeKeys, w, i, j);
+						break;
+					case NODE_T:
+						addPart(labelTemplates, nodeKeys, t, i, j);
+						break;
+					case NODE_PRED_T:
+						addPart(labelTemplates, nodeKeys, pred_t, i, j);
+						break;
+					case NODE_SUCC_T:
+						addPart(labelTemplates, nodeKeys, succ_t, i, j);
+						break;
+					default:
+						// The label is added in featurizeLabeled.
+						break;
+				}
+			}
+		}
+
+		this.scratch = new long[128];
+	}
+
+	/**
+	 * Computes the parts of the keys of the specified group of arc templates.
+	 */
+	private void addArcParts(FeatureTemplates.Group g, long[] fstParts, long[] fstPartsAdjacent, long[] sndParts, long[] sndPartsAdjacent, long[] srcParts, long[] tgtParts) {
+		for (int j = 0; j < g.ids.length; j++) {
+			addConstant(g, fstParts, g.ids[j], 0, FeatureTemplates.TEMPLATE_BITS, j);
+			addConstant(g, fstPartsAdjacent, g.ids[j], 0, FeatureTemplates.TEMPLATE_BITS, j);
+			for (int i = g.starts[j]; i < g.starts[j + 1]; i++) {
+				switch (g.attributes[i]) {
+					case FST_T:
+						addPart(g, fstParts, t, i, j);
+						addPart(g, fstPartsAdjacent, t, i, j);
+						break;
+					case FST_PRED_T:
+						addPart(g, fstParts, pred_t, i, j);
+						addPart(g, fstPartsAdjacent, pred_t, i, j);
+						break;
+					case FST_SUCC_T:
+						addPart(g, fstParts, succ_t, i, j);
+						addConstant(g, fstPartsAdjacent, MID_T, g.shifts[i], g.attributes[i].getNBits(), j);
+						break;
+					case SND_T:
+						addPart(g, sndParts, t, i, j);
+						addPart(g, sndPartsAdjacent, t, i, j);
+						break;
+					case SND_PRED_T:
+						addPart(g, sndParts, pred_t, i, j);
+						addConstant(g, sndPartsAdjacent, MID_T, g.shifts[i], g.attributes[i].getNBits(), j);
+						break;
+					case SND_SUCC_T:
+						addPart(g, sndParts, succ_t, i, j);
+						addPart(g, sndPartsAdjacent, succ_t, i, j);
+						break;
+					case SRC_W:
+						addPart(g, srcParts, w, i, j);
+						break;
+					case SRC_T:
+						addPart(g, srcParts, t, i, j);
+						break;
+					case TGT_W:
+						addPart(g, tgtParts, w, i, j);
+						break;
+					case TGT_T:
+						addPart(g, tgtParts, t, i, j);
+						break;
+					default:
+						// The nodes between the nodes of the arc are added in
+						// featurizeCore.
+						break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds the values of attribute {@code i} of all nodes to the parts of the
+	 * keys of template {@code j} of the specified group.
+	 */
+	private static void addPart(FeatureTemplates.Group g, long[] parts, int[] values, int i, int j) {
+		int nTemplates = g.ids.length;
+		int shift = g.shifts[i];
+		if (g.isWide) {
+			long mask = (1L << g.attributes[i].getNBits()) - 1;
+			for (int node = 0; node < values.length; node++) {
+				int k = 2 * (node * nTemplates + j);
+				parts[k] |= getLowBits(values[node] & mask, shift);
+				parts[k + 1] |= getHighBits(values[node] & mask, shift);
+			}
+		} else {
+			for (int node = 0; node < values.length; node++) {
+				parts[node * nTemplates + j] |= (long) values[node] << shift;
+			}
+		}
+	}
+
+	/**
+	 * Adds a constant value to the parts of the keys of template {@code j} of
+	 * the specified group, for all nodes.
+	 */
+	private void addConstant(FeatureTemplates.Group g, long[] parts, int value, int shift, int nBits, int j) {
+		int nTemplates = g.ids.length;
+		if (g.isWide) {
+			long masked = value & ((1L << nBits) - 1);
+			for (int node = 0; node < w.length; node++) {
+				int k = 2 * (node * nTemplates + j);
+				parts[k] |= getLowBits(masked, shift);
+				parts[k + 1] |= getHighBits(masked, shift);
+			}
+		} else {
+			for (int node = 0; node < w.length; node++) {
+				parts[node * nTemplates + j] |= (long) value << shift;
+			}
+		}
+	}
+
+	/**
+	 * Returns the low 64 bits of the specified value shifted by the specified
+	 * number of bits in a 128-bit key.
+	 */
+	private static long getLowBits(long value, int shift) {
+		return shift < Long.SIZE ? value << shift : 0L;
+	}
+
+	/**
+	 * Returns the high 64 bits of the specified value shifted by the
+	 * specified number of bits in a 128-bit key.
+	 */
+	private static long getHighBits(long value, int shift) {
+		if (shift == 0) {
+			return 0L;
+		}
+		return shift < Long.SIZE ? value >>> (Long.SIZE - shift) : value << (shift - Long.SIZE);
+	}
+
+	/**
+	 * Hashes a 128-bit key into 64 bits. The lowest 8 bits of the hashed key
+	 * are the id of the template, as in the low 64 bits of the 128-bit key;
+	 * the other bits come from two rounds of the MurmurHash3 finalizer.
+	 *
+	 * @param lo the low 64 bits of the key
+	 * @param hi the high 64 bits of the key
+	 * @return the hashed key
+	 */
+	static long hashKey(long lo, long hi) {
+		long idMask = (1L << FeatureTemplates.TEMPLATE_BITS) - 1;
+		return (mix(mix(hi) ^ lo) & ~idMask) | (lo & idMask);
+	}
+
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
 	}
 
 	public void featurize(int src, int tgt, int label, FeatureHandler h) {
@@ -84,170 +317,198 @@ public class EdgeFeaturizer {
 		}
 		return featureVector;
 	}
-	private static final int TMP_OFF = 0x08;
-	private static final int TMP_00 = 0;
-	private static final int TMP_01 = 1;
-	private static final int TMP_02 = 2;
-	private static final int TMP_03 = 3;
-	private static final int TMP_04 = 4;
-	private static final int TMP_05 = 5;
-	private static final int TMP_06 = 6;
-	private static final int TMP_07 = 7;
-	private static final int TMP_08 = 8;
-	private static final int TMP_09 = 9;
-	private static final int TMP_10 = 10;
-	private static final int TMP_11 = 11;
-	private static final int TMP_12 = 12;
-	private static final int TMP_13 = 13;
-	private static final int TMP_14 = 14;
-	private static final int TMP_15 = 15;
-	private static final int TMP_16 = 16;
-	private static final int TMP_17 = 17;
-	private static final int TMP_18 = 18;
-	private static final int TMP_19 = 19;
-	private static final int TMP_20 = 20;
-	private static final int TMP_21 = 21;
-	private static final int TMP_22 = 22;
-	private static final int TMP_23 = 23;
-	private static final int TMP_24 = 24;
-	private static final int TMP_25 = 25;
-	private static final int TMP_26 = 26;
-	private static final int TMP_27 = 27;
-	private static final int TMP_28 = 28;
-	private static final int TMP_29 = 29;
-	private static final int TMP_30 = 30;
-	private static final int TMP_31 = 31;
-	private static final int TMP_32 = 32;
-
-	public void featurizeCore(int fst, int snd, boolean isRA, FeatureHandler h) {
-		long attDist = makePair(isRA, quantize(snd - fst, LIMITS)) << 1 | 1;
-
-		int fst_t = t[fst];
-		int snd_t = t[snd];
-
-		int fst_pred_t = pred_t[fst];
-		int snd_succ_t = succ_t[snd];
-		int fst_succ_t = fst < snd - 1 ? succ_t[fst] : MID_T;
-		int snd_pred_t = snd > fst + 1 ? pred_t[snd] : MID_T;
-
-		for (int mid = fst + 1; mid < snd; mid++) {
-			int mid_t = t[mid];
-			h.handle(TMP_00, TMP_OFF, fst_t, T_OFF, snd_t, T_OFF, mid_t);
-			h.handle(TMP_00, TMP_OFF, fst_t, T_OFF, snd_t, T_OFF, mid_t, T_OFF, attDist);
-		}
-
-		h.handle(TMP_01, TMP_OFF, fst_pred_t, T_OFF, fst_t, T_OFF, snd_t);
-		h.handle(TMP_01, TMP_OFF, fst_pred_t, T_OFF, fst_t, T_OFF, snd_t, T_OFF, attDist);
-
-		h.handle(TMP_02, TMP_OFF, fst_pred_t, T_OFF, fst_t, T_OFF, snd_t, T_OFF, snd_succ_t);
-		h.handle(TMP_02, TMP_OFF, fst_pred_t, T_OFF, fst_t, T_OFF, snd_t, T_OFF, snd_succ_t, T_OFF, attDist);
-
-		h.handle(TMP_03, TMP_OFF, fst_pred_t, T_OFF, snd_t, T_OFF, snd_succ_t);
-		h.handle(TMP_03, TMP_OFF, fst_pred_t, T_OFF, snd_t, T_OFF, snd_succ_t, T_OFF, attDist);
-
-		h.handle(TMP_04, TMP_OFF, fst_pred_t, T_OFF, fst_t, T_OFF, snd_succ_t);
-		h.handle(TMP_04, TMP_OFF, fst_pred_t, T_OFF, fst_t, T_OFF, snd_succ_t, T_OFF, attDist);
-
-		h.handle(TMP_05, TMP_OFF, fst_t, T_OFF, snd_t, T_OFF, snd_succ_t);
-		h.handle(TMP_05, TMP_OFF, fst_t, T_OFF, snd_t, T_OFF, snd_succ_t, T_OFF, attDist);
-
-		h.handle(TMP_06, TMP_OFF, fst_t, T_OFF, fst_succ_t, T_OFF, snd_pred_t);
-		h.handle(TMP_06, TMP_OFF, fst_t, T_OFF, fst_succ_t, T_OFF, snd_pred_t, T_OFF, attDist);
 
-		h.handle(TMP_07, TMP_OFF, fst_t, T_OFF, fst_succ_t, T_OFF, snd_pred_t, T_OFF, snd_t);
-		h.handle(TMP_07, TMP_OFF, fst_t, T_OFF, fst_succ_t, T_OFF, snd_pred_t, T_OFF, snd_t, T_OFF, attDist);
-
-		h.handle(TMP_08, TMP_OFF, fst_t, T_OFF, fst_succ_t, T_OFF, snd_t);
-		h.handle(TMP_08, TMP_OFF, fst_t, T_OFF, fst_succ_t, T_OFF, snd_t, T_OFF, attDist);
-
-		h.handle(TMP_09, TMP_OFF, fst_t, T_OFF, snd_pred_t, T_OFF, snd_t);
-		h.handle(TMP_09, TMP_OFF, fst_t, T_OFF, snd_pred_t, T_OFF, snd_t, T_OFF, attDist);
-
-		h.handle(TMP_10, TMP_OFF, fst_succ_t, T_OFF, snd_pred_t, T_OFF, snd_t);
-		h.handle(TMP_10, TMP_OFF, fst_succ_t, T_OFF, snd_pred_t, T_OFF, snd_t, T_OFF, attDist);
-
-		h.handle(TMP_11, TMP_OFF, fst_pred_t, T_OFF, fst_t, T_OFF, snd_pred_t, T_OFF, snd_t);
-		h.handle(TMP_11, TMP_OFF, fst_pred_t, T_OFF, fst_t, T_OFF, snd_pred_t, T_OFF, snd_t, T_OFF, attDist);
-
-		h.handle(TMP_12, TMP_OFF, fst_t, T_OFF, fst_succ_t, T_OFF, snd_t, T_OFF, snd_succ_t);
-		h.handle(TMP_12, TMP_OFF, fst_t, T_OFF, fst_succ_t, T_OFF, snd_t, T_OFF, snd_succ_t, T_OFF, attDist);
-
-		int src = isRA ? fst : snd;
-		int tgt = isRA ? snd : fst;
-
-		int src_w = w[src];
-		int src_t = t[src];
-		int tgt_w = w[tgt];
-		int tgt_t = t[tgt];
-
-		h.handle(TMP_13, TMP_OFF, src_w);
-		h.handle(TMP_13, TMP_OFF, src_w, W_OFF, attDist);
-
-		h.handle(TMP_14, TMP_OFF, src_w, W_OFF, src_t);
-		h.handle(TMP_14, TMP_OFF, src_w, W_OFF, src_t, T_OFF, attDist);
-
-		h.handle(TMP_15, TMP_OFF, src_w, W_OFF, src_t, T_OFF, tgt_t);
-		h.handle(TMP_15, TMP_OFF, src_w, W_OFF, src_t, T_OFF, tgt_t, T_OFF, attDist);
-
-		h.handle(TMP_16, TMP_OFF, src_w, W_OFF, src_t, T_OFF, tgt_t, T_OFF, tgt_w);
-		h.handle(TMP_16, TMP_OFF, src_w, W_OFF, src_t, T_OFF, tgt_t, T_OFF, tgt_w, W_OFF, attDist);
-
-		h.handle(TMP_17, TMP_OFF, src_w, W_OFF, tgt_w);
-		h.handle(TMP_17, TMP_OFF, src_w, W_OFF, tgt_w, W_OFF, attDist);
-
-		h.handle(TMP_18, TMP_OFF, src_w, W_OFF, tgt_t);
-		h.handle(TMP_18, TMP_OFF, src_w, W_OFF, tgt_t, T_OFF, attDist);
-
-		h.handle(TMP_19, TMP_OFF, src_t, T_OFF, tgt_w);
-		h.handle(TMP_19, TMP_OFF, src_t, T_OFF, tgt_w, W_OFF, attDist);
-
-		h.handle(TMP_20, TMP_OFF, src_t, T_OFF, tgt_w, W_OFF, tgt_t);
-		h.handle(TMP_20, TMP_OFF, src_t, T_OFF, tgt_w, W_OFF, tgt_t, T_OFF, attDist);
+	/**
+	 * Returns the template of the specified feature.
+	 *
+	 * @param feature the feature
+	 * @return the template of the specified feature
+	 */
+	public static int getTemplate(long feature) {
+		return (int) (feature & ((1 << FeatureTemplates.TEMPLATE_BITS) - 1));
+	}
 
-		h.handle(TMP_21, TMP_OFF, src_t, T_OFF, tgt_t);
-		h.handle(TMP_21, TMP_OFF, src_t, T_OFF, tgt_t, T_OFF, attDist);
+	/**
+	 * Returns the code of the tag of the specified node.
+	 *
+	 * @param node the node
+	 * @return the code of the tag of the node, or -1 if the tag is unknown
+	 */
+	public int getTag(int node) {
+		return t[node];
+	}
 
-		h.handle(TMP_22, TMP_OFF, tgt_w, W_OFF, tgt_t);
-		h.handle(TMP_22, TMP_OFF, tgt_w, W_OFF, tgt_t, T_OFF, attDist);
+	/**
+	 * Returns the key for the context on which the labeled features of the
+	 * specified node depend, as used by {@link LabelScoreCache}.
+	 *
+	 * @param node the node
+	 * @return the key for the context of the node
+	 */
+	public long getLabeledContext(int node) {
+		return LabelScoreCache.getKey(w[node], t[node], pred_t[node], succ_t[node]);
+	}
 
-		h.handle(TMP_23, TMP_OFF, src_t);
-		h.handle(TMP_23, TMP_OFF, src_t, T_OFF, attDist);
+	/**
+	 * Returns the number of features of an arc between the specified nodes.
+	 *
+	 * @param fst the left node of the arc
+	 * @param snd the right node of the arc
+	 * @return the number of features of the arc
+	 */
+	public int getNCoreFeatures(int fst, int snd) {
+		int nFixed = arcTemplates.nFixed + wideArcTemplates.nFixed;
+		int nLooping = arcTemplates.nLooping + wideArcTemplates.nLooping;
+		return 2 * (nFixed + nLooping * (snd - fst - 1));
+	}
 
-		h.handle(TMP_24, TMP_OFF, tgt_w);
-		h.handle(TMP_24, TMP_OFF, tgt_w, W_OFF, attDist);
+	/**
+	 * Returns the number of features of a node and a label.
+	 *
+	 * @return the number of features of a node and a label
+	 */
+	public int getNLabeledFeatures() {
+		return 2 * labelTemplates.nFixed;
+	}
 
-		h.handle(TMP_25, TMP_OFF, tgt_t);
-		h.handle(TMP_25, TMP_OFF, tgt_t, T_OFF, attDist);
+	public void featurizeCore(int fst, int snd, boolean isRA, FeatureHandler h) {
+		int n = featurizeCore(fst, snd, isRA, reserve(getNCoreFeatures(fst, snd)), 0);
+		for (int i = 0; i < n; i++) {
+			h.handle(scratch[i]);
+		}
 	}
 
 	public void featurizeLabeled(int node, int label, boolean isRA, boolean isTarget, FeatureHandler h) {
-		long suffix = makePair(isRA, isTarget) << 1 | 1;
-
-		int node_w = w[node];
-		int node_t = t[node];
-		int node_pred_t = pred_t[node];
-		int node_succ_t = succ_t[node];
-
-		h.handle(TMP_26, TMP_OFF, label);
-		h.handle(TMP_26, TMP_OFF, label, L_OFF, suffix);
+		int n = featurizeLabeled(node, label, isRA, isTarget, reserve(getNLabeledFeatures()), 0);
+		for (int i = 0; i < n; i++) {
+			h.handle(scratch[i]);
+		}
+	}
 
-		h.handle(TMP_27, TMP_OFF, node_w, W_OFF, node_t, T_OFF, label);
-		h.handle(TMP_27, TMP_OFF, node_w, W_OFF, node_t, T_OFF, label, L_OFF, suffix);
+	private long[] reserve(int n) {
+		if (scratch.length < n) {
+			scratch = new long[n];
+		}
+		return scratch;
+	}
 
-		h.handle(TMP_28, TMP_OFF, node_t, T_OFF, label);
-		h.handle(TMP_28, TMP_OFF, node_t, T_OFF, label, L_OFF, suffix);
+	/**
+	 * Writes the features of the specified arc into the specified array.
+	 *
+	 * @param fst the left node of the arc
+	 * @param snd the right node of the arc
+	 * @param isRA whether the arc goes from {@code fst} to {@code snd}
+	 * @param keys the array; it must have room for
+	 * {@link #getNCoreFeatures(int, int)} features from {@code size}
+	 * @param size the index of the first feature in the array
+	 * @return the index after the last feature in the array
+	 */
+	public int featurizeCore(int fst, int snd, boolean isRA, long[] keys, int size) {
+		long attDist = makePair(isRA, quantize(snd - fst, LIMITS)) << 1 | 1;
 
-		h.handle(TMP_29, TMP_OFF, node_pred_t, T_OFF, node_t, T_OFF, label);
-		h.handle(TMP_29, TMP_OFF, node_pred_t, T_OFF, node_t, T_OFF, label, L_OFF, suffix);
+		FeatureTemplates.Group g = arcTemplates;
+		int n = g.ids.length;
+		boolean isAdjacent = snd == fst + 1;
+		long[] fstKeys = isAdjacent ? fstPartsAdjacent : fstParts;
+		long[] sndKeys = isAdjacent ? sndPartsAdjacent : sndParts;
+		int fstOffset = fst * n;
+		int sndOffset = snd * n;
+		int srcOffset = (isRA ? fst : snd) * n;
+		int tgtOffset = (isRA ? snd : fst) * n;
+
+		int j = 0;
+		for (; j < g.loopEnd; j++) {
+			long key = fstKeys[fstOffset + j] | sndKeys[sndOffset + j] | srcParts[srcOffset + j] | tgtParts[tgtOffset + j];
+			long suffix = attDist << g.suffixShifts[j];
+			if (g.loops[j]) {
+				int midShift = g.midShifts[j];
+				for (int mid = fst + 1; mid < snd; mid++) {
+					long midKey = key | (long) t[mid] << midShift;
+					keys[size++] = midKey;
+					keys[size++] = midKey | suffix;
+				}
+			} else {
+				keys[size++] = key;
+				keys[size++] = key | suffix;
+			}
+		}
+		// The remaining templates do not loop.
+		for (; j < n; j++) {
+			long key = fstKeys[fstOffset + j] | sndKeys[sndOffset + j] | srcParts[srcOffset + j] | tgtParts[tgtOffset + j];
+			keys[size++] = key;
+			keys[size++] = key | attDist << g.suffixShifts[j];
+		}
+		if (wideArcTemplates.ids.length > 0) {
+			size = featurizeWideCore(fst, snd, isRA, attDist, keys, size);
+		}
+		return size;
+	}
 
-		h.handle(TMP_30, TMP_OFF, node_t, T_OFF, node_succ_t, T_OFF, label);
-		h.handle(TMP_30, TMP_OFF, node_t, T_OFF, node_succ_t, T_OFF, label, L_OFF, suffix);
+	/**
+	 * Writes the hashed features of the wide arc templates into the
+	 * specified array.
+	 */
+	private int featurizeWideCore(int fst, int snd, boolean isRA, long attDist, long[] keys, int size) {
+		FeatureTemplates.Group g = wideArcTemplates;
+		int n = g.ids.length;
+		boolean isAdjacent = snd == fst + 1;
+		long[] fstKeys = isAdjacent ? wideFstPartsAdjacent : wideFstParts;
+		long[] sndKeys = isAdjacent ? wideSndPartsAdjacent : wideSndParts;
+		long midMask = (1L << FeatureTemplates.Attribute.MID_T.getNBits()) - 1;
+
+		for (int j = 0; j < n; j++) {
+			int fstOffset = 2 * (fst * n + j);
+			int sndOffset = 2 * (snd * n + j);
+			int srcOffset = 2 * ((isRA ? fst : snd) * n + j);
+			int tgtOffset = 2 * ((isRA ? snd : fst) * n + j);
+			long lo = fstKeys[fstOffset] | sndKeys[sndOffset] | wideSrcParts[srcOffset] | wideTgtParts[tgtOffset];
+			long hi = fstKeys[fstOffset + 1] | sndKeys[sndOffset + 1] | wideSrcParts[srcOffset + 1] | wideTgtParts[tgtOffset + 1];
+			long suffixLo = getLowBits(attDist, g.suffixShifts[j]);
+			long suffixHi = getHighBits(attDist, g.suffixShifts[j]);
+			if (g.loops[j]) {
+				int midShift = g.midShifts[j];
+				for (int mid = fst + 1; mid < snd; mid++) {
+					long midLo = lo | getLowBits(t[mid] & midMask, midShift);
+					long midHi = hi | getHighBits(t[mid] & midMask, midShift);
+					keys[size++] = hashKey(midLo, midHi);
+					keys[size++] = hashKey(midLo | suffixLo, midHi | suffixHi);
+				}
+			} else {
+				keys[size++] = hashKey(lo, hi);
+				keys[size++] = hashKey(lo | suffixLo, hi | suffixHi);
+			}
+		}
+		return size;
+	}
 
-		h.handle(TMP_31, TMP_OFF, node_pred_t, T_OFF, node_t, T_OFF, node_succ_t, T_OFF, label);
-		h.handle(TMP_31, TMP_OFF, node_pred_t, T_OFF, node_t, T_OFF, node_succ_t, T_OFF, label, L_OFF, suffix);
+	/**
+	 * Writes the features of the specified node and label into the specified
+	 * array.
+	 *
+	 * @param node the node
+	 * @param label the code of the label
+	 * @param isRA whether the arc is a right arc
+	 * @param isTarget whether the node is the target of the arc
+	 * @param keys the array; it must have room for
+	 * {@link #getNLabeledFeatures()} features from {@code size}
+	 * @param size the index of the first feature in the array
+	 * @return the index after the last feature in the array
+	 */
+	public int featurizeLabeled(int node, int label, boolean isRA, boolean isTarget, long[] keys, int size) {
+		long suffix = makePair(isRA, isTarget) << 1 | 1;
 
-		h.handle(TMP_32, TMP_OFF, node_w, W_OFF, label);
-		h.handle(TMP_32, TMP_OFF, node_w, W_OFF, label, L_OFF, suffix);
+		FeatureTemplates.Group g = labelTemplates;
+		int n = g.ids.length;
+		int offset = node * n;
+		for (int j = 0; j < n; j++) {
+			long key = nodeKeys[offset + j];
+			if (g.labelShifts[j] >= 0) {
+				key |= (long) label << g.labelShifts[j];
+			}
+			keys[size++] = key;
+			keys[size++] = key | suffix << g.suffixShifts[j];
+		}
+		return size;
 	}
 
 	private static class FeatureVectorUpdater implements FeatureHandler {
@@ -3,7 +3,10 @@
  */
 package se.liu.ida.nlp.beta;
 
+import java.util.Arrays;
 import se.liu.ida.nlp.beta.conll.CoNLLTree;
+import se.liu.ida.nlp.beta.metrics.ParseStats;
+import se.liu.ida.nlp.beta.metrics.Phase;
 
 /**
  * Score an edge in a dependency graph.
@@ -11,6 +14,25 @@ import se.liu.ida.nlp.beta.conll.CoNLLTree;
  * <p>This class implements the core of the edge-factored scoring model: a
  * scoring function for labeled edges.
  *
+ * <p>A scorer computes all scores for one sentence when it is constructed and
+ * is immutable afterwards. The scores are computed with the weights that the
+ * model has at construction time.
+ *
+ * <p>If the model has an {@link ArcFilter} or a {@link HeadSelector}, arcs
+ * that the filter does not allow or that the selector does not select are
+ * pruned: they are neither featurized nor labeled, and get the score negative
+ * infinity. If the model has a {@link LabelFilter}, the best label of an arc
+ * is only chosen among the labels that the filter allows, and the labeled
+ * features are only computed for labels that some arc may get.
+ *
+ * <p>If the model has its weights in single precision, all sums of weights
+ * and scores are computed in single precision, so that the scores are the
+ * ones that a decoder working in single precision would compute. They are
+ * still stored as doubles, which represent them exactly.
+ *
+ * <p>If the model has a {@link LabelScoreCache}, the labeled scores of each
+ * token are taken from the cache if possible, and added to it otherwise.
+ *
  * @author Marco Kuhlmann <marco.kuhlmann@lingfil.uu.se>
  */
 public class EdgeScorer {
@@ -32,10 +54,52 @@ public class EdgeScorer {
 	 * @param graph the graph whose arcs should be scored
 	 */
 	public EdgeScorer(Model model, CoNLLTree graph) {
+		this(model, graph, null);
+	}
+
+	/**
+	 * Create a new scorer for the specified graph based on the specified model
+	 * and record statistics about the scoring.
+	 *
+	 * @param model the model based on which the arcs in the specified graph
+	 * should be scored
+	 * @param graph the graph whose arcs should be scored
+	 * @param stats the record for the statistics, or {@code null}
+	 */
+	public EdgeScorer(Model model, CoNLLTree graph, ParseStats stats) {
+		this(model, graph, stats, true);
+	}
+
+	/**
+	 * Create a new scorer for the specified graph based on the specified
+	 * model, record statistics about the scoring, and prune arcs if requested.
+	 *
+	 * @param model the model based on which the arcs in the specified graph
+	 * should be scored
+	 * @param graph the graph whose arcs should be scored
+	 * @param stats the record for the statistics, or {@code null}
+	 * @param prune whether arcs and labels should be pruned if the model has
+	 * an {@link ArcFilter}, a {@link HeadSelector}, or a {@link LabelFilter}
+	 */
+	public EdgeScorer(Model model, CoNLLTree graph, ParseStats stats, boolean prune) {
 		int nNodes = graph.getNNodes();
+		boolean timing = stats != null && stats.isTiming();
+		long t0 = 0;
+		long t1 = 0;
+		long featurizeNanos = 0;
+		long lookupNanos = 0;
 
 		EdgeFeaturizer featurizer = new EdgeFeaturizer(model, graph);
-		FeatureVectorUpdater updater = new FeatureVectorUpdater(model);
+		KeyBuffer buffer = new KeyBuffer(model);
+		ArcFilter filter = prune ? model.getArcFilter() : null;
+		HeadSelector selector = prune ? model.getHeadSelector() : null;
+		boolean[] selected = selector == null ? null : selector.select(selector.getTags(model, graph));
+		LabelFilter labelFilter = prune ? model.getLabelFilter() : null;
+		long nPruned = 0;
+
+		// The features of a group of scores are first collected in the buffer
+		// and then looked up in one go. This keeps the feature generation and
+		// the lookups apart, so that they can be timed separately.
 
 		// Step 1: Compute the core (unlabeled) scores.
 
@@ -43,76 +107,239 @@ public class EdgeScorer {
 
 		for (int fst = 0; fst < nNodes; fst++) {
 			for (int snd = fst + 1; snd < nNodes; snd++) {
+				boolean allowRA = filter == null || filter.isAllowed(featurizer.getTag(fst), featurizer.getTag(snd), fst, snd);
+				boolean allowLA = filter == null || filter.isAllowed(featurizer.getTag(snd), featurizer.getTag(fst), snd, fst);
+				if (selected != null) {
+					allowRA &= selected[fst * nNodes + snd];
+					allowLA &= selected[snd * nNodes + fst];
+				}
+				if (!allowRA) {
+					scoresCore[fst][snd] = Double.NEGATIVE_INFINITY;
+					nPruned++;
+				}
+				if (!allowLA) {
+					scoresCore[snd][fst] = Double.NEGATIVE_INFINITY;
+					nPruned++;
+				}
+				if (!allowRA && !allowLA) {
+					continue;
+				}
+
+				if (timing) {
+					t0 = System.nanoTime();
+				}
+
 				// Arc from fst to snd (right arc; RA).
-				FeatureVector vectorRA = new FeatureVector();
-				updater.setClient(vectorRA);
-				featurizer.featurizeCore(fst, snd, true, updater);
-				scoresCore[fst][snd] = vectorRA.getScore(model.getWeightVector());
+				if (allowRA) {
+					buffer.addCore(featurizer, fst, snd, true);
+				}
+				int endRA = buffer.size;
 
 				// Arc from snd to fst (left arc; LA).
-				FeatureVector vectorLA = new FeatureVector();
-				updater.setClient(vectorLA);
-				featurizer.featurizeCore(fst, snd, false, updater);
-				scoresCore[snd][fst] = vectorLA.getScore(model.getWeightVector());
+				if (allowLA) {
+					buffer.addCore(featurizer, fst, snd, false);
+				}
+
+				if (timing) {
+					t1 = System.nanoTime();
+				}
+
+				if (allowRA) {
+					scoresCore[fst][snd] = buffer.sum(0, endRA);
+				}
+				if (allowLA) {
+					scoresCore[snd][fst] = buffer.sum(endRA, buffer.size);
+				}
+				buffer.clear();
+
+				if (timing) {
+					long t2 = System.nanoTime();
+					featurizeNanos += t1 - t0;
+					lookupNanos += t2 - t1;
+				}
+			}
+		}
+
+		int nLabels = model.getNDeprels();
+		int[] allLabels = new int[nLabels];
+		for (int label = 0; label < nLabels; label++) {
+			allLabels[label] = label;
+		}
+
+		// With a label filter, collect the labels that each arc may get, and
+		// mark the labeled scores that these labels need. The index of a
+		// labeled score is the position of its features in Step 2.
+
+		int[][][] arcLabels = null;
+		boolean[][] needed = null;
+		long nPrunedLabels = 0;
+		if (labelFilter != null) {
+			arcLabels = new int[nNodes][nNodes][];
+			needed = new boolean[nNodes][nLabels * 4];
+			for (int fst = 0; fst < nNodes; fst++) {
+				for (int snd = fst + 1; snd < nNodes; snd++) {
+					if (scoresCore[fst][snd] != Double.NEGATIVE_INFINITY) {
+						int[] labels = labelFilter.getLabels(featurizer.getTag(fst), featurizer.getTag(snd), true);
+						arcLabels[fst][snd] = labels == null ? allLabels : labels;
+						for (int label : arcLabels[fst][snd]) {
+							needed[fst][label * 4 + 2] = true;
+							needed[snd][label * 4] = true;
+						}
+						nPrunedLabels += nLabels - arcLabels[fst][snd].length;
+					}
+					if (scoresCore[snd][fst] != Double.NEGATIVE_INFINITY) {
+						int[] labels = labelFilter.getLabels(featurizer.getTag(snd), featurizer.getTag(fst), false);
+						arcLabels[snd][fst] = labels == null ? allLabels : labels;
+						for (int label : arcLabels[snd][fst]) {
+							needed[snd][label * 4 + 3] = true;
+							needed[fst][label * 4 + 1] = true;
+						}
+						nPrunedLabels += nLabels - arcLabels[snd][fst].length;
+					}
+				}
 			}
 		}
 
 		// Step 2: Compute the labeled scores. One might expect that this would
 		// use three loops: fst, snd, label. Instead, the score of a labeled arc
 		// (fst, snd, label) is decomposed into two parts according to the
-		// scheme (node, label, dir, tgt). The dir component specifies whether
-		// the arc is a RA or a LA. The tgt component specifies whether the
-		// node is the target or the source of the edge.
+		// scheme (node, label, tgt, dir). The tgt component specifies whether
+		// the node is the target or the source of the edge. The dir component
+		// specifies whether the arc is a RA or a LA. The scores of a node are
+		// kept in one block, at index (tgt * 2 + dir) * nLabels + label, where
+		// tgt is 0 for the target and dir is 0 for a RA; this keeps the scores
+		// for all labels of the same kind next to each other. The features
+		// are generated in the order label * 4 + tgt * 2 + dir. Scores that no
+		// arc needs are left at zero, except in blocks that go into the
+		// cache.
 
-		int nLabels = model.getNDeprels();
+		LabelScoreCache cache = model.getLabelScoreCache();
+		int version = model.getWeightVersion();
+		long nHits = 0;
+		long nMisses = 0;
 
-		double[][][][] scoresLabeled = new double[nNodes][nLabels][2][2];
+		double[][] scoresLabeled = new double[nNodes][];
+		int[] ends = new int[nLabels * 4];
 
 		for (int node = 0; node < nNodes; node++) {
-			for (int label = 0; label < nLabels; label++) {
-				for (int i = 0; i < 2; i++) {
-					boolean isTarget = i == 0;
+			if (timing) {
+				t0 = System.nanoTime();
+			}
 
-					FeatureVector vectorRA = new FeatureVector();
-					updater.setClient(vectorRA);
-					featurizer.featurizeLabeled(node, label, true, isTarget, updater);
-					scoresLabeled[node][label][0][i] = vectorRA.getScore(model.getWeightVector());
+			long key = 0;
+			if (cache != null) {
+				key = featurizer.getLabeledContext(node);
+				double[] block = cache.get(key, version);
+				if (block != null) {
+					scoresLabeled[node] = block;
+					nHits++;
+					if (timing) {
+						lookupNanos += System.nanoTime() - t0;
+					}
+					continue;
+				}
+				nMisses++;
+			}
 
-					FeatureVector vectorLA = new FeatureVector();
-					updater.setClient(vectorLA);
-					featurizer.featurizeLabeled(node, label, false, isTarget, updater);
-					scoresLabeled[node][label][1][i] = vectorLA.getScore(model.getWeightVector());
+			for (int k = 0; k < nLabels * 4; k++) {
+				if (cache != null || needed == null || needed[node][k]) {
+					buffer.addLabeled(featurizer, node, k >> 2, (k & 1) == 0, (k & 2) == 0);
 				}
+				ends[k] = buffer.size;
+			}
+
+			if (timing) {
+				t1 = System.nanoTime();
+			}
+
+			double[] block = new double[nLabels * 4];
+			int beg = 0;
+			for (int k = 0; k < nLabels * 4; k++) {
+				block[(k & 3) * nLabels + (k >> 2)] = buffer.sum(beg, ends[k]);
+				beg = ends[k];
+			}
+			buffer.clear();
+			scoresLabeled[node] = block;
+			if (cache != null) {
+				cache.put(key, version, block);
+			}
+
+			if (timing) {
+				long t2 = System.nanoTime();
+				featurizeNanos += t1 - t0;
+				lookupNanos += t2 - t1;
 			}
 		}
 
 		// Step 3: Compute the full scores and the labels that yield them.
 
+		if (timing) {
+			t0 = System.nanoTime();
+		}
+
 		this.bestScores = new double[nNodes][nNodes];
 		this.bestLabels = new int[nNodes][nNodes];
+		boolean single = model.isSinglePrecision();
+
+		LabelArgmax argmax = LabelArgmax.getInstance();
 
 		for (int fst = 0; fst < nNodes; fst++) {
 			for (int snd = fst + 1; snd < nNodes; snd++) {
+				// Pruned arcs keep the score negative infinity.
 				bestScores[fst][snd] = Double.NEGATIVE_INFINITY;
 				bestScores[snd][fst] = Double.NEGATIVE_INFINITY;
 
-				for (int lab = 0; lab < nLabels; lab++) {
-					// Edge from fst to snd (RA).
-					double scoreRA = scoresCore[fst][snd] + scoresLabeled[fst][lab][0][1] + scoresLabeled[snd][lab][0][0];
-					if (scoreRA > bestScores[fst][snd]) {
-						bestScores[fst][snd] = scoreRA;
-						bestLabels[fst][snd] = lab;
-					}
+				// Edge from fst to snd (RA).
+				if (scoresCore[fst][snd] != Double.NEGATIVE_INFINITY) {
+					int[] labels = arcLabels == null ? allLabels : arcLabels[fst][snd];
+					selectLabel(fst, snd, scoresCore[fst][snd], scoresLabeled[fst], 2 * nLabels, scoresLabeled[snd], 0, labels, nLabels, single, argmax);
+				}
 
-					// Edge from snd to fst (LA).
-					double scoreLA = scoresCore[snd][fst] + scoresLabeled[snd][lab][1][1] + scoresLabeled[fst][lab][1][0];
-					if (scoreLA > bestScores[snd][fst]) {
-						bestScores[snd][fst] = scoreLA;
-						bestLabels[snd][fst] = lab;
-					}
+				// Edge from snd to fst (LA).
+				if (scoresCore[snd][fst] != Double.NEGATIVE_INFINITY) {
+					int[] labels = arcLabels == null ? allLabels : arcLabels[snd][fst];
+					selectLabel(snd, fst, scoresCore[snd][fst], scoresLabeled[snd], 3 * nLabels, scoresLabeled[fst], nLabels, labels, nLabels, single, argmax);
 				}
 			}
 		}
+
+		if (stats != null) {
+			stats.addFeatureLookups(buffer.nLookups, buffer.nMisses);
+			stats.addPrunedArcs(nPruned);
+			stats.addPrunedLabels(nPrunedLabels);
+			stats.addLabelCacheLookups(nHits, nMisses);
+			if (timing) {
+				stats.addTime(Phase.FEATURIZE, featurizeNanos);
+				stats.addTime(Phase.LOOKUP, lookupNanos);
+				stats.addTime(Phase.LABEL, System.nanoTime() - t0);
+			}
+		}
+	}
+
+	/**
+	 * Finds the best label of the specified arc among the specified labels,
+	 * and records it together with its score. The score of a label is the
+	 * core score plus the labeled scores of the source and the target, which
+	 * are read from the specified blocks at the specified offsets plus the
+	 * label. If all labels are allowed, the search is done by
+	 * {@link LabelArgmax}, which may use vector instructions.
+	 */
+	private void selectLabel(int src, int tgt, double core, double[] srcBlock, int srcOffset, double[] tgtBlock, int tgtOffset, int[] labels, int nLabels, boolean single, LabelArgmax argmax) {
+		if (!single && labels.length == nLabels) {
+			int lab = argmax.argmax(core, srcBlock, srcOffset, tgtBlock, tgtOffset, nLabels);
+			bestScores[src][tgt] = core + srcBlock[srcOffset + lab] + tgtBlock[tgtOffset + lab];
+			bestLabels[src][tgt] = lab;
+			return;
+		}
+		for (int lab : labels) {
+			double score = single
+					? (float) core + (float) srcBlock[srcOffset + lab] + (float) tgtBlock[tgtOffset + lab]
+					: core + srcBlock[srcOffset + lab] + tgtBlock[tgtOffset + lab];
+			if (score > bestScores[src][tgt]) {
+				bestScores[src][tgt] = score;
+				bestLabels[src][tgt] = lab;
+			}
+		}
 	}
 
 	/**
@@ -141,26 +368,78 @@ public class EdgeScorer {
 	}
 
 	/**
-	 * Update a client feature vector.
+	 * Collect the features of a group of scores, and sum up their weights.
+	 * Summing up the weights in the order in which the features are generated
+	 * gives the same scores as building a {@link FeatureVector} and calling
+	 * {@link FeatureVector#getScore(double[])} on it, without allocating the
+	 * vector. The featurizer writes the features straight into the buffer,
+	 * without going through a {@link FeatureHandler}.
 	 */
-	private static class FeatureVectorUpdater implements FeatureHandler {
+	private static class KeyBuffer {
 
 		private final Model model;
-		private FeatureVector client;
+		private final double[] weightVector;
+		private final float[] floatWeightVector;
+		private long[] keys;
+		private int size;
+		private long nLookups;
+		private long nMisses;
 
-		public FeatureVectorUpdater(Model model) {
+		public KeyBuffer(Model model) {
 			this.model = model;
+			this.weightVector = model.getWeightVector();
+			this.floatWeightVector = model.getFloatWeightVector();
+			this.keys = new long[256];
+		}
+
+		public void clear() {
+			size = 0;
+		}
+
+		public double sum(int beg, int end) {
+			if (floatWeightVector != null) {
+				return sumFloat(beg, end);
+			}
+			double score = 0.0;
+			for (int i = beg; i < end; i++) {
+				int index = model.getCodeForFeature(keys[i]);
+				if (index >= 0) {
+					score += weightVector[index];
+				} else {
+					nMisses++;
+				}
+			}
+			nLookups += end - beg;
+			return score;
+		}
+
+		private float sumFloat(int beg, int end) {
+			float score = 0.0f;
+			for (int i = beg; i < end; i++) {
+				int index = model.getCodeForFeature(keys[i]);
+				if (index >= 0) {
+					score += floatWeightVector[index];
+				} else {
+					nMisses++;
+				}
+			}
+			nLookups += end - beg;
+			return score;
+		}
+
+		public void addCore(EdgeFeaturizer featurizer, int fst, int snd, boolean isRA) {
+			reserve(featurizer.getNCoreFeatures(fst, snd));
+			size = featurizer.featurizeCore(fst, snd, isRA, keys, size);
 		}
 
-		public void setClient(FeatureVector featureVector) {
-			this.client = featureVector;
+		public void addLabeled(EdgeFeaturizer featurizer, int node, int label, boolean isRA, boolean isTarget) {
+			reserve(featurizer.getNLabeledFeatures());
+			size = featurizer.featurizeLabeled(node, label, isRA, isTarget, keys, size);
 		}
 
-		@Override
-		public void handle(long feature) {
-			int index = model.getCodeForFeature(feature);
-			if (index >= 0) {
-				client.increment(index);
+		private void reserve(int n) {
+			if (size + n > keys.length) {
+				keys = Arrays.copyOf(keys, Math.max(size + n, keys.length * 2));
 			}
 		}
 	}
@@ -0,0 +1,517 @@
+/*
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package se.liu.ida.nlp.beta;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A set of feature templates, compiled into flat tables.
+ *
+ * <p>A template has an id and a list of attributes of an arc or of one node
+ * of an arc and its label. Each template gives two features: the attributes
+ * alone, and the attributes together with the length and direction of the
+ * arc (for arc templates) or the direction and the role of the node (for
+ * label templates). The key of a feature packs the id of the template into
+ * its lowest 8 bits and the attributes above it, in the order in which they
+ * are listed, with 8 bits for a tag or a label and 16 bits for a form.
+ * An arc template whose features do not fit into 64 bits is laid out in the
+ * same way over 128 bits, which are then hashed into 64 bits; the hashed key
+ * keeps the id of the template in its lowest 8 bits, so that features of
+ * different templates never collide. {@link #getExpectedCollisions(long)}
+ * estimates the number of features of such a template that share a key.
+ *
+ * <p>A set of templates is written one template per line, as the id followed
+ * by the names of the attributes; empty lines and lines that start with
+ * {@code #} are skipped. {@link #DEFAULT} is the set that Beta has always
+ * used. {@link EdgeFeaturizer} evaluates the compiled tables in one loop, so
+ * custom sets are featurized as fast as the default one.
+ *
+ * @author Marco Kuhlmann <marco.kuhlmann@lingfil.uu.se>
+ */
+public class FeatureTemplates implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The number of bits for the id of a template.
+	 */
+	public static final int TEMPLATE_BITS = 8;
+	private static final int T_BITS = 8;
+	static final int W_BITS = 16;
+	private static final int L_BITS = 8;
+	/**
+	 * The number of bits for the length and direction of an arc.
+	 */
+	private static final int ARC_SUFFIX_BITS = 5;
+	/**
+	 * The number of bits for the direction and role of a node.
+	 */
+	private static final int LABEL_SUFFIX_BITS = 3;
+	/**
+	 * The maximal number of bits of the features of a hashed template.
+	 */
+	private static final int MAX_WIDE_BITS = 2 * Long.SIZE;
+
+	/**
+	 * The attributes that templates can use.
+	 */
+	public enum Attribute {
+
+		FST_T("fst.t", T_BITS, false),
+		SND_T("snd.t", T_BITS, false),
+		/**
+		 * The tag of a node between the two nodes of the arc. A template with
+		 * this attribute gives two features for every such node.
+		 */
+		MID_T("mid.t", T_BITS, false),
+		FST_PRED_T("fst.pred.t", T_BITS, false),
+		/**
+		 * The tag of the node after the first node of the arc, or a special
+		 * tag if that node is the second node.
+		 */
+		FST_SUCC_T("fst.succ.t", T_BITS, false),
+		/**
+		 * The tag of the node before the second node of the arc, or a
+		 * special tag if that node is the first node.
+		 */
+		SND_PRED_T("snd.pred.t", T_BITS, false),
+		SND_SUCC_T("snd.succ.t", T_BITS, false),
+		SRC_W("src.w", W_BITS, false),
+		SRC_T("src.t", T_BITS, false),
+		TGT_W("tgt.w", W_BITS, false),
+		TGT_T("tgt.t", T_BITS, false),
+		NODE_W("node.w", W_BITS, true),
+		NODE_T("node.t", T_BITS, true),
+		NODE_PRED_T("node.pred.t", T_BITS, true),
+		NODE_SUCC_T("node.succ.t", T_BITS, true),
+		LABEL("label", L_BITS, true);
+
+		private final String name;
+		private final int nBits;
+		private final boolean isLabeled;
+
+		private Attribute(String name, int nBits, boolean isLabeled) {
+			this.name = name;
+			this.nBits = nBits;
+			this.isLabeled = isLabeled;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public int getNBits() {
+			return nBits;
+		}
+
+		/**
+		 * Tests whether this attribute belongs to label templates, as opposed
+		 * to arc templates.
+		 *
+		 * @return {@code true} if this attribute belongs to label templates
+		 */
+		public boolean isLabeled() {
+			return isLabeled;
+		}
+
+		public static Attribute forName(String name) {
+			for (Attribute attribute : values()) {
+				if (attribute.name.equals(name)) {
+					return attribute;
+				}
+			}
+			throw new IllegalArgumentException("unknown attribute: " + name);
+		}
+	}
+
+	/**
+	 * The templates of the original, hand-written featurizer.
+	 */
+	private static final String DEFAULT_SPEC = String.join("\n",
+			"# Tags of the nodes of the arc, the nodes between them, and their neighbours.",
+			"0 fst.t snd.t mid.t",
+			"1 fst.pred.t fst.t snd.t",
+			"2 fst.pred.t fst.t snd.t snd.succ.t",
+			"3 fst.pred.t snd.t snd.succ.t",
+			"4 fst.pred.t fst.t snd.succ.t",
+			"5 fst.t snd.t snd.succ.t",
+			"6 fst.t fst.succ.t snd.pred.t",
+			"7 fst.t fst.succ.t snd.pred.t snd.t",
+			"8 fst.t fst.succ.t snd.t",
+			"9 fst.t snd.pred.t snd.t",
+			"10 fst.succ.t snd.pred.t snd.t",
+			"11 fst.pred.t fst.t snd.pred.t snd.t",
+			"12 fst.t fst.succ.t snd.t snd.succ.t",
+			"# Forms and tags of the source and the target.",
+			"13 src.w",
+			"14 src.w src.t",
+			"15 src.w src.t tgt.t",
+			"16 src.w src.t tgt.t tgt.w",
+			"17 src.w tgt.w",
+			"18 src.w tgt.t",
+			"19 src.t tgt.w",
+			"20 src.t tgt.w tgt.t",
+			"21 src.t tgt.t",
+			"22 tgt.w tgt.t",
+			"23 src.t",
+			"24 tgt.w",
+			"25 tgt.t",
+			"# Labels, with the form and tags of one node of the arc.",
+			"26 label",
+			"27 node.w node.t label",
+			"28 node.t label",
+			"29 node.pred.t node.t label",
+			"30 node.t node.succ.t label",
+			"31 node.pred.t node.t node.succ.t label",
+			"32 node.w label");
+
+	/**
+	 * The default set of templates.
+	 */
+	public static final FeatureTemplates DEFAULT = parse(DEFAULT_SPEC);
+
+	/**
+	 * The set of templates as written.
+	 */
+	private final String spec;
+	/**
+	 * The names of the attributes of the templates, indexed by id.
+	 */
+	private final transient String[] definitions;
+	private final transient Group arcTemplates;
+	/**
+	 * The arc templates whose features do not fit into 64 bits and are
+	 * hashed.
+	 */
+	private final transient Group wideArcTemplates;
+	private final transient Group labelTemplates;
+
+	private FeatureTemplates(String spec, String[] definitions, Group arcTemplates, Group wideArcTemplates, Group labelTemplates) {
+		this.spec = spec;
+		this.definitions = definitions;
+		this.arcTemplates = arcTemplates;
+		this.wideArcTemplates = wideArcTemplates;
+		this.labelTemplates = labelTemplates;
+	}
+
+	/**
+	 * Parses and compiles the specified set of templates.
+	 *
+	 * @param spec the set of templates, one template per line
+	 * @return the compiled set of templates
+	 * @throws IllegalArgumentException if the set of templates is not valid
+	 */
+	public static FeatureTemplates parse(String spec) {
+		String[] definitions = new String[1 << TEMPLATE_BITS];
+		List<Integer> arcIds = new ArrayList<>();
+		List<Attribute[]> arcAttributes = new ArrayList<>();
+		List<Integer> wideArcIds = new ArrayList<>();
+		List<Attribute[]> wideArcAttributes = new ArrayList<>();
+		List<Integer> labelIds = new ArrayList<>();
+		List<Attribute[]> labelAttributes = new ArrayList<>();
+		for (String line : spec.split("\n")) {
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			String[] fields = line.split("\\s+");
+			int id;
+			try {
+				id = Integer.parseInt(fields[0]);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("not a template id: " + fields[0]);
+			}
+			if (id < 0 || id >= definitions.length) {
+				throw new IllegalArgumentException("template id out of range: " + id);
+			}
+			if (definitions[id] != null) {
+				throw new IllegalArgumentException("duplicate template id: " + id);
+			}
+			if (fields.length < 2) {
+				throw new IllegalArgumentException("template " + id + " has no attributes");
+			}
+			Attribute[] attributes = new Attribute[fields.length - 1];
+			for (int i = 1; i < fields.length; i++) {
+				attributes[i - 1] = Attribute.forName(fields[i]);
+				if (attributes[i - 1].isLabeled != attributes[0].isLabeled) {
+					throw new IllegalArgumentException("template " + id + " mixes arc and label attributes");
+				}
+				for (int k = 0; k < i - 1; k++) {
+					if (attributes[k] == attributes[i - 1]) {
+						throw new IllegalArgumentException("template " + id + " uses " + fields[i] + " twice");
+					}
+				}
+			}
+			definitions[id] = String.join(" ", Arrays.copyOfRange(fields, 1, fields.length));
+			int nBits = getNBits(attributes);
+			if (nBits > MAX_WIDE_BITS) {
+				throw new IllegalArgumentException("the features of template " + id + " do not fit into " + MAX_WIDE_BITS + " bits");
+			}
+			if (attributes[0].isLabeled) {
+				if (nBits > Long.SIZE) {
+					throw new IllegalArgumentException("the features of template " + id + " do not fit into 64 bits");
+				}
+				labelIds.add(id);
+				labelAttributes.add(attributes);
+			} else if (nBits > Long.SIZE) {
+				wideArcIds.add(id);
+				wideArcAttributes.add(attributes);
+			} else {
+				arcIds.add(id);
+				arcAttributes.add(attributes);
+			}
+		}
+		return new FeatureTemplates(spec, definitions,
+				new Group(arcIds, arcAttributes, ARC_SUFFIX_BITS, false),
+				new Group(wideArcIds, wideArcAttributes, ARC_SUFFIX_BITS, true),
+				new Group(labelIds, labelAttributes, LABEL_SUFFIX_BITS, false));
+	}
+
+	/**
+	 * Returns the number of bits of the features of a template with the
+	 * specified attributes, including the id and the suffix.
+	 */
+	private static int getNBits(Attribute[] attributes) {
+		int nBits = TEMPLATE_BITS + (attributes[0].isLabeled ? LABEL_SUFFIX_BITS : ARC_SUFFIX_BITS);
+		for (Attribute attribute : attributes) {
+			nBits += attribute.nBits;
+		}
+		return nBits;
+	}
+
+	/**
+	 * Reads and compiles the set of templates in the specified file.
+	 *
+	 * @param fileName the name of the file
+	 * @return the compiled set of templates
+	 * @throws IOException if the file cannot be read
+	 * @throws IllegalArgumentException if the set of templates is not valid
+	 */
+	public static FeatureTemplates read(String fileName) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(fileName), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				sb.append(line).append('\n');
+			}
+		}
+		return parse(sb.toString());
+	}
+
+	/**
+	 * Compiles the set of templates again after deserialization.
+	 */
+	private Object readResolve() {
+		return parse(spec);
+	}
+
+	/**
+	 * Returns the ids of the templates in this set, in ascending order.
+	 *
+	 * @return the ids of the templates in this set
+	 */
+	public int[] getIds() {
+		int[] ids = new int[arcTemplates.ids.length + wideArcTemplates.ids.length + labelTemplates.ids.length];
+		System.arraycopy(arcTemplates.ids, 0, ids, 0, arcTemplates.ids.length);
+		System.arraycopy(wideArcTemplates.ids, 0, ids, arcTemplates.ids.length, wideArcTemplates.ids.length);
+		System.arraycopy(labelTemplates.ids, 0, ids, arcTemplates.ids.length + wideArcTemplates.ids.length, labelTemplates.ids.length);
+		Arrays.sort(ids);
+		return ids;
+	}
+
+	/**
+	 * Returns the names of the attributes of the specified template.
+	 *
+	 * @param id the id of the template
+	 * @return the names of the attributes of the template, separated by
+	 * spaces, or {@code null} if this set has no template with the specified
+	 * id
+	 */
+	public String getDefinition(int id) {
+		return definitions[id];
+	}
+
+	/**
+	 * Tests whether the specified template is a label template, as opposed
+	 * to an arc template.
+	 *
+	 * @param id the id of the template
+	 * @return {@code true} if the template is a label template
+	 */
+	public boolean isLabeled(int id) {
+		return Arrays.binarySearch(labelTemplates.sortedIds, id) >= 0;
+	}
+
+	/**
+	 * Tests whether the features of the specified template are hashed,
+	 * because they do not fit into 64 bits.
+	 *
+	 * @param id the id of the template
+	 * @return {@code true} if the features of the template are hashed
+	 */
+	public boolean isHashed(int id) {
+		return Arrays.binarySearch(wideArcTemplates.sortedIds, id) >= 0;
+	}
+
+	/**
+	 * Tests whether this set has templates whose features are hashed.
+	 *
+	 * @return {@code true} if this set has templates whose features are
+	 * hashed
+	 */
+	public boolean hasHashedTemplates() {
+		return wideArcTemplates.ids.length > 0;
+	}
+
+	/**
+	 * Returns the expected number of collisions among the specified number
+	 * of features of a hashed template. The hashed keys have 56 bits besides
+	 * the id of the template, so this is the expected number of pairs of
+	 * features that share a key, {@code n (n - 1) / 2^57}.
+	 *
+	 * @param nFeatures the number of features of the template
+	 * @return the expected number of collisions
+	 */
+	public static double getExpectedCollisions(long nFeatures) {
+		return nFeatures * (nFeatures - 1.0) / 2.0 / Math.pow(2, Long.SIZE - TEMPLATE_BITS);
+	}
+
+	Group getArcTemplates() {
+		return arcTemplates;
+	}
+
+	Group getWideArcTemplates() {
+		return wideArcTemplates;
+	}
+
+	Group getLabelTemplates() {
+		return labelTemplates;
+	}
+
+	@Override
+	public String toString() {
+		return spec;
+	}
+
+	/**
+	 * The compiled tables of the arc templates or of the label templates.
+	 * The attributes of template {@code j} are at the indexes from
+	 * {@code starts[j]} to {@code starts[j + 1]} in {@code attributes} and in
+	 * {@code shifts}, which holds their positions in the key.
+	 *
+	 * <p>{@link FeatureHandler} builds a key by shifting and or-ing from the
+	 * last attribute down to the id. As shifting distributes over or-ing,
+	 * this is the same as or-ing the id with each attribute shifted to its
+	 * position, even for negative attributes (unknown words and tags). This
+	 * lets {@link EdgeFeaturizer} or together parts of keys that it computes
+	 * separately for each node.
+	 *
+	 * <p>In a group of wide templates, the positions go up to 128 bits, and
+	 * the attributes are masked to their number of bits, so that negative
+	 * attributes do not spill over into the attributes above them.
+	 */
+	static final class Group {
+
+		final int[] ids;
+		final int[] sortedIds;
+		final int[] starts;
+		final Attribute[] attributes;
+		final int[] shifts;
+		/**
+		 * The position of the label in the key of each template, or -1 if
+		 * the template does not use the label.
+		 */
+		final int[] labelShifts;
+		/**
+		 * The position of the tag of the node between the nodes of the arc
+		 * in the key of each template, or -1 if the template does not loop
+		 * over these nodes.
+		 */
+		final int[] midShifts;
+		/**
+		 * The position of the suffix in the key of each template.
+		 */
+		final int[] suffixShifts;
+		/**
+		 * Whether each template loops over the nodes between the nodes of the
+		 * arc.
+		 */
+		final boolean[] loops;
+		/**
+		 * Whether the positions go up to 128 bits rather than 64.
+		 */
+		final boolean isWide;
+		/**
+		 * The number of templates that do and do not loop.
+		 */
+		final int nLooping;
+		final int nFixed;
+		/**
+		 * The index after the last template that loops.
+		 */
+		final int loopEnd;
+
+		Group(List<Integer> ids, List<Attribute[]> attributes, int suffixBits, boolean isWide) {
+			int n = ids.size();
+			this.isWide = isWide;
+			this.ids = new int[n];
+			this.starts = new int[n + 1];
+			this.suffixShifts = new int[n];
+			this.loops = new boolean[n];
+			this.labelShifts = new int[n];
+			this.midShifts = new int[n];
+			int nAttributes = 0;
+			for (Attribute[] a : attributes) {
+				nAttributes += a.length;
+			}
+			this.attributes = new Attribute[nAttributes];
+			this.shifts = new int[nAttributes];
+			int k = 0;
+			int nLooping = 0;
+			int loopEnd = 0;
+			for (int j = 0; j < n; j++) {
+				this.ids[j] = ids.get(j);
+				starts[j] = k;
+				int nBits = TEMPLATE_BITS;
+				labelShifts[j] = -1;
+				midShifts[j] = -1;
+				for (Attribute attribute : attributes.get(j)) {
+					this.attributes[k] = attribute;
+					shifts[k] = nBits;
+					if (attribute == Attribute.LABEL) {
+						labelShifts[j] = nBits;
+					}
+					if (attribute == Attribute.MID_T) {
+						midShifts[j] = nBits;
+						loops[j] = true;
+					}
+					nBits += attribute.nBits;
+					k++;
+				}
+				if (nBits + suffixBits > (isWide ? MAX_WIDE_BITS : Long.SIZE)) {
+					throw new IllegalArgumentException("the features of template " + ids.get(j) + " do not fit into 64 bits");
+				}
+				suffixShifts[j] = nBits;
+				if (loops[j]) {
+					nLooping++;
+					loopEnd = j + 1;
+				}
+			}
+			starts[n] = k;
+			this.sortedIds = this.ids.clone();
+			Arrays.sort(sortedIds);
+			this.nLooping = nLooping;
+			this.nFixed = n - nLooping;
+			this.loopEnd = loopEnd;
+		}
+	}
+}
@@ -24,6 +24,20 @@ public class FeatureVector {
 		features.add(index);
 	}
 
+	/**
+	 * Removes all features that are not marked as active.
+	 *
+	 * @param active the active features
+	 */
+	public void retain(boolean[] active) {
+		TIntIterator it = features.iterator();
+		while (it.hasNext()) {
+			if (!active[it.next()]) {
+				it.remove();
+			}
+		}
+	}
+
 	public void addTo(double[] parameters) {
 		addTo(ONE, parameters);
 	}
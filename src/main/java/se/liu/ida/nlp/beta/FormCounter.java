@@ -0,0 +1,83 @@
+/*
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package se.liu.ida.nlp.beta;
+
+import gnu.trove.list.array.TIntArrayList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import se.liu.ida.nlp.beta.conll.CoNLLTree;
+
+/**
+ * Counts the word forms in a collection of trees, for building a vocabulary of
+ * the most frequent forms.
+ *
+ * @author Marco Kuhlmann <marco.kuhlmann@lingfil.uu.se>
+ */
+public class FormCounter {
+
+	/**
+	 * The forms seen so far, in the order of their first occurrence.
+	 */
+	private final Table<String> forms;
+	/**
+	 * The number of occurrences of each form, indexed by its position in the
+	 * table of forms.
+	 */
+	private final TIntArrayList counts;
+
+	public FormCounter() {
+		this.forms = new Table<>();
+		this.counts = new TIntArrayList();
+	}
+
+	/**
+	 * Counts the forms of the specified tree, including the root node.
+	 *
+	 * @param tree the tree
+	 */
+	public void add(CoNLLTree tree) {
+		for (int i = 0; i < tree.getNNodes(); i++) {
+			int index = forms.addEntry(tree.forms[i]);
+			if (index == counts.size()) {
+				counts.add(1);
+			} else {
+				counts.set(index, counts.get(index) + 1);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of distinct forms seen so far.
+	 *
+	 * @return the number of distinct forms seen so far
+	 */
+	public int getNForms() {
+		return forms.getSize();
+	}
+
+	/**
+	 * Returns the specified number of most frequent forms, ordered by
+	 * decreasing frequency. Forms with the same frequency are ordered by their
+	 * first occurrence.
+	 *
+	 * @param maxForms the maximal number of forms to return
+	 * @return the most frequent forms
+	 */
+	public List<String> getMostFrequent(int maxForms) {
+		int nForms = forms.getSize();
+		Integer[] indexes = new Integer[nForms];
+		for (int i = 0; i < nForms; i++) {
+			indexes[i] = i;
+		}
+		// The sort is stable, so forms with the same count keep their order.
+		Arrays.sort(indexes, (a, b) -> Integer.compare(counts.get(b), counts.get(a)));
+		int n = Math.min(maxForms, nForms);
+		List<String> mostFrequent = new ArrayList<>(n);
+		for (int i = 0; i < n; i++) {
+			mostFrequent.add(forms.getEntry(indexes[i]));
+		}
+		return mostFrequent;
+	}
+}
@@ -0,0 +1,142 @@
+/*
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package se.liu.ida.nlp.beta;
+
+import java.io.Serializable;
+
+/**
+ * Unknown-word classes for the word forms that are not in the vocabulary of a
+ * model.
+ *
+ * <p>A form is mapped to a class by its shape (punctuation, number, hyphenated,
+ * all capitals, capitalized, or lower case) and by a hash of its last
+ * {@value #SUFFIX_LENGTH} characters, folded into a fixed number of suffix
+ * buckets. The class of a form is computed from its characters without any
+ * allocation, so that it can be looked up for every token at parsing time.
+ *
+ * @author Marco Kuhlmann <marco.kuhlmann@lingfil.uu.se>
+ */
+public class FormSignatures implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+	/**
+	 * The number of characters at the end of a form that make up its suffix.
+	 */
+	public static final int SUFFIX_LENGTH = 3;
+	/**
+	 * The default number of suffix buckets.
+	 */
+	public static final int DEFAULT_N_SUFFIX_BUCKETS = 32;
+	/**
+	 * The number of codes available for word forms in feature keys.
+	 */
+	public static final int N_FORM_CODES = 1 << FeatureTemplates.W_BITS;
+
+	private static final int PUNCTUATION = 0;
+	private static final int NUMBER = 1;
+	private static final int HYPHENATED = 2;
+	private static final int ALL_CAPITALS = 3;
+	private static final int CAPITALIZED = 4;
+	private static final int LOWER_CASE = 5;
+	private static final String[] SHAPE_NAMES = {"punct", "number", "hyphen", "caps", "cap", "lower"};
+
+	/**
+	 * The number of suffix buckets.
+	 */
+	private final int nSuffixBuckets;
+
+	/**
+	 * Creates unknown-word classes with the default number of suffix buckets.
+	 */
+	public FormSignatures() {
+		this(DEFAULT_N_SUFFIX_BUCKETS);
+	}
+
+	/**
+	 * Creates unknown-word classes with the specified number of suffix
+	 * buckets.
+	 *
+	 * @param nSuffixBuckets the number of suffix buckets
+	 */
+	public FormSignatures(int nSuffixBuckets) {
+		if (nSuffixBuckets < 1) {
+			throw new IllegalArgumentException("the number of suffix buckets must be positive");
+		}
+		this.nSuffixBuckets = nSuffixBuckets;
+	}
+
+	/**
+	 * Returns the number of unknown-word classes.
+	 *
+	 * @return the number of unknown-word classes
+	 */
+	public int getNSignatures() {
+		return SHAPE_NAMES.length * nSuffixBuckets;
+	}
+
+	/**
+	 * Returns the maximal number of forms in a vocabulary that uses these
+	 * classes, such that all codes fit into the word field of feature keys.
+	 *
+	 * @return the maximal number of forms in the vocabulary
+	 */
+	public int getMaxForms() {
+		return N_FORM_CODES - getNSignatures();
+	}
+
+	/**
+	 * Returns the unknown-word class of the specified form.
+	 *
+	 * @param form the form
+	 * @return the unknown-word class of the form, between 0 (inclusive) and
+	 * {@link #getNSignatures()} (exclusive)
+	 */
+	public int getSignature(String form) {
+		int length = form.length();
+		boolean hasLetter = false;
+		boolean hasDigit = false;
+		boolean hasHyphen = false;
+		boolean hasLowerCase = false;
+		int suffixHash = 0;
+		for (int i = 0; i < length; i++) {
+			char c = form.charAt(i);
+			if (Character.isLetter(c)) {
+				hasLetter = true;
+				hasLowerCase |= Character.isLowerCase(c);
+			} else if (Character.isDigit(c)) {
+				hasDigit = true;
+			} else if (c == '-') {
+				hasHyphen = true;
+			}
+			if (i >= length - SUFFIX_LENGTH) {
+				suffixHash = 31 * suffixHash + Character.toLowerCase(c);
+			}
+		}
+		int shape;
+		if (hasDigit) {
+			shape = NUMBER;
+		} else if (!hasLetter) {
+			shape = PUNCTUATION;
+		} else if (hasHyphen) {
+			shape = HYPHENATED;
+		} else if (!hasLowerCase) {
+			shape = ALL_CAPITALS;
+		} else if (Character.isUpperCase(form.charAt(0))) {
+			shape = CAPITALIZED;
+		} else {
+			shape = LOWER_CASE;
+		}
+		return shape * nSuffixBuckets + (suffixHash & Integer.MAX_VALUE) % nSuffixBuckets;
+	}
+
+	/**
+	 * Returns a readable name for the specified unknown-word class.
+	 *
+	 * @param signature the unknown-word class
+	 * @return a readable name for the class
+	 */
+	public String getName(int signature) {
+		return "<" + SHAPE_NAMES[signature / nSuffixBuckets] + ":" + signature % nSuffixBuckets + ">";
+	}
+}
@@ -0,0 +1,317 @@
+/*
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package se.liu.ida.nlp.beta;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import se.liu.ida.nlp.beta.conll.CoNLLTree;
+
+/**
+ * A cheap first-stage model that selects the candidate heads of each word.
+ *
+ * <p>The model scores every arc using a handful of features over the tags of
+ * the head and the dependent, the tags next to them, the direction, and the
+ * length of the arc. Each feature is an index into a dense array of weights,
+ * so scoring all arcs of a sentence is much cheaper than featurizing them with
+ * {@link EdgeFeaturizer}. The features over three tags are hashed into a table
+ * of fixed size when the tagset is too large for a dense table, so that the
+ * size of the model does not grow with the cube of the number of tags. For each word, the model keeps the {@code k} heads
+ * with the highest scores, and any other heads whose score is within a margin
+ * of the best score; the full model then only scores the kept arcs. Arcs from
+ * the root node are always kept, which guarantees that every sentence has a
+ * tree.
+ *
+ * <p>The weights are trained with an averaged perceptron that predicts the
+ * head of each word independently. This is done alongside the training of the
+ * full model, and does not influence it.
+ *
+ * @author Marco Kuhlmann <marco.kuhlmann@lingfil.uu.se>
+ */
+public class HeadSelector implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+	/**
+	 * The left endpoints of the intervals into which arc lengths are
+	 * quantized.
+	 */
+	private static final int[] LIMITS = new int[]{1, 2, 3, 4, 5, 6, 8, 11, 16, 21, 31};
+	private static final int N_LENGTHS = LIMITS.length;
+	/**
+	 * The number of bits of the index of a hashed feature over three tags.
+	 */
+	private static final int TRIGRAM_BITS = 16;
+	/**
+	 * The number of tag codes, including the codes for unknown tags and for
+	 * the absence of a tag.
+	 */
+	private final int nTags;
+	/**
+	 * The code for unknown tags.
+	 */
+	private final int unknownTag;
+	/**
+	 * The code for the absence of a tag between head and dependent.
+	 */
+	private final int noTag;
+	/**
+	 * The offsets of the feature templates in the weight vector.
+	 */
+	private final int off2;
+	private final int off3;
+	private final int off4;
+	private final int off5;
+	private final int off6;
+	/**
+	 * Whether the features over three tags are hashed.
+	 */
+	private final boolean isHashed;
+	private final double[] weights;
+	/**
+	 * The number of heads kept per word.
+	 */
+	private final int k;
+	/**
+	 * The margin within which heads are kept in addition to the best
+	 * {@code k} heads, or a negative number for no margin.
+	 */
+	private final double margin;
+	/**
+	 * The accumulated updates for averaging, or {@code null} after training.
+	 */
+	private transient double[] acc;
+	private transient int nUpdates;
+
+	/**
+	 * Creates a new selector for a model with the specified number of tags.
+	 *
+	 * @param nTags the number of tags of the model
+	 * @param k the number of heads kept per word
+	 * @param margin the margin within which heads are kept in addition to the
+	 * best {@code k} heads, or a negative number for no margin
+	 */
+	public HeadSelector(int nTags, int k, double margin) {
+		if (k < 1) {
+			throw new IllegalArgumentException("the number of heads must be positive");
+		}
+		this.nTags = nTags + 2;
+		this.unknownTag = nTags;
+		this.noTag = nTags + 1;
+		int t = this.nTags;
+		this.off2 = t * t * 2 * N_LENGTHS;
+		this.off3 = off2 + t * t * 2;
+		this.off4 = off3 + t * 2 * N_LENGTHS;
+		this.off5 = off4 + t * 2 * N_LENGTHS;
+		this.isHashed = (long) t * t * t * 2 > 1 << TRIGRAM_BITS;
+		int trigramSize = isHashed ? 1 << TRIGRAM_BITS : t * t * t * 2;
+		this.off6 = off5 + trigramSize;
+		this.weights = new double[off6 + trigramSize];
+		this.acc = new double[weights.length];
+		this.k = k;
+		this.margin = margin;
+	}
+
+	/**
+	 * Creates a copy of the specified selector with the specified weights.
+	 */
+	private HeadSelector(HeadSelector selector, double[] weights) {
+		this.nTags = selector.nTags;
+		this.unknownTag = selector.unknownTag;
+		this.noTag = selector.noTag;
+		this.off2 = selector.off2;
+		this.off3 = selector.off3;
+		this.off4 = selector.off4;
+		this.off5 = selector.off5;
+		this.off6 = selector.off6;
+		this.isHashed = selector.isHashed;
+		this.weights = weights;
+		this.k = selector.k;
+		this.margin = selector.margin;
+	}
+
+	public int getK() {
+		return k;
+	}
+
+	public double getMargin() {
+		return margin;
+	}
+
+	/**
+	 * Returns the number of weights of this selector.
+	 *
+	 * @return the number of weights of this selector
+	 */
+	int getNWeights() {
+		return weights.length;
+	}
+
+	/**
+	 * Returns the tag codes of the nodes of the specified tree, with unknown
+	 * tags mapped to a code of their own.
+	 *
+	 * @param model the model
+	 * @param tree the tree
+	 * @return the tag codes of the nodes
+	 */
+	public int[] getTags(Model model, CoNLLTree tree) {
+		int nNodes = tree.getNNodes();
+		int[] tags = new int[nNodes];
+		for (int i = 0; i < nNodes; i++) {
+			int tag = model.getCodeForPOSTag(tree.postags[i]);
+			tags[i] = tag < 0 || tag >= unknownTag ? unknownTag : tag;
+		}
+		return tags;
+	}
+
+	private static int quantize(int length) {
+		for (int i = 1; i < N_LENGTHS; i++) {
+			if (length < LIMITS[i]) {
+				return i - 1;
+			}
+		}
+		return N_LENGTHS - 1;
+	}
+
+	/**
+	 * Writes the features of the specified arc into the specified array.
+	 */
+	private void getFeatures(int[] tags, int head, int dep, int[] features) {
+		int t = nTags;
+		int dir = head < dep ? 1 : 0;
+		int length = quantize(Math.abs(head - dep));
+		int headTag = tags[head];
+		int depTag = tags[dep];
+		int step = head < dep ? 1 : -1;
+		int headNext = Math.abs(head - dep) > 1 ? tags[head + step] : noTag;
+		int depNext = Math.abs(head - dep) > 1 ? tags[dep - step] : noTag;
+		int pair = headTag * t + depTag;
+		features[0] = (pair * 2 + dir) * N_LENGTHS + length;
+		features[1] = off2 + pair * 2 + dir;
+		features[2] = off3 + (headTag * 2 + dir) * N_LENGTHS + length;
+		features[3] = off4 + (depTag * 2 + dir) * N_LENGTHS + length;
+		features[4] = off5 + getTrigramIndex((pair * t + headNext) * 2 + dir);
+		features[5] = off6 + getTrigramIndex((pair * t + depNext) * 2 + dir);
+	}
+
+	/**
+	 * Returns the index of a feature over three tags in the table of its
+	 * template.
+	 */
+	private int getTrigramIndex(int feature) {
+		if (isHashed) {
+			return (int) ((feature * 0x9E3779B97F4A7C15L) >>> (Long.SIZE - TRIGRAM_BITS));
+		}
+		return feature;
+	}
+
+	private double score(int[] tags, int head, int dep, int[] features) {
+		getFeatures(tags, head, dep, features);
+		double score = 0.0;
+		for (int feature : features) {
+			score += weights[feature];
+		}
+		return score;
+	}
+
+	/**
+	 * Updates the weights on the specified gold-standard tree.
+	 *
+	 * @param model the model
+	 * @param tree the gold-standard tree
+	 */
+	public void update(Model model, CoNLLTree tree) {
+		int nNodes = tree.getNNodes();
+		int[] tags = getTags(model, tree);
+		int[] features = new int[6];
+		for (int dep = 1; dep < nNodes; dep++) {
+			int bestHead = -1;
+			double bestScore = Double.NEGATIVE_INFINITY;
+			for (int head = 0; head < nNodes; head++) {
+				if (head != dep) {
+					double score = score(tags, head, dep, features);
+					if (score > bestScore) {
+						bestScore = score;
+						bestHead = head;
+					}
+				}
+			}
+			nUpdates++;
+			int goldHead = tree.heads[dep];
+			if (bestHead != goldHead) {
+				getFeatures(tags, goldHead, dep, features);
+				for (int feature : features) {
+					weights[feature] += 1;
+					acc[feature] += nUpdates;
+				}
+				getFeatures(tags, bestHead, dep, features);
+				for (int feature : features) {
+					weights[feature] -= 1;
+					acc[feature] -= nUpdates;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Replaces the weights by the averaged weights and ends the training.
+	 */
+	public void average() {
+		for (int i = 0; i < weights.length; i++) {
+			weights[i] -= acc[i] / (nUpdates + 1);
+		}
+		acc = null;
+	}
+
+	/**
+	 * Returns a copy of this selector with the weights averaged over the
+	 * updates so far. Training of this selector can continue.
+	 *
+	 * @return a copy of this selector with averaged weights
+	 */
+	public HeadSelector getAveraged() {
+		double[] averaged = new double[weights.length];
+		for (int i = 0; i < weights.length; i++) {
+			averaged[i] = weights[i] - acc[i] / (nUpdates + 1);
+		}
+		return new HeadSelector(this, averaged);
+	}
+
+	/**
+	 * Selects the candidate arcs of a sentence.
+	 *
+	 * @param tags the tag codes of the nodes, as returned by
+	 * {@link #getTags(Model, CoNLLTree)}
+	 * @return an array that is {@code true} at index
+	 * {@code head * tags.length + dep} if the arc from {@code head} to
+	 * {@code dep} is kept
+	 */
+	public boolean[] select(int[] tags) {
+		int nNodes = tags.length;
+		boolean[] selected = new boolean[nNodes * nNodes];
+		double[] scores = new double[nNodes];
+		double[] sorted = new double[nNodes - 1];
+		int[] features = new int[6];
+		for (int dep = 1; dep < nNodes; dep++) {
+			int n = 0;
+			for (int head = 0; head < nNodes; head++) {
+				if (head != dep) {
+					scores[head] = score(tags, head, dep, features);
+					sorted[n++] = scores[head];
+				}
+			}
+			Arrays.sort(sorted, 0, n);
+			double threshold = sorted[Math.max(n - k, 0)];
+			if (margin >= 0) {
+				threshold = Math.min(threshold, sorted[n - 1] - margin);
+			}
+			selected[dep] = true;
+			for (int head = 1; head < nNodes; head++) {
+				if (head != dep && scores[head] >= threshold) {
+					selected[head * nNodes + dep] = true;
+				}
+			}
+		}
+		return selected;
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package se.liu.ida.nlp.beta;
+
+import java.util.Random;
+
+/**
+ * Find the best label of an arc.
+ *
+ * <p>The score of an arc with a given label is the sum of the core score of
+ * the arc and two labeled scores, one for the source and one for the target.
+ * The labeled scores for all labels are stored next to each other, so the
+ * search for the best label can be done with vector instructions.
+ *
+ * <p>The implementation is chosen when the class is first used. On Java 8,
+ * this is {@link ScalarLabelArgmax}. The release of Beta for Java 17 and
+ * later additionally contains an implementation that uses the vector API of
+ * the module {@code jdk.incubator.vector}; it is chosen if that module is
+ * available (option {@code --add-modules jdk.incubator.vector}), if the
+ * system property {@code beta.simd} is not {@code false}, and if it returns
+ * the same labels as the scalar implementation on a set of test cases.
+ *
+ * @author Marco Kuhlmann <marco.kuhlmann@lingfil.uu.se>
+ */
+public abstract class LabelArgmax {
+
+	private static final LabelArgmax INSTANCE = LabelArgmaxProvider.create();
+
+	/**
+	 * Returns the implementation used by this virtual machine.
+	 *
+	 * @return the implementation used by this virtual machine
+	 */
+	public static LabelArgmax getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Returns the first label with the highest score. The score of label
+	 * {@code i} is {@code core + src[srcOffset + i] + tgt[tgtOffset + i]},
+	 * summed from left to right. If no score is higher than negative
+	 * infinity, this returns 0.
+	 *
+	 * @param core the core score of the arc
+	 * @param src the labeled scores of the source
+	 * @param srcOffset the offset of the score for label 0 in {@code src}
+	 * @param tgt the labeled scores of the target
+	 * @param tgtOffset the offset of the score for label 0 in {@code tgt}
+	 * @param nLabels the number of labels
+	 * @return the first label with the highest score
+	 */
+	public abstract int argmax(double core, double[] src, int srcOffset, double[] tgt, int tgtOffset, int nLabels);
+
+	/**
+	 * Returns a short name for this implementation.
+	 *
+	 * @return a short name for this implementation
+	 */
+	public abstract String getName();
+
+	/**
+	 * Tests whether the specified implementation returns the same labels as
+	 * {@link ScalarLabelArgmax} on random scores, including ties, infinite
+	 * scores, and all numbers of labels up to 130.
+	 *
+	 * @param candidate the implementation to be tested
+	 * @return {@code true} if the implementation returns the same labels
+	 */
+	public static boolean check(LabelArgmax candidate) {
+		LabelArgmax reference = new ScalarLabelArgmax();
+		Random random = new Random(42);
+		for (int nLabels = 1; nLabels <= 130; nLabels++) {
+			for (int trial = 0; trial < 20; trial++) {
+				double[] src = new double[nLabels + 3];
+				double[] tgt = new double[nLabels + 5];
+				for (int i = 0; i < src.length; i++) {
+					src[i] = getTestScore(random, trial);
+				}
+				for (int i = 0; i < tgt.length; i++) {
+					tgt[i] = getTestScore(random, trial);
+				}
+				double core = trial % 5 == 4 ? Double.NEGATIVE_INFINITY : getTestScore(random, trial);
+				int srcOffset = trial % 4;
+				int tgtOffset = trial % 6;
+				if (candidate.argmax(core, src, srcOffset, tgt, tgtOffset, nLabels) != reference.argmax(core, src, srcOffset, tgt, tgtOffset, nLabels)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns a score for a test case. Some test cases draw from a small set
+	 * of values, which produces many ties.
+	 */
+	private static double getTestScore(Random random, int trial) {
+		switch (trial % 5) {
+			case 0:
+				return random.nextInt(3);
+			case 1:
+				return random.nextInt(5) == 0 ? Double.NEGATIVE_INFINITY : random.nextGaussian();
+			case 2:
+				return -random.nextInt(2) * 0.0;
+			default:
+				return random.nextGaussian() * 100;
+		}
+	}
+}
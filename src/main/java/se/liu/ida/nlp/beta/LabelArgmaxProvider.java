@@ -0,0 +1,21 @@
+/*
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package se.liu.ida.nlp.beta;
+
+/**
+ * Choose the implementation of {@link LabelArgmax}. This is the version for
+ * Java 8, which always chooses {@link ScalarLabelArgmax}; the version for
+ * Java 17 and later is in {@code src/main/java17}.
+ *
+ * @author Marco Kuhlmann <marco.kuhlmann@lingfil.uu.se>
+ */
+final class LabelArgmaxProvider {
+
+	private LabelArgmaxProvider() {
+	}
+
+	static LabelArgmax create() {
+		return new ScalarLabelArgmax();
+	}
+}
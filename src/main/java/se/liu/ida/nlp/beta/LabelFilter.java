@@ -0,0 +1,145 @@
+/*
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package se.liu.ida.nlp.beta;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A dictionary of the labels of arcs.
+ *
+ * <p>For each combination of the tag of the head, the tag of the dependent,
+ * and the direction of the arc, the dictionary records the labels seen with
+ * such arcs in the training data. An arc may only get one of these labels.
+ * Arcs with a combination that was never seen and arcs that involve an unknown
+ * tag may get any label, so the dictionary only restricts the labels of an
+ * arc, never the arc itself.
+ *
+ * @author Marco Kuhlmann <marco.kuhlmann@lingfil.uu.se>
+ */
+public class LabelFilter implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+	/**
+	 * The maximal number of tags, as imposed by {@link EdgeFeaturizer}.
+	 */
+	private static final int MAX_TAGS = 256;
+	/**
+	 * The codes of the labels seen, in ascending order, indexed by head tag,
+	 * dependent tag, and direction; {@code null} if no arc was seen.
+	 */
+	private final int[][] labels;
+
+	/**
+	 * Creates a new dictionary in which all arcs may get any label.
+	 */
+	public LabelFilter() {
+		this.labels = new int[MAX_TAGS * MAX_TAGS * 2][];
+	}
+
+	private static int getIndex(int headTag, int depTag, boolean isRight) {
+		return (headTag * MAX_TAGS + depTag) * 2 + (isRight ? 1 : 0);
+	}
+
+	/**
+	 * Records the specified arc.
+	 *
+	 * @param headTag the tag code of the head
+	 * @param depTag the tag code of the dependent
+	 * @param head the position of the head
+	 * @param dep the position of the dependent
+	 * @param label the label code of the arc
+	 */
+	public void add(int headTag, int depTag, int head, int dep, int label) {
+		int index = getIndex(headTag, depTag, head < dep);
+		int[] seen = labels[index];
+		if (seen == null) {
+			labels[index] = new int[]{label};
+		} else {
+			int i = Arrays.binarySearch(seen, label);
+			if (i < 0) {
+				i = -i - 1;
+				int[] extended = new int[seen.length + 1];
+				System.arraycopy(seen, 0, extended, 0, i);
+				extended[i] = label;
+				System.arraycopy(seen, i, extended, i + 1, seen.length - i);
+				labels[index] = extended;
+			}
+		}
+	}
+
+	/**
+	 * Returns the labels that an arc with the specified tags and direction
+	 * may get.
+	 *
+	 * @param headTag the tag code of the head, or -1 if the tag is unknown
+	 * @param depTag the tag code of the dependent, or -1 if the tag is unknown
+	 * @param isRight whether the head is to the left of the dependent
+	 * @return the codes of the allowed labels in ascending order, or
+	 * {@code null} if any label is allowed; the array must not be modified
+	 */
+	public int[] getLabels(int headTag, int depTag, boolean isRight) {
+		if (headTag < 0 || depTag < 0) {
+			return null;
+		}
+		return labels[getIndex(headTag, depTag, isRight)];
+	}
+
+	/**
+	 * Tests whether the specified label is allowed for an arc with the
+	 * specified tags and direction.
+	 *
+	 * @param headTag the tag code of the head, or -1 if the tag is unknown
+	 * @param depTag the tag code of the dependent, or -1 if the tag is unknown
+	 * @param isRight whether the head is to the left of the dependent
+	 * @param label the label code
+	 * @return {@code true} if the specified label is allowed
+	 */
+	public boolean isAllowed(int headTag, int depTag, boolean isRight, int label) {
+		int[] allowed = getLabels(headTag, depTag, isRight);
+		return allowed == null || Arrays.binarySearch(allowed, label) >= 0;
+	}
+
+	/**
+	 * Returns the number of entries of this dictionary, for all tags and
+	 * directions.
+	 *
+	 * @return the number of entries of this dictionary
+	 */
+	int getNEntries() {
+		return labels.length;
+	}
+
+	/**
+	 * Returns the number of entries of this dictionary for which arcs were
+	 * seen.
+	 *
+	 * @return the number of entries for which arcs were seen
+	 */
+	int getNSeen() {
+		int nSeen = 0;
+		for (int[] seen : labels) {
+			if (seen != null) {
+				nSeen++;
+			}
+		}
+		return nSeen;
+	}
+
+	/**
+	 * Returns the number of labels in this dictionary, summed over all
+	 * entries.
+	 *
+	 * @return the number of labels in this dictionary
+	 */
+	long getNLabels() {
+		long nLabels = 0;
+		for (int[] seen : labels) {
+			if (seen != null) {
+				nLabels += seen.length;
+			}
+		}
+		return nLabels;
+	}
+}
@@ -0,0 +1,236 @@
+/*
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package se.liu.ida.nlp.beta;
+
+import gnu.trove.map.hash.TLongIntHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A cache for the labeled scores of tokens, shared across sentences and
+ * threads.
+ *
+ * <p>The labeled scores that {@link EdgeScorer} computes for a token only
+ * depend on the form and tag of the token and on the tags of its neighbours,
+ * so tokens that occur in the same context in different sentences get the
+ * same scores. The cache maps such a context to the block of scores computed
+ * for it, for all labels, directions, and roles.
+ *
+ * <p>The cache holds a bounded number of blocks. It is divided into stripes,
+ * each with a lock of its own, so that threads rarely wait for each other.
+ * When a stripe is full, a block is evicted using the CLOCK algorithm: every
+ * hit marks a block as used, and the hand of the clock evicts the first block
+ * that has not been used since it last passed it.
+ *
+ * <p>Each block is stored with the version of the weights that it was
+ * computed with, as returned by {@link Model#getWeightVersion()}. A block
+ * with an older version counts as a miss and is replaced.
+ *
+ * @author Marco Kuhlmann <marco.kuhlmann@lingfil.uu.se>
+ */
+public class LabelScoreCache {
+
+	private static final int N_STRIPES = 16;
+	private final Stripe[] stripes;
+	private final int capacity;
+	private final LongAdder nHits;
+	private final LongAdder nMisses;
+	private final LongAdder nEvictions;
+
+	/**
+	 * Creates a new cache that holds at most the specified number of blocks.
+	 *
+	 * @param capacity the maximal number of blocks
+	 */
+	public LabelScoreCache(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("the capacity must be positive");
+		}
+		this.stripes = new Stripe[N_STRIPES];
+		int stripeCapacity = (capacity + N_STRIPES - 1) / N_STRIPES;
+		for (int i = 0; i < N_STRIPES; i++) {
+			stripes[i] = new Stripe(stripeCapacity);
+		}
+		this.capacity = stripeCapacity * N_STRIPES;
+		this.nHits = new LongAdder();
+		this.nMisses = new LongAdder();
+		this.nEvictions = new LongAdder();
+	}
+
+	/**
+	 * Returns the key for the context of a token.
+	 *
+	 * @param form the code of the form of the token, or -1 if it is unknown
+	 * @param tag the code of the tag of the token, or -1 if it is unknown
+	 * @param predTag the code of the tag of the preceding token
+	 * @param succTag the code of the tag of the succeeding token
+	 * @return the key for the context
+	 */
+	public static long getKey(int form, int tag, int predTag, int succTag) {
+		return (long) (form + 1) << 27 | (long) (tag + 1) << 18 | (long) (predTag + 1) << 9 | (succTag + 1);
+	}
+
+	private Stripe getStripe(long key) {
+		return stripes[(int) ((key * 0x9E3779B97F4A7C15L) >>> 60)];
+	}
+
+	/**
+	 * Returns the block of scores for the specified context.
+	 *
+	 * @param key the key for the context
+	 * @param version the current version of the weights
+	 * @return the block of scores, or {@code null} if the cache does not
+	 * hold a block for the context that was computed with the current
+	 * weights; the block must not be modified
+	 */
+	public double[] get(long key, int version) {
+		double[] block = getStripe(key).get(key, version);
+		if (block == null) {
+			nMisses.increment();
+		} else {
+			nHits.increment();
+		}
+		return block;
+	}
+
+	/**
+	 * Adds the block of scores for the specified context.
+	 *
+	 * @param key the key for the context
+	 * @param version the version of the weights with which the block was
+	 * computed
+	 * @param block the block of scores; it must not be modified afterwards
+	 */
+	public void put(long key, int version, double[] block) {
+		if (getStripe(key).put(key, version, block)) {
+			nEvictions.increment();
+		}
+	}
+
+	/**
+	 * Removes all blocks from the cache.
+	 */
+	public void clear() {
+		for (Stripe stripe : stripes) {
+			stripe.clear();
+		}
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Returns the number of blocks in the cache.
+	 *
+	 * @return the number of blocks in the cache
+	 */
+	public int getSize() {
+		int size = 0;
+		for (Stripe stripe : stripes) {
+			size += stripe.getSize();
+		}
+		return size;
+	}
+
+	public long getHits() {
+		return nHits.sum();
+	}
+
+	public long getMisses() {
+		return nMisses.sum();
+	}
+
+	public long getEvictions() {
+		return nEvictions.sum();
+	}
+
+	/**
+	 * Returns the share of lookups that found a block.
+	 *
+	 * @return the share of lookups that found a block
+	 */
+	public double getHitRate() {
+		long hits = getHits();
+		long lookups = hits + getMisses();
+		return lookups == 0 ? 0.0 : (double) hits / lookups;
+	}
+
+	/**
+	 * One stripe of the cache. All methods are synchronized on the stripe.
+	 */
+	private static class Stripe {
+
+		private final TLongIntHashMap slots;
+		private final long[] keys;
+		private final int[] versions;
+		private final double[][] blocks;
+		private final boolean[] used;
+		private int size;
+		private int hand;
+
+		public Stripe(int capacity) {
+			this.slots = new TLongIntHashMap(capacity * 2, 0.5f, Long.MIN_VALUE, -1);
+			this.keys = new long[capacity];
+			this.versions = new int[capacity];
+			this.blocks = new double[capacity][];
+			this.used = new boolean[capacity];
+		}
+
+		public synchronized double[] get(long key, int version) {
+			int slot = slots.get(key);
+			if (slot < 0 || versions[slot] != version) {
+				return null;
+			}
+			used[slot] = true;
+			return blocks[slot];
+		}
+
+		/**
+		 * Adds a block and returns {@code true} if another block had to be
+		 * evicted for it.
+		 */
+		public synchronized boolean put(long key, int version, double[] block) {
+			int slot = slots.get(key);
+			if (slot >= 0) {
+				// Replace a block computed with other weights.
+				versions[slot] = version;
+				blocks[slot] = block;
+				return false;
+			}
+			boolean evicted = false;
+			if (size < keys.length) {
+				slot = size++;
+			} else {
+				while (used[hand]) {
+					used[hand] = false;
+					hand = (hand + 1) % keys.length;
+				}
+				slot = hand;
+				hand = (hand + 1) % keys.length;
+				slots.remove(keys[slot]);
+				evicted = true;
+			}
+			slots.put(key, slot);
+			keys[slot] = key;
+			versions[slot] = version;
+			blocks[slot] = block;
+			used[slot] = false;
+			return evicted;
+		}
+
+		public synchronized void clear() {
+			slots.clear();
+			for (int i = 0; i < size; i++) {
+				blocks[i] = null;
+				used[i] = false;
+			}
+			size = 0;
+			hand = 0;
+		}
+
+		public synchronized int getSize() {
+			return size;
+		}
+	}
+}
@@ -3,16 +3,43 @@
  */
 package se.liu.ida.nlp.beta;
 
+import java.io.BufferedWriter;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
 import java.util.concurrent.TimeUnit;
+import se.liu.ida.nlp.beta.conll.BinaryTreeWriter;
 import se.liu.ida.nlp.beta.conll.CoNLLReader;
 import se.liu.ida.nlp.beta.conll.CoNLLTree;
 import se.liu.ida.nlp.beta.conll.CoNLLWriter;
+import se.liu.ida.nlp.beta.conll.JSONTreeWriter;
+import se.liu.ida.nlp.beta.conll.TreeWriter;
+import se.liu.ida.nlp.beta.eval.Evaluation;
+import se.liu.ida.nlp.beta.eval.Evaluator;
+import se.liu.ida.nlp.beta.metrics.ParseMetrics;
+import se.liu.ida.nlp.beta.mixing.MixingCoordinator;
+import se.liu.ida.nlp.beta.mixing.MixingWorker;
 import se.liu.ida.nlp.beta.options.Option;
 import se.liu.ida.nlp.beta.options.OptionException;
 import se.liu.ida.nlp.beta.options.OptionParser;
+import se.liu.ida.nlp.beta.server.HttpParseServer;
+import se.liu.ida.nlp.beta.server.ParseClient;
+import se.liu.ida.nlp.beta.server.ParseServer;
 
 /**
  * Command-line interface.
@@ -21,6 +48,19 @@ import se.liu.ida.nlp.beta.options.OptionParser;
  */
 public class Main {
 
+	/**
+	 * The default port of the parse server.
+	 */
+	private static final int DEFAULT_PORT = 7420;
+	/**
+	 * The default port of the HTTP parse server.
+	 */
+	private static final int DEFAULT_HTTP_PORT = 7421;
+	/**
+	 * The default port of the coordinator of distributed training.
+	 */
+	private static final int DEFAULT_MIXING_PORT = 7422;
+
 	/**
 	 * Private constructor to prevent instantiation.
 	 */
@@ -40,17 +80,68 @@ public class Main {
 			train(Arrays.copyOfRange(args, 1, args.length));
 			System.exit(0);
 		}
+		if (args[0].equals("worker")) {
+			worker(Arrays.copyOfRange(args, 1, args.length));
+			System.exit(0);
+		}
 		if (args[0].equals("parse")) {
 			parse(Arrays.copyOfRange(args, 1, args.length));
 			System.exit(0);
 		}
+		if (args[0].equals("bench")) {
+			bench(Arrays.copyOfRange(args, 1, args.length));
+			System.exit(0);
+		}
+		if (args[0].equals("serve")) {
+			serve(Arrays.copyOfRange(args, 1, args.length));
+			System.exit(0);
+		}
+		if (args[0].equals("http")) {
+			http(Arrays.copyOfRange(args, 1, args.length));
+			System.exit(0);
+		}
+		if (args[0].equals("client")) {
+			client(Arrays.copyOfRange(args, 1, args.length));
+			System.exit(0);
+		}
+		if (args[0].equals("sweep")) {
+			sweep(Arrays.copyOfRange(args, 1, args.length));
+			System.exit(0);
+		}
+		if (args[0].equals("prune")) {
+			prune(Arrays.copyOfRange(args, 1, args.length));
+			System.exit(0);
+		}
+		if (args[0].equals("precision")) {
+			precision(Arrays.copyOfRange(args, 1, args.length));
+			System.exit(0);
+		}
+		if (args[0].equals("inspect")) {
+			inspect(Arrays.copyOfRange(args, 1, args.length));
+			System.exit(0);
+		}
+		if (args[0].equals("eval")) {
+			eval(Arrays.copyOfRange(args, 1, args.length));
+			System.exit(0);
+		}
 		usage();
 		System.exit(1);
 	}
 
 	private static void usage() {
-		System.err.println("Usage: beta train [-n it] [-s] -i input -m model");
-		System.err.println("       beta parse -m model -i input -o output");
+		System.err.println("Usage: beta train [-n it] [-s] [-F] [-A] [-L] [-X templates] [-V forms] [-k heads [-g margin]] [-T telemetry] [-d dev] [-P patience] [-t threads] -i input -m model");
+		System.err.println("       beta train -W workers [-n it] [-F] [-A] [-X templates] [-V forms] [-b address] [-p port] -i input -m model");
+		System.err.println("       beta worker [-h host] [-p port] -i input");
+		System.err.println("       beta parse [-f format] [-q size] [-t threads] [-C entries] [-R megabytes] [-M seconds] [-S millis] [-L log] -m model [-i input] [-o output]");
+		System.err.println("       beta bench [-w passes] [-r passes] [-t threads] [-C entries] [-R megabytes] [-j json] -m model -i input");
+		System.err.println("       beta serve [-b address] [-p port] [-t threads] [-C entries] [-R megabytes] [-M seconds] -m model");
+		System.err.println("       beta http [-b address] [-p port] [-t threads] [-C entries] [-R megabytes] [-B size] [-D delay] [-M seconds] -m model");
+		System.err.println("       beta client [-h host] [-p port] [-i input] [-o output]");
+		System.err.println("       beta sweep [-n its] [-c cutoffs] [-r seeds] [-t threads] [-m model] -i input -d dev");
+		System.err.println("       beta eval [-p] [-d] [-q] [-t threads] -g gold -s system");
+		System.err.println("       beta inspect [-l length] [-t threads] [-C entries] [-R megabytes] -m model");
+		System.err.println("       beta prune [-w sentences] -m model -i input");
+		System.err.println("       beta precision [-w sentences] [-o output] -m model -i input");
 	}
 
 	public static void train(String[] args) {
@@ -58,32 +149,56 @@ public class Main {
 		OptionParser<TrainOptions> optionParser = new OptionParser<>(options);
 		try {
 			optionParser.parse(args);
+			if (options.patience < 0) {
+				throw new OptionException("option -P requires a non-negative argument");
+			}
+			if (options.patience > 0 && options.devFileName == null) {
+				throw new OptionException("option -P requires option -d");
+			}
+			if (options.nThreads < 1) {
+				throw new OptionException("option -t requires a positive argument");
+			}
+			if (options.nWorkers < 0) {
+				throw new OptionException("option -W requires a non-negative argument");
+			}
+			if (options.nWorkers > 0 && (options.saveIntermediateModels || options.telemetryFileName != null || options.devFileName != null || options.nHeads > 0)) {
+				throw new OptionException("option -W cannot be combined with options -s, -T, -d, and -k");
+			}
+			if (options.nHeads < 0) {
+				throw new OptionException("option -k requires a non-negative argument");
+			}
+			if (options.margin >= 0 && options.nHeads == 0) {
+				throw new OptionException("option -g requires option -k");
+			}
+			if (options.maxForms < 0 || options.maxForms > new FormSignatures().getMaxForms()) {
+				throw new OptionException(String.format("option -V requires an argument between 0 (no limit) and %d", new FormSignatures().getMaxForms()));
+			}
 		} catch (OptionException e) {
 			System.err.println(e.getMessage());
 			optionParser.usage();
 			System.exit(1);
 		}
 
-		System.err.format("Reading from %s ...", options.inputFileName);
-
-		ModelExtractor modelExtractor = new ModelExtractor();
-		try {
-			CoNLLReader reader = new CoNLLReader(options.inputFileName);
-			CoNLLTree tree;
-			while ((tree = reader.read()) != null) {
-				modelExtractor.next(tree);
-			}
-		} catch (FileNotFoundException e) {
-			System.err.println();
-			failWithFileNotFoundException(options.inputFileName);
-		} catch (IOException e) {
-			System.err.println();
-			failWithIOException(options.inputFileName);
+		ModelExtractor modelExtractor = newModelExtractor(options);
+		if (options.maxForms > 0) {
+			closeVocabulary(modelExtractor.getModel(), countForms(options.inputFileName), options.maxForms);
+		}
+		extractModel(modelExtractor, options.inputFileName);
+		if (modelExtractor.getModel().getNForms() > FormSignatures.N_FORM_CODES) {
+			int maxForms = new FormSignatures().getMaxForms();
+			System.err.format("Found %d word forms, more than fit into feature keys; keeping the %d most frequent ones.%n", modelExtractor.getModel().getNForms(), maxForms);
+			modelExtractor = newModelExtractor(options);
+			closeVocabulary(modelExtractor.getModel(), countForms(options.inputFileName), maxForms);
+			extractModel(modelExtractor, options.inputFileName);
 		}
-
-		System.err.println(" done.");
 
 		Model model = modelExtractor.getModel();
+		if (options.pruneArcs) {
+			model.setArcFilter(modelExtractor.getArcFilter());
+		}
+		if (options.pruneLabels) {
+			model.setLabelFilter(modelExtractor.getLabelFilter());
+		}
 
 		int nTrees = modelExtractor.getNTrees();
 		int nWords = model.getNForms();
@@ -92,6 +207,14 @@ public class Main {
 		int nFeatures = model.getNFeatures();
 		System.err.format("Found %d trees, %d word forms, %d tags, and %d edge labels.%n", nTrees, nWords, nTags, nLabels);
 		System.err.format("Extracted %d features.%n", nFeatures);
+		if (model.getFeatureTemplates().hasHashedTemplates()) {
+			new ModelInspector(model).printHashedTemplates(System.err);
+		}
+
+		if (options.nWorkers > 0) {
+			trainDistributed(options, model, nTrees);
+			return;
+		}
 
 		System.err.format("Training ...%n");
 
@@ -99,6 +222,26 @@ public class Main {
 		
 		Trainer trainerHandler = new Trainer(model, parser);
 
+		HeadSelector headSelector = null;
+		if (options.nHeads > 0) {
+			headSelector = new HeadSelector(model.getNPOSTags(), options.nHeads, options.margin);
+		}
+
+		Writer telemetryWriter = null;
+		if (options.telemetryFileName != null) {
+			trainerHandler.setTiming(true);
+			try {
+				telemetryWriter = new BufferedWriter(new FileWriter(options.telemetryFileName));
+			} catch (IOException e) {
+				failWithIOException(options.telemetryFileName);
+			}
+		}
+
+		DevEvaluator devEvaluator = null;
+		if (options.devFileName != null) {
+			devEvaluator = new DevEvaluator(readTrees(options.devFileName), options.nThreads);
+		}
+
 		long trainingStarted = System.currentTimeMillis();
 
 		for (int i = 0; i < options.nIterations; i++) {
@@ -111,6 +254,9 @@ public class Main {
 				CoNLLTree tree;
 				while ((tree = reader.read()) != null) {
 					trainerHandler.update(tree);
+					if (headSelector != null) {
+						headSelector.update(model, tree);
+					}
 					progressPrinter.update();
 				}
 				reader.close();
@@ -122,12 +268,30 @@ public class Main {
 
 			progressPrinter.exit();
 
+			TrainingStats stats = trainerHandler.getAndResetStats();
+			System.err.format(Locale.ROOT, "Updated on %.1f%% of the sentences; training UAS %.2f%%, LAS %.2f%%.%n", stats.getUpdateRate() * 100, stats.getUAS() * 100, stats.getLAS() * 100);
+			if (telemetryWriter != null) {
+				try {
+					telemetryWriter.write(stats.toJSON(i + 1, model.getWeightVector()));
+					telemetryWriter.write('\n');
+					telemetryWriter.flush();
+				} catch (IOException e) {
+					failWithIOException(options.telemetryFileName);
+				}
+			}
+
 			if (options.saveIntermediateModels) {
 				System.err.print("Saving the intermediate model ...");
 				String intermediateFile = String.format("%s.%02d", options.modelFileName, i + 1);
 				double[] averagedWeightVector = trainerHandler.getAveragedWeightVector();
 				Model intermediateModel = new Model(model);
 				intermediateModel.setWeightVector(averagedWeightVector);
+				if (headSelector != null) {
+					intermediateModel.setHeadSelector(headSelector.getAveraged());
+				}
+				if (options.singlePrecision) {
+					intermediateModel = intermediateModel.toSinglePrecision();
+				}
 				try {
 					intermediateModel.save(intermediateFile);
 				} catch (IOException e) {
@@ -136,10 +300,56 @@ public class Main {
 				}
 				System.err.format(" %s%n", intermediateFile);
 			}
+
+			if (devEvaluator != null) {
+				Model snapshot = new Model(model);
+				snapshot.setWeightVector(trainerHandler.getAveragedWeightVector());
+				if (headSelector != null) {
+					// Evaluate with the pruning of the selector as averaged so
+					// far, which is the selector saved with the snapshot.
+					snapshot.setHeadSelector(headSelector.getAveraged());
+				}
+				if (options.singlePrecision) {
+					snapshot = snapshot.toSinglePrecision();
+				}
+				devEvaluator.submit(i + 1, snapshot);
+				for (DevEvaluator.Result result : devEvaluator.poll()) {
+					reportDevResult(result, devEvaluator, telemetryWriter, options.telemetryFileName);
+				}
+				if (options.patience > 0 && devEvaluator.getNIterationsWithoutImprovement() >= options.patience && i + 1 < options.nIterations) {
+					System.err.format("Stopping early after iteration %d: no improvement on the development data since iteration %d.%n", i + 1, devEvaluator.getBest().getIteration());
+					break;
+				}
+			}
+		}
+		if (devEvaluator != null) {
+			for (DevEvaluator.Result result : devEvaluator.awaitAll()) {
+				reportDevResult(result, devEvaluator, telemetryWriter, options.telemetryFileName);
+			}
+			devEvaluator.close();
+			DevEvaluator.Result best = devEvaluator.getBest();
+			System.err.format(Locale.ROOT, "Best iteration on the development data: %d (LAS %.2f%%).%n", best.getIteration(), best.getEvaluation().getLAS() * 100);
+			model = best.getModel();
+		} else {
+			trainerHandler.averageWeightVector();
+			if (headSelector != null) {
+				headSelector.average();
+				model.setHeadSelector(headSelector);
+			}
+		}
+		if (options.singlePrecision && !model.isSinglePrecision()) {
+			model = model.toSinglePrecision();
 		}
-		trainerHandler.averageWeightVector();
 		System.err.println("Finished training.");
 
+		if (telemetryWriter != null) {
+			try {
+				telemetryWriter.close();
+			} catch (IOException e) {
+				failWithIOException(options.telemetryFileName);
+			}
+		}
+
 		System.err.format("Training took %s.%n", formatTimeDifference(trainingStarted, System.currentTimeMillis()));
 
 		System.err.print("Saving the final model ...");
@@ -152,6 +362,56 @@ public class Main {
 		System.err.format(" %s%n", options.modelFileName);
 	}
 
+	/**
+	 * Trains the specified model by iterative parameter mixing, with the
+	 * training data split among the workers that connect to this process.
+	 */
+	private static void trainDistributed(TrainOptions options, Model model, int nTrees) {
+		long trainingStarted = System.currentTimeMillis();
+		try (ServerSocket serverSocket = new ServerSocket();
+				MixingCoordinator coordinator = new MixingCoordinator(model, nTrees, options.nWorkers)) {
+			serverSocket.setReuseAddress(true);
+			serverSocket.bind(new InetSocketAddress(options.bindAddress, options.port));
+			System.err.format("Waiting for %d workers on %s:%d ...%n", options.nWorkers, options.bindAddress, serverSocket.getLocalPort());
+			coordinator.accept(serverSocket, System.err);
+			System.err.format("Training ...%n");
+			coordinator.train(options.nIterations, System.err);
+		} catch (IOException e) {
+			System.err.format("I/O error while coordinating the workers on %s:%d: %s%n", options.bindAddress, options.port, e.getMessage());
+			System.exit(1);
+		}
+		if (options.singlePrecision) {
+			model = model.toSinglePrecision();
+		}
+		System.err.println("Finished training.");
+
+		System.err.format("Training took %s.%n", formatTimeDifference(trainingStarted, System.currentTimeMillis()));
+
+		System.err.print("Saving the final model ...");
+		try {
+			model.save(options.modelFileName);
+		} catch (IOException e) {
+			System.err.println();
+			failWithIOException(options.modelFileName);
+		}
+		System.err.format(" %s%n", options.modelFileName);
+	}
+
+	private static void reportDevResult(DevEvaluator.Result result, DevEvaluator devEvaluator, Writer telemetryWriter, String telemetryFileName) {
+		Evaluation evaluation = result.getEvaluation();
+		boolean isBest = devEvaluator.getBest() == result;
+		System.err.format(Locale.ROOT, "Development data after iteration %d: LAS %.2f%%, UAS %.2f%%, LA %.2f%%%s%n", result.getIteration(), evaluation.getLAS() * 100, evaluation.getUAS() * 100, evaluation.getLA() * 100, isBest ? " (best so far)" : "");
+		if (telemetryWriter != null) {
+			try {
+				telemetryWriter.write(String.format(Locale.ROOT, "{\"iteration\":%d,\"devLAS\":%.4f,\"devUAS\":%.4f,\"devLA\":%.4f,\"devSeconds\":%.3f,\"best\":%b}\n",
+						result.getIteration(), evaluation.getLAS(), evaluation.getUAS(), evaluation.getLA(), result.getTime() / 1e9, isBest));
+				telemetryWriter.flush();
+			} catch (IOException e) {
+				failWithIOException(telemetryFileName);
+			}
+		}
+	}
+
 	public static class TrainOptions {
 
 		@Option(name = "-i", argument = "FILE", usage = "Read input data from FILE", required = true)
@@ -162,60 +422,159 @@ public class Main {
 		public int nIterations = 1;
 		@Option(name = "-s", usage = "Save intermediate models")
 		public boolean saveIntermediateModels = false;
+		@Option(name = "-T", argument = "FILE", usage = "Write statistics about each iteration to FILE")
+		public String telemetryFileName;
+		@Option(name = "-d", argument = "FILE", usage = "Evaluate on the development data in FILE after each iteration")
+		public String devFileName;
+		@Option(name = "-P", argument = "ITERS", usage = "Stop after ITERS iterations without improvement on the development data")
+		public int patience;
+		@Option(name = "-t", argument = "THREADS", usage = "Parse the development data using THREADS threads")
+		public int nThreads = Runtime.getRuntime().availableProcessors();
+		@Option(name = "-A", usage = "Prune arcs that are longer than all arcs with the same tags and direction in the input data")
+		public boolean pruneArcs = false;
+		@Option(name = "-F", usage = "Save the model with its weights in single precision")
+		public boolean singlePrecision = false;
+		@Option(name = "-L", usage = "Only consider the labels seen with the same tags and direction in the input data")
+		public boolean pruneLabels = false;
+		@Option(name = "-X", argument = "FILE", usage = "Read the feature templates from FILE")
+		public String templatesFileName;
+		@Option(name = "-V", argument = "FORMS", usage = "Keep the FORMS most frequent word forms and map the others to unknown-word classes")
+		public int maxForms;
+		@Option(name = "-k", argument = "HEADS", usage = "Train a first-stage model that keeps the HEADS best heads of each word")
+		public int nHeads;
+		@Option(name = "-g", argument = "MARGIN", usage = "Also keep the heads within MARGIN of the best head (requires -k)")
+		public double margin = -1;
+		@Option(name = "-W", argument = "WORKERS", usage = "Train by parameter mixing over WORKERS worker processes")
+		public int nWorkers;
+		@Option(name = "-b", argument = "ADDRESS", usage = "Wait for the workers on ADDRESS (default: the loopback address)")
+		public String bindAddress = "127.0.0.1";
+		@Option(name = "-p", argument = "PORT", usage = "Wait for the workers on PORT")
+		public int port = DEFAULT_MIXING_PORT;
 	}
 
-	public static void parse(String[] args) {
-		ParseOptions options = new ParseOptions();
-		OptionParser<ParseOptions> optionParser = new OptionParser<>(options);
+	public static void worker(String[] args) {
+		WorkerOptions options = new WorkerOptions();
+		OptionParser<WorkerOptions> optionParser = new OptionParser<>(options);
 		try {
 			optionParser.parse(args);
+			if (options.timeout < 0) {
+				throw new OptionException("option -w requires a non-negative argument");
+			}
 		} catch (OptionException e) {
 			System.err.println(e.getMessage());
 			optionParser.usage();
 			System.exit(1);
 		}
 
-		System.err.print("Loading the model ...");
-		Model model = null;
-		try {
-			model = Model.load(options.modelFileName);
+		// The workers are often started together with the coordinator, so
+		// keep trying to connect for a while.
+
+		Socket socket = null;
+		long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(options.timeout);
+		while (socket == null) {
+			try {
+				socket = new Socket(options.host, options.port);
+			} catch (IOException e) {
+				if (System.currentTimeMillis() >= deadline) {
+					System.err.format("Could not connect to %s:%d%n", options.host, options.port);
+					System.exit(1);
+				}
+				try {
+					Thread.sleep(200);
+				} catch (InterruptedException ie) {
+					System.exit(1);
+				}
+			}
+		}
+
+		try (MixingWorker worker = new MixingWorker(socket)) {
+			System.err.format("Reading from %s ...", options.inputFileName);
+			worker.setUp(options.inputFileName);
+			System.err.println(" done.");
+			System.err.format("Training on shard %d of %d (%d trees).%n", worker.getShard() + 1, worker.getNShards(), worker.getNTrees());
+			worker.run(System.err);
 		} catch (FileNotFoundException e) {
-			System.err.println();
-			failWithFileNotFoundException(options.modelFileName);
+			failWithFileNotFoundException(options.inputFileName);
 		} catch (IOException e) {
 			System.err.println();
-			failWithIOException(options.modelFileName);
+			System.err.format("I/O error while training with %s:%d: %s%n", options.host, options.port, e.getMessage());
+			System.exit(1);
 		}
-		System.err.println(" done.");
+		System.err.println("Finished training.");
+	}
+
+	public static class WorkerOptions {
+
+		@Option(name = "-i", argument = "FILE", usage = "Read input data from FILE", required = true)
+		public String inputFileName;
+		@Option(name = "-h", argument = "HOST", usage = "Connect to the coordinator on HOST")
+		public String host = "localhost";
+		@Option(name = "-p", argument = "PORT", usage = "Connect to the coordinator on PORT")
+		public int port = DEFAULT_MIXING_PORT;
+		@Option(name = "-w", argument = "SECONDS", usage = "Keep trying to connect for SECONDS seconds")
+		public int timeout = 60;
+	}
+
+	public static void parse(String[] args) {
+		ParseOptions options = new ParseOptions();
+		OptionParser<ParseOptions> optionParser = new OptionParser<>(options);
+		try {
+			optionParser.parse(args);
+			if (options.queueSize < 1) {
+				throw new OptionException("option -q requires a positive argument");
+			}
+			if (options.nThreads < 1) {
+				throw new OptionException("option -t requires a positive argument");
+			}
+			if (options.metricsPeriod < 0) {
+				throw new OptionException("option -M requires a non-negative argument");
+			}
+			checkCacheSizes(options.labelCacheSize, options.parseCacheSize);
+		} catch (OptionException e) {
+			System.err.println(e.getMessage());
+			optionParser.usage();
+			System.exit(1);
+		}
+
+		Model model = loadModel(options.modelFileName);
+		configureCaches(model, options.labelCacheSize, options.parseCacheSize);
+		startMetrics(options.metricsPeriod);
 
 		System.err.println("Parsing ...");
 
 		long parsingStarted = System.currentTimeMillis();
 
-		Parser parser = new Parser(model);
 		ProgressPrinter progressPrinter = new ProgressPrinter();
 
+		String inputName = options.inputFileName == null ? "standard input" : options.inputFileName;
+		String outputName = options.outputFileName == null ? "standard output" : options.outputFileName;
+
 		CoNLLReader reader = null;
 		try {
-			reader = new CoNLLReader(options.inputFileName);
+			reader = openReader(options.inputFileName);
 		} catch (FileNotFoundException e) {
-			failWithFileNotFoundException(options.inputFileName);
+			failWithFileNotFoundException(inputName);
 		}
-		CoNLLWriter writer = null;
+		TreeWriter writer = null;
 		try {
-			writer = new CoNLLWriter(options.outputFileName);
+			writer = openWriter(options.outputFormat, options.outputFileName, model);
 		} catch (IOException e) {
-			failWithIOException(options.outputFileName);
+			failWithIOException(outputName);
 		}
-		try {
-			CoNLLTree tree;
-			while ((tree = reader.read()) != null) {
-				writer.write(parser.getBestParse(tree));
-				progressPrinter.update();
+		SlowSentenceLog slowLog = null;
+		if (options.slowThreshold >= 0) {
+			try {
+				slowLog = new SlowSentenceLog(options.slowLogFileName, options.slowThreshold);
+			} catch (IOException e) {
+				failWithIOException(options.slowLogFileName);
 			}
+		}
+		try (ParserService service = new ParserService(model, options.nThreads)) {
+			ParsePipeline pipeline = new ParsePipeline(service, options.queueSize, options.outputFileName == null, slowLog);
+			pipeline.run(reader, writer, progressPrinter);
 		} catch (IOException e) {
 			System.err.println();
-			failWithIOException(options.inputFileName);
+			failWithIOException(inputName);
 		}
 
 		progressPrinter.exit();
@@ -223,29 +582,615 @@ public class Main {
 		try {
 			reader.close();
 		} catch (IOException e) {
-			failWithIOException(options.inputFileName);
+			failWithIOException(inputName);
 		}
 		try {
 			writer.close();
 		} catch (IOException e) {
-			failWithIOException(options.outputFileName);
+			failWithIOException(outputName);
+		}
+
+		if (slowLog != null) {
+			try {
+				slowLog.close();
+			} catch (IOException e) {
+				failWithIOException(options.slowLogFileName);
+			}
+			System.err.format("Logged %d slow sentences to %s.%n", slowLog.getNLogged(), options.slowLogFileName);
 		}
 
 		System.err.println("Finished parsing.");
 
+		if (options.metricsPeriod > 0) {
+			System.err.println(ParseMetrics.getInstance().getSnapshot());
+		}
+
 		System.err.format("Parsing took %s.%n", formatTimeDifference(parsingStarted, System.currentTimeMillis()));
 	}
 
 	public static class ParseOptions {
 
+		@Option(name = "-m", argument = "FILE", usage = "Read the parser model from FILE", required = true)
+		public String modelFileName;
+		@Option(name = "-i", argument = "FILE", usage = "Read input data from FILE (default: standard input)")
+		public String inputFileName;
+		@Option(name = "-o", argument = "FILE", usage = "Write output data to FILE (default: standard output)")
+		public String outputFileName;
+		@Option(name = "-q", argument = "SIZE", usage = "Read at most SIZE sentences ahead of the output")
+		public int queueSize = 64;
+		@Option(name = "-t", argument = "THREADS", usage = "Parse using THREADS threads")
+		public int nThreads = 1;
+		@Option(name = "-f", argument = "conll|binary|json", usage = "Write output data in the specified format")
+		public String outputFormat = "conll";
+		@Option(name = "-S", argument = "MILLIS", usage = "Log sentences that take at least MILLIS ms to parse")
+		public int slowThreshold = -1;
+		@Option(name = "-L", argument = "FILE", usage = "Write the log of slow sentences to FILE")
+		public String slowLogFileName = "slow.conll";
+		@Option(name = "-M", argument = "SECONDS", usage = "Print parse metrics to standard error every SECONDS seconds")
+		public int metricsPeriod;
+		@Option(name = "-C", argument = "ENTRIES", usage = "Cache the labeled scores of up to ENTRIES token contexts")
+		public int labelCacheSize;
+		@Option(name = "-R", argument = "MEGABYTES", usage = "Cache the parses of repeated sentences in up to MEGABYTES MB")
+		public int parseCacheSize;
+	}
+
+	public static void bench(String[] args) {
+		BenchOptions options = new BenchOptions();
+		OptionParser<BenchOptions> optionParser = new OptionParser<>(options);
+		try {
+			optionParser.parse(args);
+			if (options.nThreads < 1) {
+				throw new OptionException("option -t requires a positive argument");
+			}
+			if (options.nPasses < 1) {
+				throw new OptionException("option -r requires a positive argument");
+			}
+			checkCacheSizes(options.labelCacheSize, options.parseCacheSize);
+		} catch (OptionException e) {
+			System.err.println(e.getMessage());
+			optionParser.usage();
+			System.exit(1);
+		}
+
+		long loadingStarted = System.currentTimeMillis();
+		Model model = loadModel(options.modelFileName);
+		configureCaches(model, options.labelCacheSize, options.parseCacheSize);
+		System.err.format("Loading took %d ms.%n", System.currentTimeMillis() - loadingStarted);
+
+		List<CoNLLTree> trees = readTrees(options.inputFileName);
+
+		System.err.format("Running %d warmup and %d measured passes with %d threads ...", options.nWarmupPasses, options.nPasses, options.nThreads);
+		ParseBenchmark benchmark = new ParseBenchmark(model, trees, options.nThreads);
+		benchmark.run(options.nWarmupPasses, options.nPasses);
+		System.err.println(" done.");
+
+		benchmark.printTable(System.out);
+
+		System.out.format("Label argmax: %s%n", LabelArgmax.getInstance().getName());
+		LabelScoreCache cache = model.getLabelScoreCache();
+		if (cache != null) {
+			System.out.format(Locale.ROOT, "Label score cache: %d hits, %d misses (hit rate %.2f%%), %d evictions, %d of %d entries used%n",
+					cache.getHits(), cache.getMisses(), cache.getHitRate() * 100, cache.getEvictions(), cache.getSize(), cache.getCapacity());
+		}
+		ParseCache parseCache = model.getParseCache();
+		if (parseCache != null) {
+			System.out.format(Locale.ROOT, "Parse cache: %d hits, %d misses (hit rate %.2f%%), %d evictions, %d entries in %.1f of %.1f MB%n",
+					parseCache.getHits(), parseCache.getMisses(), parseCache.getHitRate() * 100, parseCache.getEvictions(), parseCache.getSize(),
+					parseCache.getBytes() / (double) (1 << 20), parseCache.getMaxBytes() / (double) (1 << 20));
+		}
+
+		if (options.jsonFileName != null) {
+			try (Writer writer = new BufferedWriter(new FileWriter(options.jsonFileName))) {
+				benchmark.writeJSON(writer);
+			} catch (IOException e) {
+				failWithIOException(options.jsonFileName);
+			}
+		}
+	}
+
+	public static class BenchOptions {
+
 		@Option(name = "-m", argument = "FILE", usage = "Read the parser model from FILE", required = true)
 		public String modelFileName;
 		@Option(name = "-i", argument = "FILE", usage = "Read input data from FILE", required = true)
 		public String inputFileName;
-		@Option(name = "-o", argument = "FILE", usage = "Write output data to FILE", required = true)
+		@Option(name = "-w", argument = "PASSES", usage = "Do PASSES warmup passes over the input data")
+		public int nWarmupPasses = 1;
+		@Option(name = "-r", argument = "PASSES", usage = "Do PASSES measured passes over the input data")
+		public int nPasses = 3;
+		@Option(name = "-t", argument = "THREADS", usage = "Parse using THREADS threads")
+		public int nThreads = 1;
+		@Option(name = "-j", argument = "FILE", usage = "Write a JSON summary to FILE")
+		public String jsonFileName;
+		@Option(name = "-C", argument = "ENTRIES", usage = "Cache the labeled scores of up to ENTRIES token contexts")
+		public int labelCacheSize;
+		@Option(name = "-R", argument = "MEGABYTES", usage = "Cache the parses of repeated sentences in up to MEGABYTES MB")
+		public int parseCacheSize;
+	}
+
+	/**
+	 * Checks the sizes of the label score cache (option -C) and the parse
+	 * cache (option -R).
+	 */
+	private static void checkCacheSizes(int labelCacheSize, int parseCacheSize) throws OptionException {
+		if (labelCacheSize < 0) {
+			throw new OptionException("option -C requires a non-negative argument");
+		}
+		if (parseCacheSize < 0) {
+			throw new OptionException("option -R requires a non-negative argument");
+		}
+	}
+
+	/**
+	 * Sets up the label score cache (option -C) and the parse cache (option
+	 * -R) on the specified model.
+	 */
+	private static void configureCaches(Model model, int labelCacheSize, int parseCacheSize) {
+		if (labelCacheSize > 0) {
+			model.setLabelScoreCache(new LabelScoreCache(labelCacheSize));
+		}
+		if (parseCacheSize > 0) {
+			model.setParseCache(new ParseCache(parseCacheSize * (1L << 20)));
+		}
+	}
+
+	private static ModelExtractor newModelExtractor(TrainOptions options) {
+		ModelExtractor modelExtractor = new ModelExtractor();
+		if (options.templatesFileName != null) {
+			try {
+				modelExtractor.getModel().setFeatureTemplates(FeatureTemplates.read(options.templatesFileName));
+			} catch (FileNotFoundException e) {
+				failWithFileNotFoundException(options.templatesFileName);
+			} catch (IOException e) {
+				failWithIOException(options.templatesFileName);
+			} catch (IllegalArgumentException e) {
+				System.err.format("Invalid feature templates in %s: %s%n", options.templatesFileName, e.getMessage());
+				System.exit(1);
+			}
+		}
+		return modelExtractor;
+	}
+
+	private static void extractModel(ModelExtractor modelExtractor, String fileName) {
+		System.err.format("Reading from %s ...", fileName);
+
+		try {
+			CoNLLReader reader = new CoNLLReader(fileName);
+			CoNLLTree tree;
+			while ((tree = reader.read()) != null) {
+				modelExtractor.next(tree);
+			}
+		} catch (FileNotFoundException e) {
+			System.err.println();
+			failWithFileNotFoundException(fileName);
+		} catch (IOException e) {
+			System.err.println();
+			failWithIOException(fileName);
+		}
+
+		System.err.println(" done.");
+	}
+
+	private static FormCounter countForms(String fileName) {
+		System.err.format("Counting word forms in %s ...", fileName);
+		FormCounter formCounter = new FormCounter();
+		try {
+			CoNLLReader reader = new CoNLLReader(fileName);
+			CoNLLTree tree;
+			while ((tree = reader.read()) != null) {
+				formCounter.add(tree);
+			}
+			reader.close();
+		} catch (FileNotFoundException e) {
+			System.err.println();
+			failWithFileNotFoundException(fileName);
+		} catch (IOException e) {
+			System.err.println();
+			failWithIOException(fileName);
+		}
+		System.err.println(" done.");
+		return formCounter;
+	}
+
+	private static void closeVocabulary(Model model, FormCounter formCounter, int maxForms) {
+		FormSignatures formSignatures = new FormSignatures();
+		model.closeVocabulary(formCounter.getMostFrequent(maxForms), formSignatures);
+		System.err.format("Kept the %d most frequent of %d word forms; the others are mapped to %d unknown-word classes.%n", Math.min(maxForms, formCounter.getNForms()), formCounter.getNForms(), formSignatures.getNSignatures());
+	}
+
+	private static List<CoNLLTree> readTrees(String fileName) {
+		List<CoNLLTree> trees = new ArrayList<>();
+		try {
+			CoNLLReader reader = new CoNLLReader(fileName);
+			CoNLLTree tree;
+			while ((tree = reader.read()) != null) {
+				trees.add(tree);
+			}
+			reader.close();
+		} catch (FileNotFoundException e) {
+			failWithFileNotFoundException(fileName);
+		} catch (IOException e) {
+			failWithIOException(fileName);
+		}
+		return trees;
+	}
+
+	public static void serve(String[] args) {
+		ServeOptions options = new ServeOptions();
+		OptionParser<ServeOptions> optionParser = new OptionParser<>(options);
+		try {
+			optionParser.parse(args);
+			if (options.nThreads < 1) {
+				throw new OptionException("option -t requires a positive argument");
+			}
+			if (options.metricsPeriod < 0) {
+				throw new OptionException("option -M requires a non-negative argument");
+			}
+			checkCacheSizes(options.labelCacheSize, options.parseCacheSize);
+		} catch (OptionException e) {
+			System.err.println(e.getMessage());
+			optionParser.usage();
+			System.exit(1);
+		}
+
+		Model model = loadModel(options.modelFileName);
+		configureCaches(model, options.labelCacheSize, options.parseCacheSize);
+		startMetrics(options.metricsPeriod);
+
+		ParseServer server = new ParseServer(new ParserService(model, options.nThreads));
+		try (ServerSocket serverSocket = new ServerSocket(options.port, 0, InetAddress.getByName(options.bindAddress))) {
+			System.err.format("Listening on %s:%d with %d parser threads.%n", options.bindAddress, serverSocket.getLocalPort(), options.nThreads);
+			server.serve(serverSocket);
+		} catch (IOException e) {
+			System.err.println();
+			System.err.format("I/O error while serving on %s:%d%n", options.bindAddress, options.port);
+			System.exit(1);
+		}
+	}
+
+	public static class ServeOptions {
+
+		@Option(name = "-m", argument = "FILE", usage = "Read the parser model from FILE", required = true)
+		public String modelFileName;
+		@Option(name = "-b", argument = "ADDRESS", usage = "Listen on ADDRESS (default: the loopback address)")
+		public String bindAddress = "127.0.0.1";
+		@Option(name = "-p", argument = "PORT", usage = "Listen on PORT")
+		public int port = DEFAULT_PORT;
+		@Option(name = "-t", argument = "THREADS", usage = "Parse using THREADS threads")
+		public int nThreads = Runtime.getRuntime().availableProcessors();
+		@Option(name = "-M", argument = "SECONDS", usage = "Print parse metrics to standard error every SECONDS seconds")
+		public int metricsPeriod;
+		@Option(name = "-C", argument = "ENTRIES", usage = "Cache the labeled scores of up to ENTRIES token contexts")
+		public int labelCacheSize;
+		@Option(name = "-R", argument = "MEGABYTES", usage = "Cache the parses of repeated sentences in up to MEGABYTES MB")
+		public int parseCacheSize;
+	}
+
+	public static void http(String[] args) {
+		HttpOptions options = new HttpOptions();
+		OptionParser<HttpOptions> optionParser = new OptionParser<>(options);
+		try {
+			optionParser.parse(args);
+			if (options.nThreads < 1) {
+				throw new OptionException("option -t requires a positive argument");
+			}
+			if (options.maxBatchSize < 1) {
+				throw new OptionException("option -B requires a positive argument");
+			}
+			if (options.metricsPeriod < 0) {
+				throw new OptionException("option -M requires a non-negative argument");
+			}
+			checkCacheSizes(options.labelCacheSize, options.parseCacheSize);
+		} catch (OptionException e) {
+			System.err.println(e.getMessage());
+			optionParser.usage();
+			System.exit(1);
+		}
+
+		Model model = loadModel(options.modelFileName);
+		configureCaches(model, options.labelCacheSize, options.parseCacheSize);
+		startMetrics(options.metricsPeriod);
+
+		HttpParseServer server = new HttpParseServer(new ParserService(model, options.nThreads), options.maxBatchSize, options.maxDelay);
+		try {
+			InetSocketAddress address = server.start(new InetSocketAddress(options.bindAddress, options.port));
+			System.err.format("Listening on http://%s:%d/ with %d parser threads.%n", options.bindAddress, address.getPort(), options.nThreads);
+			server.awaitTermination();
+		} catch (IOException e) {
+			System.err.format("I/O error while serving on %s:%d%n", options.bindAddress, options.port);
+			System.exit(1);
+		} catch (InterruptedException e) {
+			server.stop();
+		}
+	}
+
+	public static class HttpOptions {
+
+		@Option(name = "-m", argument = "FILE", usage = "Read the parser model from FILE", required = true)
+		public String modelFileName;
+		@Option(name = "-b", argument = "ADDRESS", usage = "Listen on ADDRESS (default: the loopback address)")
+		public String bindAddress = "127.0.0.1";
+		@Option(name = "-p", argument = "PORT", usage = "Listen on PORT")
+		public int port = DEFAULT_HTTP_PORT;
+		@Option(name = "-t", argument = "THREADS", usage = "Parse using THREADS threads")
+		public int nThreads = Runtime.getRuntime().availableProcessors();
+		@Option(name = "-B", argument = "SIZE", usage = "Parse batches of at most SIZE sentences")
+		public int maxBatchSize = 32;
+		@Option(name = "-D", argument = "MICROS", usage = "Wait at most MICROS microseconds to fill a batch")
+		public int maxDelay = 1000;
+		@Option(name = "-M", argument = "SECONDS", usage = "Print parse metrics to standard error every SECONDS seconds")
+		public int metricsPeriod;
+		@Option(name = "-C", argument = "ENTRIES", usage = "Cache the labeled scores of up to ENTRIES token contexts")
+		public int labelCacheSize;
+		@Option(name = "-R", argument = "MEGABYTES", usage = "Cache the parses of repeated sentences in up to MEGABYTES MB")
+		public int parseCacheSize;
+	}
+
+	public static void client(String[] args) {
+		ClientOptions options = new ClientOptions();
+		OptionParser<ClientOptions> optionParser = new OptionParser<>(options);
+		try {
+			optionParser.parse(args);
+		} catch (OptionException e) {
+			System.err.println(e.getMessage());
+			optionParser.usage();
+			System.exit(1);
+		}
+
+		String inputName = options.inputFileName == null ? "standard input" : options.inputFileName;
+		String outputName = options.outputFileName == null ? "standard output" : options.outputFileName;
+
+		Reader reader = null;
+		try {
+			reader = options.inputFileName == null ? new InputStreamReader(System.in) : new FileReader(options.inputFileName);
+		} catch (FileNotFoundException e) {
+			failWithFileNotFoundException(inputName);
+		}
+		Writer writer = null;
+		try {
+			writer = new BufferedWriter(options.outputFileName == null ? new OutputStreamWriter(System.out) : new FileWriter(options.outputFileName));
+		} catch (IOException e) {
+			failWithIOException(outputName);
+		}
+
+		ParseClient client = new ParseClient(options.host, options.port);
+		try {
+			client.run(reader, writer, options.outputFileName == null);
+			writer.close();
+		} catch (IOException e) {
+			System.err.format("Error while parsing with %s:%d: %s%n", options.host, options.port, e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	public static class ClientOptions {
+
+		@Option(name = "-h", argument = "HOST", usage = "Connect to the server on HOST")
+		public String host = "127.0.0.1";
+		@Option(name = "-p", argument = "PORT", usage = "Connect to the server on PORT")
+		public int port = DEFAULT_PORT;
+		@Option(name = "-i", argument = "FILE", usage = "Read input data from FILE (default: standard input)")
+		public String inputFileName;
+		@Option(name = "-o", argument = "FILE", usage = "Write output data to FILE (default: standard output)")
 		public String outputFileName;
 	}
 
+	public static void sweep(String[] args) {
+		SweepOptions options = new SweepOptions();
+		OptionParser<SweepOptions> optionParser = new OptionParser<>(options);
+		int[] iterations = null;
+		int[] cutoffs = null;
+		long[] seeds = null;
+		try {
+			optionParser.parse(args);
+			iterations = parsePositiveInts("-n", options.iterations);
+			cutoffs = parsePositiveInts("-c", options.cutoffs);
+			int[] intSeeds = parseInts("-r", options.seeds);
+			seeds = new long[intSeeds.length];
+			for (int i = 0; i < intSeeds.length; i++) {
+				seeds[i] = intSeeds[i];
+			}
+			if (options.nThreads < 1) {
+				throw new OptionException("option -t requires a positive argument");
+			}
+		} catch (OptionException e) {
+			System.err.println(e.getMessage());
+			optionParser.usage();
+			System.exit(1);
+		}
+
+		System.err.format("Reading from %s ...", options.inputFileName);
+		List<CoNLLTree> trainTrees = readTrees(options.inputFileName);
+		ModelExtractor modelExtractor = new ModelExtractor();
+		for (CoNLLTree tree : trainTrees) {
+			modelExtractor.next(tree);
+		}
+		System.err.println(" done.");
+		if (modelExtractor.getModel().getNForms() > FormSignatures.N_FORM_CODES) {
+			int maxForms = new FormSignatures().getMaxForms();
+			System.err.format("Found %d word forms, more than fit into feature keys; keeping the %d most frequent ones.%n", modelExtractor.getModel().getNForms(), maxForms);
+			FormCounter formCounter = new FormCounter();
+			for (CoNLLTree tree : trainTrees) {
+				formCounter.add(tree);
+			}
+			modelExtractor = new ModelExtractor();
+			closeVocabulary(modelExtractor.getModel(), formCounter, maxForms);
+			for (CoNLLTree tree : trainTrees) {
+				modelExtractor.next(tree);
+			}
+		}
+		Model model = modelExtractor.getModel();
+		System.err.format("Found %d trees and extracted %d features.%n", modelExtractor.getNTrees(), model.getNFeatures());
+
+		List<CoNLLTree> devTrees = readTrees(options.devFileName);
+
+		int nConfigurations = cutoffs.length * seeds.length;
+		System.err.format("Training %d configurations with %d threads ...%n", nConfigurations, Math.min(options.nThreads, nConfigurations));
+		long sweepStarted = System.currentTimeMillis();
+
+		Sweep sweep = new Sweep(model, modelExtractor.getFeatureCounts(), trainTrees, devTrees);
+		List<Sweep.Result> results = null;
+		try {
+			results = sweep.run(cutoffs, seeds, iterations, Math.min(options.nThreads, nConfigurations), System.err);
+		} catch (InterruptedException e) {
+			System.exit(1);
+		}
+
+		System.err.format("Sweep took %s.%n", formatTimeDifference(sweepStarted, System.currentTimeMillis()));
+
+		sweep.printTable(results, System.out);
+
+		if (options.modelFileName != null) {
+			Sweep.Result best = sweep.getBest();
+			System.err.format("Saving the best model (cutoff %d, seed %d, %d iterations) ...", best.getCutoff(), best.getSeed(), best.getIterations());
+			try {
+				best.getModel().save(options.modelFileName);
+			} catch (IOException e) {
+				System.err.println();
+				failWithIOException(options.modelFileName);
+			}
+			System.err.format(" %s%n", options.modelFileName);
+		}
+	}
+
+	private static int[] parseInts(String option, String value) throws OptionException {
+		String[] fields = value.split(",");
+		int[] values = new int[fields.length];
+		for (int i = 0; i < fields.length; i++) {
+			try {
+				values[i] = Integer.parseInt(fields[i].trim());
+			} catch (NumberFormatException e) {
+				throw new OptionException(String.format("option %s requires a comma-separated list of integers", option));
+			}
+		}
+		return values;
+	}
+
+	private static int[] parsePositiveInts(String option, String value) throws OptionException {
+		int[] values = parseInts(option, value);
+		for (int v : values) {
+			if (v < 1) {
+				throw new OptionException(String.format("option %s requires positive arguments", option));
+			}
+		}
+		return values;
+	}
+
+	public static class SweepOptions {
+
+		@Option(name = "-i", argument = "FILE", usage = "Read training data from FILE", required = true)
+		public String inputFileName;
+		@Option(name = "-d", argument = "FILE", usage = "Read development data from FILE", required = true)
+		public String devFileName;
+		@Option(name = "-n", argument = "ITERS", usage = "Evaluate after each of the comma-separated numbers of iterations ITERS")
+		public String iterations = "1";
+		@Option(name = "-c", argument = "CUTOFFS", usage = "Train with each of the comma-separated feature cutoffs CUTOFFS")
+		public String cutoffs = "1";
+		@Option(name = "-r", argument = "SEEDS", usage = "Shuffle the training data with each of the comma-separated seeds SEEDS (0: do not shuffle)")
+		public String seeds = "0";
+		@Option(name = "-t", argument = "THREADS", usage = "Train THREADS configurations at the same time")
+		public int nThreads = Runtime.getRuntime().availableProcessors();
+		@Option(name = "-m", argument = "FILE", usage = "Store the best model in FILE")
+		public String modelFileName;
+	}
+
+	public static void eval(String[] args) {
+		EvalOptions options = new EvalOptions();
+		OptionParser<EvalOptions> optionParser = new OptionParser<>(options);
+		try {
+			optionParser.parse(args);
+			if (options.nThreads < 1) {
+				throw new OptionException("option -t requires a positive argument");
+			}
+		} catch (OptionException e) {
+			System.err.println(e.getMessage());
+			optionParser.usage();
+			System.exit(1);
+		}
+
+		CoNLLReader goldReader = null;
+		try {
+			goldReader = new CoNLLReader(options.goldFileName);
+		} catch (FileNotFoundException e) {
+			failWithFileNotFoundException(options.goldFileName);
+		}
+		CoNLLReader systemReader = null;
+		try {
+			systemReader = new CoNLLReader(options.systemFileName);
+		} catch (FileNotFoundException e) {
+			failWithFileNotFoundException(options.systemFileName);
+		}
+
+		Evaluator evaluator = new Evaluator(!options.excludePunctuation, !options.excludeDeriv, options.nThreads);
+		Evaluation evaluation = null;
+		try {
+			evaluation = evaluator.evaluate(goldReader, systemReader);
+			goldReader.close();
+			systemReader.close();
+		} catch (IOException e) {
+			System.err.format("Error while comparing %s with %s: %s%n", options.systemFileName, options.goldFileName, e.getMessage());
+			System.exit(1);
+		}
+
+		if (options.quiet) {
+			evaluation.printSummary(System.out);
+		} else {
+			evaluation.printDetails(System.out);
+		}
+	}
+
+	public static class EvalOptions {
+
+		@Option(name = "-g", argument = "FILE", usage = "Read the gold-standard data from FILE", required = true)
+		public String goldFileName;
+		@Option(name = "-s", argument = "FILE", usage = "Read the system output from FILE", required = true)
+		public String systemFileName;
+		@Option(name = "-p", usage = "Do not score punctuation")
+		public boolean excludePunctuation;
+		@Option(name = "-d", usage = "Do not score DERIV links")
+		public boolean excludeDeriv;
+		@Option(name = "-q", usage = "Only print the overall scores")
+		public boolean quiet;
+		@Option(name = "-t", argument = "THREADS", usage = "Evaluate using THREADS threads")
+		public int nThreads = 1;
+	}
+
+	private static Model loadModel(String modelFileName) {
+		System.err.print("Loading the model ...");
+		Model model = null;
+		try {
+			model = Model.load(modelFileName);
+		} catch (FileNotFoundException e) {
+			System.err.println();
+			failWithFileNotFoundException(modelFileName);
+		} catch (IOException e) {
+			System.err.println();
+			failWithIOException(modelFileName);
+		}
+		System.err.println(" done.");
+		return model;
+	}
+
+	private static CoNLLReader openReader(String fileName) throws FileNotFoundException {
+		if (fileName == null) {
+			return new CoNLLReader(new InputStreamReader(System.in));
+		} else {
+			return new CoNLLReader(fileName);
+		}
+	}
+
+	private static TreeWriter openWriter(String format, String fileName, Model model) throws IOException {
+		OutputStream os = fileName == null ? System.out : new FileOutputStream(fileName);
+		switch (format) {
+			case "binary":
+				return new BinaryTreeWriter(os, model.getDeprels());
+			case "json":
+				return new JSONTreeWriter(os);
+			default:
+				return new CoNLLWriter(os);
+		}
+	}
+
 	private static String formatTimeDifference(long startTime, long endTime) {
 		long tmp = endTime - startTime;
 		long hours = TimeUnit.MILLISECONDS.toHours(tmp);
@@ -256,6 +1201,173 @@ public class Main {
 		return String.format("%d:%02d:%02d", hours, minutes, seconds);
 	}
 
+	/**
+	 * Registers the parse metrics with JMX and, if the specified period is
+	 * positive, enables them and prints them to standard error at that
+	 * period.
+	 */
+	private static void startMetrics(int periodSeconds) {
+		ParseMetrics metrics = ParseMetrics.getInstance();
+		metrics.register();
+		if (periodSeconds > 0) {
+			metrics.setEnabled(true);
+			metrics.startReporter(System.err, periodSeconds);
+		}
+	}
+
+	public static void prune(String[] args) {
+		PruneOptions options = new PruneOptions();
+		OptionParser<PruneOptions> optionParser = new OptionParser<>(options);
+		try {
+			optionParser.parse(args);
+			if (options.nWarmUp < 0) {
+				throw new OptionException("option -w requires a non-negative argument");
+			}
+		} catch (OptionException e) {
+			System.err.println(e.getMessage());
+			optionParser.usage();
+			System.exit(1);
+		}
+
+		Model model = loadModel(options.modelFileName);
+		if (model.getArcFilter() == null && model.getHeadSelector() == null && model.getLabelFilter() == null) {
+			System.err.println("The model does not prune arcs or labels; train it with option -A, -k, or -L.");
+		}
+		List<CoNLLTree> trees = readTrees(options.inputFileName);
+
+		System.err.print("Warming up ...");
+		PruningReport warmUp = new PruningReport(model);
+		for (int i = 0; i < Math.min(options.nWarmUp, trees.size()); i++) {
+			warmUp.add(trees.get(i));
+		}
+		System.err.println(" done.");
+
+		PruningReport report = new PruningReport(model);
+		for (CoNLLTree tree : trees) {
+			report.add(tree);
+		}
+		report.print(System.out);
+	}
+
+	public static class PruneOptions {
+
+		@Option(name = "-m", argument = "FILE", usage = "Read the parser model from FILE", required = true)
+		public String modelFileName;
+		@Option(name = "-i", argument = "FILE", usage = "Read gold-standard data from FILE", required = true)
+		public String inputFileName;
+		@Option(name = "-w", argument = "SENTENCES", usage = "Parse SENTENCES sentences before measuring")
+		public int nWarmUp = 200;
+	}
+
+	public static void precision(String[] args) {
+		PrecisionOptions options = new PrecisionOptions();
+		OptionParser<PrecisionOptions> optionParser = new OptionParser<>(options);
+		try {
+			optionParser.parse(args);
+			if (options.nWarmUp < 0) {
+				throw new OptionException("option -w requires a non-negative argument");
+			}
+		} catch (OptionException e) {
+			System.err.println(e.getMessage());
+			optionParser.usage();
+			System.exit(1);
+		}
+
+		Model model = loadModel(options.modelFileName);
+		if (model.isSinglePrecision()) {
+			System.err.println("The model is already in single precision.");
+			System.exit(1);
+		}
+		List<CoNLLTree> trees = readTrees(options.inputFileName);
+
+		System.err.print("Warming up ...");
+		PrecisionReport warmUp = new PrecisionReport(model);
+		for (int i = 0; i < Math.min(options.nWarmUp, trees.size()); i++) {
+			warmUp.add(trees.get(i));
+		}
+		System.err.println(" done.");
+
+		PrecisionReport report = new PrecisionReport(model, warmUp.getSingleModel());
+		for (CoNLLTree tree : trees) {
+			report.add(tree);
+		}
+		report.print(System.out);
+
+		if (options.outputFileName != null) {
+			try {
+				report.getSingleModel().save(options.outputFileName);
+			} catch (IOException e) {
+				failWithIOException(options.outputFileName);
+			}
+		}
+	}
+
+	public static class PrecisionOptions {
+
+		@Option(name = "-m", argument = "FILE", usage = "Read the parser model from FILE", required = true)
+		public String modelFileName;
+		@Option(name = "-i", argument = "FILE", usage = "Read gold-standard data from FILE", required = true)
+		public String inputFileName;
+		@Option(name = "-o", argument = "FILE", usage = "Write the model in single precision to FILE")
+		public String outputFileName;
+		@Option(name = "-w", argument = "SENTENCES", usage = "Parse SENTENCES sentences before measuring")
+		public int nWarmUp = 200;
+	}
+
+	public static void inspect(String[] args) {
+		InspectOptions options = new InspectOptions();
+		OptionParser<InspectOptions> optionParser = new OptionParser<>(options);
+		try {
+			optionParser.parse(args);
+			if (options.maxLength < 1) {
+				throw new OptionException("option -l requires a positive argument");
+			}
+			if (options.nThreads < 1) {
+				throw new OptionException("option -t requires a positive argument");
+			}
+			checkCacheSizes(options.labelCacheSize, options.parseCacheSize);
+		} catch (OptionException e) {
+			System.err.println(e.getMessage());
+			optionParser.usage();
+			System.exit(1);
+		}
+
+		long heapBefore = getUsedHeap();
+		Model model = loadModel(options.modelFileName);
+		long heapAfter = getUsedHeap();
+
+		ModelInspector inspector = new ModelInspector(model);
+		// The parse cache is bounded by the estimated size of its entries.
+		long cacheBytes = inspector.getLabelScoreCacheBytes(options.labelCacheSize) + options.parseCacheSize * (1L << 20);
+		inspector.print(System.out, options.maxLength, options.nThreads, cacheBytes);
+		System.out.format(Locale.ROOT, "Measured heap of the loaded model: %.1f MB%n", (heapAfter - heapBefore) / (double) (1 << 20));
+	}
+
+	public static class InspectOptions {
+
+		@Option(name = "-m", argument = "FILE", usage = "Read the parser model from FILE", required = true)
+		public String modelFileName;
+		@Option(name = "-l", argument = "LENGTH", usage = "Predict the heap for parsing sentences of up to LENGTH tokens")
+		public int maxLength = 100;
+		@Option(name = "-t", argument = "THREADS", usage = "Predict the heap for parsing with THREADS threads")
+		public int nThreads = Runtime.getRuntime().availableProcessors();
+		@Option(name = "-C", argument = "ENTRIES", usage = "Predict the heap with a cache for the labeled scores of ENTRIES token contexts")
+		public int labelCacheSize;
+		@Option(name = "-R", argument = "MEGABYTES", usage = "Predict the heap with a cache for the parses of repeated sentences of MEGABYTES MB")
+		public int parseCacheSize;
+	}
+
+	/**
+	 * Returns the heap used after a garbage collection, in bytes.
+	 */
+	private static long getUsedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
 	private static void failWithFileNotFoundException(String fileName) {
 		System.err.println();
 		System.err.format("File not found: %s%n", fileName);
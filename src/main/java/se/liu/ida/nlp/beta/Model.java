@@ -6,6 +6,7 @@ package se.liu.ida.nlp.beta;
 import gnu.trove.impl.Constants;
 import gnu.trove.map.TLongIntMap;
 import gnu.trove.map.hash.TLongIntHashMap;
+import gnu.trove.procedure.TLongIntProcedure;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.FileInputStream;
@@ -16,15 +17,25 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 /**
+ * A parsing model: the vocabularies, the feature index, and the weights.
+ *
+ * <p>Reading from a model is thread-safe, so any number of parsers can share
+ * one model. Adding entries and changing the weights (as done by
+ * {@link ModelExtractor} and {@link Trainer}) is not, and must not happen
+ * while the model is used for parsing.
  *
  * @author Marco Kuhlmann <marco.kuhlmann@lingfil.uu.se>
  */
 public class Model implements Serializable {
 
+	static final long serialVersionUID = -4135842197141192941L;
 	public static final String BEG_TOKEN = "<BEG>";
 	public static final String END_TOKEN = "<END>";
 	public static final String MID_TOKEN = "<MID>";
@@ -37,6 +48,51 @@ public class Model implements Serializable {
 	private final Table<String> deprels;
 	private final TLongIntMap features;
 	private double[] weightVector;
+	/**
+	 * The weights in single precision, or {@code null}. A model in single
+	 * precision has this vector instead of {@link #weightVector}. Models saved
+	 * before this field was added have {@code null} here.
+	 */
+	private float[] floatWeightVector;
+	/**
+	 * The dictionary of the maximal lengths of arcs, or {@code null} if arcs
+	 * should not be pruned. Models saved before this field was added have
+	 * {@code null} here.
+	 */
+	private ArcFilter arcFilter;
+	/**
+	 * The first-stage model that selects candidate heads, or {@code null}.
+	 */
+	private HeadSelector headSelector;
+	/**
+	 * The dictionary of the labels of arcs, or {@code null} if labels should
+	 * not be pruned.
+	 */
+	private LabelFilter labelFilter;
+	/**
+	 * The feature templates, or {@code null} for the default templates.
+	 * Models saved before this field was added have {@code null} here.
+	 */
+	private FeatureTemplates featureTemplates;
+	/**
+	 * The unknown-word classes, or {@code null} if the vocabulary of forms is
+	 * open. When the vocabulary is closed, forms that are not in it get the
+	 * code of their unknown-word class after the codes of the known forms.
+	 * Models saved before this field was added have {@code null} here.
+	 */
+	private FormSignatures formSignatures;
+	/**
+	 * The cache for the labeled scores of tokens, or {@code null}.
+	 */
+	private transient LabelScoreCache labelScoreCache;
+	/**
+	 * The cache for the parses of whole sentences, or {@code null}.
+	 */
+	private transient ParseCache parseCache;
+	/**
+	 * The version of the weights, which changes whenever the weights change.
+	 */
+	private transient volatile int weightVersion;
 
 	public Model() {
 		this.forms = new Table<>();
@@ -62,6 +118,11 @@ public class Model implements Serializable {
 		this.deprels = model.deprels;
 		this.features = model.features;
 		this.weightVector = new double[model.getNFeatures()];
+		this.arcFilter = model.arcFilter;
+		this.headSelector = model.headSelector;
+		this.labelFilter = model.labelFilter;
+		this.featureTemplates = model.featureTemplates;
+		this.formSignatures = model.formSignatures;
 	}
 
 	private Model(Table<String> forms, Table<String> lemmas, Table<String> cpostags, Table<String> postags, Table<String> deprels, TLongIntMap features, double[] weightVector) {
@@ -74,22 +135,141 @@ public class Model implements Serializable {
 		this.weightVector = weightVector;
 	}
 
+	/**
+	 * Returns a copy of this model whose weights are rounded to single
+	 * precision. The copy shares the vocabularies, the feature index, and the
+	 * pruning dictionaries with this model; its weights take half the memory.
+	 *
+	 * @return a copy of this model in single precision
+	 */
+	public Model toSinglePrecision() {
+		Model model = new Model(forms, lemmas, cpostags, postags, deprels, features, null);
+		int nFeatures = getNFeatures();
+		model.floatWeightVector = new float[nFeatures];
+		for (int i = 0; i < nFeatures; i++) {
+			model.floatWeightVector[i] = (float) getWeight(i);
+		}
+		model.arcFilter = arcFilter;
+		model.headSelector = headSelector;
+		model.labelFilter = labelFilter;
+		model.featureTemplates = featureTemplates;
+		model.formSignatures = formSignatures;
+		return model;
+	}
+
+	/**
+	 * Tests whether this model has its weights in single precision.
+	 *
+	 * @return {@code true} if this model has its weights in single precision
+	 */
+	public boolean isSinglePrecision() {
+		return floatWeightVector != null;
+	}
+
+	/**
+	 * Returns the weights of a model in single precision.
+	 *
+	 * @return the weights, or {@code null} if the model has its weights in
+	 * double precision
+	 */
+	public float[] getFloatWeightVector() {
+		return floatWeightVector;
+	}
+
+	/**
+	 * Returns the weight of the feature with the specified code, in either
+	 * precision.
+	 *
+	 * @param code the code of the feature
+	 * @return the weight of the feature, or 0 if the model has no weights
+	 */
+	public double getWeight(int code) {
+		if (floatWeightVector != null) {
+			return floatWeightVector[code];
+		}
+		return weightVector == null ? 0.0 : weightVector[code];
+	}
+
+	/**
+	 * Adds the specified form to the vocabulary, unless the vocabulary is
+	 * closed, and returns its code.
+	 *
+	 * @param word the form
+	 * @return the code of the form
+	 */
 	public int addForm(String word) {
+		if (formSignatures != null) {
+			return getCodeForForm(word);
+		}
 		return forms.addEntry(word);
 	}
 
+	/**
+	 * Returns the number of codes for forms, including the codes of the
+	 * unknown-word classes if the vocabulary is closed.
+	 *
+	 * @return the number of codes for forms
+	 */
 	public int getNForms() {
-		return forms.getSize();
+		return formSignatures == null ? forms.getSize() : forms.getSize() + formSignatures.getNSignatures();
 	}
 
+	/**
+	 * Returns the code of the specified form. If the form is not in the
+	 * vocabulary, this is the code of its unknown-word class when the
+	 * vocabulary is closed, and -1 otherwise.
+	 *
+	 * @param word the form
+	 * @return the code of the form
+	 */
 	public int getCodeForForm(String word) {
-		return forms.getIndex(word);
+		int code = forms.getIndex(word);
+		if (code < 0 && formSignatures != null) {
+			return forms.getSize() + formSignatures.getSignature(word);
+		}
+		return code;
 	}
 
 	public String getFormForCode(int code) {
+		if (code >= forms.getSize() && formSignatures != null) {
+			return formSignatures.getName(code - forms.getSize());
+		}
 		return forms.getEntry(code);
 	}
 
+	/**
+	 * Closes the vocabulary of this model: only the specified forms are kept,
+	 * and all other forms are mapped to the specified unknown-word classes.
+	 * This must be done before any forms are added.
+	 *
+	 * @param vocabulary the forms to keep
+	 * @param formSignatures the unknown-word classes
+	 * @throws IllegalArgumentException if the codes of the forms and classes
+	 * do not fit into feature keys
+	 */
+	public void closeVocabulary(List<String> vocabulary, FormSignatures formSignatures) {
+		if (forms.getSize() > 0) {
+			throw new IllegalStateException("the vocabulary already contains forms");
+		}
+		if (vocabulary.size() > formSignatures.getMaxForms()) {
+			throw new IllegalArgumentException(String.format("at most %d forms fit into feature keys", formSignatures.getMaxForms()));
+		}
+		for (String form : vocabulary) {
+			forms.addEntry(form);
+		}
+		this.formSignatures = formSignatures;
+	}
+
+	/**
+	 * Returns the unknown-word classes of this model.
+	 *
+	 * @return the unknown-word classes, or {@code null} if the vocabulary is
+	 * open
+	 */
+	public FormSignatures getFormSignatures() {
+		return formSignatures;
+	}
+
 	public int addLemma(String lemma) {
 		return lemmas.addEntry(lemma);
 	}
@@ -158,6 +338,10 @@ public class Model implements Serializable {
 		return deprels.getEntry(code);
 	}
 
+	public List<String> getDeprels() {
+		return deprels.getEntries();
+	}
+
 	public String getDefaultDeprel() {
 		return UNKNOWN_LABEL;
 	}
@@ -179,16 +363,175 @@ public class Model implements Serializable {
 		return features.get(feature);
 	}
 
+	/**
+	 * Calls the specified procedure for each feature and its code, in no
+	 * particular order, until the procedure returns {@code false}.
+	 *
+	 * @param procedure the procedure
+	 * @return {@code false} if the procedure returned {@code false}
+	 */
+	public boolean forEachFeature(TLongIntProcedure procedure) {
+		return features.forEachEntry(procedure);
+	}
+
+	/**
+	 * Returns the number of slots in the hash map from features to codes.
+	 *
+	 * @return the number of slots in the hash map from features to codes
+	 */
+	public int getFeatureCapacity() {
+		return ((TLongIntHashMap) features).capacity();
+	}
+
+	/**
+	 * Returns the vocabularies of this model, by name.
+	 *
+	 * @return the vocabularies of this model
+	 */
+	Map<String, Table<String>> getTables() {
+		Map<String, Table<String>> tables = new LinkedHashMap<>();
+		tables.put("forms", forms);
+		tables.put("lemmas", lemmas);
+		tables.put("cpostags", cpostags);
+		tables.put("postags", postags);
+		tables.put("deprels", deprels);
+		return tables;
+	}
+
 	public double[] getWeightVector() {
 		return weightVector;
 	}
 
 	public void setWeightVector(double[] weightVector) {
 		this.weightVector = weightVector;
+		this.floatWeightVector = null;
+		weightsChanged();
+	}
+
+	/**
+	 * Returns the version of the weights. The version changes whenever a new
+	 * weight vector is set, and whenever {@link #weightsChanged()} is called.
+	 *
+	 * @return the version of the weights
+	 */
+	public int getWeightVersion() {
+		return weightVersion;
+	}
+
+	/**
+	 * Signals that the weight vector was modified in place. This invalidates
+	 * the scores in the {@link LabelScoreCache} of this model.
+	 */
+	public void weightsChanged() {
+		weightVersion++;
+	}
+
+	/**
+	 * Returns the cache for the labeled scores of tokens.
+	 *
+	 * @return the cache for the labeled scores of tokens, or {@code null} if
+	 * the scores are not cached
+	 */
+	public LabelScoreCache getLabelScoreCache() {
+		return labelScoreCache;
+	}
+
+	/**
+	 * Sets the cache for the labeled scores of tokens. The cache is shared by
+	 * all parsers that use this model; it is not saved with the model.
+	 *
+	 * @param labelScoreCache the cache, or {@code null} to not cache scores
+	 */
+	public void setLabelScoreCache(LabelScoreCache labelScoreCache) {
+		this.labelScoreCache = labelScoreCache;
+	}
+
+	/**
+	 * Returns the cache for the parses of whole sentences.
+	 *
+	 * @return the cache for the parses of whole sentences, or {@code null}
+	 * if parses are not cached
+	 */
+	public ParseCache getParseCache() {
+		return parseCache;
+	}
+
+	/**
+	 * Sets the cache for the parses of whole sentences. The cache is shared
+	 * by all parsers that use this model; it is not saved with the model.
+	 *
+	 * @param parseCache the cache, or {@code null} to not cache parses
+	 */
+	public void setParseCache(ParseCache parseCache) {
+		this.parseCache = parseCache;
+	}
+
+	/**
+	 * Returns the dictionary of the maximal lengths of arcs.
+	 *
+	 * @return the dictionary of the maximal lengths of arcs, or {@code null}
+	 * if arcs should not be pruned
+	 */
+	public ArcFilter getArcFilter() {
+		return arcFilter;
+	}
+
+	public void setArcFilter(ArcFilter arcFilter) {
+		this.arcFilter = arcFilter;
+	}
+
+	/**
+	 * Returns the first-stage model that selects the candidate heads.
+	 *
+	 * @return the first-stage model, or {@code null} if all heads are
+	 * candidates
+	 */
+	public HeadSelector getHeadSelector() {
+		return headSelector;
+	}
+
+	public void setHeadSelector(HeadSelector headSelector) {
+		this.headSelector = headSelector;
+	}
+
+	/**
+	 * Returns the dictionary of the labels of arcs.
+	 *
+	 * @return the dictionary of the labels of arcs, or {@code null} if
+	 * labels should not be pruned
+	 */
+	public LabelFilter getLabelFilter() {
+		return labelFilter;
+	}
+
+	public void setLabelFilter(LabelFilter labelFilter) {
+		this.labelFilter = labelFilter;
+	}
+
+	/**
+	 * Returns the feature templates of this model.
+	 *
+	 * @return the feature templates of this model
+	 */
+	public FeatureTemplates getFeatureTemplates() {
+		return featureTemplates == null ? FeatureTemplates.DEFAULT : featureTemplates;
+	}
+
+	/**
+	 * Sets the feature templates of this model. This must be done before any
+	 * features are added.
+	 *
+	 * @param featureTemplates the feature templates, or {@code null} for the
+	 * default templates
+	 */
+	public void setFeatureTemplates(FeatureTemplates featureTemplates) {
+		this.featureTemplates = featureTemplates;
 	}
 
 	public void clearWeightVector() {
 		this.weightVector = new double[getNFeatures()];
+		this.floatWeightVector = null;
+		weightsChanged();
 	}
 
 	public void save(String fileName) throws IOException {
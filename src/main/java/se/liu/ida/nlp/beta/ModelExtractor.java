@@ -3,6 +3,7 @@
  */
 package se.liu.ida.nlp.beta;
 
+import gnu.trove.list.array.TIntArrayList;
 import se.liu.ida.nlp.beta.conll.CoNLLTree;
 
 /**
@@ -15,15 +16,29 @@ public class ModelExtractor {
 	private final ModelUpdater modelUpdater;
 	private int nTrees;
 	private int nTokens;
+	/**
+	 * The number of occurrences of each feature in the gold-standard trees.
+	 */
+	private final TIntArrayList featureCounts;
+	/**
+	 * The maximal lengths of the arcs in the gold-standard trees.
+	 */
+	private final ArcFilter arcFilter;
+	/**
+	 * The labels of the arcs in the gold-standard trees.
+	 */
+	private final LabelFilter labelFilter;
 
 	public ModelExtractor() {
-		this.model = new Model();
-		this.modelUpdater = new ModelUpdater(model);
+		this(new Model());
 	}
 
 	public ModelExtractor(Model model) {
 		this.model = model;
-		this.modelUpdater = new ModelUpdater(model);
+		this.featureCounts = new TIntArrayList();
+		this.arcFilter = new ArcFilter();
+		this.labelFilter = new LabelFilter();
+		this.modelUpdater = new ModelUpdater(model, featureCounts);
 	}
 
 	public Model getModel() {
@@ -38,6 +53,42 @@ public class ModelExtractor {
 		return nTokens;
 	}
 
+	/**
+	 * Returns the number of times that each feature has occurred in the
+	 * gold-standard trees seen so far, indexed by feature code.
+	 *
+	 * @return the number of occurrences of each feature
+	 */
+	public int[] getFeatureCounts() {
+		int[] counts = new int[model.getNFeatures()];
+		for (int i = 0; i < featureCounts.size(); i++) {
+			counts[i] = featureCounts.get(i);
+		}
+		return counts;
+	}
+
+	/**
+	 * Returns the dictionary of the maximal lengths of the arcs in the
+	 * gold-standard trees seen so far. The dictionary is not added to the
+	 * model; use {@link Model#setArcFilter(ArcFilter)} to prune arcs with it.
+	 *
+	 * @return the dictionary of the maximal lengths of arcs
+	 */
+	public ArcFilter getArcFilter() {
+		return arcFilter;
+	}
+
+	/**
+	 * Returns the dictionary of the labels of the arcs in the gold-standard
+	 * trees seen so far. The dictionary is not added to the model; use
+	 * {@link Model#setLabelFilter(LabelFilter)} to prune labels with it.
+	 *
+	 * @return the dictionary of the labels of arcs
+	 */
+	public LabelFilter getLabelFilter() {
+		return labelFilter;
+	}
+
 	public CoNLLTree next(CoNLLTree tree) {
 		for (int i = 0; i < tree.getNNodes(); i++) {
 			model.addForm(tree.forms[i]);
@@ -55,6 +106,8 @@ public class ModelExtractor {
 		for (int i = 1; i < tree.getNNodes(); i++) {
 			int label = model.getCodeForDeprel(tree.deprels[i]);
 			featurizer.featurize(tree.heads[i], i, label, modelUpdater);
+			arcFilter.add(featurizer.getTag(tree.heads[i]), featurizer.getTag(i), tree.heads[i], i);
+			labelFilter.add(featurizer.getTag(tree.heads[i]), featurizer.getTag(i), tree.heads[i], i, label);
 		}
 
 		return tree;
@@ -63,14 +116,20 @@ public class ModelExtractor {
 	private static class ModelUpdater implements FeatureHandler {
 
 		private final Model model;
+		private final TIntArrayList featureCounts;
 
-		public ModelUpdater(Model model) {
+		public ModelUpdater(Model model, TIntArrayList featureCounts) {
 			this.model = model;
+			this.featureCounts = featureCounts;
 		}
 
 		@Override
 		public void handle(long feature) {
-			model.addFeature(feature);
+			int code = model.addFeature(feature);
+			while (featureCounts.size() <= code) {
+				featureCounts.add(0);
+			}
+			featureCounts.set(code, featureCounts.get(code) + 1);
 		}
 	}
 }
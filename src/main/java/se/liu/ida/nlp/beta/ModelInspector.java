@@ -0,0 +1,407 @@
+/*
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package se.liu.ida.nlp.beta;
+
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Report what a model holds and how much memory it takes.
+ *
+ * <p>The report lists the sizes of the vocabularies, the number of features
+ * and non-zero weights per feature template, the estimated heap size of each
+ * part of the model, and the distribution of the magnitudes of the weights.
+ * It also predicts the heap needed for parsing sentences up to a given length
+ * with a given number of threads.
+ *
+ * <p>The heap sizes are estimates for a 64-bit JVM with compressed object
+ * pointers, the default for heaps smaller than 32 GB: objects have a 12-byte
+ * header, arrays a 16-byte header, references take 4 bytes, and every object
+ * is aligned to 8 bytes.
+ *
+ * @author Marco Kuhlmann <marco.kuhlmann@lingfil.uu.se>
+ */
+public class ModelInspector {
+
+	private static final int OBJECT_HEADER = 12;
+	private static final int ARRAY_HEADER = 16;
+	private static final int REFERENCE = 4;
+	/**
+	 * The size of a dependency tree per token, not counting the strings: six
+	 * columns of strings and one column of heads.
+	 */
+	private static final int TREE_BYTES_PER_TOKEN = 6 * REFERENCE + 4;
+	/**
+	 * The estimated size of the strings read per token.
+	 */
+	private static final int STRING_BYTES_PER_TOKEN = 5 * 48;
+	/**
+	 * The exponents of the upper bounds of the buckets of the weight
+	 * histogram, in powers of 10.
+	 */
+	private static final int MIN_EXPONENT = -3;
+	private static final int MAX_EXPONENT = 3;
+	/**
+	 * Whether strings store Latin-1 text with one byte per character, as they
+	 * do from Java 9.
+	 */
+	private static final boolean COMPACT_STRINGS = !System.getProperty("java.specification.version").startsWith("1.");
+	private final Model model;
+	private final long[] nFeatures;
+	private final long[] nNonZero;
+	private final double[] sumAbs;
+	/**
+	 * The number of weights per bucket. Bucket 0 holds the zero weights;
+	 * bucket {@code i > 0} holds the weights whose magnitude is smaller than
+	 * {@code 10^(MIN_EXPONENT + i - 1)}, and is not in any smaller bucket.
+	 */
+	private final long[] histogram;
+
+	/**
+	 * Creates a new inspector for the specified model.
+	 *
+	 * @param model the model
+	 */
+	public ModelInspector(Model model) {
+		this.model = model;
+		this.nFeatures = new long[1 << FeatureTemplates.TEMPLATE_BITS];
+		this.nNonZero = new long[1 << FeatureTemplates.TEMPLATE_BITS];
+		this.sumAbs = new double[1 << FeatureTemplates.TEMPLATE_BITS];
+		this.histogram = new long[MAX_EXPONENT - MIN_EXPONENT + 3];
+		model.forEachFeature((feature, code) -> {
+			int template = EdgeFeaturizer.getTemplate(feature);
+			nFeatures[template]++;
+			double weight = Math.abs(model.getWeight(code));
+			if (weight != 0.0) {
+				nNonZero[template]++;
+				sumAbs[template] += weight;
+			}
+			return true;
+		});
+		if (model.getWeightVector() != null || model.isSinglePrecision()) {
+			for (int code = 0; code < model.getNFeatures(); code++) {
+				histogram[getBucket(Math.abs(model.getWeight(code)))]++;
+			}
+		}
+	}
+
+	private static int getBucket(double magnitude) {
+		if (magnitude == 0.0) {
+			return 0;
+		}
+		for (int e = MIN_EXPONENT; e <= MAX_EXPONENT; e++) {
+			if (magnitude < Math.pow(10, e)) {
+				return e - MIN_EXPONENT + 1;
+			}
+		}
+		return MAX_EXPONENT - MIN_EXPONENT + 2;
+	}
+
+	private static long align(long bytes) {
+		return (bytes + 7) & ~7L;
+	}
+
+	private static long arrayBytes(long length, int elementBytes) {
+		return align(ARRAY_HEADER + length * elementBytes);
+	}
+
+	private static long stringBytes(String s) {
+		int bytesPerChar = 2;
+		if (COMPACT_STRINGS) {
+			bytesPerChar = 1;
+			for (int i = 0; i < s.length(); i++) {
+				if (s.charAt(i) > 0xFF) {
+					bytesPerChar = 2;
+					break;
+				}
+			}
+		}
+		return align(OBJECT_HEADER + 12) + arrayBytes(s.length(), bytesPerChar);
+	}
+
+	/**
+	 * Returns the estimated heap size of the specified table.
+	 *
+	 * @param table the table
+	 * @return the estimated heap size of the table, in bytes
+	 */
+	public static long getHeapBytes(Table<String> table) {
+		long bytes = align(OBJECT_HEADER + 2 * REFERENCE);
+		// The list of entries.
+		bytes += align(OBJECT_HEADER + 8) + arrayBytes(table.getSize(), REFERENCE);
+		for (String entry : table.getEntries()) {
+			bytes += stringBytes(entry);
+		}
+		// The hash map from entries to indexes.
+		int capacity = table.getCapacity();
+		bytes += align(OBJECT_HEADER + 32) + arrayBytes(capacity, REFERENCE) + arrayBytes(capacity, 4);
+		return bytes;
+	}
+
+	/**
+	 * Returns the estimated heap size of the feature index.
+	 *
+	 * @return the estimated heap size of the feature index, in bytes
+	 */
+	public long getFeatureIndexBytes() {
+		int capacity = model.getFeatureCapacity();
+		return align(OBJECT_HEADER + 40) + arrayBytes(capacity, 8) + arrayBytes(capacity, 4) + arrayBytes(capacity, 1);
+	}
+
+	/**
+	 * Returns the estimated heap size of the weight vector, in either
+	 * precision.
+	 *
+	 * @return the estimated heap size of the weight vector, in bytes
+	 */
+	public long getWeightVectorBytes() {
+		if (model.isSinglePrecision()) {
+			return arrayBytes(model.getFloatWeightVector().length, 4);
+		}
+		double[] weightVector = model.getWeightVector();
+		return weightVector == null ? 0 : arrayBytes(weightVector.length, 8);
+	}
+
+	/**
+	 * Returns the estimated heap size of the dictionary of the maximal
+	 * lengths of arcs.
+	 *
+	 * @return the estimated heap size of the dictionary, in bytes, or 0 if
+	 * the model does not prune arcs by their length
+	 */
+	public long getArcFilterBytes() {
+		ArcFilter arcFilter = model.getArcFilter();
+		return arcFilter == null ? 0 : align(OBJECT_HEADER + REFERENCE) + arrayBytes(arcFilter.getNEntries(), 4);
+	}
+
+	/**
+	 * Returns the estimated heap size of the dictionary of the labels of
+	 * arcs.
+	 *
+	 * @return the estimated heap size of the dictionary, in bytes, or 0 if
+	 * the model does not prune labels
+	 */
+	public long getLabelFilterBytes() {
+		LabelFilter labelFilter = model.getLabelFilter();
+		if (labelFilter == null) {
+			return 0;
+		}
+		// One array of labels per entry that was seen; the arrays are small,
+		// so this assumes 4 bytes of padding for each of them.
+		long bytes = align(OBJECT_HEADER + REFERENCE) + arrayBytes(labelFilter.getNEntries(), REFERENCE);
+		return bytes + labelFilter.getNSeen() * (long) (ARRAY_HEADER + 4) + 4 * labelFilter.getNLabels();
+	}
+
+	/**
+	 * Returns the estimated heap size of the first-stage model that selects
+	 * candidate heads.
+	 *
+	 * @return the estimated heap size of the first-stage model, in bytes, or
+	 * 0 if the model has none
+	 */
+	public long getHeadSelectorBytes() {
+		HeadSelector headSelector = model.getHeadSelector();
+		// Ten ints, a double, a boolean, and two references, one of which
+		// is null after training.
+		return headSelector == null ? 0 : align(OBJECT_HEADER + 10 * 4 + 8 + 1 + 2 * REFERENCE) + arrayBytes(headSelector.getNWeights(), 8);
+	}
+
+	/**
+	 * Returns the estimated heap size of the unknown-word classes.
+	 *
+	 * @return the estimated heap size of the unknown-word classes, in bytes,
+	 * or 0 if the vocabulary of the model is open
+	 */
+	public long getFormSignaturesBytes() {
+		return model.getFormSignatures() == null ? 0 : align(OBJECT_HEADER + 4);
+	}
+
+	/**
+	 * Returns the estimated heap size of the model.
+	 *
+	 * @return the estimated heap size of the model, in bytes
+	 */
+	public long getModelBytes() {
+		// The fields of the model: fifteen references and one int.
+		long bytes = align(OBJECT_HEADER + 15 * REFERENCE + 4);
+		for (Table<String> table : model.getTables().values()) {
+			bytes += getHeapBytes(table);
+		}
+		return bytes + getFeatureIndexBytes() + getWeightVectorBytes() + getArcFilterBytes() + getLabelFilterBytes() + getHeadSelectorBytes() + getFormSignaturesBytes();
+	}
+
+	/**
+	 * Returns the estimated heap size needed by one parser thread to parse a
+	 * sentence with the specified number of tokens. This covers the charts of
+	 * the parser, the score tables of the edge scorer, and the input and
+	 * output trees.
+	 *
+	 * @param nTokens the number of tokens
+	 * @return the estimated heap size, in bytes
+	 */
+	public long getParseBytes(int nTokens) {
+		long n = nTokens + 1;
+		int nLabels = model.getNDeprels();
+		// The charts of the parser: four double or float arrays, and four int
+		// arrays.
+		long bytes = 4 * arrayBytes(n * n, model.isSinglePrecision() ? 4 : 8) + 4 * arrayBytes(n * n, 4);
+		// The unlabeled scores, the best labeled scores, and their labels.
+		bytes += 3 * arrayBytes(n, REFERENCE) + 2 * n * arrayBytes(n, 8) + n * arrayBytes(n, 4);
+		// The labeled scores: one block of 4 * nLabels doubles per node.
+		bytes += arrayBytes(n, REFERENCE) + n * arrayBytes(4L * nLabels, 8);
+		// The featurizer with the parts of the keys of each node, the feature
+		// keys of one node or arc, and the offsets of the labeled features.
+		FeatureTemplates templates = model.getFeatureTemplates();
+		bytes += 4 * arrayBytes(n, 4) + 6 * arrayBytes(n * templates.getArcTemplates().ids.length, 8) + arrayBytes(n * templates.getLabelTemplates().ids.length, 8);
+		bytes += 6 * arrayBytes(2 * n * templates.getWideArcTemplates().ids.length, 8);
+		bytes += arrayBytes(Math.max(4 * n + 128, 64L * nLabels), 8) + arrayBytes(4L * nLabels, 4);
+		// The input tree, and the output tree, which shares the strings.
+		return bytes + n * (2 * TREE_BYTES_PER_TOKEN + STRING_BYTES_PER_TOKEN);
+	}
+
+	/**
+	 * Returns the estimated heap size of a label score cache with the
+	 * specified number of entries, when it is full. Each entry holds a key,
+	 * a version, a flag, a reference to a block of {@code 4 * nLabels}
+	 * doubles, and two slots in the hash map from keys to entries, which is
+	 * kept at most half full.
+	 *
+	 * @param nEntries the number of entries of the cache
+	 * @return the estimated heap size of the cache, in bytes
+	 */
+	public long getLabelScoreCacheBytes(int nEntries) {
+		long bytesPerEntry = 8 + 4 + 1 + REFERENCE + 4 * (8 + 4 + 1) + arrayBytes(4L * model.getNDeprels(), 8);
+		return nEntries * bytesPerEntry;
+	}
+
+	/**
+	 * Prints the templates whose features do not fit into 64 bits and are
+	 * hashed, with the number of their features and the expected number of
+	 * features that share a key with another feature.
+	 *
+	 * @param out the stream to print to
+	 */
+	public void printHashedTemplates(PrintStream out) {
+		FeatureTemplates templates = model.getFeatureTemplates();
+		for (int template : templates.getIds()) {
+			if (templates.isHashed(template)) {
+				out.format(Locale.ROOT, "TMP_%02d is hashed: %d features, %.2g expected collisions%n", template, nFeatures[template], FeatureTemplates.getExpectedCollisions(nFeatures[template]));
+			}
+		}
+	}
+
+	/**
+	 * Prints the report.
+	 *
+	 * @param out the stream to print to
+	 * @param maxLength the maximal sentence length for the prediction of the
+	 * heap needed for parsing
+	 * @param nThreads the number of parser threads for the prediction
+	 */
+	public void print(PrintStream out, int maxLength, int nThreads) {
+		print(out, maxLength, nThreads, 0);
+	}
+
+	/**
+	 * Prints the report, with the specified heap size of the caches shared by
+	 * all parser threads in the prediction.
+	 *
+	 * @param out the stream to print to
+	 * @param maxLength the maximal sentence length for the prediction of the
+	 * heap needed for parsing
+	 * @param nThreads the number of parser threads for the prediction
+	 * @param cacheBytes the heap size of the caches, in bytes
+	 */
+	public void print(PrintStream out, int maxLength, int nThreads, long cacheBytes) {
+		out.println("Vocabularies");
+		out.println("table          entries   capacity      heap");
+		for (Map.Entry<String, Table<String>> entry : model.getTables().entrySet()) {
+			Table<String> table = entry.getValue();
+			out.format(Locale.ROOT, "%-10s %11d %10d %9s%n", entry.getKey(), table.getSize(), table.getCapacity(), formatBytes(getHeapBytes(table)));
+		}
+		FormSignatures formSignatures = model.getFormSignatures();
+		if (formSignatures != null) {
+			out.format(Locale.ROOT, "unknown-word classes: %d (%d codes of %d for forms)%n", formSignatures.getNSignatures(), model.getNForms(), FormSignatures.N_FORM_CODES);
+		}
+		out.println();
+
+		out.println("Features");
+		out.println("template  kind      features   non-zero  non-zero%   mean |w|      heap   definition");
+		long nFeaturesTotal = model.getNFeatures();
+		double bytesPerFeature = nFeaturesTotal == 0 ? 0.0 : (getFeatureIndexBytes() + getWeightVectorBytes()) / (double) nFeaturesTotal;
+		long nNonZeroTotal = 0;
+		FeatureTemplates templates = model.getFeatureTemplates();
+		for (int template : templates.getIds()) {
+			nNonZeroTotal += nNonZero[template];
+			out.format(Locale.ROOT, "TMP_%02d    %-7s %10d %10d %9.1f%% %10.4f %9s   %s%n", template, templates.isLabeled(template) ? "label" : "arc",
+					nFeatures[template], nNonZero[template], percentage(nNonZero[template], nFeatures[template]),
+					nNonZero[template] == 0 ? 0.0 : sumAbs[template] / nNonZero[template], formatBytes((long) (nFeatures[template] * bytesPerFeature)),
+					templates.getDefinition(template));
+		}
+		out.format(Locale.ROOT, "total             %10d %10d %9.1f%%%n", nFeaturesTotal, nNonZeroTotal, percentage(nNonZeroTotal, nFeaturesTotal));
+		printHashedTemplates(out);
+		out.println();
+
+		out.println("Heap");
+		out.format(Locale.ROOT, "feature index: %s (%d slots for %d features)%n", formatBytes(getFeatureIndexBytes()), model.getFeatureCapacity(), nFeaturesTotal);
+		out.format(Locale.ROOT, "weight vector: %s (%s precision)%n", formatBytes(getWeightVectorBytes()), model.isSinglePrecision() ? "single" : "double");
+		if (model.getArcFilter() != null) {
+			out.format(Locale.ROOT, "arc filter:    %s%n", formatBytes(getArcFilterBytes()));
+		}
+		if (model.getLabelFilter() != null) {
+			out.format(Locale.ROOT, "label filter:  %s%n", formatBytes(getLabelFilterBytes()));
+		}
+		if (model.getHeadSelector() != null) {
+			out.format(Locale.ROOT, "head selector: %s%n", formatBytes(getHeadSelectorBytes()));
+		}
+		out.format(Locale.ROOT, "model:         %s%n", formatBytes(getModelBytes()));
+		out.println();
+
+		out.println("Weight magnitudes");
+		long nWeights = 0;
+		for (long count : histogram) {
+			nWeights += count;
+		}
+		for (int i = 0; i < histogram.length; i++) {
+			String bucket;
+			if (i == 0) {
+				bucket = "0";
+			} else if (i == 1) {
+				bucket = String.format(Locale.ROOT, "< 1e%d", MIN_EXPONENT);
+			} else if (i == histogram.length - 1) {
+				bucket = String.format(Locale.ROOT, ">= 1e%d", MAX_EXPONENT);
+			} else {
+				bucket = String.format(Locale.ROOT, "1e%d - 1e%d", MIN_EXPONENT + i - 2, MIN_EXPONENT + i - 1);
+			}
+			out.format(Locale.ROOT, "%-12s %10d %6.1f%%%n", bucket, histogram[i], percentage(histogram[i], nWeights));
+		}
+		out.println();
+
+		long parseBytes = getParseBytes(maxLength);
+		if (cacheBytes > 0) {
+			out.format(Locale.ROOT, "Predicted heap for parsing sentences of up to %d tokens with %d threads: %s (model) + %s (caches) + %d x %s (per thread) = %s%n",
+					maxLength, nThreads, formatBytes(getModelBytes()), formatBytes(cacheBytes), nThreads, formatBytes(parseBytes), formatBytes(getModelBytes() + cacheBytes + nThreads * parseBytes));
+		} else {
+			out.format(Locale.ROOT, "Predicted heap for parsing sentences of up to %d tokens with %d threads: %s (model) + %d x %s (per thread) = %s%n",
+					maxLength, nThreads, formatBytes(getModelBytes()), nThreads, formatBytes(parseBytes), formatBytes(getModelBytes() + nThreads * parseBytes));
+		}
+	}
+
+	private static double percentage(long n, long total) {
+		return total == 0 ? 0.0 : n * 100.0 / total;
+	}
+
+	private static String formatBytes(long bytes) {
+		if (bytes < 1 << 10) {
+			return bytes + " B";
+		} else if (bytes < 1 << 20) {
+			return String.format(Locale.ROOT, "%.1f kB", bytes / (double) (1 << 10));
+		} else if (bytes < 1 << 30) {
+			return String.format(Locale.ROOT, "%.1f MB", bytes / (double) (1 << 20));
+		} else {
+			return String.format(Locale.ROOT, "%.2f GB", bytes / (double) (1 << 30));
+		}
+	}
+}
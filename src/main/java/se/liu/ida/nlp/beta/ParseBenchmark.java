@@ -0,0 +1,263 @@
+/*
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package se.liu.ida.nlp.beta;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import se.liu.ida.nlp.beta.conll.CoNLLTree;
+import se.liu.ida.nlp.beta.conll.JSONTreeWriter;
+
+/**
+ * Measure end-to-end parsing performance.
+ *
+ * <p>A benchmark parses a list of sentences repeatedly: first a number of
+ * warmup passes, whose results are discarded, then a number of measured
+ * passes. Within a pass, the sentences are distributed over a number of
+ * threads, each with a parser of its own. The benchmark reports throughput,
+ * the distribution of per-sentence parse times by sentence length, the peak
+ * heap usage, and the time spent in garbage collection.
+ *
+ * @author Marco Kuhlmann <marco.kuhlmann@lingfil.uu.se>
+ */
+public class ParseBenchmark {
+
+	/**
+	 * The upper bounds (inclusive) of the length buckets, in tokens.
+	 */
+	private static final int[] BUCKET_LIMITS = new int[]{10, 20, 40, Integer.MAX_VALUE};
+	private static final String[] BUCKET_NAMES = new String[]{"1-10", "11-20", "21-40", "41-", "all"};
+	private static final double[] PERCENTILES = new double[]{0.50, 0.90, 0.99, 1.00};
+	private static final String[] PERCENTILE_NAMES = new String[]{"p50", "p90", "p99", "max"};
+	private final Model model;
+	private final List<CoNLLTree> trees;
+	private final int nThreads;
+	/**
+	 * The parse times of the measured passes, in nanoseconds, per sentence.
+	 */
+	private long[] latencies;
+	private int nPasses;
+	private long wallTime;
+	private long gcTime;
+	private long gcCount;
+	private long peakHeap;
+
+	/**
+	 * Creates a new benchmark.
+	 *
+	 * @param model the model used for parsing
+	 * @param trees the sentences to be parsed
+	 * @param nThreads the number of parsing threads
+	 */
+	public ParseBenchmark(Model model, List<CoNLLTree> trees, int nThreads) {
+		this.model = model;
+		this.trees = trees;
+		this.nThreads = nThreads;
+	}
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param nWarmupPasses the number of warmup passes
+	 * @param nPasses the number of measured passes
+	 */
+	public void run(int nWarmupPasses, int nPasses) {
+		Parser[] parsers = new Parser[nThreads];
+		for (int i = 0; i < nThreads; i++) {
+			parsers[i] = new Parser(model);
+		}
+		for (int pass = 0; pass < nWarmupPasses; pass++) {
+			runPass(parsers, new long[trees.size()]);
+		}
+
+		System.gc();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			pool.resetPeakUsage();
+		}
+		long gcTimeBefore = getGCTime();
+		long gcCountBefore = getGCCount();
+
+		this.nPasses = nPasses;
+		this.latencies = new long[trees.size() * nPasses];
+		long started = System.nanoTime();
+		for (int pass = 0; pass < nPasses; pass++) {
+			long[] passLatencies = new long[trees.size()];
+			runPass(parsers, passLatencies);
+			System.arraycopy(passLatencies, 0, latencies, pass * trees.size(), trees.size());
+		}
+		this.wallTime = System.nanoTime() - started;
+
+		this.gcTime = getGCTime() - gcTimeBefore;
+		this.gcCount = getGCCount() - gcCountBefore;
+		this.peakHeap = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				peakHeap += pool.getPeakUsage().getUsed();
+			}
+		}
+	}
+
+	private void runPass(Parser[] parsers, long[] passLatencies) {
+		AtomicInteger next = new AtomicInteger();
+		Thread[] threads = new Thread[nThreads];
+		for (int i = 0; i < nThreads; i++) {
+			Parser parser = parsers[i];
+			threads[i] = new Thread(() -> {
+				int j;
+				while ((j = next.getAndIncrement()) < trees.size()) {
+					CoNLLTree input = new CoNLLTree(trees.get(j));
+					long started = System.nanoTime();
+					parser.getBestParse(input);
+					passLatencies[j] = System.nanoTime() - started;
+				}
+			}, String.format("beta-bench-%d", i + 1));
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+	private static long getGCTime() {
+		long total = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			total += Math.max(0, gc.getCollectionTime());
+		}
+		return total;
+	}
+
+	private static long getGCCount() {
+		long total = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			total += Math.max(0, gc.getCollectionCount());
+		}
+		return total;
+	}
+
+	private static int getBucket(int nTokens) {
+		int bucket = 0;
+		while (nTokens > BUCKET_LIMITS[bucket]) {
+			bucket++;
+		}
+		return bucket;
+	}
+
+	/**
+	 * Returns the sorted parse times of the sentences in each length bucket;
+	 * the last entry holds the parse times of all sentences.
+	 */
+	private long[][] getLatenciesByBucket() {
+		List<List<Long>> lists = new ArrayList<>();
+		for (int b = 0; b < BUCKET_NAMES.length; b++) {
+			lists.add(new ArrayList<>());
+		}
+		for (int i = 0; i < latencies.length; i++) {
+			int nTokens = trees.get(i % trees.size()).getNNodes() - 1;
+			lists.get(getBucket(nTokens)).add(latencies[i]);
+			lists.get(BUCKET_NAMES.length - 1).add(latencies[i]);
+		}
+		long[][] buckets = new long[BUCKET_NAMES.length][];
+		for (int b = 0; b < BUCKET_NAMES.length; b++) {
+			List<Long> list = lists.get(b);
+			buckets[b] = new long[list.size()];
+			for (int i = 0; i < list.size(); i++) {
+				buckets[b][i] = list.get(i);
+			}
+			Arrays.sort(buckets[b]);
+		}
+		return buckets;
+	}
+
+	private static long getPercentile(long[] sorted, double p) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+		int index = (int) Math.ceil(p * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+	}
+
+	private int getNTokens() {
+		int nTokens = 0;
+		for (CoNLLTree tree : trees) {
+			nTokens += tree.getNNodes() - 1;
+		}
+		return nTokens;
+	}
+
+	public double getSentencesPerSecond() {
+		return (double) trees.size() * nPasses / (wallTime / 1e9);
+	}
+
+	public double getTokensPerSecond() {
+		return (double) getNTokens() * nPasses / (wallTime / 1e9);
+	}
+
+	/**
+	 * Prints the results of this benchmark as a table.
+	 *
+	 * @param out the stream to print to
+	 */
+	public void printTable(PrintStream out) {
+		out.format("Sentences: %d (%d tokens), threads: %d, measured passes: %d%n", trees.size(), getNTokens(), nThreads, nPasses);
+		out.format("Throughput: %.1f sentences/s, %.1f tokens/s%n", getSentencesPerSecond(), getTokensPerSecond());
+		out.format("Peak heap: %.1f MB, GC: %d ms in %d collections%n", peakHeap / 1e6, gcTime, gcCount);
+		out.println();
+		out.format("%-8s %8s", "length", "n");
+		for (String name : PERCENTILE_NAMES) {
+			out.format(" %10s", name + " ms");
+		}
+		out.println();
+		long[][] buckets = getLatenciesByBucket();
+		for (int b = 0; b < BUCKET_NAMES.length; b++) {
+			out.format("%-8s %8d", BUCKET_NAMES[b], buckets[b].length);
+			for (double p : PERCENTILES) {
+				out.format(" %10.3f", getPercentile(buckets[b], p) / 1e6);
+			}
+			out.println();
+		}
+	}
+
+	/**
+	 * Writes the results of this benchmark as a JSON object.
+	 *
+	 * @param writer the writer to write to
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void writeJSON(Writer writer) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		sb.append('{');
+		sb.append(String.format(Locale.ROOT, "\"sentences\":%d,\"tokens\":%d,\"threads\":%d,\"passes\":%d,", trees.size(), getNTokens(), nThreads, nPasses));
+		sb.append(String.format(Locale.ROOT, "\"sentencesPerSecond\":%.3f,\"tokensPerSecond\":%.3f,", getSentencesPerSecond(), getTokensPerSecond()));
+		sb.append(String.format(Locale.ROOT, "\"peakHeapBytes\":%d,\"gcMillis\":%d,\"gcCount\":%d,", peakHeap, gcTime, gcCount));
+		sb.append("\"latencyMillis\":{");
+		long[][] buckets = getLatenciesByBucket();
+		for (int b = 0; b < BUCKET_NAMES.length; b++) {
+			if (b > 0) {
+				sb.append(',');
+			}
+			sb.append(JSONTreeWriter.quote(BUCKET_NAMES[b]));
+			sb.append(String.format(Locale.ROOT, ":{\"n\":%d", buckets[b].length));
+			for (int p = 0; p < PERCENTILES.length; p++) {
+				sb.append(String.format(Locale.ROOT, ",\"%s\":%.6f", PERCENTILE_NAMES[p], getPercentile(buckets[b], PERCENTILES[p]) / 1e6));
+			}
+			sb.append('}');
+		}
+		sb.append("}}\n");
+		writer.write(sb.toString());
+	}
+}
@@ -0,0 +1,309 @@
+/*
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package se.liu.ida.nlp.beta;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import se.liu.ida.nlp.beta.conll.CoNLLTree;
+
+/**
+ * A cache for the parses of whole sentences, shared across threads.
+ *
+ * <p>The parse of a sentence only depends on the forms and tags of its
+ * tokens, on the weights of the model, and on whether pruning is on. The
+ * cache maps the SHA-256 hash of these to the heads and labels that the
+ * parser assigned, so that a sentence that is parsed again gets the same
+ * result without running the parser. The weights are represented by their
+ * version, as returned by {@link Model#getWeightVersion()}; results computed
+ * with other weights are never returned and eventually evicted.
+ *
+ * <p>The cache is bounded by the estimated heap size of its entries. It is
+ * divided into stripes, each with a lock of its own and an equal share of the
+ * bound; when a stripe exceeds its share, it evicts its least recently used
+ * entries.
+ *
+ * @author Marco Kuhlmann <marco.kuhlmann@lingfil.uu.se>
+ */
+public class ParseCache {
+
+	private static final int N_STRIPES = 16;
+	/**
+	 * The estimated heap size of an entry without its arrays: the key, the
+	 * entry, and the node of the map.
+	 */
+	private static final int ENTRY_BYTES = 32 + 24 + 40;
+	private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(() -> {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	});
+	private final Stripe[] stripes;
+	private final long maxBytes;
+	private final LongAdder nHits;
+	private final LongAdder nMisses;
+	private final LongAdder nEvictions;
+
+	/**
+	 * Creates a new cache whose entries take at most the specified number of
+	 * bytes.
+	 *
+	 * @param maxBytes the maximal estimated heap size of the entries
+	 */
+	public ParseCache(long maxBytes) {
+		if (maxBytes < 1) {
+			throw new IllegalArgumentException("the size must be positive");
+		}
+		this.stripes = new Stripe[N_STRIPES];
+		for (int i = 0; i < N_STRIPES; i++) {
+			stripes[i] = new Stripe(maxBytes / N_STRIPES);
+		}
+		this.maxBytes = maxBytes;
+		this.nHits = new LongAdder();
+		this.nMisses = new LongAdder();
+		this.nEvictions = new LongAdder();
+	}
+
+	/**
+	 * Returns the key for the specified sentence.
+	 *
+	 * @param tree the sentence
+	 * @param version the version of the weights of the model
+	 * @param pruning whether the parser prunes arcs and labels
+	 * @return the key for the specified sentence
+	 */
+	public static Key getKey(CoNLLTree tree, int version, boolean pruning) {
+		MessageDigest digest = DIGEST.get();
+		int nNodes = tree.getNNodes();
+		updateInt(digest, version);
+		digest.update((byte) (pruning ? 1 : 0));
+		updateInt(digest, nNodes);
+		for (int i = 0; i < nNodes; i++) {
+			updateString(digest, tree.forms[i]);
+			updateString(digest, tree.postags[i]);
+		}
+		byte[] hash = digest.digest();
+		long hi = 0;
+		long lo = 0;
+		for (int i = 0; i < 8; i++) {
+			hi = hi << 8 | (hash[i] & 0xFF);
+			lo = lo << 8 | (hash[i + 8] & 0xFF);
+		}
+		return new Key(hi, lo);
+	}
+
+	private static void updateInt(MessageDigest digest, int value) {
+		digest.update((byte) (value >>> 24));
+		digest.update((byte) (value >>> 16));
+		digest.update((byte) (value >>> 8));
+		digest.update((byte) value);
+	}
+
+	private static void updateString(MessageDigest digest, String s) {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		updateInt(digest, bytes.length);
+		digest.update(bytes);
+	}
+
+	private Stripe getStripe(Key key) {
+		return stripes[(int) (key.lo >>> 60)];
+	}
+
+	/**
+	 * Copies the cached parse of the sentence with the specified key into the
+	 * specified tree, if there is one.
+	 *
+	 * @param key the key for the sentence
+	 * @param tree the tree into which the heads and labels are copied
+	 * @return {@code true} if the cache held a parse for the sentence
+	 */
+	public boolean get(Key key, CoNLLTree tree) {
+		Entry entry = getStripe(key).get(key);
+		if (entry == null || entry.heads.length != tree.getNNodes()) {
+			nMisses.increment();
+			return false;
+		}
+		System.arraycopy(entry.heads, 0, tree.heads, 0, entry.heads.length);
+		System.arraycopy(entry.deprels, 0, tree.deprels, 0, entry.deprels.length);
+		nHits.increment();
+		return true;
+	}
+
+	/**
+	 * Adds the parse of the sentence with the specified key.
+	 *
+	 * @param key the key for the sentence
+	 * @param tree the parsed tree
+	 */
+	public void put(Key key, CoNLLTree tree) {
+		Entry entry = new Entry(Arrays.copyOf(tree.heads, tree.getNNodes()), Arrays.copyOf(tree.deprels, tree.getNNodes()));
+		nEvictions.add(getStripe(key).put(key, entry));
+	}
+
+	/**
+	 * Removes all entries from the cache.
+	 */
+	public void clear() {
+		for (Stripe stripe : stripes) {
+			stripe.clear();
+		}
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Returns the estimated heap size of the entries in the cache.
+	 *
+	 * @return the estimated heap size of the entries, in bytes
+	 */
+	public long getBytes() {
+		long bytes = 0;
+		for (Stripe stripe : stripes) {
+			bytes += stripe.getBytes();
+		}
+		return bytes;
+	}
+
+	/**
+	 * Returns the number of entries in the cache.
+	 *
+	 * @return the number of entries in the cache
+	 */
+	public int getSize() {
+		int size = 0;
+		for (Stripe stripe : stripes) {
+			size += stripe.getSize();
+		}
+		return size;
+	}
+
+	public long getHits() {
+		return nHits.sum();
+	}
+
+	public long getMisses() {
+		return nMisses.sum();
+	}
+
+	public long getEvictions() {
+		return nEvictions.sum();
+	}
+
+	/**
+	 * Returns the share of lookups that found a parse.
+	 *
+	 * @return the share of lookups that found a parse
+	 */
+	public double getHitRate() {
+		long hits = getHits();
+		long lookups = hits + getMisses();
+		return lookups == 0 ? 0.0 : (double) hits / lookups;
+	}
+
+	/**
+	 * The 128-bit key for a sentence.
+	 */
+	public static final class Key {
+
+		private final long hi;
+		private final long lo;
+
+		private Key(long hi, long lo) {
+			this.hi = hi;
+			this.lo = lo;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return hi == other.hi && lo == other.lo;
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) hi;
+		}
+	}
+
+	/**
+	 * The heads and labels of a parsed sentence.
+	 */
+	private static class Entry {
+
+		private final int[] heads;
+		private final String[] deprels;
+		private final long bytes;
+
+		public Entry(int[] heads, String[] deprels) {
+			this.heads = heads;
+			this.deprels = deprels;
+			// The labels are shared with the model and not counted.
+			this.bytes = ENTRY_BYTES + 2 * ((16 + 4L * heads.length + 7) & ~7L);
+		}
+	}
+
+	/**
+	 * One stripe of the cache. All methods are synchronized on the stripe.
+	 */
+	private static class Stripe {
+
+		private final LinkedHashMap<Key, Entry> entries;
+		private final long maxBytes;
+		private long bytes;
+
+		public Stripe(long maxBytes) {
+			this.entries = new LinkedHashMap<>(16, 0.75f, true);
+			this.maxBytes = maxBytes;
+		}
+
+		public synchronized Entry get(Key key) {
+			return entries.get(key);
+		}
+
+		/**
+		 * Adds an entry and returns the number of entries that had to be
+		 * evicted for it.
+		 */
+		public synchronized int put(Key key, Entry entry) {
+			Entry old = entries.put(key, entry);
+			if (old != null) {
+				bytes -= old.bytes;
+			}
+			bytes += entry.bytes;
+			int nEvicted = 0;
+			Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+			while (bytes > maxBytes && it.hasNext()) {
+				bytes -= it.next().getValue().bytes;
+				it.remove();
+				nEvicted++;
+			}
+			return nEvicted;
+		}
+
+		public synchronized void clear() {
+			entries.clear();
+			bytes = 0;
+		}
+
+		public synchronized long getBytes() {
+			return bytes;
+		}
+
+		public synchronized int getSize() {
+			return entries.size();
+		}
+	}
+}
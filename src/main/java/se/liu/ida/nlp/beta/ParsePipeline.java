@@ -0,0 +1,202 @@
+/*
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package se.liu.ida.nlp.beta;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import se.liu.ida.nlp.beta.conll.CoNLLReader;
+import se.liu.ida.nlp.beta.conll.CoNLLTree;
+import se.liu.ida.nlp.beta.conll.TreeWriter;
+import se.liu.ida.nlp.beta.metrics.ParseMetrics;
+import se.liu.ida.nlp.beta.metrics.ParseStats;
+import se.liu.ida.nlp.beta.metrics.Phase;
+
+/**
+ * Parse a stream of trees.
+ *
+ * <p>Trees are read on a separate thread and handed to a parser service,
+ * which may parse several trees in parallel; the results are written in the
+ * order of the input. The number of trees that have been read but not yet
+ * written is bounded. When that bound is reached, the reading thread blocks,
+ * so a fast producer cannot make the pipeline hold more than a fixed number
+ * of trees in memory. If requested, the output is flushed after every tree,
+ * so that each result becomes available as soon as its input has been read
+ * and parsed. If {@link ParseMetrics} are enabled, the time spent reading and
+ * writing each tree is added to them. If a {@link SlowSentenceLog} is given,
+ * every tree is parsed with timing, and the trees that take too long are
+ * logged.
+ *
+ * @author Marco Kuhlmann <marco.kuhlmann@lingfil.uu.se>
+ */
+public class ParsePipeline {
+
+	/**
+	 * The marker that signals the end of the input.
+	 */
+	private static final Entry END_OF_INPUT = new Entry(null, null, CompletableFuture.completedFuture(null));
+	/**
+	 * The parser service.
+	 */
+	private final ParserService service;
+	/**
+	 * The maximal number of trees that have been read but not yet written.
+	 */
+	private final int capacity;
+	/**
+	 * Whether the output should be flushed after every tree.
+	 */
+	private final boolean autoFlush;
+	/**
+	 * The log for slow sentences, or {@code null}.
+	 */
+	private final SlowSentenceLog slowLog;
+
+	/**
+	 * Creates a new pipeline.
+	 *
+	 * @param service the parser service
+	 * @param capacity the maximal number of trees that have been read but not
+	 * yet written
+	 * @param autoFlush whether the output should be flushed after every tree
+	 */
+	public ParsePipeline(ParserService service, int capacity, boolean autoFlush) {
+		this(service, capacity, autoFlush, null);
+	}
+
+	/**
+	 * Creates a new pipeline that logs slow sentences.
+	 *
+	 * @param service the parser service
+	 * @param capacity the maximal number of trees that have been read but not
+	 * yet written
+	 * @param autoFlush whether the output should be flushed after every tree
+	 * @param slowLog the log for slow sentences, or {@code null}
+	 */
+	public ParsePipeline(ParserService service, int capacity, boolean autoFlush, SlowSentenceLog slowLog) {
+		assert capacity > 0;
+		this.service = service;
+		this.capacity = capacity;
+		this.autoFlush = autoFlush;
+		this.slowLog = slowLog;
+	}
+
+	/**
+	 * Parses all trees from the specified reader and writes the results to the
+	 * specified writer.
+	 *
+	 * @param reader the reader
+	 * @param writer the writer
+	 * @param progressPrinter the progress printer
+	 * @return the number of parsed trees
+	 * @throws IOException if an I/O error occurs
+	 */
+	public int run(CoNLLReader reader, TreeWriter writer, ProgressPrinter progressPrinter) throws IOException {
+		BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(capacity);
+		ReaderThread readerThread = new ReaderThread(reader, service, queue, slowLog != null);
+		readerThread.start();
+		ParseMetrics metrics = ParseMetrics.getInstance();
+		int nTrees = 0;
+		try {
+			Entry entry;
+			while ((entry = queue.take()) != END_OF_INPUT) {
+				CoNLLTree tree = entry.future.join();
+				nTrees++;
+				if (slowLog != null) {
+					slowLog.log(nTrees, entry.input, entry.stats);
+				}
+				boolean timing = metrics.isEnabled();
+				long t0 = timing ? System.nanoTime() : 0;
+				writer.write(tree);
+				if (autoFlush) {
+					writer.flush();
+				}
+				if (timing) {
+					metrics.recordTime(Phase.WRITE, System.nanoTime() - t0);
+				}
+				progressPrinter.update();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} finally {
+			readerThread.interrupt();
+		}
+		if (readerThread.exception != null) {
+			throw readerThread.exception;
+		}
+		return nTrees;
+	}
+
+	/**
+	 * Read trees and submit them for parsing.
+	 */
+	private static class ReaderThread extends Thread {
+
+		private final CoNLLReader reader;
+		private final ParserService service;
+		private final BlockingQueue<Entry> queue;
+		private final boolean withStats;
+		private volatile IOException exception;
+
+		public ReaderThread(CoNLLReader reader, ParserService service, BlockingQueue<Entry> queue, boolean withStats) {
+			super("beta-reader");
+			setDaemon(true);
+			this.reader = reader;
+			this.service = service;
+			this.queue = queue;
+			this.withStats = withStats;
+		}
+
+		@Override
+		public void run() {
+			try {
+				try {
+					ParseMetrics metrics = ParseMetrics.getInstance();
+					while (true) {
+						boolean timing = metrics.isEnabled();
+						long t0 = timing ? System.nanoTime() : 0;
+						CoNLLTree tree = reader.read();
+						if (tree == null) {
+							break;
+						}
+						if (timing) {
+							metrics.recordTime(Phase.READ, System.nanoTime() - t0);
+						}
+						if (withStats) {
+							ParseStats stats = new ParseStats();
+							queue.put(new Entry(tree, stats, service.parseAsync(tree, stats)));
+						} else {
+							queue.put(new Entry(tree, null, service.parseAsync(tree)));
+						}
+					}
+				} catch (IOException e) {
+					exception = e;
+				} catch (RuntimeException e) {
+					exception = new IOException(e);
+				}
+				queue.put(END_OF_INPUT);
+			} catch (InterruptedException e) {
+				// The consumer has given up; there is nobody left to tell.
+			}
+		}
+	}
+
+	/**
+	 * A tree that has been submitted for parsing.
+	 */
+	private static class Entry {
+
+		private final CoNLLTree input;
+		private final ParseStats stats;
+		private final CompletableFuture<CoNLLTree> future;
+
+		public Entry(CoNLLTree input, ParseStats stats, CompletableFuture<CoNLLTree> future) {
+			this.input = input;
+			this.stats = stats;
+			this.future = future;
+		}
+	}
+}
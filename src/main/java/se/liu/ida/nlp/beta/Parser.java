@@ -4,200 +4,452 @@
 package se.liu.ida.nlp.beta;
 
 import se.liu.ida.nlp.beta.conll.CoNLLTree;
+import se.liu.ida.nlp.beta.metrics.ParseMetrics;
+import se.liu.ida.nlp.beta.metrics.ParseStats;
+import se.liu.ida.nlp.beta.metrics.Phase;
 
 /**
+ * A parser based on Eisner's algorithm.
+ *
+ * <p>A parser keeps a workspace (the charts of the algorithm) that is reused
+ * from one sentence to the next and only grows when a sentence is longer than
+ * all sentences seen before. For this reason, a parser must not be used by
+ * several threads at the same time; use one parser per thread instead. The
+ * model is only read, so any number of parsers can share it.
+ *
+ * <p>The parser also keeps statistics about the last sentence that it parsed.
+ * If {@link ParseMetrics} are enabled, the statistics include the time spent
+ * in each phase of parsing, and are added to the metrics.
+ *
+ * <p>If the model has an {@link ArcFilter} or a {@link HeadSelector}, the
+ * parser skips the arcs that these prune. Should no tree be left, the
+ * sentence is parsed again without pruning. If the model has a
+ * {@link LabelFilter}, the parser only considers the labels that it allows.
+ *
+ * <p>If the model has a {@link ParseCache}, the parser first looks up the
+ * sentence in the cache, and adds its parse to the cache if it is not found.
  *
  * @author Marco Kuhlmann <marco.kuhlmann@lingfil.uu.se>
  */
 public class Parser {
 
 	private final Model model;
+	/**
+	 * The number of nodes for which the charts have been allocated.
+	 */
+	private int capacity;
+	/**
+	 * The scores of the four types of items, indexed by {@code min * capacity
+	 * + max}: complete items headed by {@code min} (1), complete items headed
+	 * by {@code max} (2), incomplete items with an edge from {@code min} to
+	 * {@code max} (3), and incomplete items with an edge from {@code max} to
+	 * {@code min} (4).
+	 */
+	private double[] score1;
+	private double[] score2;
+	private double[] score3;
+	private double[] score4;
+	/**
+	 * The charts in single precision, which are used instead of the charts
+	 * above if the model has its weights in single precision. The charts of
+	 * each precision are only allocated once they are needed, as the weights
+	 * of the model may be replaced by weights in the other precision while
+	 * the parser is in use.
+	 */
+	private float[] floatScore1;
+	private float[] floatScore2;
+	private float[] floatScore3;
+	private float[] floatScore4;
+	/**
+	 * The split points of the best items, or -1 for items without a split.
+	 */
+	private int[] split1;
+	private int[] split2;
+	private int[] split3;
+	private int[] split4;
+	/**
+	 * The statistics about the last sentence.
+	 */
+	private final ParseStats stats;
+	/**
+	 * Whether arcs and labels should be pruned if the model has an
+	 * {@link ArcFilter}, a {@link HeadSelector}, or a {@link LabelFilter}.
+	 */
+	private boolean pruning;
 
 	public Parser(Model model) {
 		this.model = model;
+		this.stats = new ParseStats();
+		this.pruning = true;
+		ensureCapacity(16, model.isSinglePrecision());
+	}
+
+	/**
+	 * Sets whether arcs and labels should be pruned if the model has an
+	 * {@link ArcFilter}, a {@link HeadSelector}, or a {@link LabelFilter}.
+	 * Pruning is on by default.
+	 *
+	 * @param pruning whether arcs and labels should be pruned
+	 */
+	public void setPruning(boolean pruning) {
+		this.pruning = pruning;
+	}
+
+	private void ensureCapacity(int nNodes, boolean singlePrecision) {
+		if (nNodes > capacity) {
+			int size = nNodes * nNodes;
+			this.capacity = nNodes;
+			// The charts of both precisions are indexed by the capacity, so
+			// those that are too small are dropped and allocated again below.
+			this.score1 = null;
+			this.score2 = null;
+			this.score3 = null;
+			this.score4 = null;
+			this.floatScore1 = null;
+			this.floatScore2 = null;
+			this.floatScore3 = null;
+			this.floatScore4 = null;
+			this.split1 = new int[size];
+			this.split2 = new int[size];
+			this.split3 = new int[size];
+			this.split4 = new int[size];
+		}
+		int size = capacity * capacity;
+		if (singlePrecision) {
+			if (floatScore1 == null) {
+				this.floatScore1 = new float[size];
+				this.floatScore2 = new float[size];
+				this.floatScore3 = new float[size];
+				this.floatScore4 = new float[size];
+			}
+		} else {
+			if (score1 == null) {
+				this.score1 = new double[size];
+				this.score2 = new double[size];
+				this.score3 = new double[size];
+				this.score4 = new double[size];
+			}
+		}
+	}
+
+	/**
+	 * Returns the statistics about the last sentence that this parser parsed.
+	 * The statistics are overwritten by the next call to
+	 * {@link #getBestParse(CoNLLTree)}.
+	 *
+	 * @return the statistics about the last sentence
+	 */
+	public ParseStats getStats() {
+		return stats;
 	}
 
 	public CoNLLTree getBestParse(CoNLLTree input) {
+		return getBestParse(input, false);
+	}
+
+	/**
+	 * Parses the specified tree, and times the phases of parsing even if
+	 * {@link ParseMetrics} are disabled.
+	 *
+	 * @param input the tree to be parsed
+	 * @param timing whether the phases of parsing should be timed
+	 * @return the parsed tree
+	 */
+	public CoNLLTree getBestParse(CoNLLTree input, boolean timing) {
+		long started = System.nanoTime();
 		int nNodes = input.getNNodes();
+		ParseMetrics metrics = ParseMetrics.getInstance();
+		boolean recording = metrics.isEnabled();
+		timing |= recording;
+		stats.reset(nNodes - 1, timing);
+
+		ParseCache cache = model.getParseCache();
+		ParseCache.Key key = null;
+		if (cache != null) {
+			key = ParseCache.getKey(input, model.getWeightVersion(), pruning);
+			boolean hit = cache.get(key, input);
+			stats.addParseCacheLookups(hit ? 1 : 0, hit ? 0 : 1);
+			if (hit) {
+				if (timing) {
+					stats.setParseTime(System.nanoTime() - started);
+				}
+				if (recording) {
+					metrics.record(stats);
+				}
+				return input;
+			}
+		}
 
-		// Initialize the charts.
+		// The precision is fixed for the whole sentence, even if the weights
+		// of the model are replaced in the meantime.
 
-		ChoiceChart chart1 = new ChoiceChart(nNodes);
-		ChoiceChart chart2 = new ChoiceChart(nNodes);
-		ChoiceChart chart3 = new ChoiceChart(nNodes);
-		ChoiceChart chart4 = new ChoiceChart(nNodes);
+		boolean singlePrecision = model.isSinglePrecision();
+		ensureCapacity(nNodes, singlePrecision);
 
-		DoubleChart score1 = new DoubleChart(nNodes);
-		DoubleChart score2 = new DoubleChart(nNodes);
-		DoubleChart score3 = new DoubleChart(nNodes);
-		DoubleChart score4 = new DoubleChart(nNodes);
+		EdgeScorer scorer = new EdgeScorer(model, input, stats, pruning);
+		long t0 = timing ? System.nanoTime() : 0;
+		long nCells = fillCharts(nNodes, scorer, singlePrecision);
 
-		EdgeScorer scorer = new EdgeScorer(model, input);
+		// With pruning, there may be no tree left; keeping the arcs from the
+		// root prevents this, but make sure anyway.
 
-		// Fill the charts bottom-up, starting with spans of length 2. Note
-		// that at this point, every span of length 1 has score 0.0.
+		if (nNodes > 1 && !hasTree(nNodes, singlePrecision) && pruning && (model.getArcFilter() != null || model.getHeadSelector() != null)) {
+			stats.setFallback(true);
+			scorer = new EdgeScorer(model, input, stats, false);
+			nCells += fillCharts(nNodes, scorer, singlePrecision);
+		}
 
-		for (int max = 1; max < nNodes; max++) {
-			for (int min = max - 1; min >= 0; min--) {
-				score1.set(min, max, Double.NEGATIVE_INFINITY);
-				score2.set(min, max, Double.NEGATIVE_INFINITY);
-				score3.set(min, max, Double.NEGATIVE_INFINITY);
-				score4.set(min, max, Double.NEGATIVE_INFINITY);
+		if (nNodes > 1 && split1[nNodes - 1] >= 0) {
+			updateGraph1(0, nNodes - 1, scorer, input);
+		}
 
-				double bestScoreMinMax = scorer.getBestScore(min, max);
-				int bestLabelMinMax = scorer.getBestLabel(min, max);
+		stats.addChartCells(nCells);
+		if (cache != null) {
+			cache.put(key, input);
+		}
+		if (timing) {
+			long finished = System.nanoTime();
+			stats.addTime(Phase.DECODE, finished - t0);
+			stats.setParseTime(finished - started);
+		}
+		if (recording) {
+			metrics.record(stats);
+		}
+		return input;
+	}
 
-				// Attach-Right
-				// creates an edge min -> max
-				for (int mid = min + 1; mid <= max; mid++) {
-					double scoreL = score1.get(min, mid - 1);
-					double scoreR = score2.get(mid, max);
+	/**
+	 * Tests whether the charts contain a tree for a sentence with the
+	 * specified number of nodes.
+	 */
+	private boolean hasTree(int nNodes, boolean singlePrecision) {
+		if (singlePrecision) {
+			return floatScore1[nNodes - 1] != Float.NEGATIVE_INFINITY;
+		}
+		return score1[nNodes - 1] != Double.NEGATIVE_INFINITY;
+	}
 
-					double score = scoreL + scoreR + bestScoreMinMax;
+	/**
+	 * Fills the charts for a sentence with the specified number of nodes,
+	 * using the arc scores of the specified scorer.
+	 *
+	 * @return the number of chart cells filled
+	 */
+	private long fillCharts(int nNodes, EdgeScorer scorer, boolean singlePrecision) {
+		if (singlePrecision) {
+			return fillFloatCharts(nNodes, scorer);
+		}
+		// Initialize the charts. Every span of length 1 has score 0.0.
+
+		int n = capacity;
+		for (int i = 0; i < nNodes; i++) {
+			score1[i * n + i] = 0.0;
+			score2[i * n + i] = 0.0;
+			split1[i * n + i] = -1;
+			split2[i * n + i] = -1;
+		}
 
-					if (score > score3.get(min, max)) {
-						score3.set(min, max, score);
-						Choice choiceL = chart1.get(min, mid - 1);
-						Choice choiceR = chart2.get(mid, max);
-						chart3.set(min, max, new Choice(min, max, bestLabelMinMax, choiceL, choiceR));
-					}
-				}
+		long nCells = 0;
 
-				double bestScoreMaxMin = scorer.getBestScore(max, min);
-				int bestLabelMaxMin = scorer.getBestLabel(max, min);
+		// Fill the charts bottom-up, starting with spans of length 2.
 
-				// Attach-Left
-				// creates an edge max -> min
-				for (int mid = min + 1; mid <= max; mid++) {
-					double scoreL = score1.get(min, mid - 1);
-					double scoreR = score2.get(mid, max);
+		for (int max = 1; max < nNodes; max++) {
+			for (int min = max - 1; min >= 0; min--) {
+				int minMax = min * n + max;
+				nCells++;
+
+				double best1 = Double.NEGATIVE_INFINITY;
+				double best2 = Double.NEGATIVE_INFINITY;
+				double best3 = Double.NEGATIVE_INFINITY;
+				double best4 = Double.NEGATIVE_INFINITY;
+				int bestSplit1 = -1;
+				int bestSplit2 = -1;
+				int bestSplit3 = -1;
+				int bestSplit4 = -1;
+
+				double bestScoreMinMax = scorer.getBestScore(min, max);
+				double bestScoreMaxMin = scorer.getBestScore(max, min);
 
-					double score = scoreL + scoreR + bestScoreMaxMin;
+				// Attach-Right and Attach-Left
+				// create an edge min -> max and max -> min, respectively;
+				// skip them if both edges have been pruned
+				boolean canAttach = bestScoreMinMax != Double.NEGATIVE_INFINITY || bestScoreMaxMin != Double.NEGATIVE_INFINITY;
+				for (int mid = min + 1; canAttach && mid <= max; mid++) {
+					double scoreLR = score1[min * n + mid - 1] + score2[mid * n + max];
+
+					double score = scoreLR + bestScoreMinMax;
+					if (score > best3) {
+						best3 = score;
+						bestSplit3 = mid;
+					}
 
-					if (score > score4.get(min, max)) {
-						score4.set(min, max, score);
-						Choice choiceL = chart1.get(min, mid - 1);
-						Choice choiceR = chart2.get(mid, max);
-						chart4.set(min, max, new Choice(max, min, bestLabelMaxMin, choiceL, choiceR));
+					score = scoreLR + bestScoreMaxMin;
+					if (score > best4) {
+						best4 = score;
+						bestSplit4 = mid;
 					}
 				}
 
+				score3[minMax] = best3;
+				score4[minMax] = best4;
+				split3[minMax] = bestSplit3;
+				split4[minMax] = bestSplit4;
+
 				// Complete-Right
 				// creates no edge
 				for (int mid = min + 1; mid <= max; mid++) {
-					double scoreL = score3.get(min, mid);
-					double scoreR = score1.get(mid, max);
-
-					double score = scoreL + scoreR;
-
-					if (score > score1.get(min, max)) {
-						score1.set(min, max, score);
-						Choice choiceL = chart3.get(min, mid);
-						Choice choiceR = chart1.get(mid, max);
-						chart1.set(min, max, new Choice(choiceL, choiceR));
+					double score = score3[min * n + mid] + score1[mid * n + max];
+					if (score > best1) {
+						best1 = score;
+						bestSplit1 = mid;
 					}
 				}
 
 				// Complete-Left
 				// creates no edge
 				for (int mid = min; mid < max; mid++) {
-					double scoreL = score2.get(min, mid);
-					double scoreR = score4.get(mid, max);
-
-					double score = scoreL + scoreR;
-
-					if (score > score2.get(min, max)) {
-						score2.set(min, max, score);
-						Choice choiceL = chart2.get(min, mid);
-						Choice choiceR = chart4.get(mid, max);
-						chart2.set(min, max, new Choice(choiceL, choiceR));
+					double score = score2[min * n + mid] + score4[mid * n + max];
+					if (score > best2) {
+						best2 = score;
+						bestSplit2 = mid;
 					}
 				}
+
+				score1[minMax] = best1;
+				score2[minMax] = best2;
+				split1[minMax] = bestSplit1;
+				split2[minMax] = bestSplit2;
 			}
 		}
 
-		Choice best = chart1.get(0, nNodes - 1);
-		if (best != null) {
-			best.updateGraph(model, input);
-		}
-		return input;
+		return nCells;
 	}
 
-	private static class DoubleChart {
-
-		private final double[][] chart;
-
-		public DoubleChart(int nNodes) {
-			this.chart = new double[nNodes][];
-			for (int i = 0; i < nNodes; i++) {
-				chart[i] = new double[nNodes - i];
-			}
+	/**
+	 * Fills the charts in single precision. This is the same as
+	 * {@link #fillCharts(int, EdgeScorer, boolean)}, except for the type of the
+	 * scores.
+	 */
+	private long fillFloatCharts(int nNodes, EdgeScorer scorer) {
+		// Initialize the charts. Every span of length 1 has score 0.0.
+
+		int n = capacity;
+		for (int i = 0; i < nNodes; i++) {
+			floatScore1[i * n + i] = 0.0f;
+			floatScore2[i * n + i] = 0.0f;
+			split1[i * n + i] = -1;
+			split2[i * n + i] = -1;
 		}
 
-		public double get(int min, int max) {
-			return chart[min][max - min];
-		}
+		long nCells = 0;
 
-		public void set(int min, int max, double value) {
-			chart[min][max - min] = value;
-		}
-	}
+		// Fill the charts bottom-up, starting with spans of length 2.
 
-	private static class Choice {
+		for (int max = 1; max < nNodes; max++) {
+			for (int min = max - 1; min >= 0; min--) {
+				int minMax = min * n + max;
+				nCells++;
+
+				float best1 = Float.NEGATIVE_INFINITY;
+				float best2 = Float.NEGATIVE_INFINITY;
+				float best3 = Float.NEGATIVE_INFINITY;
+				float best4 = Float.NEGATIVE_INFINITY;
+				int bestSplit1 = -1;
+				int bestSplit2 = -1;
+				int bestSplit3 = -1;
+				int bestSplit4 = -1;
+
+				float bestScoreMinMax = (float) scorer.getBestScore(min, max);
+				float bestScoreMaxMin = (float) scorer.getBestScore(max, min);
+
+				// Attach-Right and Attach-Left
+				// create an edge min -> max and max -> min, respectively;
+				// skip them if both edges have been pruned
+				boolean canAttach = bestScoreMinMax != Float.NEGATIVE_INFINITY || bestScoreMaxMin != Float.NEGATIVE_INFINITY;
+				for (int mid = min + 1; canAttach && mid <= max; mid++) {
+					float scoreLR = floatScore1[min * n + mid - 1] + floatScore2[mid * n + max];
+
+					float score = scoreLR + bestScoreMinMax;
+					if (score > best3) {
+						best3 = score;
+						bestSplit3 = mid;
+					}
 
-		private final int src;
-		private final int tgt;
-		private final int lab;
-		private final Choice choiceL;
-		private final Choice choiceR;
+					score = scoreLR + bestScoreMaxMin;
+					if (score > best4) {
+						best4 = score;
+						bestSplit4 = mid;
+					}
+				}
 
-		public Choice(int src, int tgt, int lab, Choice choiceL, Choice choiceR) {
-			this.src = src;
-			this.tgt = tgt;
-			this.lab = lab;
-			this.choiceL = choiceL;
-			this.choiceR = choiceR;
-		}
+				floatScore3[minMax] = best3;
+				floatScore4[minMax] = best4;
+				split3[minMax] = bestSplit3;
+				split4[minMax] = bestSplit4;
 
-		public Choice(Choice choiceL, Choice choiceR) {
-			this.src = -1;
-			this.tgt = -1;
-			this.lab = -1;
-			this.choiceL = choiceL;
-			this.choiceR = choiceR;
-		}
+				// Complete-Right
+				// creates no edge
+				for (int mid = min + 1; mid <= max; mid++) {
+					float score = floatScore3[min * n + mid] + floatScore1[mid * n + max];
+					if (score > best1) {
+						best1 = score;
+						bestSplit1 = mid;
+					}
+				}
 
-		public void updateGraph(Model model, CoNLLTree tree) {
-			if (src >= 0) {
-				tree.heads[tgt] = src;
-				tree.deprels[tgt] = model.getDeprelForCode(lab);
-			}
-			if (choiceL != null) {
-				choiceL.updateGraph(model, tree);
-			}
-			if (choiceR != null) {
-				choiceR.updateGraph(model, tree);
+				// Complete-Left
+				// creates no edge
+				for (int mid = min; mid < max; mid++) {
+					float score = floatScore2[min * n + mid] + floatScore4[mid * n + max];
+					if (score > best2) {
+						best2 = score;
+						bestSplit2 = mid;
+					}
+				}
+
+				floatScore1[minMax] = best1;
+				floatScore2[minMax] = best2;
+				split1[minMax] = bestSplit1;
+				split2[minMax] = bestSplit2;
 			}
 		}
-	}
 
-	private static class ChoiceChart {
+		return nCells;
+	}
 
-		private final Choice[][] chart;
+	private void updateGraph1(int min, int max, EdgeScorer scorer, CoNLLTree tree) {
+		int mid = split1[min * capacity + max];
+		if (mid >= 0) {
+			updateGraph3(min, mid, scorer, tree);
+			updateGraph1(mid, max, scorer, tree);
+		}
+	}
 
-		public ChoiceChart(int nNodes) {
-			this.chart = new Choice[nNodes][];
-			for (int i = 0; i < nNodes; i++) {
-				chart[i] = new Choice[nNodes - i];
-			}
+	private void updateGraph2(int min, int max, EdgeScorer scorer, CoNLLTree tree) {
+		int mid = split2[min * capacity + max];
+		if (mid >= 0) {
+			updateGraph2(min, mid, scorer, tree);
+			updateGraph4(mid, max, scorer, tree);
 		}
+	}
 
-		public Choice get(int min, int max) {
-			return chart[min][max - min];
+	private void updateGraph3(int min, int max, EdgeScorer scorer, CoNLLTree tree) {
+		int mid = split3[min * capacity + max];
+		if (mid >= 0) {
+			tree.heads[max] = min;
+			tree.deprels[max] = model.getDeprelForCode(scorer.getBestLabel(min, max));
+			updateGraph1(min, mid - 1, scorer, tree);
+			updateGraph2(mid, max, scorer, tree);
 		}
+	}
 
-		public void set(int min, int max, Choice choice) {
-			chart[min][max - min] = choice;
+	private void updateGraph4(int min, int max, EdgeScorer scorer, CoNLLTree tree) {
+		int mid = split4[min * capacity + max];
+		if (mid >= 0) {
+			tree.heads[min] = max;
+			tree.deprels[min] = model.getDeprelForCode(scorer.getBestLabel(max, min));
+			updateGraph1(min, mid - 1, scorer, tree);
+			updateGraph2(mid, max, scorer, tree);
 		}
 	}
 }
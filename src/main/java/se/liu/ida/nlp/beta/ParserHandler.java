@@ -18,11 +18,6 @@ public class ParserHandler {
 	}
 
 	public CoNLLTree next(CoNLLTree tree) {
-		CoNLLTree input = new CoNLLTree(tree);
-		for (int i = 0; i < input.getNNodes(); i++) {
-			input.heads[i] = 0;
-			input.deprels[i] = Model.UNKNOWN_LABEL;
-		}
-		return parser.getBestParse(input);
+		return parser.getBestParse(tree.withoutDependencies(Model.UNKNOWN_LABEL));
 	}
 }
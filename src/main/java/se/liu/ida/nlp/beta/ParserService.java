@@ -0,0 +1,293 @@
+/*
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package se.liu.ida.nlp.beta;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import se.liu.ida.nlp.beta.conll.CoNLLTree;
+import se.liu.ida.nlp.beta.metrics.ParseStats;
+
+/**
+ * A thread-safe parsing service.
+ *
+ * <p>This is the supported way to parse concurrently with Beta. A service
+ * wraps a model and owns a fixed number of worker threads, each of which has
+ * a {@link Parser} of its own whose workspace is reused for all sentences that
+ * the worker parses. Any number of threads may call the methods of a service
+ * at the same time.
+ *
+ * <p>The service never modifies the trees that it is given; instead, it
+ * returns parsed copies. The model must not be modified (for example, by a
+ * {@link Trainer}) while the service is in use.
+ *
+ * <p>Requests can be given a deadline. A request whose deadline passes before
+ * it has been parsed fails with a {@link TimeoutException}; if no worker has
+ * started on it yet, it is not parsed at all.
+ *
+ * @author Marco Kuhlmann <marco.kuhlmann@lingfil.uu.se>
+ */
+public class ParserService implements AutoCloseable {
+
+	/**
+	 * The worker threads.
+	 */
+	private final ExecutorService workers;
+	/**
+	 * The thread that enforces deadlines.
+	 */
+	private final ScheduledExecutorService timer;
+	/**
+	 * The number of worker threads.
+	 */
+	private final int nThreads;
+
+	/**
+	 * Creates a new service with one worker thread per available processor.
+	 *
+	 * @param model the model used for parsing
+	 */
+	public ParserService(Model model) {
+		this(model, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a new service with the specified number of worker threads.
+	 *
+	 * @param model the model used for parsing
+	 * @param nThreads the number of worker threads
+	 */
+	public ParserService(Model model, int nThreads) {
+		if (nThreads < 1) {
+			throw new IllegalArgumentException("the number of threads must be positive");
+		}
+		this.nThreads = nThreads;
+		this.workers = Executors.newFixedThreadPool(nThreads, new WorkerFactory(model));
+		this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "beta-deadlines");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Returns the number of worker threads of this service.
+	 *
+	 * @return the number of worker threads of this service
+	 */
+	public int getNThreads() {
+		return nThreads;
+	}
+
+	/**
+	 * Parses the specified tree and waits for the result.
+	 *
+	 * @param tree the tree to be parsed
+	 * @return a parsed copy of the specified tree
+	 */
+	public CoNLLTree parse(CoNLLTree tree) {
+		return join(parseAsync(tree));
+	}
+
+	/**
+	 * Parses the specified trees in parallel and waits for the results.
+	 *
+	 * @param trees the trees to be parsed
+	 * @return parsed copies of the specified trees, in the same order
+	 */
+	public List<CoNLLTree> parseAll(List<CoNLLTree> trees) {
+		List<CompletableFuture<CoNLLTree>> futures = new ArrayList<>(trees.size());
+		for (CoNLLTree tree : trees) {
+			futures.add(parseAsync(tree));
+		}
+		List<CoNLLTree> results = new ArrayList<>(trees.size());
+		for (CompletableFuture<CoNLLTree> future : futures) {
+			results.add(join(future));
+		}
+		return results;
+	}
+
+	/**
+	 * Parses the specified tree asynchronously.
+	 *
+	 * @param tree the tree to be parsed
+	 * @return a future for a parsed copy of the specified tree
+	 */
+	public CompletableFuture<CoNLLTree> parseAsync(CoNLLTree tree) {
+		return submit(() -> getParser().getBestParse(new CoNLLTree(tree)));
+	}
+
+	/**
+	 * Parses the specified tree asynchronously and records statistics about
+	 * it, including the time spent in each phase of parsing. The statistics
+	 * are filled in before the future completes.
+	 *
+	 * @param tree the tree to be parsed
+	 * @param stats the record for the statistics
+	 * @return a future for a parsed copy of the specified tree
+	 */
+	public CompletableFuture<CoNLLTree> parseAsync(CoNLLTree tree, ParseStats stats) {
+		return submit(() -> {
+			Parser parser = getParser();
+			CoNLLTree result = parser.getBestParse(new CoNLLTree(tree), true);
+			stats.copyFrom(parser.getStats());
+			return result;
+		});
+	}
+
+	/**
+	 * Parses the specified tree asynchronously, subject to a deadline.
+	 *
+	 * @param tree the tree to be parsed
+	 * @param timeout the time from now until the deadline
+	 * @param unit the unit of the timeout
+	 * @return a future for a parsed copy of the specified tree
+	 */
+	public CompletableFuture<CoNLLTree> parseAsync(CoNLLTree tree, long timeout, TimeUnit unit) {
+		return withDeadline(parseAsync(tree), timeout, unit);
+	}
+
+	/**
+	 * Parses the specified trees asynchronously on a single worker thread,
+	 * one after another. This is meant for small batches of trees; to parse
+	 * many trees in parallel, call {@link #parseAsync(CoNLLTree)} for every
+	 * tree, or use {@link #parseAll(List)}.
+	 *
+	 * @param trees the trees to be parsed
+	 * @return a future for parsed copies of the specified trees, in the same
+	 * order
+	 */
+	public CompletableFuture<List<CoNLLTree>> parseAsync(List<CoNLLTree> trees) {
+		return submit(() -> {
+			Parser parser = getParser();
+			List<CoNLLTree> results = new ArrayList<>(trees.size());
+			for (CoNLLTree tree : trees) {
+				results.add(parser.getBestParse(new CoNLLTree(tree)));
+			}
+			return results;
+		});
+	}
+
+	/**
+	 * Parses the specified trees asynchronously on a single worker thread,
+	 * subject to a deadline.
+	 *
+	 * @param trees the trees to be parsed
+	 * @param timeout the time from now until the deadline
+	 * @param unit the unit of the timeout
+	 * @return a future for parsed copies of the specified trees, in the same
+	 * order
+	 */
+	public CompletableFuture<List<CoNLLTree>> parseAsync(List<CoNLLTree> trees, long timeout, TimeUnit unit) {
+		return withDeadline(parseAsync(trees), timeout, unit);
+	}
+
+	/**
+	 * Shuts down this service. Requests that have already been submitted are
+	 * still parsed; new requests are rejected.
+	 */
+	@Override
+	public void close() {
+		workers.shutdown();
+		timer.shutdownNow();
+	}
+
+	private <T> CompletableFuture<T> submit(Task<T> task) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		try {
+			workers.execute(() -> {
+				if (future.isDone()) {
+					return;
+				}
+				try {
+					future.complete(task.run());
+				} catch (RuntimeException | Error e) {
+					future.completeExceptionally(e);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	private <T> CompletableFuture<T> withDeadline(CompletableFuture<T> future, long timeout, TimeUnit unit) {
+		if (!future.isDone()) {
+			ScheduledFuture<?> alarm = timer.schedule(() -> future.completeExceptionally(new TimeoutException("deadline exceeded")), timeout, unit);
+			future.whenComplete((result, exception) -> alarm.cancel(false));
+		}
+		return future;
+	}
+
+	private static Parser getParser() {
+		return ((Worker) Thread.currentThread()).parser;
+	}
+
+	private static <T> T join(CompletableFuture<T> future) {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * A parsing task.
+	 */
+	@FunctionalInterface
+	private interface Task<T> {
+
+		T run();
+	}
+
+	/**
+	 * A worker thread with a parser of its own.
+	 */
+	private static class Worker extends Thread {
+
+		private final Parser parser;
+
+		public Worker(Runnable runnable, String name, Model model) {
+			super(runnable, name);
+			setDaemon(true);
+			this.parser = new Parser(model);
+		}
+	}
+
+	/**
+	 * Create worker threads.
+	 */
+	private static class WorkerFactory implements ThreadFactory {
+
+		private final Model model;
+		private final AtomicInteger nWorkers;
+
+		public WorkerFactory(Model model) {
+			this.model = model;
+			this.nWorkers = new AtomicInteger();
+		}
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			return new Worker(runnable, String.format("beta-worker-%d", nWorkers.incrementAndGet()), model);
+		}
+	}
+}
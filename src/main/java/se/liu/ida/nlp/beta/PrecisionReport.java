@@ -0,0 +1,125 @@
+/*
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package se.liu.ida.nlp.beta;
+
+import java.io.PrintStream;
+import java.util.Locale;
+import se.liu.ida.nlp.beta.conll.CoNLLTree;
+import se.liu.ida.nlp.beta.eval.Evaluation;
+
+/**
+ * Compare parsing in double and in single precision on gold-standard data.
+ *
+ * <p>Every sentence is parsed twice, once with a model in double precision
+ * and once with its copy in single precision, and both results are
+ * evaluated. The report shows how many sentences get a different tree in
+ * single precision, how many tokens get a different head or label, the
+ * accuracy and time of both runs, and the heap size of both weight vectors.
+ *
+ * @author Marco Kuhlmann <marco.kuhlmann@lingfil.uu.se>
+ */
+public class PrecisionReport {
+
+	private final Model doubleModel;
+	private final Model singleModel;
+	private final Parser doubleParser;
+	private final Parser singleParser;
+	private final Evaluation doubleEvaluation;
+	private final Evaluation singleEvaluation;
+	private long nSentences;
+	private long nDifferentTrees;
+	private long nTokens;
+	private long nDifferentHeads;
+	private long nDifferentLabels;
+	private long doubleNanos;
+	private long singleNanos;
+
+	/**
+	 * Creates a new report for the specified model.
+	 *
+	 * @param model the model, in double precision
+	 */
+	public PrecisionReport(Model model) {
+		this(model, model.toSinglePrecision());
+	}
+
+	/**
+	 * Creates a new report for the specified model and its copy in single
+	 * precision.
+	 *
+	 * @param doubleModel the model, in double precision
+	 * @param singleModel the copy of the model in single precision
+	 */
+	public PrecisionReport(Model doubleModel, Model singleModel) {
+		if (doubleModel.isSinglePrecision()) {
+			throw new IllegalArgumentException("the model is already in single precision");
+		}
+		this.doubleModel = doubleModel;
+		this.singleModel = singleModel;
+		this.doubleParser = new Parser(doubleModel);
+		this.singleParser = new Parser(singleModel);
+		this.doubleEvaluation = new Evaluation();
+		this.singleEvaluation = new Evaluation();
+	}
+
+	public Model getSingleModel() {
+		return singleModel;
+	}
+
+	/**
+	 * Parses the specified sentence in both precisions, and adds the results
+	 * to this report.
+	 *
+	 * @param gold the sentence with its gold-standard tree
+	 */
+	public void add(CoNLLTree gold) {
+		long t0 = System.nanoTime();
+		CoNLLTree doubleTree = doubleParser.getBestParse(gold.withoutDependencies(Model.UNKNOWN_LABEL));
+		long t1 = System.nanoTime();
+		CoNLLTree singleTree = singleParser.getBestParse(gold.withoutDependencies(Model.UNKNOWN_LABEL));
+		long t2 = System.nanoTime();
+		doubleNanos += t1 - t0;
+		singleNanos += t2 - t1;
+
+		boolean isDifferent = false;
+		for (int i = 1; i < gold.getNNodes(); i++) {
+			if (doubleTree.heads[i] != singleTree.heads[i]) {
+				nDifferentHeads++;
+				isDifferent = true;
+			} else if (!doubleTree.deprels[i].equals(singleTree.deprels[i])) {
+				nDifferentLabels++;
+				isDifferent = true;
+			}
+		}
+		nSentences++;
+		nTokens += gold.getNNodes() - 1;
+		if (isDifferent) {
+			nDifferentTrees++;
+		}
+
+		doubleEvaluation.add(gold, doubleTree);
+		singleEvaluation.add(gold, singleTree);
+	}
+
+	/**
+	 * Prints the report.
+	 *
+	 * @param out the stream to print to
+	 */
+	public void print(PrintStream out) {
+		out.format(Locale.ROOT, "Different trees:   %d of %d sentences (%.2f%%)%n", nDifferentTrees, nSentences, percentage(nDifferentTrees, nSentences));
+		out.format(Locale.ROOT, "Different heads:   %d of %d tokens (%.3f%%)%n", nDifferentHeads, nTokens, percentage(nDifferentHeads, nTokens));
+		out.format(Locale.ROOT, "Different labels:  %d of %d tokens (%.3f%%)%n", nDifferentLabels, nTokens, percentage(nDifferentLabels, nTokens));
+		out.format(Locale.ROOT, "Double precision:  LAS %.2f%%, UAS %.2f%%, LA %.2f%%, %.3f s, weights %.1f MB%n",
+				doubleEvaluation.getLAS() * 100, doubleEvaluation.getUAS() * 100, doubleEvaluation.getLA() * 100, doubleNanos / 1e9,
+				doubleModel.getNFeatures() * 8.0 / (1 << 20));
+		out.format(Locale.ROOT, "Single precision:  LAS %.2f%%, UAS %.2f%%, LA %.2f%%, %.3f s (%.2fx), weights %.1f MB%n",
+				singleEvaluation.getLAS() * 100, singleEvaluation.getUAS() * 100, singleEvaluation.getLA() * 100, singleNanos / 1e9,
+				singleNanos == 0 ? 0.0 : doubleNanos / (double) singleNanos, singleModel.getNFeatures() * 4.0 / (1 << 20));
+	}
+
+	private static double percentage(long n, long total) {
+		return total == 0 ? 0.0 : n * 100.0 / total;
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package se.liu.ida.nlp.beta;
+
+import java.io.PrintStream;
+import java.util.Locale;
+import se.liu.ida.nlp.beta.conll.CoNLLTree;
+import se.liu.ida.nlp.beta.eval.Evaluation;
+
+/**
+ * Compare parsing with and without pruning on gold-standard data.
+ *
+ * <p>Every sentence is parsed twice, once with the pruning that the model
+ * supports and once without, and both results are evaluated. The report
+ * shows the share of arcs that were pruned, the share of gold-standard arcs
+ * among them, which bounds the loss in accuracy, the same two shares for the
+ * labels of the arcs that were not pruned, the accuracy and time of both
+ * runs, and the number of sentences that had to be parsed again without
+ * pruning.
+ *
+ * @author Marco Kuhlmann <marco.kuhlmann@lingfil.uu.se>
+ */
+public class PruningReport {
+
+	private final Model model;
+	private final Parser pruned;
+	private final Parser unpruned;
+	private final Evaluation prunedEvaluation;
+	private final Evaluation unprunedEvaluation;
+	private long nArcs;
+	private long nPrunedArcs;
+	private long nGoldArcs;
+	private long nPrunedGoldArcs;
+	private long nLabels;
+	private long nPrunedLabels;
+	private long nPrunedGoldLabels;
+	private long nFallbacks;
+	private long prunedNanos;
+	private long unprunedNanos;
+
+	/**
+	 * Creates a new report for the specified model.
+	 *
+	 * @param model the model
+	 */
+	public PruningReport(Model model) {
+		this.model = model;
+		this.pruned = new Parser(model);
+		this.unpruned = new Parser(model);
+		unpruned.setPruning(false);
+		this.prunedEvaluation = new Evaluation();
+		this.unprunedEvaluation = new Evaluation();
+	}
+
+	/**
+	 * Parses the specified sentence with and without pruning, and adds the
+	 * results to this report.
+	 *
+	 * @param gold the sentence with its gold-standard tree
+	 */
+	public void add(CoNLLTree gold) {
+		int nNodes = gold.getNNodes();
+
+		long t0 = System.nanoTime();
+		CoNLLTree prunedTree = pruned.getBestParse(gold.withoutDependencies(Model.UNKNOWN_LABEL));
+		long t1 = System.nanoTime();
+		CoNLLTree unprunedTree = unpruned.getBestParse(gold.withoutDependencies(Model.UNKNOWN_LABEL));
+		long t2 = System.nanoTime();
+		prunedNanos += t1 - t0;
+		unprunedNanos += t2 - t1;
+
+		nArcs += (long) nNodes * (nNodes - 1);
+		nPrunedArcs += pruned.getStats().getPrunedArcs();
+		nLabels += ((long) nNodes * (nNodes - 1) - pruned.getStats().getPrunedArcs()) * model.getNDeprels();
+		nPrunedLabels += pruned.getStats().getPrunedLabels();
+		if (pruned.getStats().isFallback()) {
+			nFallbacks++;
+		}
+
+		ArcFilter filter = model.getArcFilter();
+		HeadSelector selector = model.getHeadSelector();
+		boolean[] selected = selector == null ? null : selector.select(selector.getTags(model, gold));
+		LabelFilter labelFilter = model.getLabelFilter();
+		for (int i = 1; i < nNodes; i++) {
+			int head = gold.heads[i];
+			nGoldArcs++;
+			if (filter != null && !filter.isAllowed(model.getCodeForPOSTag(gold.postags[head]), model.getCodeForPOSTag(gold.postags[i]), head, i)
+					|| selected != null && !selected[head * nNodes + i]) {
+				nPrunedGoldArcs++;
+			}
+			int label = model.getCodeForDeprel(gold.deprels[i]);
+			if (labelFilter != null && label >= 0 && !labelFilter.isAllowed(model.getCodeForPOSTag(gold.postags[head]), model.getCodeForPOSTag(gold.postags[i]), head < i, label)) {
+				nPrunedGoldLabels++;
+			}
+		}
+
+		prunedEvaluation.add(gold, prunedTree);
+		unprunedEvaluation.add(gold, unprunedTree);
+	}
+
+	/**
+	 * Prints the report.
+	 *
+	 * @param out the stream to print to
+	 */
+	public void print(PrintStream out) {
+		out.format(Locale.ROOT, "Pruned arcs:        %d of %d (%.2f%%)%n", nPrunedArcs, nArcs, percentage(nPrunedArcs, nArcs));
+		out.format(Locale.ROOT, "Pruned gold arcs:   %d of %d (%.2f%%)%n", nPrunedGoldArcs, nGoldArcs, percentage(nPrunedGoldArcs, nGoldArcs));
+		out.format(Locale.ROOT, "Pruned labels:      %d of %d (%.2f%%)%n", nPrunedLabels, nLabels, percentage(nPrunedLabels, nLabels));
+		out.format(Locale.ROOT, "Pruned gold labels: %d of %d (%.2f%%)%n", nPrunedGoldLabels, nGoldArcs, percentage(nPrunedGoldLabels, nGoldArcs));
+		out.format(Locale.ROOT, "Fallbacks:          %d%n", nFallbacks);
+		out.format(Locale.ROOT, "Without pruning:    LAS %.2f%%, UAS %.2f%%, LA %.2f%%, %.3f s%n",
+				unprunedEvaluation.getLAS() * 100, unprunedEvaluation.getUAS() * 100, unprunedEvaluation.getLA() * 100, unprunedNanos / 1e9);
+		out.format(Locale.ROOT, "With pruning:       LAS %.2f%%, UAS %.2f%%, LA %.2f%%, %.3f s (%.2fx)%n",
+				prunedEvaluation.getLAS() * 100, prunedEvaluation.getUAS() * 100, prunedEvaluation.getLA() * 100, prunedNanos / 1e9,
+				prunedNanos == 0 ? 0.0 : unprunedNanos / (double) prunedNanos);
+	}
+
+	private static double percentage(long n, long total) {
+		return total == 0 ? 0.0 : n * 100.0 / total;
+	}
+}
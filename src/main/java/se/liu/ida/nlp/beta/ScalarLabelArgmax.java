@@ -0,0 +1,56 @@
+/*
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package se.liu.ida.nlp.beta;
+
+/**
+ * Find the best label of an arc with scalar instructions. The loop is
+ * unrolled four times, which lets the processor compute the next sums while
+ * it compares the previous ones.
+ *
+ * @author Marco Kuhlmann <marco.kuhlmann@lingfil.uu.se>
+ */
+public class ScalarLabelArgmax extends LabelArgmax {
+
+	@Override
+	public int argmax(double core, double[] src, int srcOffset, double[] tgt, int tgtOffset, int nLabels) {
+		double best = Double.NEGATIVE_INFINITY;
+		int bestLabel = 0;
+		int i = 0;
+		for (; i + 4 <= nLabels; i += 4) {
+			double score0 = core + src[srcOffset + i] + tgt[tgtOffset + i];
+			double score1 = core + src[srcOffset + i + 1] + tgt[tgtOffset + i + 1];
+			double score2 = core + src[srcOffset + i + 2] + tgt[tgtOffset + i + 2];
+			double score3 = core + src[srcOffset + i + 3] + tgt[tgtOffset + i + 3];
+			if (score0 > best) {
+				best = score0;
+				bestLabel = i;
+			}
+			if (score1 > best) {
+				best = score1;
+				bestLabel = i + 1;
+			}
+			if (score2 > best) {
+				best = score2;
+				bestLabel = i + 2;
+			}
+			if (score3 > best) {
+				best = score3;
+				bestLabel = i + 3;
+			}
+		}
+		for (; i < nLabels; i++) {
+			double score = core + src[srcOffset + i] + tgt[tgtOffset + i];
+			if (score > best) {
+				best = score;
+				bestLabel = i;
+			}
+		}
+		return bestLabel;
+	}
+
+	@Override
+	public String getName() {
+		return "scalar";
+	}
+}
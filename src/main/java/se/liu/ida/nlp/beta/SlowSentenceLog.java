@@ -0,0 +1,177 @@
+/*
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package se.liu.ida.nlp.beta;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import se.liu.ida.nlp.beta.conll.CoNLLTree;
+import se.liu.ida.nlp.beta.conll.CoNLLWriter;
+import se.liu.ida.nlp.beta.metrics.ParseStats;
+import se.liu.ida.nlp.beta.metrics.Phase;
+
+/**
+ * Log sentences that take long to parse.
+ *
+ * <p>Every sentence whose parse time reaches a threshold is written to the
+ * log in the CoNLL format, exactly as it was read, preceded by comment lines
+ * with its number in the input, its length, and the time spent in each phase
+ * of parsing:
+ *
+ * <pre>
+ * # sentence = 17
+ * # length = 112
+ * # parse_ms = 1523.112
+ * # featurize_ms = 80.441
+ * ...
+ * </pre>
+ *
+ * <p>As {@link se.liu.ida.nlp.beta.conll.CoNLLReader} skips comment lines, a
+ * log can be read back like any other input file, for example to replay the
+ * slow sentences with {@code beta bench}.
+ *
+ * <p>When a log file grows beyond a maximal size, it is renamed by appending
+ * {@code .1} to its name, older files are shifted to {@code .2}, {@code .3},
+ * and so on, and a new file is started. Only a fixed number of old files is
+ * kept.
+ *
+ * @author Marco Kuhlmann <marco.kuhlmann@lingfil.uu.se>
+ */
+public class SlowSentenceLog implements AutoCloseable {
+
+	/**
+	 * The default maximal size of a log file, in bytes.
+	 */
+	public static final long DEFAULT_MAX_BYTES = 16L << 20;
+	/**
+	 * The default number of old log files that are kept.
+	 */
+	public static final int DEFAULT_N_BACKUPS = 4;
+	private static final Phase[] PARSER_PHASES = {Phase.FEATURIZE, Phase.LOOKUP, Phase.LABEL, Phase.DECODE};
+	private final String fileName;
+	private final long thresholdNanos;
+	private final long maxBytes;
+	private final int nBackups;
+	private Writer writer;
+	private long nBytes;
+	private int nLogged;
+
+	/**
+	 * Creates a new log with the default file size and number of old files.
+	 *
+	 * @param fileName the name of the log file
+	 * @param thresholdMillis the parse time from which on sentences are
+	 * logged, in milliseconds
+	 * @throws IOException if the log file cannot be opened
+	 */
+	public SlowSentenceLog(String fileName, double thresholdMillis) throws IOException {
+		this(fileName, thresholdMillis, DEFAULT_MAX_BYTES, DEFAULT_N_BACKUPS);
+	}
+
+	/**
+	 * Creates a new log.
+	 *
+	 * @param fileName the name of the log file
+	 * @param thresholdMillis the parse time from which on sentences are
+	 * logged, in milliseconds
+	 * @param maxBytes the maximal size of a log file, in bytes
+	 * @param nBackups the number of old log files that are kept
+	 * @throws IOException if the log file cannot be opened
+	 */
+	public SlowSentenceLog(String fileName, double thresholdMillis, long maxBytes, int nBackups) throws IOException {
+		this.fileName = fileName;
+		this.thresholdNanos = (long) (thresholdMillis * 1e6);
+		this.maxBytes = maxBytes;
+		this.nBackups = nBackups;
+		open();
+	}
+
+	private void open() throws IOException {
+		File file = new File(fileName);
+		this.nBytes = file.length();
+		this.writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+	}
+
+	private void rotate() throws IOException {
+		writer.close();
+		new File(fileName + "." + nBackups).delete();
+		for (int i = nBackups - 1; i >= 1; i--) {
+			new File(fileName + "." + i).renameTo(new File(fileName + "." + (i + 1)));
+		}
+		if (nBackups > 0) {
+			new File(fileName).renameTo(new File(fileName + ".1"));
+		} else {
+			new File(fileName).delete();
+		}
+		open();
+	}
+
+	/**
+	 * Returns whether a sentence with the specified statistics is slow enough
+	 * to be logged.
+	 *
+	 * @param stats the statistics about parsing the sentence
+	 * @return {@code true} if the sentence should be logged
+	 */
+	public boolean isSlow(ParseStats stats) {
+		return stats.getParseTime() >= thresholdNanos;
+	}
+
+	/**
+	 * Logs the specified sentence if it is slow enough.
+	 *
+	 * @param id the number of the sentence in the input, starting at 1
+	 * @param input the sentence as it was read
+	 * @param stats the statistics about parsing the sentence
+	 * @return {@code true} if the sentence was logged
+	 * @throws IOException if an I/O error occurs
+	 */
+	public synchronized boolean log(int id, CoNLLTree input, ParseStats stats) throws IOException {
+		if (!isSlow(stats)) {
+			return false;
+		}
+		StringWriter buffer = new StringWriter();
+		buffer.write(String.format(Locale.ROOT, "# sentence = %d\n", id));
+		buffer.write(String.format(Locale.ROOT, "# length = %d\n", stats.getLength()));
+		buffer.write(String.format(Locale.ROOT, "# parse_ms = %.3f\n", stats.getParseTime() / 1e6));
+		for (Phase phase : PARSER_PHASES) {
+			buffer.write(String.format(Locale.ROOT, "# %s_ms = %.3f\n", phase.getName(), stats.getTime(phase) / 1e6));
+		}
+		buffer.write(String.format(Locale.ROOT, "# feature_lookups = %d\n", stats.getFeatureLookups()));
+		buffer.write(String.format(Locale.ROOT, "# feature_misses = %d\n", stats.getFeatureMisses()));
+		buffer.write(String.format(Locale.ROOT, "# chart_cells = %d\n", stats.getChartCells()));
+		new CoNLLWriter(buffer).write(input);
+		String record = buffer.toString();
+		int size = record.getBytes(StandardCharsets.UTF_8).length;
+
+		if (nBytes > 0 && nBytes + size > maxBytes) {
+			rotate();
+		}
+		writer.write(record);
+		writer.flush();
+		nBytes += size;
+		nLogged++;
+		return true;
+	}
+
+	/**
+	 * Returns the number of sentences that have been logged.
+	 *
+	 * @return the number of sentences that have been logged
+	 */
+	public synchronized int getNLogged() {
+		return nLogged;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		writer.close();
+	}
+}
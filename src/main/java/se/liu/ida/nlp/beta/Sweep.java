@@ -0,0 +1,287 @@
+/*
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package se.liu.ida.nlp.beta;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import se.liu.ida.nlp.beta.conll.CoNLLTree;
+import se.liu.ida.nlp.beta.eval.Evaluation;
+import se.liu.ida.nlp.beta.eval.Evaluator;
+
+/**
+ * Train several configurations of the parser on the same data in parallel.
+ *
+ * <p>All configurations share one extracted model: the vocabularies, the
+ * feature index, and the training and development data are only held once.
+ * Each configuration only adds its own weight vector and the accumulated
+ * weights of the averaged perceptron. A configuration consists of a feature
+ * cutoff, which restricts training to the features that occur at least that
+ * many times in the training data, and a random seed for shuffling the
+ * training data before each iteration. Each configuration is trained for the
+ * highest requested number of iterations, and a snapshot with averaged
+ * weights is evaluated on the development data after each requested number of
+ * iterations.
+ *
+ * @author Marco Kuhlmann <marco.kuhlmann@lingfil.uu.se>
+ */
+public class Sweep {
+
+	/**
+	 * The extracted model, shared by all configurations.
+	 */
+	private final Model model;
+	/**
+	 * The number of occurrences of each feature in the training data.
+	 */
+	private final int[] featureCounts;
+	private final List<CoNLLTree> trainTrees;
+	private final List<CoNLLTree> devTrees;
+	/**
+	 * The development data, without heads and labels.
+	 */
+	private final List<CoNLLTree> devInput;
+	/**
+	 * The masks of active features, one per cutoff.
+	 */
+	private final Map<Integer, boolean[]> masks;
+	/**
+	 * The best result so far.
+	 */
+	private Result best;
+
+	/**
+	 * Creates a new sweep.
+	 *
+	 * @param model the model extracted from the training data
+	 * @param featureCounts the number of occurrences of each feature in the
+	 * training data
+	 * @param trainTrees the training data
+	 * @param devTrees the development data
+	 */
+	public Sweep(Model model, int[] featureCounts, List<CoNLLTree> trainTrees, List<CoNLLTree> devTrees) {
+		this.model = model;
+		this.featureCounts = featureCounts;
+		this.trainTrees = trainTrees;
+		this.devTrees = devTrees;
+		this.devInput = new ArrayList<>(devTrees.size());
+		for (CoNLLTree tree : devTrees) {
+			devInput.add(tree.withoutDependencies(Model.UNKNOWN_LABEL));
+		}
+		this.masks = new HashMap<>();
+	}
+
+	/**
+	 * Returns the mask of the features that occur at least the specified
+	 * number of times, or {@code null} if all features do.
+	 */
+	private synchronized boolean[] getMask(int cutoff) {
+		if (cutoff <= 1) {
+			return null;
+		}
+		boolean[] mask = masks.get(cutoff);
+		if (mask == null) {
+			mask = new boolean[featureCounts.length];
+			for (int i = 0; i < mask.length; i++) {
+				mask[i] = featureCounts[i] >= cutoff;
+			}
+			masks.put(cutoff, mask);
+		}
+		return mask;
+	}
+
+	/**
+	 * Returns the number of features that occur at least the specified number
+	 * of times.
+	 *
+	 * @param cutoff the cutoff
+	 * @return the number of features that occur at least that many times
+	 */
+	public int getNFeatures(int cutoff) {
+		int n = 0;
+		for (int count : featureCounts) {
+			if (count >= cutoff) {
+				n++;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Trains and evaluates all combinations of the specified cutoffs and
+	 * seeds.
+	 *
+	 * @param cutoffs the feature cutoffs
+	 * @param seeds the random seeds; the seed 0 keeps the order of the
+	 * training data
+	 * @param iterations the numbers of iterations after which the
+	 * configurations are evaluated
+	 * @param nThreads the number of configurations that are trained at the
+	 * same time
+	 * @param log the stream to which finished evaluations are reported, or
+	 * {@code null}
+	 * @return the results, ordered by cutoff, seed, and number of iterations
+	 * @throws InterruptedException if the calling thread is interrupted
+	 */
+	public List<Result> run(int[] cutoffs, long[] seeds, int[] iterations, int nThreads, PrintStream log) throws InterruptedException {
+		int[] sortedIterations = iterations.clone();
+		Arrays.sort(sortedIterations);
+		ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+		List<Future<List<Result>>> futures = new ArrayList<>();
+		try {
+			for (int cutoff : cutoffs) {
+				for (long seed : seeds) {
+					futures.add(executor.submit(() -> train(cutoff, seed, sortedIterations, log)));
+				}
+			}
+			List<Result> results = new ArrayList<>();
+			for (Future<List<Result>> future : futures) {
+				try {
+					results.addAll(future.get());
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof RuntimeException) {
+						throw (RuntimeException) cause;
+					}
+					throw new IllegalStateException(cause);
+				}
+			}
+			return results;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private List<Result> train(int cutoff, long seed, int[] iterations, PrintStream log) {
+		Model configModel = new Model(model);
+		Trainer trainer = new Trainer(configModel, new Parser(configModel), getMask(cutoff));
+		List<CoNLLTree> order = new ArrayList<>(trainTrees);
+		Random random = new Random(seed);
+		List<Result> results = new ArrayList<>();
+		int next = 0;
+		for (int i = 1; next < iterations.length; i++) {
+			if (seed != 0) {
+				Collections.shuffle(order, random);
+			}
+			for (CoNLLTree tree : order) {
+				trainer.update(tree);
+			}
+			trainer.getAndResetStats();
+			if (i == iterations[next]) {
+				Model snapshot = new Model(model);
+				snapshot.setWeightVector(trainer.getAveragedWeightVector());
+				Result result = new Result(cutoff, seed, i, evaluate(snapshot));
+				results.add(result);
+				report(result, snapshot, log);
+				while (next < iterations.length && iterations[next] == i) {
+					next++;
+				}
+			}
+		}
+		return results;
+	}
+
+	private Evaluation evaluate(Model snapshot) {
+		Parser parser = new Parser(snapshot);
+		List<CoNLLTree> parsed = new ArrayList<>(devInput.size());
+		for (CoNLLTree tree : devInput) {
+			parsed.add(parser.getBestParse(new CoNLLTree(tree)));
+		}
+		return new Evaluator().evaluate(devTrees, parsed);
+	}
+
+	private synchronized void report(Result result, Model snapshot, PrintStream log) {
+		if (best == null || result.getEvaluation().getLAS() > best.getEvaluation().getLAS()) {
+			if (best != null) {
+				best.model = null;
+			}
+			best = result;
+			best.model = snapshot;
+		}
+		if (log != null) {
+			log.format(Locale.ROOT, "cutoff %d, seed %d, %d iterations: LAS %.2f%%, UAS %.2f%%%n", result.cutoff, result.seed, result.iterations, result.evaluation.getLAS() * 100, result.evaluation.getUAS() * 100);
+		}
+	}
+
+	/**
+	 * Returns the result with the highest labeled attachment score. Its model
+	 * is available through {@link Result#getModel()}.
+	 *
+	 * @return the best result, or {@code null} if there is none
+	 */
+	public synchronized Result getBest() {
+		return best;
+	}
+
+	/**
+	 * Prints a table of the specified results, with the best result marked.
+	 *
+	 * @param results the results
+	 * @param out the stream to print to
+	 */
+	public void printTable(List<Result> results, PrintStream out) {
+		Result bestResult = getBest();
+		out.println("cutoff   features       seed  iters      LAS      UAS       LA");
+		for (Result result : results) {
+			Evaluation e = result.evaluation;
+			out.format(Locale.ROOT, "%6d %10d %10d %6d %8.2f %8.2f %8.2f%s%n", result.cutoff, getNFeatures(result.cutoff), result.seed, result.iterations,
+					e.getLAS() * 100, e.getUAS() * 100, e.getLA() * 100, result == bestResult ? " *" : "");
+		}
+	}
+
+	/**
+	 * The evaluation of one configuration after a number of iterations.
+	 */
+	public static class Result {
+
+		private final int cutoff;
+		private final long seed;
+		private final int iterations;
+		private final Evaluation evaluation;
+		private Model model;
+
+		private Result(int cutoff, long seed, int iterations, Evaluation evaluation) {
+			this.cutoff = cutoff;
+			this.seed = seed;
+			this.iterations = iterations;
+			this.evaluation = evaluation;
+		}
+
+		public int getCutoff() {
+			return cutoff;
+		}
+
+		public long getSeed() {
+			return seed;
+		}
+
+		public int getIterations() {
+			return iterations;
+		}
+
+		public Evaluation getEvaluation() {
+			return evaluation;
+		}
+
+		/**
+		 * Returns the model of this result. Only the model of the best result
+		 * is kept.
+		 *
+		 * @return the model of this result, or {@code null}
+		 */
+		public Model getModel() {
+			return model;
+		}
+	}
+}
@@ -22,6 +22,7 @@ import java.util.List;
  */
 public class Table<E> implements Serializable {
 
+	private static final long serialVersionUID = -7056154207658376923L;
 	/**
 	 * The index that is used for non-elements.
 	 */
@@ -87,6 +88,15 @@ public class Table<E> implements Serializable {
 		return entries.size();
 	}
 
+	/**
+	 * Returns the number of slots in the hash map from elements to indexes.
+	 *
+	 * @return the number of slots in the hash map from elements to indexes
+	 */
+	public int getCapacity() {
+		return ((TObjectIntHashMap<?>) table).capacity();
+	}
+
 	/**
 	 * Returns the list of elements in this table.
 	 *
@@ -15,43 +15,108 @@ public class Trainer {
 	private final Model model;
 	private final Parser parser;
 	private final double[] acc;
+	/**
+	 * The features whose weights are trained, or {@code null} for all
+	 * features.
+	 */
+	private final boolean[] active;
 	private int nUpdates;
+	/**
+	 * Whether the phases of training should be timed.
+	 */
+	private boolean timing;
+	/**
+	 * The statistics about the current iteration.
+	 */
+	private TrainingStats stats;
 
 	public Trainer(Model model, Parser parser) {
+		this(model, parser, null);
+	}
+
+	/**
+	 * Creates a trainer that only trains the weights of the specified
+	 * features. The weights of all other features stay zero, which has the
+	 * same effect as leaving these features out of the model.
+	 *
+	 * @param model the model
+	 * @param parser the parser for the model
+	 * @param active the features whose weights are trained, indexed by
+	 * feature code, or {@code null} for all features
+	 */
+	public Trainer(Model model, Parser parser, boolean[] active) {
 		this.model = model;
 		int nFeatures = model.getNFeatures();
 		model.setWeightVector(new double[nFeatures]);
 		this.parser = parser;
 		this.acc = new double[nFeatures];
+		this.active = active;
+		this.stats = new TrainingStats();
 	}
 
-	public void update(CoNLLTree tree) {
-		FeatureVector gold = EdgeFeaturizer.getFeatureVector(tree, model);
+	/**
+	 * Sets whether the phases of training should be timed. Timing costs a few
+	 * calls to {@link System#nanoTime()} per arc.
+	 *
+	 * @param timing whether the phases of training should be timed
+	 */
+	public void setTiming(boolean timing) {
+		this.timing = timing;
+	}
 
-		int nNodes = tree.getNNodes();
+	/**
+	 * Returns the statistics collected since the last call to this method,
+	 * and starts collecting new statistics.
+	 *
+	 * @return the statistics collected since the last call to this method
+	 */
+	public TrainingStats getAndResetStats() {
+		TrainingStats result = stats;
+		stats = new TrainingStats();
+		return result;
+	}
 
-		CoNLLTree input = new CoNLLTree(tree);
-		for (int i = 0; i < nNodes; i++) {
-			input.heads[i] = 0;
-			input.deprels[i] = Model.UNKNOWN_LABEL;
-		}
+	public void update(CoNLLTree tree) {
+		CoNLLTree input = tree.withoutDependencies(Model.UNKNOWN_LABEL);
 
-		CoNLLTree bestParse = parser.getBestParse(input);
-		FeatureVector best = EdgeFeaturizer.getFeatureVector(bestParse, model);
+		CoNLLTree bestParse = parser.getBestParse(input, timing);
+		boolean isCorrect = stats.addPrediction(tree, bestParse, parser.getStats());
 
 		nUpdates++;
 
-		gold.addTo(model.getWeightVector());
-		best.subtractFrom(model.getWeightVector());
+		// If the predicted tree is the gold-standard tree, the update would
+		// add and subtract the same features, which leaves all weights as
+		// they are. Skip it, but still count it for the averaging.
 
-		gold.addTo(nUpdates, acc);
-		best.subtractFrom(nUpdates, acc);
+		if (!isCorrect) {
+			long t0 = timing ? System.nanoTime() : 0;
+
+			FeatureVector gold = EdgeFeaturizer.getFeatureVector(tree, model);
+			FeatureVector best = EdgeFeaturizer.getFeatureVector(bestParse, model);
+			if (active != null) {
+				gold.retain(active);
+				best.retain(active);
+			}
+
+			long t1 = timing ? System.nanoTime() : 0;
+
+			gold.addTo(model.getWeightVector());
+			best.subtractFrom(model.getWeightVector());
+			model.weightsChanged();
+
+			gold.addTo(nUpdates, acc);
+			best.subtractFrom(nUpdates, acc);
+
+			long t2 = timing ? System.nanoTime() : 0;
+			stats.addUpdate(t1 - t0, t2 - t1);
+		}
 	}
 
 	public void averageWeightVector() {
 		for (int i = 0; i < model.getWeightVector().length; i++) {
 			model.getWeightVector()[i] -= acc[i] / (nUpdates + 1);
 		}
+		model.weightsChanged();
 	}
 
 	public double[] getAveragedWeightVector() {
@@ -0,0 +1,134 @@
+/*
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package se.liu.ida.nlp.beta;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import se.liu.ida.nlp.beta.conll.CoNLLTree;
+import se.liu.ida.nlp.beta.metrics.ParseStats;
+import se.liu.ida.nlp.beta.metrics.Phase;
+
+/**
+ * Statistics about one iteration of training.
+ *
+ * <p>The statistics count the training sentences, the sentences whose
+ * predicted tree differs from the gold-standard tree and therefore lead to an
+ * update of the weights, and the tokens whose head and label were predicted
+ * correctly. If the trainer times its work, they also contain the time spent
+ * in featurizing, scoring, decoding, and updating.
+ *
+ * @author Marco Kuhlmann <marco.kuhlmann@lingfil.uu.se>
+ */
+public class TrainingStats {
+
+	private final long started;
+	private int nSentences;
+	private int nUpdated;
+	private long nTokens;
+	private long nCorrectHeads;
+	private long nCorrectLabeled;
+	private long featurizeNanos;
+	private long scoreNanos;
+	private long decodeNanos;
+	private long updateNanos;
+
+	public TrainingStats() {
+		this.started = System.nanoTime();
+	}
+
+	/**
+	 * Records the predicted tree for a training sentence.
+	 *
+	 * @param gold the gold-standard tree
+	 * @param predicted the predicted tree
+	 * @param stats the statistics about parsing the sentence
+	 * @return {@code true} if the predicted tree equals the gold-standard
+	 * tree
+	 */
+	public boolean addPrediction(CoNLLTree gold, CoNLLTree predicted, ParseStats stats) {
+		int nNodes = gold.getNNodes();
+		int nCorrect = 0;
+		for (int i = 1; i < nNodes; i++) {
+			if (predicted.heads[i] == gold.heads[i]) {
+				nCorrectHeads++;
+				if (predicted.deprels[i].equals(gold.deprels[i])) {
+					nCorrect++;
+				}
+			}
+		}
+		nSentences++;
+		nTokens += nNodes - 1;
+		nCorrectLabeled += nCorrect;
+		featurizeNanos += stats.getTime(Phase.FEATURIZE);
+		scoreNanos += stats.getTime(Phase.LOOKUP) + stats.getTime(Phase.LABEL);
+		decodeNanos += stats.getTime(Phase.DECODE);
+		return nCorrect == nNodes - 1;
+	}
+
+	/**
+	 * Records an update of the weights.
+	 *
+	 * @param featurizeNanos the time spent in featurizing the gold-standard
+	 * and the predicted tree, in nanoseconds
+	 * @param updateNanos the time spent in updating the weights, in
+	 * nanoseconds
+	 */
+	public void addUpdate(long featurizeNanos, long updateNanos) {
+		this.nUpdated++;
+		this.featurizeNanos += featurizeNanos;
+		this.updateNanos += updateNanos;
+	}
+
+	public int getNSentences() {
+		return nSentences;
+	}
+
+	public int getNUpdated() {
+		return nUpdated;
+	}
+
+	public long getNTokens() {
+		return nTokens;
+	}
+
+	public double getUpdateRate() {
+		return nSentences == 0 ? 0.0 : (double) nUpdated / nSentences;
+	}
+
+	public double getUAS() {
+		return nTokens == 0 ? 0.0 : (double) nCorrectHeads / nTokens;
+	}
+
+	public double getLAS() {
+		return nTokens == 0 ? 0.0 : (double) nCorrectLabeled / nTokens;
+	}
+
+	/**
+	 * Returns the statistics as a JSON object on a single line.
+	 *
+	 * @param iteration the number of the iteration, starting at 1
+	 * @param weightVector the weight vector at the end of the iteration
+	 * @return the statistics as a JSON object
+	 */
+	public String toJSON(int iteration, double[] weightVector) {
+		double seconds = (System.nanoTime() - started) / 1e9;
+		int nNonZero = 0;
+		for (double weight : weightVector) {
+			if (weight != 0.0) {
+				nNonZero++;
+			}
+		}
+		long heapUsed = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format(Locale.ROOT, "{\"iteration\":%d,\"sentences\":%d,\"tokens\":%d,\"seconds\":%.3f,\"sentencesPerSecond\":%.1f",
+				iteration, nSentences, nTokens, seconds, nSentences / seconds));
+		sb.append(String.format(Locale.ROOT, ",\"updated\":%d,\"updateRate\":%.4f,\"uas\":%.4f,\"las\":%.4f",
+				nUpdated, getUpdateRate(), getUAS(), getLAS()));
+		sb.append(String.format(Locale.ROOT, ",\"features\":%d,\"nonZeroWeights\":%d,\"heapMB\":%.1f",
+				weightVector.length, nNonZero, heapUsed / (double) (1 << 20)));
+		sb.append(String.format(Locale.ROOT, ",\"featurizeSeconds\":%.3f,\"scoreSeconds\":%.3f,\"decodeSeconds\":%.3f,\"updateSeconds\":%.3f}",
+				featurizeNanos / 1e9, scoreNanos / 1e9, decodeNanos / 1e9, updateNanos / 1e9));
+		return sb.toString();
+	}
+}
@@ -0,0 +1,105 @@
+/*
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package se.liu.ida.nlp.beta.conll;
+
+import gnu.trove.impl.Constants;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Write the heads and labels of dependency trees in a compact binary format.
+ *
+ * <p>A stream starts with a header that consists of the magic number
+ * {@link #MAGIC}, the format {@link #VERSION}, the number of labels, and the
+ * labels themselves (in modified UTF-8). Each tree is then written as a record
+ * that consists of the sentence id (counting from 1), the number {@code n} of
+ * tokens (not counting the root), the {@code n} heads, and the {@code n} label
+ * codes. Label codes are positions in the label table from the header; labels
+ * that are not in that table are written as -1. All numbers are big-endian
+ * 32-bit integers.
+ *
+ * <p>Apart from the header, writing does not allocate any objects.
+ *
+ * @author Marco Kuhlmann <marco.kuhlmann@lingfil.uu.se>
+ */
+public class BinaryTreeWriter implements TreeWriter {
+
+	/**
+	 * The magic number at the start of every stream ("BETA").
+	 */
+	public static final int MAGIC = 0x42455441;
+	/**
+	 * The version of the format.
+	 */
+	public static final int VERSION = 1;
+	/**
+	 * The label code for labels that are not in the label table.
+	 */
+	private static final int NO_ENTRY_VALUE = -1;
+	/**
+	 * The internal output stream.
+	 */
+	private final DataOutputStream os;
+	/**
+	 * The mapping from labels to label codes.
+	 */
+	private final TObjectIntMap<String> labelCodes;
+	/**
+	 * The id of the most recently written tree.
+	 */
+	private int sentenceId;
+
+	/**
+	 * Constructs a new writer with the specified output stream and label
+	 * table, and writes the stream header.
+	 *
+	 * @param os an output stream
+	 * @param labels the label table
+	 * @throws IOException if an I/O error occurs
+	 */
+	public BinaryTreeWriter(OutputStream os, List<String> labels) throws IOException {
+		this.os = new DataOutputStream(new BufferedOutputStream(os));
+		this.labelCodes = new TObjectIntHashMap<>(Constants.DEFAULT_CAPACITY, Constants.DEFAULT_LOAD_FACTOR, NO_ENTRY_VALUE);
+		this.os.writeInt(MAGIC);
+		this.os.writeInt(VERSION);
+		this.os.writeInt(labels.size());
+		for (String label : labels) {
+			labelCodes.put(label, labelCodes.size());
+			this.os.writeUTF(label);
+		}
+	}
+
+	public BinaryTreeWriter(String fileName, List<String> labels) throws IOException {
+		this(new FileOutputStream(fileName), labels);
+	}
+
+	@Override
+	public void write(CoNLLTree tree) throws IOException {
+		int nNodes = tree.getNNodes();
+		os.writeInt(++sentenceId);
+		os.writeInt(nNodes - 1);
+		for (int i = 1; i < nNodes; i++) {
+			os.writeInt(tree.heads[i]);
+		}
+		for (int i = 1; i < nNodes; i++) {
+			os.writeInt(labelCodes.get(tree.deprels[i]));
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		os.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		os.close();
+	}
+}
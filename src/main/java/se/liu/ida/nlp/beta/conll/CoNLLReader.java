@@ -16,7 +16,8 @@ import java.util.List;
  * Read dependency trees in a CoNLL-like format from a character-input stream.
  *
  * <p>For the sake of efficiency, the input stream is read from using a
- * BufferedReader.
+ * BufferedReader. Lines starting with {@code #} are comments and are
+ * skipped.
  *
  * @author Marco Kuhlmann <marco.kuhlmann@lingfil.uu.se>
  */
@@ -26,6 +27,10 @@ public class CoNLLReader {
 	 * The field separator.
 	 */
 	private static final String FIELD_SEPARATOR = "\t";
+	/**
+	 * The prefix of comment lines.
+	 */
+	private static final String COMMENT_PREFIX = "#";
 	/**
 	 * The data columns of the root node.
 	 */
@@ -87,23 +92,20 @@ public class CoNLLReader {
 	 */
 	public CoNLLTree read() throws IOException {
 		String line = reader.readLine();
+		while (line != null && line.startsWith(COMMENT_PREFIX)) {
+			line = reader.readLine();
+		}
 		if (line == null || line.isEmpty()) {
 			return null;
 		} else {
 			List<String> lines = new LinkedList<>();
 			do {
-				lines.add(line);
+				if (!line.startsWith(COMMENT_PREFIX)) {
+					lines.add(line);
+				}
 			} while ((line = reader.readLine()) != null && !line.isEmpty());
 
-			CoNLLTree tree = new CoNLLTree(lines.size() + 1);
-
-			tree.forms[0] = ROOT_FORM;
-			tree.lemmas[0] = ROOT_LEMMA;
-			tree.cpostags[0] = ROOT_CPOSTAG;
-			tree.postags[0] = ROOT_POSTAG;
-			tree.feats[0] = ROOT_FEATS;
-			tree.heads[0] = ROOT_HEAD;
-			tree.deprels[0] = ROOT_DEPREL;
+			CoNLLTree tree = newTree(lines.size());
 
 			int id = 1;
 			for (String currentLine : lines) {
@@ -124,6 +126,28 @@ public class CoNLLReader {
 		}
 	}
 
+	/**
+	 * Creates a tree with the specified number of tokens. The root node of the
+	 * tree is initialized in the same way as in the trees read by this class;
+	 * the other nodes are left empty.
+	 *
+	 * @param nTokens the number of tokens, not counting the root node
+	 * @return the new tree
+	 */
+	public static CoNLLTree newTree(int nTokens) {
+		CoNLLTree tree = new CoNLLTree(nTokens + 1);
+
+		tree.forms[0] = ROOT_FORM;
+		tree.lemmas[0] = ROOT_LEMMA;
+		tree.cpostags[0] = ROOT_CPOSTAG;
+		tree.postags[0] = ROOT_POSTAG;
+		tree.feats[0] = ROOT_FEATS;
+		tree.heads[0] = ROOT_HEAD;
+		tree.deprels[0] = ROOT_DEPREL;
+
+		return tree;
+	}
+
 	/**
 	 * Closes the stream.
 	 *
@@ -74,6 +74,23 @@ public class CoNLLTree {
 		System.arraycopy(tree.deprels, 0, deprels, 0, deprels.length);
 	}
 
+	/**
+	 * Returns a copy of this tree without its dependencies, as input for a
+	 * parser: the head of every node is 0, and its dependency relation is the
+	 * specified label.
+	 *
+	 * @param deprel the dependency relation of every node of the copy
+	 * @return a copy of this tree without its dependencies
+	 */
+	public CoNLLTree withoutDependencies(String deprel) {
+		CoNLLTree copy = new CoNLLTree(this);
+		for (int i = 0; i < copy.getNNodes(); i++) {
+			copy.heads[i] = 0;
+			copy.deprels[i] = deprel;
+		}
+		return copy;
+	}
+
 	/**
 	 * Returns the number of nodes of this tree.
 	 *
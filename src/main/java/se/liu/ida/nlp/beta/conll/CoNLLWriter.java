@@ -13,10 +13,11 @@ import java.io.OutputStreamWriter;
 import java.io.Writer;
 
 /**
+ * Write dependency trees in the CoNLL format to an output stream.
  *
  * @author Marco Kuhlmann <marco.kuhlmann@lingfil.uu.se>
  */
-public class CoNLLWriter {
+public class CoNLLWriter implements TreeWriter {
 
 	/**
 	 * The field separator.
@@ -37,6 +38,15 @@ public class CoNLLWriter {
 		this.writer = new BufferedWriter(new OutputStreamWriter(os));
 	}
 
+	/**
+	 * Constructs a new writer with the specified character-output stream.
+	 *
+	 * @param writer a character-output stream
+	 */
+	public CoNLLWriter(Writer writer) {
+		this.writer = writer;
+	}
+
 	public CoNLLWriter(File file) throws IOException {
 		this.writer = new BufferedWriter(new FileWriter(file));
 	}
@@ -59,6 +69,7 @@ public class CoNLLWriter {
 	 *
 	 * @param tree the tree to write to the output stream
 	 */
+	@Override
 	public void write(CoNLLTree tree) throws IOException {
 		StringBuilder sb = new StringBuilder();
 
@@ -90,6 +101,12 @@ public class CoNLLWriter {
 		writer.write(sb.toString());
 	}
 
+	@Override
+	public void flush() throws IOException {
+		writer.flush();
+	}
+
+	@Override
 	public void close() throws IOException {
 		writer.close();
 	}
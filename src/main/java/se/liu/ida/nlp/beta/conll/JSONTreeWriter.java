@@ -0,0 +1,154 @@
+/*
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package se.liu.ida.nlp.beta.conll;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Write the heads and labels of dependency trees as JSON lines.
+ *
+ * <p>Each tree is written as one line of the form
+ * <code>{"id":1,"heads":[2,0,2],"labels":["SS","ROOT","OO"]}</code>, where the
+ * id counts trees from 1 and the arrays do not include the root.
+ *
+ * <p>Labels are escaped once, the first time they are seen; apart from that,
+ * writing does not allocate any objects.
+ *
+ * @author Marco Kuhlmann <marco.kuhlmann@lingfil.uu.se>
+ */
+public class JSONTreeWriter implements TreeWriter {
+
+	/**
+	 * The internal writer.
+	 */
+	private final Writer writer;
+	/**
+	 * The escaped and quoted labels.
+	 */
+	private final Map<String, String> quotedLabels;
+	/**
+	 * The buffer used to format integers.
+	 */
+	private final char[] digits;
+	/**
+	 * The id of the most recently written tree.
+	 */
+	private int sentenceId;
+
+	/**
+	 * Constructs a new writer with the specified output stream.
+	 *
+	 * @param os an output stream
+	 */
+	public JSONTreeWriter(OutputStream os) {
+		this.writer = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8));
+		this.quotedLabels = new HashMap<>();
+		this.digits = new char[11];
+	}
+
+	public JSONTreeWriter(String fileName) throws IOException {
+		this(new FileOutputStream(fileName));
+	}
+
+	@Override
+	public void write(CoNLLTree tree) throws IOException {
+		int nNodes = tree.getNNodes();
+		writer.write("{\"id\":");
+		writeInt(++sentenceId);
+		writer.write(",\"heads\":[");
+		for (int i = 1; i < nNodes; i++) {
+			if (i > 1) {
+				writer.write(',');
+			}
+			writeInt(tree.heads[i]);
+		}
+		writer.write("],\"labels\":[");
+		for (int i = 1; i < nNodes; i++) {
+			if (i > 1) {
+				writer.write(',');
+			}
+			writer.write(getQuotedLabel(tree.deprels[i]));
+		}
+		writer.write("]}\n");
+	}
+
+	private void writeInt(int value) throws IOException {
+		if (value < 0) {
+			writer.write('-');
+			value = -value;
+		}
+		int pos = digits.length;
+		do {
+			digits[--pos] = (char) ('0' + value % 10);
+			value /= 10;
+		} while (value > 0);
+		writer.write(digits, pos, digits.length - pos);
+	}
+
+	private String getQuotedLabel(String label) {
+		String quotedLabel = quotedLabels.get(label);
+		if (quotedLabel == null) {
+			quotedLabel = quote(label);
+			quotedLabels.put(label, quotedLabel);
+		}
+		return quotedLabel;
+	}
+
+	/**
+	 * Returns the JSON string literal for the specified string.
+	 *
+	 * @param s the string to be quoted
+	 * @return the JSON string literal for the specified string
+	 */
+	public static String quote(String s) {
+		StringBuilder sb = new StringBuilder(s.length() + 2);
+		sb.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+				case '"':
+					sb.append("\\\"");
+					break;
+				case '\\':
+					sb.append("\\\\");
+					break;
+				case '\n':
+					sb.append("\\n");
+					break;
+				case '\r':
+					sb.append("\\r");
+					break;
+				case '\t':
+					sb.append("\\t");
+					break;
+				default:
+					if (c < 0x20) {
+						sb.append(String.format("\\u%04x", (int) c));
+					} else {
+						sb.append(c);
+					}
+			}
+		}
+		sb.append('"');
+		return sb.toString();
+	}
+
+	@Override
+	public void flush() throws IOException {
+		writer.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		writer.close();
+	}
+}
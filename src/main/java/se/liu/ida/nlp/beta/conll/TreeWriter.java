@@ -0,0 +1,37 @@
+/*
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package se.liu.ida.nlp.beta.conll;
+
+import java.io.IOException;
+
+/**
+ * Write dependency trees to an output stream.
+ *
+ * @author Marco Kuhlmann <marco.kuhlmann@lingfil.uu.se>
+ */
+public interface TreeWriter {
+
+	/**
+	 * Writes the next tree to the output stream.
+	 *
+	 * @param tree the tree to write to the output stream
+	 * @throws IOException if an I/O error occurs
+	 */
+	void write(CoNLLTree tree) throws IOException;
+
+	/**
+	 * Flushes the stream, so that all trees written so far reach the
+	 * underlying output stream.
+	 *
+	 * @throws IOException if an I/O error occurs
+	 */
+	void flush() throws IOException;
+
+	/**
+	 * Closes the stream.
+	 *
+	 * @throws IOException if an I/O error occurs
+	 */
+	void close() throws IOException;
+}
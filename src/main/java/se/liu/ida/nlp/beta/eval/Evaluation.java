@@ -0,0 +1,411 @@
+/*
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package se.liu.ida.nlp.beta.eval;
+
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import se.liu.ida.nlp.beta.conll.CoNLLTree;
+
+/**
+ * The accuracy of a parser on a set of sentences.
+ *
+ * <p>An evaluation compares system trees with gold-standard trees, one pair
+ * at a time, and counts the tokens whose head (unlabeled attachment), label
+ * (label accuracy), or both (labeled attachment) were predicted correctly.
+ * The counts are the same as those of the CoNLL 2007 evaluation script
+ * {@code bin/eval07.pl}. In particular, a token is punctuation if its form
+ * consists entirely of Unicode punctuation characters, and tokens whose
+ * gold-standard label is {@code DERIV} can be excluded.
+ *
+ * <p>Besides the scores of the scored tokens, an evaluation keeps the scores
+ * without punctuation, the scores for sentences of different lengths, and
+ * precision and recall for each dependency label. Evaluations of different
+ * parts of the data can be merged with {@link #add(Evaluation)}.
+ *
+ * @author Marco Kuhlmann <marco.kuhlmann@lingfil.uu.se>
+ */
+public class Evaluation {
+
+	/**
+	 * The upper bounds of the sentence length groups.
+	 */
+	private static final int[] LENGTH_LIMITS = {10, 20, 30, 40, 50, Integer.MAX_VALUE};
+	private static final String DERIV = "DERIV";
+	private final boolean scorePunctuation;
+	private final boolean scoreDeriv;
+	private int nSentences;
+	private long nTokens;
+	private long nPunctuation;
+	private long nDeriv;
+	private final Score scored;
+	private final Score withoutPunctuation;
+	private final Score[] byLength;
+	private final int[] nSentencesByLength;
+	private final Map<String, Score> byGoldLabel;
+	private final Map<String, Score> bySystemLabel;
+
+	/**
+	 * Creates a new evaluation that scores all tokens.
+	 */
+	public Evaluation() {
+		this(true, true);
+	}
+
+	/**
+	 * Creates a new evaluation.
+	 *
+	 * @param scorePunctuation whether punctuation tokens should be scored
+	 * @param scoreDeriv whether tokens with the gold-standard label
+	 * {@code DERIV} should be scored
+	 */
+	public Evaluation(boolean scorePunctuation, boolean scoreDeriv) {
+		this.scorePunctuation = scorePunctuation;
+		this.scoreDeriv = scoreDeriv;
+		this.scored = new Score();
+		this.withoutPunctuation = new Score();
+		this.byLength = new Score[LENGTH_LIMITS.length];
+		for (int i = 0; i < byLength.length; i++) {
+			byLength[i] = new Score();
+		}
+		this.nSentencesByLength = new int[LENGTH_LIMITS.length];
+		this.byGoldLabel = new TreeMap<>();
+		this.bySystemLabel = new TreeMap<>();
+	}
+
+	/**
+	 * Returns whether the specified word form is punctuation, that is, whether
+	 * it consists entirely of Unicode punctuation characters.
+	 *
+	 * @param form the word form
+	 * @return {@code true} if the specified word form is punctuation
+	 */
+	public static boolean isPunctuation(String form) {
+		int n = form.length();
+		if (n == 0) {
+			return false;
+		}
+		for (int i = 0; i < n;) {
+			int codePoint = form.codePointAt(i);
+			switch (Character.getType(codePoint)) {
+				case Character.CONNECTOR_PUNCTUATION:
+				case Character.DASH_PUNCTUATION:
+				case Character.START_PUNCTUATION:
+				case Character.END_PUNCTUATION:
+				case Character.INITIAL_QUOTE_PUNCTUATION:
+				case Character.FINAL_QUOTE_PUNCTUATION:
+				case Character.OTHER_PUNCTUATION:
+					break;
+				default:
+					return false;
+			}
+			i += Character.charCount(codePoint);
+		}
+		return true;
+	}
+
+	private static int getLengthGroup(int length) {
+		int i = 0;
+		while (length > LENGTH_LIMITS[i]) {
+			i++;
+		}
+		return i;
+	}
+
+	private static String getLengthGroupName(int i) {
+		int min = i == 0 ? 1 : LENGTH_LIMITS[i - 1] + 1;
+		return LENGTH_LIMITS[i] == Integer.MAX_VALUE ? String.format("%d-", min) : String.format("%d-%d", min, LENGTH_LIMITS[i]);
+	}
+
+	/**
+	 * Adds a pair of a gold-standard tree and a system tree to this
+	 * evaluation. The trees must have the same number of nodes.
+	 *
+	 * @param gold the gold-standard tree
+	 * @param system the system tree
+	 * @throws IllegalArgumentException if the trees have different numbers of
+	 * nodes
+	 */
+	public void add(CoNLLTree gold, CoNLLTree system) {
+		int nNodes = gold.getNNodes();
+		if (system.getNNodes() != nNodes) {
+			throw new IllegalArgumentException(String.format("sentence %d has %d tokens in the gold standard, but %d in the system output", nSentences + 1, nNodes - 1, system.getNNodes() - 1));
+		}
+		int lengthGroup = getLengthGroup(nNodes - 1);
+		nSentences++;
+		nSentencesByLength[lengthGroup]++;
+		nTokens += nNodes - 1;
+		for (int i = 1; i < nNodes; i++) {
+			boolean isPunctuation = isPunctuation(gold.forms[i]);
+			if (isPunctuation) {
+				nPunctuation++;
+			}
+			String goldLabel = gold.deprels[i];
+			String systemLabel = system.deprels[i];
+			if (!scoreDeriv && goldLabel.equals(DERIV)) {
+				nDeriv++;
+				continue;
+			}
+			boolean isHeadCorrect = gold.heads[i] == system.heads[i];
+			boolean isLabelCorrect = goldLabel.equals(systemLabel);
+			if (!isPunctuation) {
+				withoutPunctuation.add(isHeadCorrect, isLabelCorrect);
+			}
+			if (!scorePunctuation && isPunctuation) {
+				continue;
+			}
+			scored.add(isHeadCorrect, isLabelCorrect);
+			byLength[lengthGroup].add(isHeadCorrect, isLabelCorrect);
+			getScore(byGoldLabel, goldLabel).add(isHeadCorrect, isLabelCorrect);
+			getScore(bySystemLabel, systemLabel).add(isHeadCorrect, isLabelCorrect);
+		}
+	}
+
+	private static Score getScore(Map<String, Score> scores, String label) {
+		Score score = scores.get(label);
+		if (score == null) {
+			score = new Score();
+			scores.put(label, score);
+		}
+		return score;
+	}
+
+	/**
+	 * Adds the counts of another evaluation to this evaluation. The other
+	 * evaluation must use the same settings.
+	 *
+	 * @param other the other evaluation
+	 */
+	public void add(Evaluation other) {
+		assert other.scorePunctuation == scorePunctuation && other.scoreDeriv == scoreDeriv;
+		nSentences += other.nSentences;
+		nTokens += other.nTokens;
+		nPunctuation += other.nPunctuation;
+		nDeriv += other.nDeriv;
+		scored.add(other.scored);
+		withoutPunctuation.add(other.withoutPunctuation);
+		for (int i = 0; i < byLength.length; i++) {
+			byLength[i].add(other.byLength[i]);
+			nSentencesByLength[i] += other.nSentencesByLength[i];
+		}
+		for (Map.Entry<String, Score> entry : other.byGoldLabel.entrySet()) {
+			getScore(byGoldLabel, entry.getKey()).add(entry.getValue());
+		}
+		for (Map.Entry<String, Score> entry : other.bySystemLabel.entrySet()) {
+			getScore(bySystemLabel, entry.getKey()).add(entry.getValue());
+		}
+	}
+
+	public int getNSentences() {
+		return nSentences;
+	}
+
+	public long getNTokens() {
+		return nTokens;
+	}
+
+	/**
+	 * Returns the number of tokens that were scored.
+	 *
+	 * @return the number of tokens that were scored
+	 */
+	public long getNScored() {
+		return scored.n;
+	}
+
+	/**
+	 * Returns the labeled attachment score, as a fraction.
+	 *
+	 * @return the labeled attachment score
+	 */
+	public double getLAS() {
+		return scored.getLAS();
+	}
+
+	/**
+	 * Returns the unlabeled attachment score, as a fraction.
+	 *
+	 * @return the unlabeled attachment score
+	 */
+	public double getUAS() {
+		return scored.getUAS();
+	}
+
+	/**
+	 * Returns the label accuracy, as a fraction.
+	 *
+	 * @return the label accuracy
+	 */
+	public double getLA() {
+		return scored.getLA();
+	}
+
+	/**
+	 * Returns the scores of the tokens that are not punctuation.
+	 *
+	 * @return the scores of the tokens that are not punctuation
+	 */
+	public Score getScoreWithoutPunctuation() {
+		return withoutPunctuation;
+	}
+
+	/**
+	 * Returns the scores of the scored tokens.
+	 *
+	 * @return the scores of the scored tokens
+	 */
+	public Score getScore() {
+		return scored;
+	}
+
+	/**
+	 * Prints the overall scores in the format of {@code bin/eval07.pl}.
+	 *
+	 * @param out the stream to print to
+	 */
+	public void printSummary(PrintStream out) {
+		printScore(out, scored);
+	}
+
+	private static void printScore(PrintStream out, Score s) {
+		out.format("  Labeled   attachment score: %d / %d * 100 = %s %%%n", s.nBoth, s.n, percentCorrect(s.nBoth, s.n));
+		out.format("  Unlabeled attachment score: %d / %d * 100 = %s %%%n", s.nHead, s.n, percentCorrect(s.nHead, s.n));
+		out.format("  Label accuracy score:       %d / %d * 100 = %s %%%n", s.nLabel, s.n, percentCorrect(s.nLabel, s.n));
+	}
+
+	/**
+	 * Prints the overall scores followed by the scores without punctuation,
+	 * the scores by sentence length, and precision and recall by label.
+	 *
+	 * @param out the stream to print to
+	 */
+	public void printDetails(PrintStream out) {
+		printSummary(out);
+		out.println();
+		out.format("  Sentences: %d, tokens: %d, punctuation tokens: %d%s%n", nSentences, nTokens, nPunctuation, scoreDeriv ? "" : String.format(", DERIV tokens: %d", nDeriv));
+		out.format("  Scored tokens: %d (%s)%n", scored.n, scorePunctuation ? "including punctuation" : "excluding punctuation");
+		if (scorePunctuation) {
+			out.println();
+			out.println("  Without punctuation:");
+			printScore(out, withoutPunctuation);
+		}
+
+		out.println();
+		out.println("  Accuracy by sentence length");
+		out.println();
+		out.println("  length     | sentences | tokens |    LAS |    UAS |     LA");
+		out.println("  -----------+-----------+--------+--------+--------+-------");
+		for (int i = 0; i < byLength.length; i++) {
+			Score s = byLength[i];
+			if (nSentencesByLength[i] > 0) {
+				out.format(Locale.ROOT, "  %-10s | %9d | %6d | %6.2f | %6.2f | %6.2f%n", getLengthGroupName(i), nSentencesByLength[i], s.n, s.getLAS() * 100, s.getUAS() * 100, s.getLA() * 100);
+			}
+		}
+
+		out.println();
+		out.println("  Precision and recall by dependency relation (label only; label and head)");
+		out.println();
+		out.println("  deprel          |   gold | system | correct | recall | precision | correct | recall | precision");
+		out.println("  ----------------+--------+--------+---------+--------+-----------+---------+--------+----------");
+		TreeSet<String> labels = new TreeSet<>(byGoldLabel.keySet());
+		labels.addAll(bySystemLabel.keySet());
+		Score empty = new Score();
+		for (String label : labels) {
+			Score g = byGoldLabel.containsKey(label) ? byGoldLabel.get(label) : empty;
+			Score s = bySystemLabel.containsKey(label) ? bySystemLabel.get(label) : empty;
+			// A token is correctly labeled with this label if its gold and its
+			// system label are both this label; g.nLabel counts exactly these.
+			out.format(Locale.ROOT, "  %-15s | %6d | %6d | %7d | %6s | %9s | %7d | %6s | %9s%n", label, g.n, s.n,
+					g.nLabel, percent(g.nLabel, g.n), percent(g.nLabel, s.n),
+					g.nBoth, percent(g.nBoth, g.n), percent(g.nBoth, s.n));
+		}
+	}
+
+	/**
+	 * Formats a percentage of correct items as {@code bin/eval07.pl} does:
+	 * 100 minus the percentage of errors, rounded to two decimals like C's
+	 * {@code printf}, which rounds the exact binary value half to even.
+	 */
+	private static String percentCorrect(long nCorrect, long n) {
+		return format(100 - (n - nCorrect) * 100.0 / n);
+	}
+
+	/**
+	 * Formats a percentage as {@code bin/eval07.pl} does for precision and
+	 * recall, or {@code NaN} if the total is zero.
+	 */
+	private static String percent(long count, long total) {
+		return total == 0 ? "NaN" : format((double) count / total * 100);
+	}
+
+	private static String format(double value) {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			return Double.toString(value);
+		}
+		return new BigDecimal(value).setScale(2, RoundingMode.HALF_EVEN).toPlainString();
+	}
+
+	/**
+	 * The counts of correctly attached and labeled tokens.
+	 */
+	public static class Score {
+
+		private long n;
+		private long nHead;
+		private long nLabel;
+		private long nBoth;
+
+		private void add(boolean isHeadCorrect, boolean isLabelCorrect) {
+			n++;
+			if (isHeadCorrect) {
+				nHead++;
+			}
+			if (isLabelCorrect) {
+				nLabel++;
+				if (isHeadCorrect) {
+					nBoth++;
+				}
+			}
+		}
+
+		private void add(Score other) {
+			n += other.n;
+			nHead += other.nHead;
+			nLabel += other.nLabel;
+			nBoth += other.nBoth;
+		}
+
+		public long getN() {
+			return n;
+		}
+
+		public long getNCorrectHeads() {
+			return nHead;
+		}
+
+		public long getNCorrectLabels() {
+			return nLabel;
+		}
+
+		public long getNCorrect() {
+			return nBoth;
+		}
+
+		public double getLAS() {
+			return n == 0 ? 0.0 : (double) nBoth / n;
+		}
+
+		public double getUAS() {
+			return n == 0 ? 0.0 : (double) nHead / n;
+		}
+
+		public double getLA() {
+			return n == 0 ? 0.0 : (double) nLabel / n;
+		}
+	}
+}
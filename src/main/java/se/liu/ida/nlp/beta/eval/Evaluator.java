@@ -0,0 +1,157 @@
+/*
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package se.liu.ida.nlp.beta.eval;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import se.liu.ida.nlp.beta.conll.CoNLLReader;
+import se.liu.ida.nlp.beta.conll.CoNLLTree;
+
+/**
+ * Evaluate system trees against gold-standard trees.
+ *
+ * <p>The trees are read in one pass and split into chunks of consecutive
+ * sentences, which are evaluated in parallel and merged. Only a bounded
+ * number of chunks is held in memory at any time.
+ *
+ * @author Marco Kuhlmann <marco.kuhlmann@lingfil.uu.se>
+ */
+public class Evaluator {
+
+	/**
+	 * The number of sentences per chunk.
+	 */
+	private static final int CHUNK_SIZE = 512;
+	private final boolean scorePunctuation;
+	private final boolean scoreDeriv;
+	private final int nThreads;
+
+	/**
+	 * Creates a new evaluator that scores all tokens and runs on the calling
+	 * thread.
+	 */
+	public Evaluator() {
+		this(true, true, 1);
+	}
+
+	/**
+	 * Creates a new evaluator.
+	 *
+	 * @param scorePunctuation whether punctuation tokens should be scored
+	 * @param scoreDeriv whether tokens with the gold-standard label
+	 * {@code DERIV} should be scored
+	 * @param nThreads the number of threads
+	 */
+	public Evaluator(boolean scorePunctuation, boolean scoreDeriv, int nThreads) {
+		if (nThreads < 1) {
+			throw new IllegalArgumentException("the number of threads must be positive");
+		}
+		this.scorePunctuation = scorePunctuation;
+		this.scoreDeriv = scoreDeriv;
+		this.nThreads = nThreads;
+	}
+
+	/**
+	 * Evaluates the specified system trees against the specified
+	 * gold-standard trees.
+	 *
+	 * @param gold the gold-standard trees
+	 * @param system the system trees
+	 * @return the evaluation
+	 * @throws IllegalArgumentException if the lists of trees do not match
+	 */
+	public Evaluation evaluate(List<CoNLLTree> gold, List<CoNLLTree> system) {
+		if (gold.size() != system.size()) {
+			throw new IllegalArgumentException(String.format("%d sentences in the gold standard, but %d in the system output", gold.size(), system.size()));
+		}
+		Evaluation evaluation = new Evaluation(scorePunctuation, scoreDeriv);
+		for (int i = 0; i < gold.size(); i++) {
+			evaluation.add(gold.get(i), system.get(i));
+		}
+		return evaluation;
+	}
+
+	/**
+	 * Reads and evaluates the system trees from the specified reader against
+	 * the gold-standard trees from the other specified reader.
+	 *
+	 * @param gold the reader for the gold-standard trees
+	 * @param system the reader for the system trees
+	 * @return the evaluation
+	 * @throws IOException if an I/O error occurs, or if the trees do not match
+	 */
+	public Evaluation evaluate(CoNLLReader gold, CoNLLReader system) throws IOException {
+		Evaluation evaluation = new Evaluation(scorePunctuation, scoreDeriv);
+		ExecutorService executor = nThreads > 1 ? Executors.newFixedThreadPool(nThreads) : null;
+		Deque<Future<Evaluation>> pending = new ArrayDeque<>();
+		try {
+			int nRead = 0;
+			while (true) {
+				List<CoNLLTree> goldChunk = new ArrayList<>(CHUNK_SIZE);
+				List<CoNLLTree> systemChunk = new ArrayList<>(CHUNK_SIZE);
+				while (goldChunk.size() < CHUNK_SIZE) {
+					CoNLLTree goldTree = read(gold);
+					CoNLLTree systemTree = read(system);
+					if (goldTree == null && systemTree == null) {
+						break;
+					}
+					if (goldTree == null || systemTree == null) {
+						throw new IOException(String.format("%d sentences in the %s, but more in the %s", nRead + goldChunk.size(), goldTree == null ? "gold standard" : "system output", goldTree == null ? "system output" : "gold standard"));
+					}
+					if (goldTree.getNNodes() != systemTree.getNNodes()) {
+						throw new IOException(String.format("sentence %d has %d tokens in the gold standard, but %d in the system output", nRead + goldChunk.size() + 1, goldTree.getNNodes() - 1, systemTree.getNNodes() - 1));
+					}
+					goldChunk.add(goldTree);
+					systemChunk.add(systemTree);
+				}
+				if (goldChunk.isEmpty()) {
+					break;
+				}
+				nRead += goldChunk.size();
+				if (executor == null) {
+					evaluation.add(evaluate(goldChunk, systemChunk));
+				} else {
+					pending.add(executor.submit(() -> evaluate(goldChunk, systemChunk)));
+					if (pending.size() > 2 * nThreads) {
+						evaluation.add(get(pending.remove()));
+					}
+				}
+			}
+			while (!pending.isEmpty()) {
+				evaluation.add(get(pending.remove()));
+			}
+		} finally {
+			if (executor != null) {
+				executor.shutdownNow();
+			}
+		}
+		return evaluation;
+	}
+
+	private static CoNLLTree read(CoNLLReader reader) throws IOException {
+		try {
+			return reader.read();
+		} catch (RuntimeException e) {
+			throw new IOException(e);
+		}
+	}
+
+	private static Evaluation get(Future<Evaluation> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+	}
+}
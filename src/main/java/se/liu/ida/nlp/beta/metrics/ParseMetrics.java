@@ -0,0 +1,273 @@
+/*
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package se.liu.ida.nlp.beta.metrics;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Metrics about the parsing of sentences, aggregated over all threads.
+ *
+ * <p>Recording is off by default. It can be turned on with the system
+ * property {@code beta.metrics}, over JMX, or by calling
+ * {@link #setEnabled(boolean)}. When recording is off, a parser only checks
+ * a flag once per sentence. When it is on, the parser times the phases of
+ * parsing and records the statistics of every sentence into lock-free
+ * histograms, which can be read while parsing goes on.
+ *
+ * @author Marco Kuhlmann <marco.kuhlmann@lingfil.uu.se>
+ */
+public class ParseMetrics implements ParseMetricsMBean {
+
+	/**
+	 * The name under which the metrics are registered with JMX.
+	 */
+	public static final String OBJECT_NAME = "se.liu.ida.nlp.beta:type=ParseMetrics";
+	private static final Phase[] PHASES = Phase.values();
+	private static final ParseMetrics INSTANCE = new ParseMetrics(Boolean.getBoolean("beta.metrics"));
+	private volatile boolean enabled;
+	private final StripedHistogram[] phaseHistograms;
+	private final StripedHistogram lengthHistogram;
+	private final LongAdder nFeatureLookups;
+	private final LongAdder nFeatureMisses;
+	private final LongAdder nChartCells;
+	private final LongAdder nLabelCacheHits;
+	private final LongAdder nLabelCacheMisses;
+	private final LongAdder nParseCacheHits;
+	private final LongAdder nParseCacheMisses;
+
+	private ParseMetrics(boolean enabled) {
+		this.enabled = enabled;
+		this.phaseHistograms = new StripedHistogram[PHASES.length];
+		for (int i = 0; i < PHASES.length; i++) {
+			phaseHistograms[i] = new StripedHistogram();
+		}
+		this.lengthHistogram = new StripedHistogram();
+		this.nFeatureLookups = new LongAdder();
+		this.nFeatureMisses = new LongAdder();
+		this.nChartCells = new LongAdder();
+		this.nLabelCacheHits = new LongAdder();
+		this.nLabelCacheMisses = new LongAdder();
+		this.nParseCacheHits = new LongAdder();
+		this.nParseCacheMisses = new LongAdder();
+	}
+
+	/**
+	 * Returns the metrics of this virtual machine.
+	 *
+	 * @return the metrics of this virtual machine
+	 */
+	public static ParseMetrics getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server, unless they have
+	 * been registered before.
+	 */
+	public void register() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+		} catch (InstanceAlreadyExistsException e) {
+			// Registered before.
+		} catch (JMException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	@Override
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * Records the statistics about parsing one sentence.
+	 *
+	 * @param stats the statistics about parsing one sentence
+	 */
+	public void record(ParseStats stats) {
+		lengthHistogram.record(stats.getLength());
+		nFeatureLookups.add(stats.getFeatureLookups());
+		nFeatureMisses.add(stats.getFeatureMisses());
+		nChartCells.add(stats.getChartCells());
+		nLabelCacheHits.add(stats.getLabelCacheHits());
+		nLabelCacheMisses.add(stats.getLabelCacheMisses());
+		nParseCacheHits.add(stats.getParseCacheHits());
+		nParseCacheMisses.add(stats.getParseCacheMisses());
+		if (stats.isTiming()) {
+			for (Phase phase : PHASES) {
+				if (phase != Phase.READ && phase != Phase.WRITE) {
+					phaseHistograms[phase.ordinal()].record(stats.getTime(phase));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Records the time spent in the specified phase for one sentence. This is
+	 * used for the phases that happen outside of the parser.
+	 *
+	 * @param phase the phase
+	 * @param nanos the time spent in the phase, in nanoseconds
+	 */
+	public void recordTime(Phase phase, long nanos) {
+		phaseHistograms[phase.ordinal()].record(nanos);
+	}
+
+	@Override
+	public long getSentences() {
+		return lengthHistogram.getSnapshot().getCount();
+	}
+
+	@Override
+	public long getTokens() {
+		return lengthHistogram.getSnapshot().getSum();
+	}
+
+	@Override
+	public long getFeatureLookups() {
+		return nFeatureLookups.sum();
+	}
+
+	@Override
+	public long getFeatureMisses() {
+		return nFeatureMisses.sum();
+	}
+
+	@Override
+	public double getFeatureMissRate() {
+		long nLookups = getFeatureLookups();
+		return nLookups == 0 ? 0.0 : (double) getFeatureMisses() / nLookups;
+	}
+
+	@Override
+	public long getChartCells() {
+		return nChartCells.sum();
+	}
+
+	@Override
+	public long getLabelCacheHits() {
+		return nLabelCacheHits.sum();
+	}
+
+	@Override
+	public long getLabelCacheMisses() {
+		return nLabelCacheMisses.sum();
+	}
+
+	@Override
+	public double getLabelCacheHitRate() {
+		long nLookups = getLabelCacheHits() + getLabelCacheMisses();
+		return nLookups == 0 ? 0.0 : (double) getLabelCacheHits() / nLookups;
+	}
+
+	@Override
+	public long getParseCacheHits() {
+		return nParseCacheHits.sum();
+	}
+
+	@Override
+	public long getParseCacheMisses() {
+		return nParseCacheMisses.sum();
+	}
+
+	@Override
+	public double getParseCacheHitRate() {
+		long nLookups = getParseCacheHits() + getParseCacheMisses();
+		return nLookups == 0 ? 0.0 : (double) getParseCacheHits() / nLookups;
+	}
+
+	@Override
+	public double getPhaseMeanMicros(String phase) {
+		return getHistogram(phase).getSnapshot().getMean() / 1000.0;
+	}
+
+	@Override
+	public double getPhaseQuantileMicros(String phase, double q) {
+		return getHistogram(phase).getSnapshot().getQuantile(q) / 1000.0;
+	}
+
+	private StripedHistogram getHistogram(String name) {
+		for (Phase phase : PHASES) {
+			if (phase.getName().equals(name)) {
+				return phaseHistograms[phase.ordinal()];
+			}
+		}
+		throw new IllegalArgumentException("Unknown phase: " + name);
+	}
+
+	@Override
+	public String getSnapshot() {
+		StringBuilder sb = new StringBuilder();
+		StripedHistogram.Snapshot length = lengthHistogram.getSnapshot();
+		sb.append(String.format(Locale.ROOT, "{\"time\":%d,\"enabled\":%b,\"sentences\":%d,\"tokens\":%d", System.currentTimeMillis(), enabled, length.getCount(), length.getSum()));
+		sb.append(String.format(Locale.ROOT, ",\"featureLookups\":%d,\"featureMisses\":%d,\"chartCells\":%d", getFeatureLookups(), getFeatureMisses(), getChartCells()));
+		sb.append(String.format(Locale.ROOT, ",\"labelCacheHits\":%d,\"labelCacheMisses\":%d", getLabelCacheHits(), getLabelCacheMisses()));
+		sb.append(String.format(Locale.ROOT, ",\"parseCacheHits\":%d,\"parseCacheMisses\":%d", getParseCacheHits(), getParseCacheMisses()));
+		sb.append(String.format(Locale.ROOT, ",\"length\":{\"mean\":%.2f,\"p50\":%d,\"p99\":%d,\"max\":%d}", length.getMean(), length.getQuantile(0.5), length.getQuantile(0.99), length.getMax()));
+		sb.append(",\"phases\":{");
+		for (Phase phase : PHASES) {
+			StripedHistogram.Snapshot s = phaseHistograms[phase.ordinal()].getSnapshot();
+			if (phase.ordinal() > 0) {
+				sb.append(',');
+			}
+			sb.append(String.format(Locale.ROOT, "\"%s\":{\"count\":%d,\"totalMillis\":%.3f,\"meanMicros\":%.3f,\"p50Micros\":%.3f,\"p99Micros\":%.3f,\"maxMicros\":%.3f}",
+					phase.getName(), s.getCount(), s.getSum() / 1e6, s.getMean() / 1e3, s.getQuantile(0.5) / 1e3, s.getQuantile(0.99) / 1e3, s.getMax() / 1e3));
+		}
+		sb.append("}}");
+		return sb.toString();
+	}
+
+	@Override
+	public void reset() {
+		for (StripedHistogram histogram : phaseHistograms) {
+			histogram.reset();
+		}
+		lengthHistogram.reset();
+		nFeatureLookups.reset();
+		nFeatureMisses.reset();
+		nChartCells.reset();
+		nLabelCacheHits.reset();
+		nLabelCacheMisses.reset();
+		nParseCacheHits.reset();
+		nParseCacheMisses.reset();
+	}
+
+	/**
+	 * Starts a daemon thread that prints a snapshot of the metrics to the
+	 * specified stream at a fixed rate, one JSON object per line.
+	 *
+	 * @param out the stream
+	 * @param periodSeconds the time between two snapshots, in seconds
+	 * @return the started thread
+	 */
+	public Thread startReporter(final PrintStream out, final long periodSeconds) {
+		Thread reporter = new Thread("beta-metrics") {
+			@Override
+			public void run() {
+				try {
+					while (true) {
+						Thread.sleep(periodSeconds * 1000);
+						out.println(getSnapshot());
+					}
+				} catch (InterruptedException e) {
+					// Stop reporting.
+				}
+			}
+		};
+		reporter.setDaemon(true);
+		reporter.start();
+		return reporter;
+	}
+}
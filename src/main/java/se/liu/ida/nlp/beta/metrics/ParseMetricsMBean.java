@@ -0,0 +1,81 @@
+/*
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package se.liu.ida.nlp.beta.metrics;
+
+/**
+ * The management interface of {@link ParseMetrics}.
+ *
+ * @author Marco Kuhlmann <marco.kuhlmann@lingfil.uu.se>
+ */
+public interface ParseMetricsMBean {
+
+	/**
+	 * Returns whether metrics are being recorded.
+	 *
+	 * @return {@code true} if metrics are being recorded
+	 */
+	boolean isEnabled();
+
+	/**
+	 * Turns the recording of metrics on or off.
+	 *
+	 * @param enabled whether metrics should be recorded
+	 */
+	void setEnabled(boolean enabled);
+
+	long getSentences();
+
+	long getTokens();
+
+	long getFeatureLookups();
+
+	long getFeatureMisses();
+
+	double getFeatureMissRate();
+
+	long getChartCells();
+
+	long getLabelCacheHits();
+
+	long getLabelCacheMisses();
+
+	double getLabelCacheHitRate();
+
+	long getParseCacheHits();
+
+	long getParseCacheMisses();
+
+	double getParseCacheHitRate();
+
+	/**
+	 * Returns the mean time spent in the specified phase per sentence, in
+	 * microseconds.
+	 *
+	 * @param phase the name of the phase
+	 * @return the mean time spent in the specified phase
+	 */
+	double getPhaseMeanMicros(String phase);
+
+	/**
+	 * Returns an upper bound for the specified quantile of the time spent in
+	 * the specified phase per sentence, in microseconds.
+	 *
+	 * @param phase the name of the phase
+	 * @param q the quantile, between 0 and 1
+	 * @return an upper bound for the specified quantile
+	 */
+	double getPhaseQuantileMicros(String phase, double q);
+
+	/**
+	 * Returns all metrics as a JSON object.
+	 *
+	 * @return all metrics as a JSON object
+	 */
+	String getSnapshot();
+
+	/**
+	 * Removes all recorded metrics.
+	 */
+	void reset();
+}
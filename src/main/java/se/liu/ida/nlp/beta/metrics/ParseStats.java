@@ -0,0 +1,244 @@
+/*
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package se.liu.ida.nlp.beta.metrics;
+
+/**
+ * Statistics about parsing one sentence.
+ *
+ * <p>A parser fills one instance of this class for every sentence that it
+ * parses, and reuses the instance for the next sentence. The phase times are
+ * only recorded if timing is requested, as it costs a few calls to
+ * {@link System#nanoTime()} per arc.
+ *
+ * @author Marco Kuhlmann <marco.kuhlmann@lingfil.uu.se>
+ */
+public class ParseStats {
+
+	private static final Phase[] PHASES = Phase.values();
+	/**
+	 * Whether phase times are recorded.
+	 */
+	private boolean timing;
+	/**
+	 * The time spent in each phase, in nanoseconds.
+	 */
+	private final long[] phaseNanos;
+	/**
+	 * The number of tokens of the sentence, not counting the root.
+	 */
+	private int length;
+	/**
+	 * The number of feature lookups.
+	 */
+	private long featureLookups;
+	/**
+	 * The number of feature lookups that did not find the feature.
+	 */
+	private long featureMisses;
+	/**
+	 * The number of chart cells filled by the decoder.
+	 */
+	private long chartCells;
+	/**
+	 * The number of arcs that were pruned before scoring.
+	 */
+	private long prunedArcs;
+	/**
+	 * The number of labels that were not considered for arcs that were not
+	 * pruned.
+	 */
+	private long prunedLabels;
+	/**
+	 * The number of tokens whose labeled scores were found in the cache.
+	 */
+	private long labelCacheHits;
+	/**
+	 * The number of tokens whose labeled scores were not found in the cache.
+	 */
+	private long labelCacheMisses;
+	/**
+	 * The number of lookups of the sentence in the parse cache that found
+	 * it, 0 or 1.
+	 */
+	private long parseCacheHits;
+	/**
+	 * The number of lookups of the sentence in the parse cache that did not
+	 * find it, 0 or 1.
+	 */
+	private long parseCacheMisses;
+	/**
+	 * Whether the sentence had to be parsed again without pruning.
+	 */
+	private boolean fallback;
+	/**
+	 * The time of the whole call to the parser, in nanoseconds.
+	 */
+	private long parseNanos;
+
+	public ParseStats() {
+		this.phaseNanos = new long[PHASES.length];
+	}
+
+	/**
+	 * Resets this record for a new sentence.
+	 *
+	 * @param length the number of tokens of the sentence
+	 * @param timing whether phase times should be recorded
+	 */
+	public void reset(int length, boolean timing) {
+		this.timing = timing;
+		this.length = length;
+		this.featureLookups = 0;
+		this.featureMisses = 0;
+		this.chartCells = 0;
+		this.prunedArcs = 0;
+		this.prunedLabels = 0;
+		this.labelCacheHits = 0;
+		this.labelCacheMisses = 0;
+		this.parseCacheHits = 0;
+		this.parseCacheMisses = 0;
+		this.fallback = false;
+		this.parseNanos = 0;
+		for (int i = 0; i < phaseNanos.length; i++) {
+			phaseNanos[i] = 0;
+		}
+	}
+
+	public boolean isTiming() {
+		return timing;
+	}
+
+	public void addTime(Phase phase, long nanos) {
+		phaseNanos[phase.ordinal()] += nanos;
+	}
+
+	public long getTime(Phase phase) {
+		return phaseNanos[phase.ordinal()];
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	public void addFeatureLookups(long lookups, long misses) {
+		featureLookups += lookups;
+		featureMisses += misses;
+	}
+
+	public long getFeatureLookups() {
+		return featureLookups;
+	}
+
+	public long getFeatureMisses() {
+		return featureMisses;
+	}
+
+	public void addChartCells(long cells) {
+		chartCells += cells;
+	}
+
+	public long getChartCells() {
+		return chartCells;
+	}
+
+	public void addPrunedArcs(long arcs) {
+		prunedArcs += arcs;
+	}
+
+	public long getPrunedArcs() {
+		return prunedArcs;
+	}
+
+	public void addPrunedLabels(long labels) {
+		prunedLabels += labels;
+	}
+
+	public long getPrunedLabels() {
+		return prunedLabels;
+	}
+
+	public void addLabelCacheLookups(long hits, long misses) {
+		labelCacheHits += hits;
+		labelCacheMisses += misses;
+	}
+
+	public long getLabelCacheHits() {
+		return labelCacheHits;
+	}
+
+	public long getLabelCacheMisses() {
+		return labelCacheMisses;
+	}
+
+	public void addParseCacheLookups(long hits, long misses) {
+		parseCacheHits += hits;
+		parseCacheMisses += misses;
+	}
+
+	public long getParseCacheHits() {
+		return parseCacheHits;
+	}
+
+	public long getParseCacheMisses() {
+		return parseCacheMisses;
+	}
+
+	public void setFallback(boolean fallback) {
+		this.fallback = fallback;
+	}
+
+	public boolean isFallback() {
+		return fallback;
+	}
+
+	/**
+	 * Copies the specified record into this record.
+	 *
+	 * @param stats the record to be copied
+	 */
+	public void copyFrom(ParseStats stats) {
+		this.timing = stats.timing;
+		this.length = stats.length;
+		this.featureLookups = stats.featureLookups;
+		this.featureMisses = stats.featureMisses;
+		this.chartCells = stats.chartCells;
+		this.prunedArcs = stats.prunedArcs;
+		this.prunedLabels = stats.prunedLabels;
+		this.labelCacheHits = stats.labelCacheHits;
+		this.labelCacheMisses = stats.labelCacheMisses;
+		this.parseCacheHits = stats.parseCacheHits;
+		this.parseCacheMisses = stats.parseCacheMisses;
+		this.fallback = stats.fallback;
+		this.parseNanos = stats.parseNanos;
+		System.arraycopy(stats.phaseNanos, 0, phaseNanos, 0, phaseNanos.length);
+	}
+
+	public void setParseTime(long nanos) {
+		parseNanos = nanos;
+	}
+
+	/**
+	 * Returns the time of the whole call to the parser, in nanoseconds. This
+	 * includes the time spent in setting up the parse, which is not part of
+	 * any phase.
+	 *
+	 * @return the time of the whole call to the parser
+	 */
+	public long getParseTime() {
+		return parseNanos;
+	}
+
+	/**
+	 * Returns the total time spent in all phases, in nanoseconds.
+	 *
+	 * @return the total time spent in all phases
+	 */
+	public long getTotalTime() {
+		long total = 0;
+		for (long nanos : phaseNanos) {
+			total += nanos;
+		}
+		return total;
+	}
+}
@@ -0,0 +1,52 @@
+/*
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package se.liu.ida.nlp.beta.metrics;
+
+/**
+ * The phases of parsing a sentence.
+ *
+ * @author Marco Kuhlmann <marco.kuhlmann@lingfil.uu.se>
+ */
+public enum Phase {
+
+	/**
+	 * Reading the sentence.
+	 */
+	READ("read"),
+	/**
+	 * Generating the features of arcs and labels in {@code EdgeFeaturizer}.
+	 */
+	FEATURIZE("featurize"),
+	/**
+	 * Looking up features in the model and summing up their weights.
+	 */
+	LOOKUP("lookup"),
+	/**
+	 * Finding the best label of every arc in {@code EdgeScorer}.
+	 */
+	LABEL("label"),
+	/**
+	 * Finding the best tree with Eisner's algorithm in {@code Parser}.
+	 */
+	DECODE("decode"),
+	/**
+	 * Writing the parsed sentence.
+	 */
+	WRITE("write");
+
+	private final String name;
+
+	private Phase(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Returns the name of this phase, as used in reports.
+	 *
+	 * @return the name of this phase
+	 */
+	public String getName() {
+		return name;
+	}
+}
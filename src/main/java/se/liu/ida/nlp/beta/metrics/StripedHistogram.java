@@ -0,0 +1,146 @@
+/*
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package se.liu.ida.nlp.beta.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of non-negative values.
+ *
+ * <p>Values are counted in buckets whose bounds are powers of two: bucket
+ * {@code b} counts the values {@code v} with {@code 2^(b-1) <= v < 2^b}, and
+ * bucket 0 counts the value 0. To keep threads from contending for the same
+ * memory, the counts are spread over several stripes, and every thread
+ * records into the stripe selected by its id. Reading the histogram sums up
+ * the stripes; while values are being recorded, a reading is only
+ * approximately consistent.
+ *
+ * @author Marco Kuhlmann <marco.kuhlmann@lingfil.uu.se>
+ */
+public class StripedHistogram {
+
+	private static final int N_BUCKETS = 64;
+	/**
+	 * The slots of a stripe: the bucket counts, the sum, and the maximum.
+	 */
+	private static final int SUM = N_BUCKETS;
+	private static final int MAX = N_BUCKETS + 1;
+	/**
+	 * The number of slots per stripe, padded to keep stripes apart.
+	 */
+	private static final int STRIDE = N_BUCKETS + 8;
+	private final int stripeMask;
+	private final AtomicLongArray slots;
+
+	public StripedHistogram() {
+		int nStripes = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1) * 2;
+		this.stripeMask = nStripes - 1;
+		this.slots = new AtomicLongArray(nStripes * STRIDE);
+	}
+
+	/**
+	 * Records the specified value.
+	 *
+	 * @param value the value, which must not be negative
+	 */
+	public void record(long value) {
+		int base = ((int) Thread.currentThread().getId() & stripeMask) * STRIDE;
+		int bucket = N_BUCKETS - Long.numberOfLeadingZeros(Math.max(0, value));
+		slots.getAndIncrement(base + Math.min(bucket, N_BUCKETS - 1));
+		slots.getAndAdd(base + SUM, value);
+		long max;
+		while (value > (max = slots.get(base + MAX))) {
+			if (slots.compareAndSet(base + MAX, max, value)) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Removes all recorded values.
+	 */
+	public void reset() {
+		for (int i = 0; i < slots.length(); i++) {
+			slots.set(i, 0);
+		}
+	}
+
+	/**
+	 * Returns a snapshot of this histogram.
+	 *
+	 * @return a snapshot of this histogram
+	 */
+	public Snapshot getSnapshot() {
+		long[] counts = new long[N_BUCKETS];
+		long sum = 0;
+		long max = 0;
+		for (int base = 0; base < slots.length(); base += STRIDE) {
+			for (int b = 0; b < N_BUCKETS; b++) {
+				counts[b] += slots.get(base + b);
+			}
+			sum += slots.get(base + SUM);
+			max = Math.max(max, slots.get(base + MAX));
+		}
+		return new Snapshot(counts, sum, max);
+	}
+
+	/**
+	 * A snapshot of a histogram.
+	 */
+	public static class Snapshot {
+
+		private final long[] counts;
+		private final long count;
+		private final long sum;
+		private final long max;
+
+		private Snapshot(long[] counts, long sum, long max) {
+			this.counts = counts;
+			long count = 0;
+			for (long c : counts) {
+				count += c;
+			}
+			this.count = count;
+			this.sum = sum;
+			this.max = max;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public long getSum() {
+			return sum;
+		}
+
+		public long getMax() {
+			return max;
+		}
+
+		public double getMean() {
+			return count == 0 ? 0.0 : (double) sum / count;
+		}
+
+		/**
+		 * Returns an upper bound for the specified quantile: the upper bound
+		 * of the bucket that contains it, or the maximum, whichever is
+		 * smaller.
+		 *
+		 * @param q the quantile, between 0 and 1
+		 * @return an upper bound for the specified quantile
+		 */
+		public long getQuantile(double q) {
+			long rank = (long) Math.ceil(q * count);
+			long seen = 0;
+			for (int b = 0; b < counts.length; b++) {
+				seen += counts[b];
+				if (seen >= rank && seen > 0) {
+					long upper = b == 0 ? 0 : b >= 63 ? Long.MAX_VALUE : (1L << b) - 1;
+					return Math.min(upper, max);
+				}
+			}
+			return max;
+		}
+	}
+}
@@ -0,0 +1,174 @@
+/*
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package se.liu.ida.nlp.beta.mixing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import se.liu.ida.nlp.beta.Model;
+
+/**
+ * The coordinator of distributed training by iterative parameter mixing.
+ *
+ * <p>The training data is split into as many shards as there are workers,
+ * each running in its own JVM and connected over TCP, using the protocol
+ * described in {@link MixingProtocol}. All workers start an iteration from
+ * the same weights and run the perceptron over their own shard. The
+ * coordinator then mixes the results by averaging the changes that the
+ * workers made to the weights. It sends the sum of the changes back to every
+ * worker as the start of the next iteration; as the perceptron only makes
+ * whole-number changes, the sum is sent more compactly than the average. The
+ * final weights are the average of the mixed weights after each iteration.
+ *
+ * <p>The coordinator only holds the model, the mixed weights, their running
+ * sum, and one vector in which the changes of the workers are added up; the
+ * training data is read by the workers.
+ *
+ * @author Marco Kuhlmann <marco.kuhlmann@lingfil.uu.se>
+ */
+public class MixingCoordinator implements AutoCloseable {
+
+	private final Model model;
+	private final int nTrees;
+	private final int nWorkers;
+	private final List<Socket> sockets;
+	private final List<DataInputStream> inputs;
+	private final List<DataOutputStream> outputs;
+
+	/**
+	 * Creates a new coordinator.
+	 *
+	 * @param model the model extracted from the training data
+	 * @param nTrees the number of sentences in the training data
+	 * @param nWorkers the number of workers
+	 */
+	public MixingCoordinator(Model model, int nTrees, int nWorkers) {
+		if (nWorkers < 1) {
+			throw new IllegalArgumentException("the number of workers must be positive");
+		}
+		this.model = model;
+		this.nTrees = nTrees;
+		this.nWorkers = nWorkers;
+		this.sockets = new ArrayList<>(nWorkers);
+		this.inputs = new ArrayList<>(nWorkers);
+		this.outputs = new ArrayList<>(nWorkers);
+	}
+
+	/**
+	 * Accepts the connections of all workers on the specified socket and sends
+	 * each of them the setup. The shards are numbered in the order in which
+	 * the workers connect.
+	 *
+	 * @param serverSocket the server socket
+	 * @param log the stream to which connections are reported, or
+	 * {@code null}
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void accept(ServerSocket serverSocket, PrintStream log) throws IOException {
+		Model setup = new Model(model);
+		setup.setWeightVector(null);
+		byte[] bytes = MixingProtocol.serialize(setup);
+		while (sockets.size() < nWorkers) {
+			Socket socket = serverSocket.accept();
+			socket.setTcpNoDelay(true);
+			int shard = sockets.size();
+			sockets.add(socket);
+			inputs.add(new DataInputStream(new BufferedInputStream(socket.getInputStream())));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			outputs.add(out);
+			out.writeInt(shard);
+			out.writeInt(nWorkers);
+			out.writeInt(nTrees);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+			out.flush();
+			if (log != null) {
+				log.format("Worker %d of %d connected from %s.%n", shard + 1, nWorkers, socket.getRemoteSocketAddress());
+			}
+		}
+	}
+
+	/**
+	 * Trains for the specified number of iterations and sets the weights of
+	 * the model to the averaged weights.
+	 *
+	 * @param nIterations the number of iterations
+	 * @param log the stream to which the iterations are reported, or
+	 * {@code null}
+	 * @throws IOException if an I/O error occurs, or if a worker violates the
+	 * protocol
+	 */
+	public void train(int nIterations, PrintStream log) throws IOException {
+		int nFeatures = model.getNFeatures();
+		double[] weights = new double[nFeatures];
+		double[] sum = new double[nFeatures];
+		double[] delta = new double[nFeatures];
+		for (int iteration = 1; iteration <= nIterations; iteration++) {
+			long started = System.nanoTime();
+			long nBytesSent = 0;
+			for (DataOutputStream out : outputs) {
+				out.writeByte(MixingProtocol.ITERATE);
+				nBytesSent += 1 + MixingProtocol.writeDelta(out, delta, false);
+				out.flush();
+			}
+			Arrays.fill(delta, 0.0);
+			long nBytesReceived = 0;
+			long nSentences = 0;
+			long nUpdated = 0;
+			for (int i = 0; i < nWorkers; i++) {
+				DataInputStream in = inputs.get(i);
+				byte type = in.readByte();
+				if (type != MixingProtocol.DELTA) {
+					throw new IOException(String.format("unexpected message of type %d from worker %d", type, i + 1));
+				}
+				nSentences += in.readInt();
+				nUpdated += in.readInt();
+				nBytesReceived += 9 + MixingProtocol.addDelta(in, delta, 1);
+			}
+			int nChanged = 0;
+			for (int i = 0; i < nFeatures; i++) {
+				if (delta[i] != 0.0) {
+					weights[i] += delta[i] / nWorkers;
+					nChanged++;
+				}
+				sum[i] += weights[i];
+			}
+			if (log != null) {
+				double seconds = (System.nanoTime() - started) / 1e9;
+				log.format(Locale.ROOT, "Iteration %d of %d: updated on %.1f%% of %d sentences; %d weights changed; sent %.1f kB, received %.1f kB (dense: %.1f kB per message); %.1f s.%n",
+						iteration, nIterations, nSentences == 0 ? 0.0 : nUpdated * 100.0 / nSentences, nSentences, nChanged,
+						nBytesSent / 1e3, nBytesReceived / 1e3, nFeatures * 8 / 1e3, seconds);
+			}
+		}
+		for (DataOutputStream out : outputs) {
+			out.writeByte(MixingProtocol.DONE);
+			out.flush();
+		}
+		for (int i = 0; i < nFeatures; i++) {
+			sum[i] /= nIterations;
+		}
+		model.setWeightVector(sum);
+	}
+
+	/**
+	 * Closes the connections to the workers.
+	 *
+	 * @throws IOException if an I/O error occurs
+	 */
+	@Override
+	public void close() throws IOException {
+		for (Socket socket : sockets) {
+			socket.close();
+		}
+	}
+}
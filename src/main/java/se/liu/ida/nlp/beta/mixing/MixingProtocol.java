@@ -0,0 +1,202 @@
+/*
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package se.liu.ida.nlp.beta.mixing;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import se.liu.ida.nlp.beta.Model;
+
+/**
+ * The protocol spoken between {@link MixingCoordinator} and
+ * {@link MixingWorker}.
+ *
+ * <p>When a worker connects, the coordinator sends the setup: the number of
+ * the worker's shard, the number of shards, the number of training sentences,
+ * and the serialized model without weights (a 32-bit length followed by the
+ * bytes). The worker then reads every sentence of the training data whose
+ * index modulo the number of shards equals its shard number.
+ *
+ * <p>Each iteration starts with an {@link #ITERATE} message from the
+ * coordinator, which holds the sum of the changes that the workers made in
+ * the previous iteration. The worker adds this sum, divided by the number of
+ * shards, to its weights, which gives it the same mixed weights as the
+ * coordinator. It then runs one iteration of the perceptron over its shard,
+ * and answers with a {@link #DELTA} message, which holds the number of
+ * sentences and updates (two 32-bit integers) and the change that the
+ * iteration made to the weights. After the last iteration, the coordinator
+ * sends {@link #DONE} and closes the connection.
+ *
+ * <p>The changes to the weights are sent as sparse deltas: the number of
+ * changed weights, followed by one entry per changed weight in the order of
+ * the feature codes. An entry starts with the distance to the previous
+ * feature code, shifted left by one bit; the lowest bit is set if the change
+ * is a whole number. Whole numbers, which is what the perceptron updates of
+ * a worker add up to, follow as zigzag-encoded variable-length integers; all
+ * other changes follow as 8-byte doubles. All variable-length integers use 7
+ * bits per byte, least significant group first. The size of a delta is
+ * therefore proportional to the number of changed weights rather than to the
+ * number of features.
+ *
+ * @author Marco Kuhlmann <marco.kuhlmann@lingfil.uu.se>
+ */
+public final class MixingProtocol {
+
+	/**
+	 * The message type that starts an iteration.
+	 */
+	public static final byte ITERATE = 'I';
+	/**
+	 * The message type for the result of an iteration.
+	 */
+	public static final byte DELTA = 'D';
+	/**
+	 * The message type that ends the training.
+	 */
+	public static final byte DONE = 'X';
+	/**
+	 * The largest magnitude of a change that is sent as an integer.
+	 */
+	private static final double MAX_INTEGRAL = 1L << 53;
+
+	/**
+	 * Private constructor to prevent instantiation.
+	 */
+	private MixingProtocol() {
+	}
+
+	/**
+	 * Writes the non-zero entries of the specified delta and, if requested,
+	 * resets them to zero.
+	 *
+	 * @param out the output stream
+	 * @param delta the delta
+	 * @param clear whether the entries should be reset to zero
+	 * @return the number of bytes written
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static long writeDelta(DataOutputStream out, double[] delta, boolean clear) throws IOException {
+		int nEntries = 0;
+		for (double value : delta) {
+			if (value != 0.0) {
+				nEntries++;
+			}
+		}
+		long nBytes = writeVarLong(out, nEntries);
+		int previous = -1;
+		for (int i = 0; i < delta.length; i++) {
+			double value = delta[i];
+			if (value != 0.0) {
+				long gap = i - previous - 1;
+				if (value == Math.rint(value) && Math.abs(value) < MAX_INTEGRAL) {
+					long n = (long) value;
+					nBytes += writeVarLong(out, gap << 1 | 1);
+					nBytes += writeVarLong(out, n << 1 ^ n >> 63);
+				} else {
+					nBytes += writeVarLong(out, gap << 1);
+					out.writeDouble(value);
+					nBytes += 8;
+				}
+				previous = i;
+				if (clear) {
+					delta[i] = 0.0;
+				}
+			}
+		}
+		return nBytes;
+	}
+
+	/**
+	 * Reads a delta and adds it to the specified vector, divided by the
+	 * specified divisor.
+	 *
+	 * @param in the input stream
+	 * @param vector the vector to which the delta is added
+	 * @param divisor the divisor
+	 * @return the number of bytes read
+	 * @throws IOException if an I/O error occurs, or if the delta does not fit
+	 * the vector
+	 */
+	public static long addDelta(DataInputStream in, double[] vector, int divisor) throws IOException {
+		long[] nBytes = new long[1];
+		long nEntries = readVarLong(in, nBytes);
+		if (nEntries > vector.length) {
+			throw new IOException(String.format("delta with %d entries for %d features", nEntries, vector.length));
+		}
+		long index = -1;
+		for (long k = 0; k < nEntries; k++) {
+			long header = readVarLong(in, nBytes);
+			index += (header >>> 1) + 1;
+			if (index >= vector.length) {
+				throw new IOException(String.format("delta for feature %d of %d", index, vector.length));
+			}
+			if ((header & 1) != 0) {
+				long n = readVarLong(in, nBytes);
+				vector[(int) index] += (double) (n >>> 1 ^ -(n & 1)) / divisor;
+			} else {
+				vector[(int) index] += in.readDouble() / divisor;
+				nBytes[0] += 8;
+			}
+		}
+		return nBytes[0];
+	}
+
+	private static int writeVarLong(DataOutputStream out, long value) throws IOException {
+		int nBytes = 1;
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+			nBytes++;
+		}
+		out.writeByte((int) value);
+		return nBytes;
+	}
+
+	private static long readVarLong(DataInputStream in, long[] nBytes) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.readUnsignedByte();
+			nBytes[0]++;
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("malformed variable-length integer");
+	}
+
+	/**
+	 * Serializes the specified model.
+	 *
+	 * @param model the model
+	 * @return the serialized model
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static byte[] serialize(Model model) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+			oos.writeObject(model);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Deserializes a model.
+	 *
+	 * @param bytes the serialized model
+	 * @return the model
+	 * @throws IOException if the bytes do not hold a model
+	 */
+	public static Model deserialize(byte[] bytes) throws IOException {
+		try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+			return (Model) ois.readObject();
+		} catch (ClassNotFoundException | ClassCastException e) {
+			throw new IOException(e);
+		}
+	}
+}
@@ -0,0 +1,192 @@
+/*
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package se.liu.ida.nlp.beta.mixing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import se.liu.ida.nlp.beta.EdgeFeaturizer;
+import se.liu.ida.nlp.beta.FeatureVector;
+import se.liu.ida.nlp.beta.Model;
+import se.liu.ida.nlp.beta.Parser;
+import se.liu.ida.nlp.beta.TrainingStats;
+import se.liu.ida.nlp.beta.conll.CoNLLReader;
+import se.liu.ida.nlp.beta.conll.CoNLLTree;
+
+/**
+ * A worker in distributed training by iterative parameter mixing.
+ *
+ * <p>The worker receives the model and the number of its shard from the
+ * {@link MixingCoordinator}, and only keeps its own shard of the training
+ * data in memory. In each iteration, it runs the perceptron over its shard,
+ * starting from the mixed weights, and records the change that the iteration
+ * makes to the weights in a separate vector, which is sent to the coordinator
+ * and then reset.
+ *
+ * @author Marco Kuhlmann <marco.kuhlmann@lingfil.uu.se>
+ */
+public class MixingWorker implements AutoCloseable {
+
+	private final Socket socket;
+	private final DataInputStream in;
+	private final DataOutputStream out;
+	private int shard;
+	private int nShards;
+	private Model model;
+	private List<CoNLLTree> trees;
+
+	/**
+	 * Creates a new worker for the specified connection to the coordinator.
+	 *
+	 * @param socket the connection to the coordinator
+	 * @throws IOException if an I/O error occurs
+	 */
+	public MixingWorker(Socket socket) throws IOException {
+		this.socket = socket;
+		socket.setTcpNoDelay(true);
+		this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+	}
+
+	/**
+	 * Receives the setup from the coordinator and reads the worker's shard of
+	 * the training data from the specified file.
+	 *
+	 * @param fileName the name of the file with the training data; this must
+	 * be the file from which the coordinator extracted the model
+	 * @throws IOException if an I/O error occurs, or if the file does not
+	 * match the model
+	 */
+	public void setUp(String fileName) throws IOException {
+		shard = in.readInt();
+		nShards = in.readInt();
+		int nTrees = in.readInt();
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		model = MixingProtocol.deserialize(bytes);
+		trees = new ArrayList<>(nTrees / nShards + 1);
+		CoNLLReader reader = new CoNLLReader(fileName);
+		try {
+			int n = 0;
+			CoNLLTree tree;
+			while ((tree = reader.read()) != null) {
+				if (n % nShards == shard) {
+					trees.add(tree);
+				}
+				n++;
+			}
+			if (n != nTrees) {
+				throw new IOException(String.format("%s has %d sentences, but the model was extracted from %d", fileName, n, nTrees));
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Returns the number of this worker's shard, starting at 0.
+	 *
+	 * @return the number of this worker's shard
+	 */
+	public int getShard() {
+		return shard;
+	}
+
+	/**
+	 * Returns the number of shards, which is the number of workers.
+	 *
+	 * @return the number of shards
+	 */
+	public int getNShards() {
+		return nShards;
+	}
+
+	/**
+	 * Returns the number of sentences in this worker's shard.
+	 *
+	 * @return the number of sentences in this worker's shard
+	 */
+	public int getNTrees() {
+		return trees.size();
+	}
+
+	/**
+	 * Runs iterations as requested by the coordinator until it ends the
+	 * training.
+	 *
+	 * @param log the stream to which the iterations are reported, or
+	 * {@code null}
+	 * @throws IOException if an I/O error occurs, or if the coordinator
+	 * violates the protocol
+	 */
+	public void run(PrintStream log) throws IOException {
+		int nFeatures = model.getNFeatures();
+		double[] weights = new double[nFeatures];
+		double[] delta = new double[nFeatures];
+		model.setWeightVector(weights);
+		Parser parser = new Parser(model);
+		int iteration = 0;
+		while (true) {
+			byte type = in.readByte();
+			if (type == MixingProtocol.DONE) {
+				break;
+			}
+			if (type != MixingProtocol.ITERATE) {
+				throw new IOException(String.format("unexpected message of type %d from the coordinator", type));
+			}
+			MixingProtocol.addDelta(in, weights, nShards);
+			model.weightsChanged();
+			iteration++;
+			TrainingStats stats = new TrainingStats();
+			for (CoNLLTree tree : trees) {
+				update(parser, tree, weights, delta, stats);
+			}
+			out.writeByte(MixingProtocol.DELTA);
+			out.writeInt(stats.getNSentences());
+			out.writeInt(stats.getNUpdated());
+			long nBytes = MixingProtocol.writeDelta(out, delta, true);
+			out.flush();
+			if (log != null) {
+				log.format(Locale.ROOT, "Iteration %d: updated on %.1f%% of the sentences; training UAS %.2f%%, LAS %.2f%%; sent %.1f kB.%n",
+						iteration, stats.getUpdateRate() * 100, stats.getUAS() * 100, stats.getLAS() * 100, nBytes / 1e3);
+			}
+		}
+	}
+
+	private void update(Parser parser, CoNLLTree tree, double[] weights, double[] delta, TrainingStats stats) {
+		CoNLLTree input = tree.withoutDependencies(Model.UNKNOWN_LABEL);
+
+		CoNLLTree bestParse = parser.getBestParse(input);
+		if (!stats.addPrediction(tree, bestParse, parser.getStats())) {
+			FeatureVector gold = EdgeFeaturizer.getFeatureVector(tree, model);
+			FeatureVector best = EdgeFeaturizer.getFeatureVector(bestParse, model);
+
+			gold.addTo(weights);
+			best.subtractFrom(weights);
+			model.weightsChanged();
+
+			gold.addTo(delta);
+			best.subtractFrom(delta);
+
+			stats.addUpdate(0, 0);
+		}
+	}
+
+	/**
+	 * Closes the connection to the coordinator.
+	 *
+	 * @throws IOException if an I/O error occurs
+	 */
+	@Override
+	public void close() throws IOException {
+		socket.close();
+	}
+}
@@ -52,14 +52,21 @@ public class OptionParser<E> {
 						field.setBoolean(options, true);
 					} else {
 						if (i + 1 >= args.length) {
-							throw new OptionException(String.format("option %s requires an argument", name));
+							throw new OptionException(String.format("option %s requires an argument", name.name()));
 						} else {
 							String arg = args[i + 1];
 							if (field.getType() == int.class) {
 								try {
 									field.setInt(options, Integer.parseInt(arg));
 								} catch (NumberFormatException e) {
-									throw new OptionException(String.format("option %s requires an integer argument", name));
+									throw new OptionException(String.format("option %s requires an integer argument", name.name()));
+								}
+							}
+							if (field.getType() == double.class) {
+								try {
+									field.setDouble(options, Double.parseDouble(arg));
+								} catch (NumberFormatException e) {
+									throw new OptionException(String.format("option %s requires a numeric argument", name.name()));
 								}
 							}
 							if (field.getType() == String.class) {
@@ -81,8 +88,9 @@ public class OptionParser<E> {
 											sb.append(", ");
 											sb.append(tokens[j]);
 										}
-										throw new OptionException(String.format("option %s must take one of the following values: %s", name, sb.toString()));
+										throw new OptionException(String.format("option %s must take one of the following values: %s", name.name(), sb.toString()));
 									}
+									field.set(options, arg);
 								}
 							}
 							i++;
@@ -0,0 +1,107 @@
+/*
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package se.liu.ida.nlp.beta.server;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The framed protocol spoken between {@link ParseServer} and
+ * {@link ParseClient}.
+ *
+ * <p>Every frame consists of a one-byte frame type, the length of the payload
+ * in bytes (a big-endian 32-bit integer), and the payload itself, a UTF-8
+ * encoded string. The client sends one {@link #SENTENCE} frame per sentence;
+ * the payload is the sentence in the CoNLL format. The server answers every
+ * sentence frame, in order, with either a {@link #RESULT} frame holding the
+ * parsed sentence in the CoNLL format, or an {@link #ERROR} frame holding an
+ * error message. When the client has sent its last sentence, it shuts down
+ * its side of the connection; the server then sends any outstanding answers
+ * and closes the connection.
+ *
+ * @author Marco Kuhlmann <marco.kuhlmann@lingfil.uu.se>
+ */
+public final class Frames {
+
+	/**
+	 * The frame type for input sentences.
+	 */
+	public static final byte SENTENCE = 'S';
+	/**
+	 * The frame type for parsed sentences.
+	 */
+	public static final byte RESULT = 'R';
+	/**
+	 * The frame type for error messages.
+	 */
+	public static final byte ERROR = 'E';
+	/**
+	 * The maximal payload length accepted by readers.
+	 */
+	public static final int MAX_LENGTH = 1 << 24;
+
+	/**
+	 * Private constructor to prevent instantiation.
+	 */
+	private Frames() {
+	}
+
+	/**
+	 * A frame.
+	 */
+	public static final class Frame {
+
+		public final byte type;
+		public final String payload;
+
+		public Frame(byte type, String payload) {
+			this.type = type;
+			this.payload = payload;
+		}
+	}
+
+	/**
+	 * Writes a frame to the specified stream.
+	 *
+	 * @param os the stream
+	 * @param type the frame type
+	 * @param payload the payload
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static void write(DataOutputStream os, byte type, String payload) throws IOException {
+		byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+		os.writeByte(type);
+		os.writeInt(bytes.length);
+		os.write(bytes);
+	}
+
+	/**
+	 * Reads a frame from the specified stream.
+	 *
+	 * @param is the stream
+	 * @return the frame, or null if the stream ended before the frame
+	 * @throws IOException if an I/O error occurs or the frame is malformed
+	 */
+	public static Frame read(DataInputStream is) throws IOException {
+		int type = is.read();
+		if (type < 0) {
+			return null;
+		}
+		int length;
+		try {
+			length = is.readInt();
+		} catch (EOFException e) {
+			throw new IOException("truncated frame", e);
+		}
+		if (length < 0 || length > MAX_LENGTH) {
+			throw new IOException(String.format("illegal frame length: %d", length));
+		}
+		byte[] bytes = new byte[length];
+		is.readFully(bytes);
+		return new Frame((byte) type, new String(bytes, StandardCharsets.UTF_8));
+	}
+}
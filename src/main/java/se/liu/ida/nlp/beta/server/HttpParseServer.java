@@ -0,0 +1,422 @@
+/*
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package se.liu.ida.nlp.beta.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import se.liu.ida.nlp.beta.ParserService;
+import se.liu.ida.nlp.beta.conll.CoNLLReader;
+import se.liu.ida.nlp.beta.conll.CoNLLTree;
+import se.liu.ida.nlp.beta.conll.CoNLLWriter;
+import se.liu.ida.nlp.beta.conll.JSONTreeWriter;
+
+/**
+ * An HTTP parse server.
+ *
+ * <p>The server offers the following endpoints:
+ *
+ * <ul>
+ * <li>{@code POST /parse} parses the sentences in the request body. If the
+ * content type of the request is {@code application/json}, the body must be
+ * an object with a field {@code sentences} holding a list of sentences, or a
+ * single sentence; every sentence is an object with the fields {@code forms}
+ * and {@code postags} (lists of strings of the same length). The response is
+ * an object whose field {@code sentences} holds one object with the fields
+ * {@code heads} and {@code labels} per sentence. Otherwise, the body must hold
+ * sentences in the CoNLL format, and the response holds the parsed sentences
+ * in the same format. The headers {@code X-Queue-Time}, {@code X-Parse-Time}
+ * and {@code X-Total-Time} of the response report how many milliseconds the
+ * request waited for a worker, was parsed, and spent in the server in total;
+ * {@code X-Batch-Size} reports the number of sentences in the batch in which
+ * the request was parsed.</li>
+ * <li>{@code GET /health} answers with status 200 while the server is
+ * running.</li>
+ * <li>{@code GET /ready} answers with status 200 if the server accepts parse
+ * requests, and with status 503 if it does not, for example because its queue
+ * is full.</li>
+ * </ul>
+ *
+ * <p>Parse requests are put into a bounded queue. Whenever one of the parse
+ * workers is idle, a dispatcher takes the requests from the queue and hands
+ * them to the worker as a batch of up to a fixed number of sentences, waiting
+ * for a short time for further requests if the batch is not yet full. The
+ * workers are those of a {@link ParserService}; every worker has a parser of
+ * its own, whose workspace is reused for all sentences that the worker
+ * parses.
+ *
+ * @author Marco Kuhlmann <marco.kuhlmann@lingfil.uu.se>
+ */
+public class HttpParseServer {
+
+	/**
+	 * The maximal number of requests waiting in the queue.
+	 */
+	private static final int QUEUE_CAPACITY = 1024;
+	private static final String CONTENT_TYPE_JSON = "application/json";
+	private static final String CONTENT_TYPE_CONLL = "text/plain; charset=utf-8";
+	/**
+	 * The maximal number of sentences per batch.
+	 */
+	private final int maxBatchSize;
+	/**
+	 * The maximal time that the dispatcher waits for further requests when a
+	 * batch is not yet full, in nanoseconds.
+	 */
+	private final long maxDelay;
+	/**
+	 * The queue of parse requests.
+	 */
+	private final BlockingQueue<Job> queue;
+	/**
+	 * The idle parse workers.
+	 */
+	private final Semaphore idleWorkers;
+	/**
+	 * The parser service.
+	 */
+	private final ParserService service;
+	/**
+	 * The thread that forms batches.
+	 */
+	private final Thread dispatcher;
+	/**
+	 * The signal for the end of the service.
+	 */
+	private final CountDownLatch stopped;
+	/**
+	 * The HTTP server.
+	 */
+	private HttpServer server;
+	/**
+	 * Whether the server is accepting requests.
+	 */
+	private volatile boolean running;
+
+	/**
+	 * Creates a new server.
+	 *
+	 * @param service the parser service
+	 * @param maxBatchSize the maximal number of sentences per batch
+	 * @param maxDelayMicros the maximal time that the server waits for further
+	 * requests when a batch is not yet full, in microseconds
+	 */
+	public HttpParseServer(ParserService service, int maxBatchSize, long maxDelayMicros) {
+		this.service = service;
+		this.maxBatchSize = maxBatchSize;
+		this.maxDelay = TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+		this.queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+		this.idleWorkers = new Semaphore(service.getNThreads());
+		this.dispatcher = new Thread(this::dispatch, "beta-dispatcher");
+		this.dispatcher.setDaemon(true);
+		this.stopped = new CountDownLatch(1);
+	}
+
+	/**
+	 * Starts the server on the specified address.
+	 *
+	 * @param address the address
+	 * @return the address on which the server listens
+	 * @throws IOException if an I/O error occurs
+	 */
+	public InetSocketAddress start(InetSocketAddress address) throws IOException {
+		server = HttpServer.create(address, 0);
+		server.createContext("/parse", this::handleParse);
+		server.createContext("/health", exchange -> respond(exchange, 200, CONTENT_TYPE_CONLL, "ok\n"));
+		server.createContext("/ready", exchange -> {
+			if (running && queue.remainingCapacity() > 0) {
+				respond(exchange, 200, CONTENT_TYPE_CONLL, "ready\n");
+			} else {
+				respond(exchange, 503, CONTENT_TYPE_CONLL, "not ready\n");
+			}
+		});
+		server.setExecutor(Executors.newCachedThreadPool());
+		dispatcher.start();
+		server.start();
+		running = true;
+		return server.getAddress();
+	}
+
+	/**
+	 * Stops the server.
+	 */
+	public void stop() {
+		running = false;
+		if (server != null) {
+			server.stop(0);
+		}
+		dispatcher.interrupt();
+		service.close();
+		stopped.countDown();
+	}
+
+	/**
+	 * Waits until the server has been stopped.
+	 *
+	 * @throws InterruptedException if the current thread is interrupted while
+	 * waiting
+	 */
+	public void awaitTermination() throws InterruptedException {
+		stopped.await();
+	}
+
+	private void dispatch() {
+		try {
+			while (true) {
+				idleWorkers.acquire();
+				List<Job> batch = new ArrayList<>();
+				Job job = queue.take();
+				batch.add(job);
+				int batchSize = job.sentences.size();
+				long deadline = System.nanoTime() + maxDelay;
+				while (batchSize < maxBatchSize) {
+					job = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+					if (job == null) {
+						break;
+					}
+					batch.add(job);
+					batchSize += job.sentences.size();
+				}
+				parseBatch(batch, batchSize);
+			}
+		} catch (InterruptedException e) {
+			// The server is shutting down.
+		}
+	}
+
+	private void parseBatch(List<Job> batch, int batchSize) {
+		List<CoNLLTree> sentences = new ArrayList<>(batchSize);
+		for (Job job : batch) {
+			sentences.addAll(job.sentences);
+		}
+		long started = System.nanoTime();
+		service.parseAsync(sentences).whenComplete((results, exception) -> {
+			idleWorkers.release();
+			long finished = System.nanoTime();
+			int offset = 0;
+			for (Job job : batch) {
+				job.started = started;
+				job.finished = finished;
+				job.batchSize = batchSize;
+				if (exception != null) {
+					job.done.completeExceptionally(exception);
+				} else {
+					job.done.complete(results.subList(offset, offset + job.sentences.size()));
+				}
+				offset += job.sentences.size();
+			}
+		});
+	}
+
+	private void handleParse(HttpExchange exchange) throws IOException {
+		long received = System.nanoTime();
+		if (!exchange.getRequestMethod().equals("POST")) {
+			respond(exchange, 405, CONTENT_TYPE_CONLL, "method not allowed\n");
+			return;
+		}
+		String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+		boolean isJSON = contentType != null && contentType.startsWith(CONTENT_TYPE_JSON);
+		List<CoNLLTree> sentences;
+		try {
+			String body = readBody(exchange.getRequestBody());
+			sentences = isJSON ? readJSON(body) : readCoNLL(body);
+		} catch (IOException | RuntimeException e) {
+			respond(exchange, 400, CONTENT_TYPE_CONLL, String.format("bad request: %s%n", e.getMessage()));
+			return;
+		}
+		Job job = new Job(sentences);
+		List<CoNLLTree> results = sentences;
+		if (!sentences.isEmpty()) {
+			if (!running || !queue.offer(job)) {
+				respond(exchange, 503, CONTENT_TYPE_CONLL, "overloaded\n");
+				return;
+			}
+			try {
+				results = job.done.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				respond(exchange, 503, CONTENT_TYPE_CONLL, "shutting down\n");
+				return;
+			} catch (ExecutionException e) {
+				respond(exchange, 500, CONTENT_TYPE_CONLL, String.format("internal error: %s%n", e.getCause()));
+				return;
+			}
+		} else {
+			job.started = received;
+			job.finished = received;
+		}
+		String response = isJSON ? writeJSON(results) : writeCoNLL(results);
+		Map<String, List<String>> headers = exchange.getResponseHeaders();
+		headers.put("X-Queue-Time", Collections.singletonList(formatMillis(job.started - received)));
+		headers.put("X-Parse-Time", Collections.singletonList(formatMillis(job.finished - job.started)));
+		headers.put("X-Total-Time", Collections.singletonList(formatMillis(System.nanoTime() - received)));
+		headers.put("X-Batch-Size", Collections.singletonList(Integer.toString(job.batchSize)));
+		respond(exchange, 200, isJSON ? CONTENT_TYPE_JSON : CONTENT_TYPE_CONLL, response);
+	}
+
+	private static String formatMillis(long nanos) {
+		return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+	}
+
+	private static String readBody(InputStream is) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int n;
+		while ((n = is.read(buffer)) >= 0) {
+			bytes.write(buffer, 0, n);
+		}
+		return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private static List<CoNLLTree> readCoNLL(String body) throws IOException {
+		List<CoNLLTree> sentences = new ArrayList<>();
+		CoNLLReader reader = new CoNLLReader(new StringReader(body.trim()));
+		CoNLLTree tree;
+		while ((tree = reader.read()) != null) {
+			sentences.add(tree);
+		}
+		return sentences;
+	}
+
+	private static List<CoNLLTree> readJSON(String body) throws IOException {
+		Object value = JSONReader.read(body);
+		if (!(value instanceof Map)) {
+			throw new IOException("expected an object");
+		}
+		Map<?, ?> object = (Map<?, ?>) value;
+		List<CoNLLTree> sentences = new ArrayList<>();
+		if (object.containsKey("sentences")) {
+			Object list = object.get("sentences");
+			if (!(list instanceof List)) {
+				throw new IOException("sentences must be a list");
+			}
+			for (Object sentence : (List<?>) list) {
+				if (!(sentence instanceof Map)) {
+					throw new IOException("every sentence must be an object");
+				}
+				sentences.add(readJSONSentence((Map<?, ?>) sentence));
+			}
+		} else {
+			sentences.add(readJSONSentence(object));
+		}
+		return sentences;
+	}
+
+	private static CoNLLTree readJSONSentence(Map<?, ?> sentence) throws IOException {
+		List<String> forms = getStrings(sentence, "forms");
+		List<String> postags = getStrings(sentence, "postags");
+		if (forms.size() != postags.size()) {
+			throw new IOException("forms and postags must have the same length");
+		}
+		CoNLLTree tree = CoNLLReader.newTree(forms.size());
+		for (int i = 1; i < tree.getNNodes(); i++) {
+			tree.forms[i] = forms.get(i - 1);
+			tree.lemmas[i] = "_";
+			tree.cpostags[i] = postags.get(i - 1);
+			tree.postags[i] = postags.get(i - 1);
+			tree.feats[i] = "_";
+			tree.deprels[i] = "_";
+		}
+		return tree;
+	}
+
+	private static List<String> getStrings(Map<?, ?> object, String key) throws IOException {
+		Object value = object.get(key);
+		if (!(value instanceof List)) {
+			throw new IOException(String.format("%s must be a list", key));
+		}
+		List<String> strings = new ArrayList<>();
+		for (Object element : (List<?>) value) {
+			if (!(element instanceof String)) {
+				throw new IOException(String.format("%s must be a list of strings", key));
+			}
+			strings.add((String) element);
+		}
+		return strings;
+	}
+
+	private static String writeCoNLL(List<CoNLLTree> sentences) throws IOException {
+		StringWriter sw = new StringWriter();
+		CoNLLWriter writer = new CoNLLWriter(sw);
+		for (CoNLLTree sentence : sentences) {
+			writer.write(sentence);
+		}
+		writer.flush();
+		return sw.toString();
+	}
+
+	private static String writeJSON(List<CoNLLTree> sentences) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"sentences\":[");
+		for (int s = 0; s < sentences.size(); s++) {
+			CoNLLTree sentence = sentences.get(s);
+			if (s > 0) {
+				sb.append(',');
+			}
+			sb.append("{\"heads\":[");
+			for (int i = 1; i < sentence.getNNodes(); i++) {
+				if (i > 1) {
+					sb.append(',');
+				}
+				sb.append(sentence.heads[i]);
+			}
+			sb.append("],\"labels\":[");
+			for (int i = 1; i < sentence.getNNodes(); i++) {
+				if (i > 1) {
+					sb.append(',');
+				}
+				sb.append(JSONTreeWriter.quote(sentence.deprels[i]));
+			}
+			sb.append("]}");
+		}
+		sb.append("]}\n");
+		return sb.toString();
+	}
+
+	private static void respond(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().put("Content-Type", Collections.singletonList(contentType));
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream os = exchange.getResponseBody()) {
+			os.write(bytes);
+		}
+	}
+
+	/**
+	 * A parse request.
+	 */
+	private static class Job {
+
+		private final List<CoNLLTree> sentences;
+		private final CompletableFuture<List<CoNLLTree>> done;
+		private volatile long started;
+		private volatile long finished;
+		private volatile int batchSize;
+
+		public Job(List<CoNLLTree> sentences) {
+			this.sentences = sentences;
+			this.done = new CompletableFuture<>();
+		}
+	}
+}
@@ -0,0 +1,217 @@
+/*
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package se.liu.ida.nlp.beta.server;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read JSON values.
+ *
+ * <p>Objects are read as {@link Map}s, arrays as {@link List}s, strings as
+ * {@link String}s, numbers as {@link Double}s, and the literals as
+ * {@link Boolean}s and {@code null}. This is just enough JSON for the request
+ * bodies of {@link HttpParseServer}.
+ *
+ * @author Marco Kuhlmann <marco.kuhlmann@lingfil.uu.se>
+ */
+public class JSONReader {
+
+	private final String text;
+	private int pos;
+
+	private JSONReader(String text) {
+		this.text = text;
+	}
+
+	/**
+	 * Reads the JSON value in the specified string.
+	 *
+	 * @param text the string
+	 * @return the value
+	 * @throws IOException if the string does not hold exactly one JSON value
+	 */
+	public static Object read(String text) throws IOException {
+		JSONReader reader = new JSONReader(text);
+		Object value = reader.readValue();
+		reader.skipWhitespace();
+		if (reader.pos < text.length()) {
+			throw reader.error("trailing characters");
+		}
+		return value;
+	}
+
+	private Object readValue() throws IOException {
+		skipWhitespace();
+		if (pos >= text.length()) {
+			throw error("unexpected end of input");
+		}
+		char c = text.charAt(pos);
+		switch (c) {
+			case '{':
+				return readObject();
+			case '[':
+				return readArray();
+			case '"':
+				return readString();
+			case 't':
+				return readLiteral("true", Boolean.TRUE);
+			case 'f':
+				return readLiteral("false", Boolean.FALSE);
+			case 'n':
+				return readLiteral("null", null);
+			default:
+				if (c == '-' || c >= '0' && c <= '9') {
+					return readNumber();
+				}
+				throw error("unexpected character");
+		}
+	}
+
+	private Map<String, Object> readObject() throws IOException {
+		Map<String, Object> object = new LinkedHashMap<>();
+		pos++;
+		skipWhitespace();
+		if (peek() == '}') {
+			pos++;
+			return object;
+		}
+		while (true) {
+			skipWhitespace();
+			if (peek() != '"') {
+				throw error("expected a string");
+			}
+			String key = readString();
+			skipWhitespace();
+			expect(':');
+			object.put(key, readValue());
+			skipWhitespace();
+			if (peek() == ',') {
+				pos++;
+			} else {
+				expect('}');
+				return object;
+			}
+		}
+	}
+
+	private List<Object> readArray() throws IOException {
+		List<Object> array = new ArrayList<>();
+		pos++;
+		skipWhitespace();
+		if (peek() == ']') {
+			pos++;
+			return array;
+		}
+		while (true) {
+			array.add(readValue());
+			skipWhitespace();
+			if (peek() == ',') {
+				pos++;
+			} else {
+				expect(']');
+				return array;
+			}
+		}
+	}
+
+	private String readString() throws IOException {
+		StringBuilder sb = new StringBuilder();
+		pos++;
+		while (true) {
+			if (pos >= text.length()) {
+				throw error("unterminated string");
+			}
+			char c = text.charAt(pos++);
+			if (c == '"') {
+				return sb.toString();
+			}
+			if (c != '\\') {
+				sb.append(c);
+				continue;
+			}
+			if (pos >= text.length()) {
+				throw error("unterminated string");
+			}
+			c = text.charAt(pos++);
+			switch (c) {
+				case 'b':
+					sb.append('\b');
+					break;
+				case 'f':
+					sb.append('\f');
+					break;
+				case 'n':
+					sb.append('\n');
+					break;
+				case 'r':
+					sb.append('\r');
+					break;
+				case 't':
+					sb.append('\t');
+					break;
+				case 'u':
+					if (pos + 4 > text.length()) {
+						throw error("illegal escape sequence");
+					}
+					try {
+						sb.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+					} catch (NumberFormatException e) {
+						throw error("illegal escape sequence");
+					}
+					pos += 4;
+					break;
+				default:
+					sb.append(c);
+			}
+		}
+	}
+
+	private Double readNumber() throws IOException {
+		int start = pos;
+		while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0) {
+			pos++;
+		}
+		try {
+			return Double.valueOf(text.substring(start, pos));
+		} catch (NumberFormatException e) {
+			throw error("illegal number");
+		}
+	}
+
+	private Object readLiteral(String literal, Object value) throws IOException {
+		if (!text.startsWith(literal, pos)) {
+			throw error("unexpected character");
+		}
+		pos += literal.length();
+		return value;
+	}
+
+	private void skipWhitespace() {
+		while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+			pos++;
+		}
+	}
+
+	private char peek() throws IOException {
+		if (pos >= text.length()) {
+			throw error("unexpected end of input");
+		}
+		return text.charAt(pos);
+	}
+
+	private void expect(char c) throws IOException {
+		if (peek() != c) {
+			throw error(String.format("expected '%c'", c));
+		}
+		pos++;
+	}
+
+	private IOException error(String message) {
+		return new IOException(String.format("JSON error at position %d: %s", pos, message));
+	}
+}
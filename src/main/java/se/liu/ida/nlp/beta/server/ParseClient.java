@@ -0,0 +1,139 @@
+/*
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package se.liu.ida.nlp.beta.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.Socket;
+
+/**
+ * A client for {@link ParseServer}.
+ *
+ * <p>The client sends sentences in the CoNLL format to the server and writes
+ * the parsed sentences in the order in which the sentences were read. Sending
+ * and receiving happen on separate threads, so that the server can work on
+ * several sentences of the same client at once.
+ *
+ * @author Marco Kuhlmann <marco.kuhlmann@lingfil.uu.se>
+ */
+public class ParseClient {
+
+	private final String host;
+	private final int port;
+
+	/**
+	 * Creates a new client for the server at the specified address.
+	 *
+	 * @param host the host name of the server
+	 * @param port the port of the server
+	 */
+	public ParseClient(String host, int port) {
+		this.host = host;
+		this.port = port;
+	}
+
+	/**
+	 * Parses all sentences from the specified reader and writes the results to
+	 * the specified writer.
+	 *
+	 * @param reader the reader for the input sentences
+	 * @param writer the writer for the parsed sentences
+	 * @param autoFlush whether the writer should be flushed after every
+	 * sentence
+	 * @return the number of parsed sentences
+	 * @throws IOException if an I/O error occurs or the server reports an
+	 * error
+	 */
+	public int run(Reader reader, Writer writer, boolean autoFlush) throws IOException {
+		try (Socket socket = new Socket(host, port)) {
+			Sender sender = new Sender(new BufferedReader(reader), socket);
+			sender.start();
+			DataInputStream is = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			int nSentences = 0;
+			Frames.Frame frame;
+			while ((frame = Frames.read(is)) != null) {
+				if (frame.type != Frames.RESULT) {
+					throw new IOException(String.format("server error in sentence %d: %s", nSentences + 1, frame.payload));
+				}
+				writer.write(frame.payload);
+				if (autoFlush) {
+					writer.flush();
+				}
+				nSentences++;
+			}
+			try {
+				sender.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException(e);
+			}
+			if (sender.exception != null) {
+				throw sender.exception;
+			}
+			if (nSentences != sender.nSentences) {
+				throw new IOException(String.format("sent %d sentences but received %d results", sender.nSentences, nSentences));
+			}
+			return nSentences;
+		}
+	}
+
+	/**
+	 * Send sentences to the server.
+	 */
+	private static class Sender extends Thread {
+
+		private final BufferedReader reader;
+		private final Socket socket;
+		private volatile IOException exception;
+		private volatile int nSentences;
+
+		public Sender(BufferedReader reader, Socket socket) {
+			super("beta-client-sender");
+			setDaemon(true);
+			this.reader = reader;
+			this.socket = socket;
+		}
+
+		@Override
+		public void run() {
+			try {
+				DataOutputStream os = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+				StringBuilder sb = new StringBuilder();
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (line.isEmpty()) {
+						if (sb.length() > 0) {
+							send(os, sb);
+						}
+					} else {
+						sb.append(line);
+						sb.append('\n');
+					}
+				}
+				if (sb.length() > 0) {
+					send(os, sb);
+				}
+				os.flush();
+				socket.shutdownOutput();
+			} catch (IOException e) {
+				exception = e;
+			}
+		}
+
+		private void send(DataOutputStream os, StringBuilder sb) throws IOException {
+			Frames.write(os, Frames.SENTENCE, sb.toString());
+			sb.setLength(0);
+			nSentences++;
+			if (!reader.ready()) {
+				os.flush();
+			}
+		}
+	}
+}
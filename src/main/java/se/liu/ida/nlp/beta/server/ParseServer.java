@@ -0,0 +1,222 @@
+/*
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package se.liu.ida.nlp.beta.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import se.liu.ida.nlp.beta.ParserService;
+import se.liu.ida.nlp.beta.conll.CoNLLReader;
+import se.liu.ida.nlp.beta.conll.CoNLLTree;
+import se.liu.ida.nlp.beta.conll.CoNLLWriter;
+
+/**
+ * A parse server.
+ *
+ * <p>The server holds one model and answers requests from any number of
+ * clients, using the protocol described in {@link Frames}. Each connection is
+ * served by two lightweight threads, one that reads sentences and one that
+ * writes results; the actual parsing is done by the worker threads of a
+ * {@link ParserService}. Every connection may have a bounded
+ * number of sentences in flight; when that number is reached, the server
+ * stops reading from the connection until results have been written.
+ *
+ * @author Marco Kuhlmann <marco.kuhlmann@lingfil.uu.se>
+ */
+public class ParseServer {
+
+	/**
+	 * The maximal number of sentences in flight per connection.
+	 */
+	private static final int MAX_PENDING = 64;
+	/**
+	 * The marker that signals the end of a connection's requests.
+	 */
+	private static final Future<String> END_OF_REQUESTS = CompletableFuture.completedFuture(null);
+	/**
+	 * The parser service.
+	 */
+	private final ParserService service;
+	/**
+	 * The threads that serve the connections.
+	 */
+	private final ExecutorService connections;
+
+	/**
+	 * Creates a new server.
+	 *
+	 * @param service the parser service
+	 */
+	public ParseServer(ParserService service) {
+		this.service = service;
+		this.connections = Executors.newCachedThreadPool();
+	}
+
+	/**
+	 * Accepts and serves connections on the specified socket until the socket
+	 * is closed.
+	 *
+	 * @param serverSocket the server socket
+	 * @throws IOException if an I/O error occurs while accepting connections
+	 */
+	public void serve(ServerSocket serverSocket) throws IOException {
+		try {
+			while (true) {
+				Socket socket = serverSocket.accept();
+				Connection connection = new Connection(socket);
+				connections.execute(connection::readRequests);
+				connections.execute(connection::writeResults);
+			}
+		} finally {
+			shutdown();
+		}
+	}
+
+	/**
+	 * Shuts down the connection threads and the parser service.
+	 */
+	public void shutdown() {
+		connections.shutdownNow();
+		service.close();
+	}
+
+	private CompletableFuture<String> parse(String sentence) {
+		CoNLLTree tree;
+		try {
+			tree = new CoNLLReader(new StringReader(sentence)).read();
+		} catch (IOException | RuntimeException e) {
+			tree = null;
+		}
+		if (tree == null) {
+			return failed(new IOException("malformed sentence"));
+		}
+		return service.parseAsync(tree).thenApply(ParseServer::format);
+	}
+
+	private static String format(CoNLLTree tree) {
+		StringWriter sw = new StringWriter();
+		CoNLLWriter writer = new CoNLLWriter(sw);
+		try {
+			writer.write(tree);
+			writer.flush();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return sw.toString();
+	}
+
+	private static CompletableFuture<String> failed(Throwable exception) {
+		CompletableFuture<String> future = new CompletableFuture<>();
+		future.completeExceptionally(exception);
+		return future;
+	}
+
+	/**
+	 * A client connection.
+	 */
+	private class Connection {
+
+		private final Socket socket;
+		private final BlockingQueue<Future<String>> pending;
+		/**
+		 * Whether the results can no longer be written, in which case the
+		 * reader stops reading requests.
+		 */
+		private volatile boolean closed;
+
+		public Connection(Socket socket) {
+			this.socket = socket;
+			this.pending = new ArrayBlockingQueue<>(MAX_PENDING);
+		}
+
+		public void readRequests() {
+			try {
+				try {
+					DataInputStream is = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+					Frames.Frame frame;
+					while (!closed && (frame = Frames.read(is)) != null) {
+						if (frame.type == Frames.SENTENCE) {
+							pending.put(parse(frame.payload));
+						} else {
+							pending.put(failed(new IOException(String.format("unexpected frame type: %c", (char) frame.type))));
+						}
+					}
+				} catch (IOException e) {
+					// The connection is broken; answer what has been read.
+				}
+				pending.put(END_OF_REQUESTS);
+			} catch (InterruptedException e) {
+				close();
+			}
+		}
+
+		public void writeResults() {
+			try {
+				boolean finished = false;
+				try {
+					DataOutputStream os = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+					Future<String> future;
+					while ((future = pending.take()) != END_OF_REQUESTS) {
+						try {
+							Frames.write(os, Frames.RESULT, future.get());
+						} catch (ExecutionException e) {
+							Throwable cause = e.getCause();
+							String message = cause.getMessage() == null ? cause.toString() : cause.getMessage();
+							Frames.write(os, Frames.ERROR, message);
+						}
+						if (pending.isEmpty()) {
+							os.flush();
+						}
+					}
+					finished = true;
+					os.flush();
+				} catch (IOException e) {
+					// The client is gone. Stop the reader, and take what it
+					// still puts into the queue so that it does not block.
+					closed = true;
+					close();
+					if (!finished) {
+						drain();
+					}
+				}
+			} catch (InterruptedException e) {
+				// The server is shutting down.
+			} finally {
+				close();
+			}
+		}
+
+		/**
+		 * Cancels the pending requests up to the end of the requests.
+		 */
+		private void drain() throws InterruptedException {
+			Future<String> future;
+			while ((future = pending.take()) != END_OF_REQUESTS) {
+				future.cancel(false);
+			}
+		}
+
+		private void close() {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// Nothing left to do.
+			}
+		}
+	}
+}
@@ -0,0 +1,35 @@
+/*
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package se.liu.ida.nlp.beta;
+
+/**
+ * Choose the implementation of {@link LabelArgmax}. This is the version for
+ * Java 17 and later, which chooses {@link VectorLabelArgmax} if the vector
+ * API is available, the system property {@code beta.simd} is not
+ * {@code false}, and the implementation passes {@link LabelArgmax#check}.
+ * Otherwise, it falls back to {@link ScalarLabelArgmax}.
+ *
+ * @author Marco Kuhlmann <marco.kuhlmann@lingfil.uu.se>
+ */
+final class LabelArgmaxProvider {
+
+	private LabelArgmaxProvider() {
+	}
+
+	static LabelArgmax create() {
+		if (!"false".equals(System.getProperty("beta.simd")) && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+			try {
+				// Load the class by name, so that this class can be loaded
+				// even if the vector API is not.
+				LabelArgmax candidate = (LabelArgmax) Class.forName("se.liu.ida.nlp.beta.VectorLabelArgmax").getDeclaredConstructor().newInstance();
+				if (LabelArgmax.check(candidate)) {
+					return candidate;
+				}
+			} catch (ReflectiveOperationException | LinkageError e) {
+				// Fall back to the scalar implementation.
+			}
+		}
+		return new ScalarLabelArgmax();
+	}
+}
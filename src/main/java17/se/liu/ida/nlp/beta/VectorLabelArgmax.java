@@ -0,0 +1,66 @@
+/*
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package se.liu.ida.nlp.beta;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Find the best label of an arc with the vector API.
+ *
+ * <p>Each lane of the vectors handles every {@code n}th label, where
+ * {@code n} is the number of lanes, and keeps the highest score that it has
+ * seen together with the first label that had it. At the end, the lanes with
+ * the overall highest score are combined by taking their smallest label. As
+ * every sum is computed in the same order as in {@link ScalarLabelArgmax},
+ * the result is the same.
+ *
+ * @author Marco Kuhlmann <marco.kuhlmann@lingfil.uu.se>
+ */
+class VectorLabelArgmax extends LabelArgmax {
+
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+	/**
+	 * The lane indexes 0, 1, ..., as doubles.
+	 */
+	private static final DoubleVector IOTA = DoubleVector.broadcast(SPECIES, 0.0).addIndex(1);
+
+	@Override
+	public int argmax(double core, double[] src, int srcOffset, double[] tgt, int tgtOffset, int nLabels) {
+		int bound = SPECIES.loopBound(nLabels);
+		double best = Double.NEGATIVE_INFINITY;
+		int bestLabel = 0;
+		if (bound > 0) {
+			DoubleVector coreVector = DoubleVector.broadcast(SPECIES, core);
+			DoubleVector bestScores = DoubleVector.broadcast(SPECIES, Double.NEGATIVE_INFINITY);
+			DoubleVector bestLabels = IOTA;
+			for (int i = 0; i < bound; i += SPECIES.length()) {
+				DoubleVector scores = coreVector.add(DoubleVector.fromArray(SPECIES, src, srcOffset + i)).add(DoubleVector.fromArray(SPECIES, tgt, tgtOffset + i));
+				VectorMask<Double> isBetter = scores.compare(VectorOperators.GT, bestScores);
+				bestScores = bestScores.blend(scores, isBetter);
+				bestLabels = bestLabels.blend(IOTA.add(i), isBetter);
+			}
+			best = bestScores.reduceLanes(VectorOperators.MAX);
+			if (best > Double.NEGATIVE_INFINITY) {
+				VectorMask<Double> isBest = bestScores.compare(VectorOperators.EQ, best);
+				bestLabel = (int) bestLabels.blend(Double.POSITIVE_INFINITY, isBest.not()).reduceLanes(VectorOperators.MIN);
+			}
+		}
+		for (int i = bound; i < nLabels; i++) {
+			double score = core + src[srcOffset + i] + tgt[tgtOffset + i];
+			if (score > best) {
+				best = score;
+				bestLabel = i;
+			}
+		}
+		return bestLabel;
+	}
+
+	@Override
+	public String getName() {
+		return "vector (" + SPECIES.length() + " lanes)";
+	}
+}